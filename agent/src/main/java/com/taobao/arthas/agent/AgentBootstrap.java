@@ -30,6 +30,7 @@ public class AgentBootstrap {
     private static final String AFTER_INVOKE = "methodOnInvokeAfterTracing";
     private static final String THROW_INVOKE = "methodOnInvokeThrowTracing";
     private static final String RESET = "resetArthasClassLoader";
+    private static final String SPY_DISPATCHER = "com.taobao.arthas.core.advisor.SpyDispatcher";
     private static final String ARTHAS_SPY_JAR = "arthas-spy.jar";
     private static final String ARTHAS_CONFIGURE = "com.taobao.arthas.core.config.Configure";
     private static final String ARTHAS_BOOTSTRAP = "com.taobao.arthas.core.server.ArthasBootstrap";
@@ -106,18 +107,21 @@ public class AgentBootstrap {
     // 实际上spy这个类使用的是bootstrapClassLoader加载的，以确保之后能够在和个类加载器中能够被正确的获取
     // 在这里不得不佩服开发人员的历害之处，在一开始的初始化Spy的时候Spy这个类设置在根加载器中，确保自定义加载都能够获取到这个类，通过
     // spy这个类作为探针，用ASM获取到这个静态变量
-    private static void initSpy(ClassLoader classLoader) throws ClassNotFoundException, NoSuchMethodException {
+    private static void initSpy(ClassLoader classLoader) throws ClassNotFoundException, NoSuchMethodException,
+            IllegalAccessException, InstantiationException {
         // 该 classLoader 为ArthasClassLoader
         Class<?> adviceWeaverClass = classLoader.loadClass(ADVICEWEAVER);
-        Method onBefore = adviceWeaverClass.getMethod(ON_BEFORE, int.class, ClassLoader.class, String.class,
-                String.class, String.class, Object.class, Object[].class);
+        Method onBefore = adviceWeaverClass.getMethod(ON_BEFORE, int.class, int.class, Object.class, Object[].class);
         Method onReturn = adviceWeaverClass.getMethod(ON_RETURN, Object.class);
         Method onThrows = adviceWeaverClass.getMethod(ON_THROWS, Throwable.class);
         Method beforeInvoke = adviceWeaverClass.getMethod(BEFORE_INVOKE, int.class, String.class, String.class, String.class, int.class);
         Method afterInvoke = adviceWeaverClass.getMethod(AFTER_INVOKE, int.class, String.class, String.class, String.class, int.class);
         Method throwInvoke = adviceWeaverClass.getMethod(THROW_INVOKE, int.class, String.class, String.class, String.class, int.class);
         Method reset = AgentBootstrap.class.getMethod(RESET);
-        Spy.initForAgentLauncher(classLoader, onBefore, onReturn, onThrows, beforeInvoke, afterInvoke, throwInvoke, reset);
+        // 织入代码直接调用Spy的静态方法，再由派发器转到AdviceWeaver，派发器只在这里绑定一次
+        Spy.Dispatcher dispatcher = (Spy.Dispatcher) classLoader.loadClass(SPY_DISPATCHER).newInstance();
+        Spy.initForAgentLauncher(classLoader, onBefore, onReturn, onThrows, beforeInvoke, afterInvoke, throwInvoke, reset,
+                dispatcher);
     }
 
 
@@ -77,6 +77,43 @@ public class GlobalOptions {
     )
     public static volatile boolean isDebugForAsm = false;
 
+    /**
+     * 是否使用反射方式调用通知<br/>
+     * 默认织入对Spy静态方法的直接调用，这个开关打开后回退到通过Method.invoke调用通知的方式
+     */
+    @Option(level = 1,
+            name = "reflect-spy",
+            summary = "Option to weave the reflective advice hooks",
+            description = "This option makes enhanced methods call advice through java.lang.reflect.Method.invoke "
+                    + "instead of the direct static entry points of java.arthas.Spy, only affects classes enhanced afterwards."
+    )
+    public static volatile boolean isReflectSpy = false;
+
+    /**
+     * 通知开销预算<br/>
+     * 监听器耗时占全部CPU时间的百分比，超出后自动切换为采样，仍超出则暂停通知；0表示不限制
+     */
+    @Option(level = 1,
+            name = "advice-budget",
+            summary = "Option to limit the cpu overhead of advice listeners",
+            description = "This option sets the percent of total cpu time that advice listeners of one command may use, "
+                    + "e.g. 2. When exceeded, the advice is switched to sampling, and suspended if sampling does not help. "
+                    + "0 means no limit, only affects commands started afterwards."
+    )
+    public static volatile double adviceBudget = 0;
+
+    /**
+     * 展开对象时集合、Map、数组最多输出的元素个数<br/>
+     * 超出的元素不再遍历，只输出省略的个数；0表示不限制
+     */
+    @Option(level = 1,
+            name = "max-elements",
+            summary = "Option to limit the elements rendered of each collection",
+            description = "This option sets how many elements of each collection, map or array are rendered when an "
+                    + "object is expanded, the rest are summarized as a count. 0 means no limit."
+    )
+    public static volatile int maxElements = 1000;
+
     /**
      * 是否日志中保存命令执行结果
      */
@@ -0,0 +1,144 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.metrics.StripedCounter;
+import com.taobao.middleware.logger.Logger;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * 通知开销预算<br/>
+ * AdviceWeaver每个线程每{@link #MEASURE_INTERVAL}次通知测量一次监听器的耗时，按比例放大后累加，
+ * 定时任务每秒计算监听器耗时占全部CPU时间(墙钟时间 * CPU个数)的百分比，超出预算时自动退避：
+ * <pre>
+ * 1. 按超出的比例降低采样比例，切换到采样模式
+ * 2. 采样比例已经降到{@link #MIN_SAMPLE_RATE}仍然超出预算时，暂停通知
+ * </pre>
+ * 每次退避都会输出到命令所在的会话
+ */
+public class AdviceBudget {
+
+    private final static Logger logger = LogUtil.getArthasLogger();
+
+    // 每个线程每N次通知测量一次耗时,必须是2的幂
+    static final int MEASURE_INTERVAL = 16;
+    private static final int MEASURE_MASK = MEASURE_INTERVAL - 1;
+    private static final long CHECK_PERIOD_MILLIS = 1000;
+    private static final double MIN_SAMPLE_RATE = 0.001;
+    // 退避时多留出的余量
+    private static final double HEADROOM = 0.8;
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    private final int adviceId;
+    private final double budgetPercent;
+    private final CommandProcess process;
+    private final StripedCounter listenerNanos = new StripedCounter(1);
+    private Timer timer;
+    private long lastCheckNanos;
+
+    // 因超出预算而暂停的监听器,注销时需要由AdviceWeaver销毁
+    volatile AdviceListener suspendedListener;
+
+    /**
+     * @param adviceId      通知ID
+     * @param budgetPercent 预算, 监听器耗时占全部CPU时间的百分比
+     * @param process       退避信息输出到的命令
+     */
+    public AdviceBudget(int adviceId, double budgetPercent, CommandProcess process) {
+        if (budgetPercent <= 0) {
+            throw new IllegalArgumentException("advice budget must be positive: " + budgetPercent);
+        }
+        this.adviceId = adviceId;
+        this.budgetPercent = budgetPercent;
+        this.process = process;
+    }
+
+    /**
+     * 本次方法调用的开始/结束通知是否需要测量耗时，计数保存在线程帧栈中
+     */
+    static boolean shouldMeasure(AdviceFrameStack threadFrameStack) {
+        return (++threadFrameStack.measureCounter & MEASURE_MASK) == 0;
+    }
+
+    /**
+     * 本次方法内部调用的跟踪通知是否需要测量耗时
+     */
+    static boolean shouldMeasureInvoke(AdviceFrameStack threadFrameStack) {
+        return (++threadFrameStack.invokeMeasureCounter & MEASURE_MASK) == 0;
+    }
+
+    /**
+     * 记录一次测量到的监听器耗时
+     */
+    void record(long nanos) {
+        listenerNanos.add(0, nanos * MEASURE_INTERVAL);
+    }
+
+    synchronized void start() {
+        if (null == timer) {
+            lastCheckNanos = System.nanoTime();
+            timer = new Timer("Timer-for-arthas-advice-budget-" + adviceId, true);
+            timer.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        check();
+                    } catch (Throwable t) {
+                        logger.warn("check advice budget failed.", t);
+                    }
+                }
+            }, CHECK_PERIOD_MILLIS, CHECK_PERIOD_MILLIS);
+        }
+    }
+
+    synchronized void stop() {
+        if (null != timer) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * 计算上一个周期的开销，超出预算时退避
+     */
+    void check() {
+        final long now = System.nanoTime();
+        final long elapsed = now - lastCheckNanos;
+        lastCheckNanos = now;
+        final long used = listenerNanos.sumThenReset(0);
+        if (elapsed <= 0 || null != suspendedListener) {
+            return;
+        }
+
+        final double usagePercent = 100.0d * used / ((double) elapsed * PROCESSORS);
+        if (usagePercent <= budgetPercent) {
+            return;
+        }
+
+        final AdviceSampler current = AdviceWeaver.getSampler(adviceId);
+        final double currentRate = null == current ? 1.0d : current.getRate();
+        final double rate = currentRate * budgetPercent / usagePercent * HEADROOM;
+
+        if (rate >= MIN_SAMPLE_RATE) {
+            final AdviceSampler sampler = AdviceSampler.rate(rate);
+            AdviceWeaver.sampling(adviceId, sampler);
+            report(String.format("Advice overhead %.2f%% exceeds budget %.2f%%, switch to %s.\n",
+                    usagePercent, budgetPercent, sampler));
+        } else {
+            suspendedListener = AdviceWeaver.suspend(adviceId);
+            report(String.format("Advice overhead %.2f%% exceeds budget %.2f%% even when sampling, advice suspended."
+                    + " Press Q or Ctrl+C to abort.\n", usagePercent, budgetPercent));
+            stop();
+        }
+    }
+
+    private void report(String message) {
+        logger.info("advice " + adviceId + ": " + message.trim());
+        if (process.isRunning()) {
+            process.write(message);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.util.LogUtil;
+
+/**
+ * 线程帧栈<br/>
+ * 每个线程持有一份，栈中的执行帧预先分配并反复使用，进入/退出方法时不产生任何新对象
+ * <p/>
+ * 线程不安全，只能在所属线程中使用
+ */
+class AdviceFrameStack {
+
+    private final static int EMPTY_INDEX = -1;
+    private final static int DEFAULT_STACK_DEEP = 12;
+
+    private Frame[] frames;
+    private int current = EMPTY_INDEX;
+
+    /**
+     * 防止自己递归调用
+     */
+    boolean isSelfCall;
+
+    /**
+     * 方法调用及内部调用的通知计数,用于按间隔测量监听器耗时,见{@link AdviceBudget}
+     */
+    int measureCounter;
+    int invokeMeasureCounter;
+
+    AdviceFrameStack() {
+        this.frames = new Frame[DEFAULT_STACK_DEEP];
+        fill(0);
+    }
+
+    private void fill(int from) {
+        for (int index = from; index < frames.length; index++) {
+            frames[index] = new Frame();
+        }
+    }
+
+    /**
+     * 自动扩容<br/>
+     * 当前堆栈最大深度不满足期望时会自动扩容(2倍扩容)，只有扩容时才会分配新的执行帧
+     */
+    private void ensureCapacityInternal(int expectDeep) {
+        final int currentStackSize = frames.length;
+        if (currentStackSize <= expectDeep) {
+            LogUtil.getArthasLogger().debug("resize AdviceFrameStack to double length: " + currentStackSize * 2
+                    + " for thread: " + Thread.currentThread().getName());
+            final Frame[] newFrames = new Frame[currentStackSize * 2];
+            System.arraycopy(frames, 0, newFrames, 0, currentStackSize);
+            this.frames = newFrames;
+            fill(currentStackSize);
+        }
+    }
+
+    /**
+     * 压入一个执行帧
+     *
+     * @return 栈顶的执行帧，由调用方填充
+     */
+    Frame push() {
+        ensureCapacityInternal(current + 1);
+        return frames[++current];
+    }
+
+    /**
+     * 弹出一个执行帧<br/>
+     * 执行帧会被复用，调用方读取完内容后需要调用{@link Frame#clear()}
+     *
+     * @return 栈顶的执行帧，若栈为空则返回null
+     */
+    Frame pop() {
+        if (current == EMPTY_INDEX) {
+            return null;
+        }
+        return frames[current--];
+    }
+
+    /**
+     * 从栈顶向下查找指定通知的执行帧<br/>
+     * 同一个方法被多个通知增强时，各通知的执行帧交错压栈
+     *
+     * @param adviceId 通知ID
+     * @return 最近的执行帧，若不存在则返回null
+     */
+    Frame peek(int adviceId) {
+        for (int index = current; index > EMPTY_INDEX; index--) {
+            if (frames[index].adviceId == adviceId) {
+                return frames[index];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 执行帧，保存methodOnBegin时的现场，供methodOnEnd恢复
+     */
+    static class Frame {
+
+        int adviceId;
+        AdviceSite site;
+        Object target;
+        Object[] args;
+        // 未注册监听器或本次调用未被采样时为null
+        AdviceListener listener;
+        // 本次调用的开始/结束通知是否测量耗时
+        boolean isMeasure;
+
+        void set(int adviceId, AdviceSite site, Object target, Object[] args, AdviceListener listener,
+                 boolean isMeasure) {
+            this.adviceId = adviceId;
+            this.isMeasure = isMeasure;
+            this.site = site;
+            this.target = target;
+            this.args = args;
+            this.listener = listener;
+        }
+
+        /**
+         * 释放对现场对象的引用，避免执行帧被复用前一直持有业务对象
+         */
+        void clear() {
+            set(0, null, null, null, null, false);
+        }
+
+    }
+
+}
@@ -2,6 +2,8 @@ package com.taobao.arthas.core.advisor;
 
 /**
  * 通知监听器<br/>
+ * 织入代码只传递通知点编号(siteId)，由AdviceWeaver查通知点表后回调监听器，
+ * 监听器可以用{@link AdviceSite#getId()}作为数组下标保存按方法划分的数据
  * Created by vlinux on 15/5/17.
  */
 public interface AdviceListener {
@@ -21,26 +23,20 @@ public interface AdviceListener {
     /**
      * 前置通知
      *
-     * @param loader     类加载器
-     * @param className  类名
-     * @param methodName 方法名
-     * @param methodDesc 方法描述
+     * @param site       通知点,携带类加载器/类名/方法名/方法描述
      * @param target     目标类实例
      *                   若目标为静态方法,则为null
      * @param args       参数列表
      * @throws Throwable 通知过程出错
      */
     void before(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+            AdviceSite site,
             Object target, Object[] args) throws Throwable;
 
     /**
      * 返回通知
      *
-     * @param loader       类加载器
-     * @param className    类名
-     * @param methodName   方法名
-     * @param methodDesc   方法描述
+     * @param site         通知点,携带类加载器/类名/方法名/方法描述
      * @param target       目标类实例
      *                     若目标为静态方法,则为null
      * @param args         参数列表
@@ -49,17 +45,14 @@ public interface AdviceListener {
      * @throws Throwable 通知过程出错
      */
     void afterReturning(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+            AdviceSite site,
             Object target, Object[] args,
             Object returnObject) throws Throwable;
 
     /**
      * 异常通知
      *
-     * @param loader     类加载器
-     * @param className  类名
-     * @param methodName 方法名
-     * @param methodDesc 方法描述
+     * @param site       通知点,携带类加载器/类名/方法名/方法描述
      * @param target     目标类实例
      *                   若目标为静态方法,则为null
      * @param args       参数列表
@@ -67,7 +60,7 @@ public interface AdviceListener {
      * @throws Throwable 通知过程出错
      */
     void afterThrowing(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+            AdviceSite site,
             Object target, Object[] args,
             Throwable throwable) throws Throwable;
 
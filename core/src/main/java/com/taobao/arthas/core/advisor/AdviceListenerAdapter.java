@@ -1,7 +1,10 @@
 package com.taobao.arthas.core.advisor;
 
+import com.taobao.arthas.core.shell.command.CommandProcess;
+
 /**
- * 通知监听适配器
+ * 通知监听适配器<br/>
+ * 直接以通知点(AdviceSite)接收通知，不做反射解析，适合只关心类名/方法名的监听器
  */
 public class AdviceListenerAdapter implements AdviceListener {
 
@@ -18,14 +21,14 @@ public class AdviceListenerAdapter implements AdviceListener {
 
     @Override
     public void before(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+            AdviceSite site,
             Object target, Object[] args) throws Throwable {
 
     }
 
     @Override
     public void afterReturning(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+            AdviceSite site,
             Object target, Object[] args,
             Object returnObject) throws Throwable {
 
@@ -33,11 +36,20 @@ public class AdviceListenerAdapter implements AdviceListener {
 
     @Override
     public void afterThrowing(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+            AdviceSite site,
             Object target, Object[] args,
             Throwable throwable) throws Throwable {
 
     }
 
-}
+    /**
+     * 超过次数上限，则不再输出，命令终止
+     * @param process the process to be aborted
+     * @param limit the limit to be printed
+     */
+    protected void abortProcess(CommandProcess process, int limit) {
+        process.write("Command execution times exceed limit: " + limit + ", so command will exit. You can set it with -n option.\n");
+        process.end();
+    }
 
+}
@@ -0,0 +1,128 @@
+package com.taobao.arthas.core.advisor;
+
+/**
+ * 通知采样器<br/>
+ * 由AdviceWeaver在方法开始时调用，决定本次调用是否通知监听器。
+ * 未被采样的调用不会触发before/afterReturning/afterThrowing，也不会触发方法内部调用的跟踪通知
+ * <p/>
+ * 采样状态按线程保存，判断过程不加锁、不分配对象
+ */
+public abstract class AdviceSampler {
+
+    /**
+     * 本次调用是否需要通知监听器
+     */
+    public abstract boolean sample();
+
+    /**
+     * 采样比例
+     */
+    public abstract double getRate();
+
+    /**
+     * 按比例随机采样
+     *
+     * @param rate 采样比例, 取值范围(0, 1]
+     */
+    public static AdviceSampler rate(double rate) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw new IllegalArgumentException("sample rate must be in (0, 1]: " + rate);
+        }
+        return new RateSampler(rate);
+    }
+
+    /**
+     * 每N次调用采样一次
+     *
+     * @param every 采样间隔, 必须大于0
+     */
+    public static AdviceSampler every(int every) {
+        if (every <= 0) {
+            throw new IllegalArgumentException("sample every must be positive: " + every);
+        }
+        return new EverySampler(every);
+    }
+
+    /**
+     * 按比例随机采样，每个线程一个xorshift随机数发生器
+     */
+    private static class RateSampler extends AdviceSampler {
+
+        private final double rate;
+        // 随机数(31位)小于该值时采样
+        private final long threshold;
+        private final ThreadLocal<int[]> seedRef = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                // 种子不能为0
+                final int seed = (int) (Thread.currentThread().getId() * 0x9E3779B9L) | 1;
+                return new int[]{seed};
+            }
+        };
+
+        RateSampler(double rate) {
+            this.rate = rate;
+            this.threshold = (long) (rate * (1L << 31));
+        }
+
+        @Override
+        public boolean sample() {
+            final int[] seed = seedRef.get();
+            int x = seed[0];
+            x ^= x << 13;
+            x ^= x >>> 17;
+            x ^= x << 5;
+            seed[0] = x;
+            return (x >>> 1) < threshold;
+        }
+
+        @Override
+        public double getRate() {
+            return rate;
+        }
+
+        @Override
+        public String toString() {
+            return "sample-rate=" + String.format("%.4f", rate);
+        }
+    }
+
+    /**
+     * 每个线程各自计数，每N次调用采样一次
+     */
+    private static class EverySampler extends AdviceSampler {
+
+        private final int every;
+        private final ThreadLocal<int[]> counterRef = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        EverySampler(int every) {
+            this.every = every;
+        }
+
+        @Override
+        public boolean sample() {
+            final int[] counter = counterRef.get();
+            if (++counter[0] >= every) {
+                counter[0] = 0;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public double getRate() {
+            return 1.0d / every;
+        }
+
+        @Override
+        public String toString() {
+            return "sample-every=" + every;
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.taobao.arthas.core.advisor;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 通知点(被织入的方法)<br/>
+ * 每个被织入的方法在增强时分配一个全局唯一的整数编号(siteId)，登记在全局的通知点表中，
+ * 织入代码只需要传递siteId，类名/方法名/方法描述等元数据由监听器按编号查表获取，
+ * 监听器也可以直接用siteId作为数组下标保存按方法统计的数据
+ * <p/>
+ * 同一个类的同一个方法多次增强时得到的siteId相同
+ */
+public class AdviceSite {
+
+    private final static int DEFAULT_TABLE_SIZE = 256;
+
+    // 通知点表,下标即siteId,只在增强时(加锁)写入,通知时无锁读取
+    private static volatile AdviceSite[] sites = new AdviceSite[DEFAULT_TABLE_SIZE];
+    private static int siteCount = 0;
+    // 类 -> (方法名+方法描述 -> siteId), 用于重复增强时查重, 不阻止类被卸载
+    private final static Map<Class<?>, Map<String, Integer>> siteIndex = new WeakHashMap<Class<?>, Map<String, Integer>>();
+
+    private final int id;
+    private final WeakReference<Class<?>> clazzRef;
+    private final String className;
+    private final String methodName;
+    private final String methodDesc;
+
+    private AdviceSite(int id, Class<?> clazz, String className, String methodName, String methodDesc) {
+        this.id = id;
+        this.clazzRef = new WeakReference<Class<?>>(clazz);
+        this.className = className;
+        this.methodName = methodName;
+        this.methodDesc = methodDesc;
+    }
+
+    /**
+     * 登记通知点
+     *
+     * @param clazz      被增强的类
+     * @param className  类名(内部名称,以/分隔)
+     * @param methodName 方法名
+     * @param methodDesc 方法描述
+     * @return siteId
+     */
+    public static synchronized int register(Class<?> clazz, String className, String methodName, String methodDesc) {
+        Map<String, Integer> methodSites = siteIndex.get(clazz);
+        if (null == methodSites) {
+            methodSites = new HashMap<String, Integer>();
+            siteIndex.put(clazz, methodSites);
+        }
+        final String methodKey = methodName + methodDesc;
+        final Integer exist = methodSites.get(methodKey);
+        if (null != exist) {
+            return exist;
+        }
+
+        final int id = siteCount++;
+        AdviceSite[] table = sites;
+        if (id >= table.length) {
+            final AdviceSite[] newTable = new AdviceSite[table.length * 2];
+            System.arraycopy(table, 0, newTable, 0, table.length);
+            table = newTable;
+        }
+        final AdviceSite site = new AdviceSite(id, clazz, className, methodName, methodDesc);
+        table[id] = site;
+        sites = table;
+        methodSites.put(methodKey, id);
+        return id;
+    }
+
+    /**
+     * 根据siteId获取通知点
+     *
+     * @param siteId 通知点编号
+     * @return 通知点, 不存在时返回null
+     */
+    public static AdviceSite get(int siteId) {
+        final AdviceSite[] table = sites;
+        return siteId >= 0 && siteId < table.length ? table[siteId] : null;
+    }
+
+    /**
+     * 通知点表当前容量,所有已登记的siteId都小于该值
+     */
+    public static int capacity() {
+        return sites.length;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * 获取被增强的类
+     *
+     * @return 被增强的类, 若类已经被卸载则返回null
+     */
+    public Class<?> getClazz() {
+        return clazzRef.get();
+    }
+
+    /**
+     * 获取被增强类的类加载器
+     *
+     * @return 类加载器, 若为BootstrapClassLoader或类已被卸载则返回null
+     */
+    public ClassLoader getLoader() {
+        final Class<?> clazz = getClazz();
+        return null == clazz ? null : clazz.getClassLoader();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public String getMethodDesc() {
+        return methodDesc;
+    }
+
+    @Override
+    public String toString() {
+        return className + "." + methodName + methodDesc;
+    }
+}
@@ -4,9 +4,6 @@ import com.taobao.arthas.core.GlobalOptions;
 import com.taobao.arthas.core.util.matcher.Matcher;
 import com.taobao.arthas.core.util.*;
 import com.taobao.arthas.core.util.affect.EnhancerAffect;
-import com.taobao.arthas.core.util.collection.GaStack;
-import com.taobao.arthas.core.util.collection.ThreadUnsafeFixGaStack;
-import com.taobao.arthas.core.util.collection.ThreadUnsafeGaStack;
 import com.taobao.middleware.logger.Logger;
 import org.objectweb.asm.*;
 import org.objectweb.asm.commons.AdviceAdapter;
@@ -34,20 +31,21 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
 
 
-    // 线程帧栈堆栈大小
-    private final static int FRAME_STACK_SIZE = 7;
     // 通知监听器集合
     private final static Map<Integer/*ADVICE_ID*/, AdviceListener> advices
             = new ConcurrentHashMap<Integer, AdviceListener>();
-    // 线程帧封装
-    private static final ThreadLocal<GaStack<GaStack<Object>>> threadBoundContext
-            = new ThreadLocal<GaStack<GaStack<Object>>>();
-    // 防止自己递归调用
-    private static final ThreadLocal<Boolean> isSelfCallRef = new ThreadLocal<Boolean>() {
+    // 通知采样器,未设置的通知每次调用都通知监听器
+    private final static Map<Integer/*ADVICE_ID*/, AdviceSampler> samplers
+            = new ConcurrentHashMap<Integer, AdviceSampler>();
+    // 通知开销预算,未设置的通知不测量耗时
+    private final static Map<Integer/*ADVICE_ID*/, AdviceBudget> budgets
+            = new ConcurrentHashMap<Integer, AdviceBudget>();
+    // 线程帧栈,执行帧预先分配并复用,同时记录是否自己递归调用
+    private static final ThreadLocal<AdviceFrameStack> threadBoundContext = new ThreadLocal<AdviceFrameStack>() {
 
         @Override
-        protected Boolean initialValue() {
-            return false;
+        protected AdviceFrameStack initialValue() {
+            return new AdviceFrameStack();
         }
 
     };
@@ -57,49 +55,44 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      * 方法开始<br/>
      * 用于编织通知器,外部不会直接调用
      *
-     * @param loader     类加载器
      * @param adviceId   通知ID
-     * @param className  类名
-     * @param methodName 方法名
-     * @param methodDesc 方法描述
-     * @param target     返回结果
-     *                   若为无返回值方法(void),则为null
+     * @param siteId     通知点ID,增强时登记在{@link AdviceSite}中
+     * @param target     目标类实例
+     *                   若目标为静态方法,则为null
      * @param args       参数列表
      *
      * 将主要的信息放入到栈中，并存入线程变量，在methodOnReturnEnd等方法中可以使用
      * 进行方法前置通知，listener在EnhancerCommand.enhance方法中注册，WatchCommand对应的监听器是WatchAdviceListener
      */
-    public static void methodOnBegin(
-            int adviceId,
-            ClassLoader loader, String className, String methodName, String methodDesc,
-            Object target, Object[] args) {
+    public static void methodOnBegin(int adviceId, int siteId, Object target, Object[] args) {
 
-        if (isSelfCallRef.get()) {
+        final AdviceFrameStack threadFrameStack = threadBoundContext.get();
+        if (threadFrameStack.isSelfCall) {
             return;
         } else {
-            isSelfCallRef.set(true);
+            threadFrameStack.isSelfCall = true;
         }
 
         try {
-            // 构建执行帧栈,保护当前的执行现场
-            final GaStack<Object> frameStack = new ThreadUnsafeFixGaStack<Object>(FRAME_STACK_SIZE);
-            frameStack.push(loader);
-            frameStack.push(className);
-            frameStack.push(methodName);
-            frameStack.push(methodDesc);
-            frameStack.push(target);
-            frameStack.push(args);
-            // 获取监听器
-            final AdviceListener listener = getListener(adviceId);
-            frameStack.push(listener);
+            // 获取监听器,未被采样的调用视同没有监听器,结束时也不会通知
+            final AdviceListener listener = isSampled(threadFrameStack, adviceId) ? getListener(adviceId) : null;
+
+            // 获取通知点
+            final AdviceSite site = AdviceSite.get(siteId);
 
             // 获取通知器并做前置通知 进行前置通知
-            before(listener, loader, className, methodName, methodDesc, target, args);
+            final AdviceBudget budget = null == listener ? null : getBudget(adviceId);
+            final boolean isMeasure = null != budget && AdviceBudget.shouldMeasure(threadFrameStack);
+            final long startNanos = isMeasure ? System.nanoTime() : 0;
+            before(listener, site, target, args);
+            if (isMeasure) {
+                budget.record(System.nanoTime() - startNanos);
+            }
 
-            // 保护当前执行帧栈,压入线程帧栈
-            threadFrameStackPush(frameStack);
+            // 保护当前的执行现场,填入线程帧栈中复用的执行帧
+            threadFrameStack.push().set(adviceId, site, target, args, listener, isMeasure);
         } finally {
-            isSelfCallRef.set(false);
+            threadFrameStack.isSelfCall = false;
         }
 
     }
@@ -134,36 +127,48 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      */
     private static void methodOnEnd(boolean isThrowing, Object returnOrThrowable) {
 
-        if (isSelfCallRef.get()) {
+        final AdviceFrameStack threadFrameStack = threadBoundContext.get();
+        if (threadFrameStack.isSelfCall) {
             return;
         } else {
-            isSelfCallRef.set(true);
+            threadFrameStack.isSelfCall = true;
         }
 
         try {
-            // 弹射线程帧栈,恢复Begin所保护的执行帧栈
-            final GaStack<Object> frameStack = threadFrameStackPop();
-
-            // 弹射执行帧栈,恢复Begin所保护的现场
-            final AdviceListener listener = (AdviceListener) frameStack.pop();
-            final Object[] args = (Object[]) frameStack.pop();
-            final Object target = frameStack.pop();
-            final String methodDesc = (String) frameStack.pop();
-            final String methodName = (String) frameStack.pop();
-            final String className = (String) frameStack.pop();
-            final ClassLoader loader = (ClassLoader) frameStack.pop();
+            // 弹射线程帧栈,恢复Begin所保护的执行帧
+            // 方法在增强生效前已经进入时,只会织入的结束通知被触发,此时没有对应的执行帧
+            final AdviceFrameStack.Frame frame = threadFrameStack.pop();
+            if (null == frame) {
+                return;
+            }
+
+            // 恢复Begin所保护的现场,执行帧随后会被复用,需要先释放引用
+            final AdviceListener listener = frame.listener;
+            final Object[] args = frame.args;
+            final Object target = frame.target;
+            final AdviceSite site = frame.site;
+            final AdviceBudget budget = frame.isMeasure ? getBudget(frame.adviceId) : null;
+            frame.clear();
+
+            // 开始通知测量过耗时的调用,结束通知也一并测量
+            final boolean isMeasure = null != budget;
+            final long startNanos = isMeasure ? System.nanoTime() : 0;
 
             // 异常通知
             if (isThrowing) {
-                afterThrowing(listener, loader, className, methodName, methodDesc, target, args, (Throwable) returnOrThrowable);
+                afterThrowing(listener, site, target, args, (Throwable) returnOrThrowable);
             }
 
             // 返回通知
             else {
-                afterReturning(listener, loader, className, methodName, methodDesc, target, args, returnOrThrowable);
+                afterReturning(listener, site, target, args, returnOrThrowable);
+            }
+
+            if (isMeasure) {
+                budget.record(System.nanoTime() - startNanos);
             }
         } finally {
-            isSelfCallRef.set(false);
+            threadFrameStack.isSelfCall = false;
         }
 
     }
@@ -177,10 +182,19 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      * @param desc     调用方法描述
      */
     public static void methodOnInvokeBeforeTracing(int adviceId, String owner, String name, String desc, int lineNumber) {
+        if (isSkippedInvokeTracing(adviceId)) {
+            return;
+        }
         final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
         if (null != listener) {
+            final AdviceBudget budget = getBudget(adviceId);
+            final boolean isMeasure = null != budget && AdviceBudget.shouldMeasureInvoke(threadBoundContext.get());
+            final long startNanos = isMeasure ? System.nanoTime() : 0;
             try {
                 listener.invokeBeforeTracing(owner, name, desc, lineNumber);
+                if (isMeasure) {
+                    budget.record(System.nanoTime() - startNanos);
+                }
             } catch (Throwable t) {
                 logger.warn("advice before tracing failed.", t);
             }
@@ -196,10 +210,19 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      * @param desc     调用方法描述
      */
     public static void methodOnInvokeAfterTracing(int adviceId, String owner, String name, String desc, int lineNumber) {
+        if (isSkippedInvokeTracing(adviceId)) {
+            return;
+        }
         final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
         if (null != listener) {
+            final AdviceBudget budget = getBudget(adviceId);
+            final boolean isMeasure = null != budget && AdviceBudget.shouldMeasureInvoke(threadBoundContext.get());
+            final long startNanos = isMeasure ? System.nanoTime() : 0;
             try {
                 listener.invokeAfterTracing(owner, name, desc, lineNumber);
+                if (isMeasure) {
+                    budget.record(System.nanoTime() - startNanos);
+                }
             } catch (Throwable t) {
                 logger.warn("advice after tracing failed.", t);
             }
@@ -215,35 +238,99 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      * @param desc     调用方法描述
      */
     public static void methodOnInvokeThrowTracing(int adviceId, String owner, String name, String desc, int lineNumber) {
+        if (isSkippedInvokeTracing(adviceId)) {
+            return;
+        }
         final InvokeTraceable listener = (InvokeTraceable) getListener(adviceId);
         if (null != listener) {
+            final AdviceBudget budget = getBudget(adviceId);
+            final boolean isMeasure = null != budget && AdviceBudget.shouldMeasureInvoke(threadBoundContext.get());
+            final long startNanos = isMeasure ? System.nanoTime() : 0;
             try {
                 listener.invokeThrowTracing(owner, name, desc, lineNumber);
+                if (isMeasure) {
+                    budget.record(System.nanoTime() - startNanos);
+                }
             } catch (Throwable t) {
                 logger.warn("advice throw tracing failed.", t);
             }
         }
     }
 
-    /*
-     * 线程帧栈压栈<br/>
-     * 将当前执行帧栈压入线程栈
+    private static AdviceListener getListener(int adviceId) {
+        return advices.get(adviceId);
+    }
+
+    private static AdviceBudget getBudget(int adviceId) {
+        return budgets.isEmpty() ? null : budgets.get(adviceId);
+    }
+
+    /**
+     * 本次调用是否需要通知监听器<br/>
+     * 只在同一个通知最外层的调用处采样，递归或嵌套的调用沿用外层的结果，
+     * 不会出现外层被采样而内层缺失(或只有内层)的调用树
+     */
+    private static boolean isSampled(AdviceFrameStack threadFrameStack, int adviceId) {
+        if (samplers.isEmpty()) {
+            return true;
+        }
+        final AdviceSampler sampler = samplers.get(adviceId);
+        if (null == sampler) {
+            return true;
+        }
+        final AdviceFrameStack.Frame enclosing = threadFrameStack.peek(adviceId);
+        return null == enclosing ? sampler.sample() : null != enclosing.listener;
+    }
+
+    /**
+     * 所在方法的调用未被采样时,方法内部调用的跟踪通知也一并跳过
      */
-    private static void threadFrameStackPush(GaStack<Object> frameStack) {
-        GaStack<GaStack<Object>> threadFrameStack = threadBoundContext.get();
-        if (null == threadFrameStack) {
-            threadBoundContext.set(threadFrameStack = new ThreadUnsafeGaStack<GaStack<Object>>());
+    private static boolean isSkippedInvokeTracing(int adviceId) {
+        if (!samplers.containsKey(adviceId)) {
+            return false;
         }
+        final AdviceFrameStack.Frame frame = threadBoundContext.get().peek(adviceId);
+        return null != frame && null == frame.listener;
+    }
 
-        threadFrameStack.push(frameStack);
+    /**
+     * 设置通知采样器<br/>
+     * 需要在注册监听器之前设置，注销监听器时一并清除
+     *
+     * @param adviceId 通知ID
+     * @param sampler  通知采样器, 为null时取消采样
+     */
+    public static void sampling(int adviceId, AdviceSampler sampler) {
+        if (null == sampler) {
+            samplers.remove(adviceId);
+        } else {
+            samplers.put(adviceId, sampler);
+        }
     }
 
-    private static GaStack<Object> threadFrameStackPop() {
-        return threadBoundContext.get().pop();
+    /**
+     * 获取通知采样器
+     *
+     * @param adviceId 通知ID
+     * @return 通知采样器, 未采样时返回null
+     */
+    public static AdviceSampler getSampler(int adviceId) {
+        return samplers.get(adviceId);
     }
 
-    private static AdviceListener getListener(int adviceId) {
-        return advices.get(adviceId);
+    /**
+     * 设置通知开销预算并开始定时检查<br/>
+     * 需要在注册监听器之前设置，注销监听器时一并停止
+     *
+     * @param adviceId 通知ID
+     * @param budget   通知开销预算
+     */
+    public static void budget(int adviceId, AdviceBudget budget) {
+        final AdviceBudget old = budgets.put(adviceId, budget);
+        if (null != old) {
+            old.stop();
+        }
+        budget.start();
     }
 
     /**
@@ -270,6 +357,15 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
         // 注销监听器
         final AdviceListener listener = advices.remove(adviceId);
+        samplers.remove(adviceId);
+        final AdviceBudget budget = budgets.remove(adviceId);
+        if (null != budget) {
+            budget.stop();
+            // 因超出预算被暂停的监听器也需要销毁
+            if (null != budget.suspendedListener && budget.suspendedListener != listener) {
+                budget.suspendedListener.destroy();
+            }
+        }
 
         // 触发监听器销毁
         if (null != listener) {
@@ -300,13 +396,11 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
         return advices.remove(adviceId);
     }
 
-    private static void before(AdviceListener listener,
-                               ClassLoader loader, String className, String methodName, String methodDesc,
-                               Object target, Object[] args) {
+    private static void before(AdviceListener listener, AdviceSite site, Object target, Object[] args) {
 
-        if (null != listener) {
+        if (null != listener && null != site) {
             try {
-                listener.before(loader, className, methodName, methodDesc, target, args);
+                listener.before(site, target, args);
             } catch (Throwable t) {
                 logger.warn("advice before failed.", t);
             }
@@ -314,24 +408,22 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
     }
 
-    private static void afterReturning(AdviceListener listener,
-                                       ClassLoader loader, String className, String methodName, String methodDesc,
+    private static void afterReturning(AdviceListener listener, AdviceSite site,
                                        Object target, Object[] args, Object returnObject) {
-        if (null != listener) {
+        if (null != listener && null != site) {
             try {
-                listener.afterReturning(loader, className, methodName, methodDesc, target, args, returnObject);
+                listener.afterReturning(site, target, args, returnObject);
             } catch (Throwable t) {
                 logger.warn("advice returning failed.", t);
             }
         }
     }
 
-    private static void afterThrowing(AdviceListener listener,
-                                      ClassLoader loader, String className, String methodName, String methodDesc,
+    private static void afterThrowing(AdviceListener listener, AdviceSite site,
                                       Object target, Object[] args, Throwable throwable) {
-        if (null != listener) {
+        if (null != listener && null != site) {
             try {
-                listener.afterThrowing(loader, className, methodName, methodDesc, target, args, throwable);
+                listener.afterThrowing(site, target, args, throwable);
             } catch (Throwable t) {
                 logger.warn("advice throwing failed.", t);
             }
@@ -341,7 +433,9 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
     private final int adviceId;
     private final boolean isTracing;
-    private final boolean skipJDKTrace;
+    private final Matcher<String> invokeTracingMatcher;
+    private final boolean isReflectSpy;
+    private final Class<?> targetClass;
     private final String className;
     private String superName;
     private final Matcher matcher;
@@ -353,18 +447,21 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
      *
      * @param adviceId     通知ID
      * @param isTracing    可跟踪方法调用
-     * @param skipJDKTrace 是否忽略对JDK内部方法的跟踪
+     * @param invokeTracingMatcher 被调用方法所属的类(内部名)匹配,只有匹配上的方法调用才会织入跟踪通知
+     * @param targetClass  被增强的类,用于登记通知点
      * @param className    类名称
      * @param matcher      方法匹配
      *                     只有匹配上的方法才会被织入通知器
      * @param affect       影响计数
      * @param cv           ClassVisitor for ASM
      */
-    public AdviceWeaver(int adviceId, boolean isTracing, boolean skipJDKTrace, String className, Matcher matcher, EnhancerAffect affect, ClassVisitor cv) {
+    public AdviceWeaver(int adviceId, boolean isTracing, Matcher<String> invokeTracingMatcher, Class<?> targetClass, String className, Matcher matcher, EnhancerAffect affect, ClassVisitor cv) {
         super(Opcodes.ASM7, cv);
         this.adviceId = adviceId;
         this.isTracing = isTracing;
-        this.skipJDKTrace = skipJDKTrace;
+        this.invokeTracingMatcher = invokeTracingMatcher;
+        this.isReflectSpy = GlobalOptions.isReflectSpy;
+        this.targetClass = targetClass;
         this.className = className;
         this.matcher = matcher;
         this.affect = affect;
@@ -419,6 +516,9 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
         // 编织方法计数
         affect.mCnt(1);
+
+        // 登记通知点,织入代码只需要携带siteId
+        final int siteId = AdviceSite.register(targetClass, className, name, desc);
         // 在
         return new AdviceAdapter(Opcodes.ASM7, new JSRInlinerAdapter(mv, access, name, desc, signature, exceptions), access, name, desc) {
 
@@ -439,15 +539,25 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             private final Type ASM_TYPE_SPY = Type.getType("Ljava/arthas/Spy;");
             private final Type ASM_TYPE_OBJECT = Type.getType(Object.class);
             private final Type ASM_TYPE_OBJECT_ARRAY = Type.getType(Object[].class);
-            private final Type ASM_TYPE_CLASS = Type.getType(Class.class);
             private final Type ASM_TYPE_INTEGER = Type.getType(Integer.class);
-            private final Type ASM_TYPE_CLASS_LOADER = Type.getType(ClassLoader.class);
             private final Type ASM_TYPE_STRING = Type.getType(String.class);
             private final Type ASM_TYPE_THROWABLE = Type.getType(Throwable.class);
             private final Type ASM_TYPE_INT = Type.getType(int.class);
             private final Type ASM_TYPE_METHOD = Type.getType(java.lang.reflect.Method.class);
             private final Method ASM_METHOD_METHOD_INVOKE = Method.getMethod("Object invoke(Object,Object[])");
 
+            // -- Spy的静态入口方法 --
+            private final Method ASM_METHOD_SPY_ON_BEFORE
+                    = Method.getMethod("void onBefore(int,int,Object,Object[])");
+            private final Method ASM_METHOD_SPY_ON_RETURN = Method.getMethod("void onReturn(Object)");
+            private final Method ASM_METHOD_SPY_ON_THROWS = Method.getMethod("void onThrows(Throwable)");
+            private final Method ASM_METHOD_SPY_BEFORE_INVOKING
+                    = Method.getMethod("void beforeInvoking(int,String,String,String,int)");
+            private final Method ASM_METHOD_SPY_AFTER_INVOKING
+                    = Method.getMethod("void afterInvoking(int,String,String,String,int)");
+            private final Method ASM_METHOD_SPY_THROW_INVOKING
+                    = Method.getMethod("void throwInvoking(int,String,String,String,int)");
+
             // 代码锁
             private final CodeLock codeLockForTracing = new TracingAsmCodeLock(this);
 
@@ -536,21 +646,26 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
             }
 
             /**
-             * 加载ClassLoader<br/>
-             * 这里分开静态方法中ClassLoader的获取以及普通方法中ClassLoader的获取
-             * 主要是性能上的考虑
+             * 获取通知对应的Spy静态入口方法
+             * @param keyOfMethod 通知方法KEY
              */
-            private void loadClassLoader() {
-
-                if (this.isStaticMethod()) {
-                    visitLdcInsn(StringUtils.normalizeClassName(className));
-                    invokeStatic(ASM_TYPE_CLASS, Method.getMethod("Class forName(String)"));
-                    invokeVirtual(ASM_TYPE_CLASS, Method.getMethod("ClassLoader getClassLoader()"));
+            private Method getSpyMethod(int keyOfMethod) {
 
-                } else {
-                    loadThis();
-                    invokeVirtual(ASM_TYPE_OBJECT, Method.getMethod("Class getClass()"));
-                    invokeVirtual(ASM_TYPE_CLASS, Method.getMethod("ClassLoader getClassLoader()"));
+                switch (keyOfMethod) {
+                    case KEY_ARTHAS_ADVICE_BEFORE_METHOD:
+                        return ASM_METHOD_SPY_ON_BEFORE;
+                    case KEY_ARTHAS_ADVICE_RETURN_METHOD:
+                        return ASM_METHOD_SPY_ON_RETURN;
+                    case KEY_ARTHAS_ADVICE_THROWS_METHOD:
+                        return ASM_METHOD_SPY_ON_THROWS;
+                    case KEY_ARTHAS_ADVICE_BEFORE_INVOKING_METHOD:
+                        return ASM_METHOD_SPY_BEFORE_INVOKING;
+                    case KEY_ARTHAS_ADVICE_AFTER_INVOKING_METHOD:
+                        return ASM_METHOD_SPY_AFTER_INVOKING;
+                    case KEY_ARTHAS_ADVICE_THROW_INVOKING_METHOD:
+                        return ASM_METHOD_SPY_THROW_INVOKING;
+                    default:
+                        throw new IllegalArgumentException("illegal keyOfMethod=" + keyOfMethod);
                 }
 
             }
@@ -559,7 +674,7 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
              * 加载before通知参数数组
              */
             private void loadArrayForBefore() {
-                push(7);
+                push(4);
                 newArray(ASM_TYPE_OBJECT);
 
                 dup();
@@ -570,31 +685,17 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
 
                 dup();
                 push(1);
-                loadClassLoader();
-                arrayStore(ASM_TYPE_CLASS_LOADER);
+                push(siteId);
+                box(ASM_TYPE_INT);
+                arrayStore(ASM_TYPE_INTEGER);
 
                 dup();
                 push(2);
-                push(className);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(3);
-                push(name);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(4);
-                push(desc);
-                arrayStore(ASM_TYPE_STRING);
-
-                dup();
-                push(5);
                 loadThisOrPushNullIfIsStatic();
                 arrayStore(ASM_TYPE_OBJECT);
 
                 dup();
-                push(6);
+                push(3);
                 loadArgArray();
                 arrayStore(ASM_TYPE_OBJECT_ARRAY);
             }
@@ -610,6 +711,18 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                         final StringBuilder append = new StringBuilder();
                         _debug(append, "debug:onMethodEnter()");
 
+                        if (!isReflectSpy) {
+                            // 直接调用Spy.onBefore(),参数按顺序压栈,无需构建Object[]
+                            push(adviceId);
+                            push(siteId);
+                            loadThisOrPushNullIfIsStatic();
+                            loadArgArray();
+                            invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_BEFORE);
+
+                            _debug(append, "debug:onMethodEnter() > invokeStatic()");
+                            return;
+                        }
+
                         // 加载before方法
                         // 调用loadAdviceMethod方法，根据里面的代码显示，实质是获取Spy这个类的变量 ONBEFOREMETHOD，通过ASM的方法
                         // 方法进行调用，其中loadArrayForBefore方法是加载ONBEFOREMETHOD方法对应的参数，而ONBEFOREMETHOD这个方法对应的
@@ -672,6 +785,12 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                             loadReturn(opcode);
                             _debug(append, "debug:onMethodExit() > loadReturn()");
 
+                            if (!isReflectSpy) {
+                                invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_RETURN);
+                                _debug(append, "debug:onMethodExit() > loadReturn() > invokeStatic()");
+                                return;
+                            }
+
 
                             // 加载returning方法
                             loadAdviceMethod(KEY_ARTHAS_ADVICE_RETURN_METHOD);
@@ -730,6 +849,12 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                         loadThrow();
                         _debug(append, "debug:catchException() > loadThrow() > loadAdviceMethod()");
 
+                        if (!isReflectSpy) {
+                            invokeStatic(ASM_TYPE_SPY, ASM_METHOD_SPY_ON_THROWS);
+                            _debug(append, "debug:catchException() > loadThrow() > invokeStatic()");
+                            return;
+                        }
+
                         // 加载throwing方法
                         loadAdviceMethod(KEY_ARTHAS_ADVICE_THROWS_METHOD);
                         _debug(append, "debug:catchException() > loadThrow() > loadAdviceMethod()");
@@ -926,6 +1051,17 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                         final StringBuilder append = new StringBuilder();
                         _debug(append, "debug:" + label + "()");
 
+                        if (!isReflectSpy) {
+                            push(adviceId);
+                            push(owner);
+                            push(name);
+                            push(desc);
+                            push(lineNumber);
+                            invokeStatic(ASM_TYPE_SPY, getSpyMethod(tracingType));
+                            _debug(append, "invokeStatic()");
+                            return;
+                        }
+
                         loadAdviceMethod(tracingType);
                         _debug(append, "loadAdviceMethod()");
 
@@ -954,8 +1090,8 @@ public class AdviceWeaver extends ClassVisitor implements Opcodes {
                     return;
                 }
 
-                //是否要对JDK内部的方法调用进行trace
-                if (skipJDKTrace && owner.startsWith("java/")) {
+                // 被调用方法所属的类是否需要跟踪(如忽略JDK内部的方法),不需要时不织入跟踪通知
+                if (!invokeTracingMatcher.matching(owner)) {
                     super.visitMethodInsn(opcode, owner, name, desc, itf);
                     return;
                 }
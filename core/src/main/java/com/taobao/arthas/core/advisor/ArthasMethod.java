@@ -54,6 +54,17 @@ public class ArthasMethod {
                 : method.getName();
     }
 
+    /**
+     * 获取声明该方法的类
+     *
+     * @return 声明该方法的类
+     */
+    public Class<?> getDeclaringClass() {
+        return isInit()
+                ? constructor.getDeclaringClass()
+                : method.getDeclaringClass();
+    }
+
     @Override
     public String toString() {
         return isInit()
@@ -39,7 +39,7 @@ public class Enhancer implements ClassFileTransformer {
 
     private final int adviceId;
     private final boolean isTracing;
-    private final boolean skipJDKTrace;
+    private final Matcher<String> invokeTracingMatcher;
     private final Set<Class<?>> matchingClasses;
     private final Matcher methodNameMatcher;
     private final EnhancerAffect affect;
@@ -51,20 +51,20 @@ public class Enhancer implements ClassFileTransformer {
     /**
      * @param adviceId          通知编号
      * @param isTracing         可跟踪方法调用
-     * @param skipJDKTrace      是否忽略对JDK内部方法的跟踪
+     * @param invokeTracingMatcher 需要跟踪的方法调用所属的类匹配
      * @param matchingClasses   匹配中的类
      * @param methodNameMatcher 方法名匹配
      * @param affect            影响统计
      */
     private Enhancer(int adviceId,
                      boolean isTracing,
-                     boolean skipJDKTrace,
+                     Matcher<String> invokeTracingMatcher,
                      Set<Class<?>> matchingClasses,
                      Matcher methodNameMatcher,
                      EnhancerAffect affect) {
         this.adviceId = adviceId;
         this.isTracing = isTracing;
-        this.skipJDKTrace = skipJDKTrace;
+        this.invokeTracingMatcher = invokeTracingMatcher;
         this.matchingClasses = matchingClasses;
         this.methodNameMatcher = methodNameMatcher;
         this.affect = affect;
@@ -158,8 +158,9 @@ public class Enhancer implements ClassFileTransformer {
             };
 
             // 生成增强字节码
-            cr.accept(new AdviceWeaver(adviceId, isTracing, skipJDKTrace, cr.getClassName(), methodNameMatcher, affect,
-                            cw), EXPAND_FRAMES);
+            // 被织入的方法在这里登记到通知点表(AdviceSite),织入代码只携带siteId
+            cr.accept(new AdviceWeaver(adviceId, isTracing, invokeTracingMatcher, classBeingRedefined, cr.getClassName(),
+                            methodNameMatcher, affect, cw), EXPAND_FRAMES);
             final byte[] enhanceClassByteArray = cw.toByteArray();
 
             // 生成成功,推入缓存
@@ -266,7 +267,7 @@ public class Enhancer implements ClassFileTransformer {
      * @param inst              inst
      * @param adviceId          通知ID
      * @param isTracing         可跟踪方法调用
-     * @param skipJDKTrace      是否忽略对JDK内部方法的跟踪
+     * @param invokeTracingMatcher 需要跟踪的方法调用所属的类(内部名)匹配
      * @param classNameMatcher  类名匹配
      * @param methodNameMatcher 方法名匹配
      * @return 增强影响范围
@@ -276,7 +277,7 @@ public class Enhancer implements ClassFileTransformer {
             final Instrumentation inst,
             final int adviceId,
             final boolean isTracing,
-            final boolean skipJDKTrace,
+            final Matcher<String> invokeTracingMatcher,
             final Matcher classNameMatcher,
             final Matcher methodNameMatcher) throws UnmodifiableClassException {
 
@@ -291,7 +292,7 @@ public class Enhancer implements ClassFileTransformer {
         filter(enhanceClassSet);
 
         // 构建增强器
-        final Enhancer enhancer = new Enhancer(adviceId, isTracing, skipJDKTrace, enhanceClassSet, methodNameMatcher, affect);
+        final Enhancer enhancer = new Enhancer(adviceId, isTracing, invokeTracingMatcher, enhanceClassSet, methodNameMatcher, affect);
         try {
             inst.addTransformer(enhancer, true);
 
@@ -16,17 +16,16 @@ import java.lang.reflect.Method;
  * 通过反射拿到对应的Class/Method类，而不是原始的ClassName/MethodName
  * 当然性能开销要比普通监听器高许多
  */
-public abstract class ReflectAdviceListenerAdapter implements AdviceListener {
+public abstract class ReflectAdviceListenerAdapter extends AdviceListenerAdapter {
 
-    @Override
-    public void create() {
-        // default no-op
-    }
-
-    @Override
-    public void destroy() {
-        // default no-op
-    }
+    /**
+     * 方法解析缓存,下标为siteId<br/>
+     * 同一个通知点解析一次之后直接复用，避免每次通知都做Class.forName、描述符解析和getDeclaredMethod，
+     * 命中时只是一次数组下标访问
+     * <p/>
+     * 缓存跟随监听器的生命周期，命令结束后随监听器一起被回收
+     */
+    private volatile ArthasMethod[] methodCache = new ArthasMethod[0];
 
     private ClassLoader toClassLoader(ClassLoader loader) {
         return null != loader
@@ -108,6 +107,40 @@ public abstract class ReflectAdviceListenerAdapter implements AdviceListener {
         }
     }
 
+    /**
+     * 解析通知点对应的方法，优先从缓存中获取
+     */
+    private ArthasMethod resolve(AdviceSite site) throws ClassNotFoundException, NoSuchMethodException {
+        final int siteId = site.getId();
+        final ArthasMethod[] cache = methodCache;
+        if (siteId < cache.length) {
+            final ArthasMethod method = cache[siteId];
+            if (null != method) {
+                return method;
+            }
+        }
+
+        final ClassLoader loader = site.getLoader();
+        final Class<?> clazz = site.getClazz();
+        final ArthasMethod method = toMethod(loader,
+                null != clazz ? clazz : toClass(loader, site.getClassName()),
+                site.getMethodName(), site.getMethodDesc());
+        cacheMethod(siteId, method);
+        return method;
+    }
+
+    // ArthasMethod的字段都是final的,可以安全地通过普通数组元素发布
+    private synchronized void cacheMethod(int siteId, ArthasMethod method) {
+        ArthasMethod[] cache = methodCache;
+        if (siteId >= cache.length) {
+            final ArthasMethod[] newCache = new ArthasMethod[Math.max(siteId + 1, AdviceSite.capacity())];
+            System.arraycopy(cache, 0, newCache, 0, cache.length);
+            cache = newCache;
+        }
+        cache[siteId] = method;
+        methodCache = cache;
+    }
+
     private Method toMethod(Class<?> clazz, String methodName, Class<?>[] argClasses) throws NoSuchMethodException {
         return clazz.getDeclaredMethod(methodName, argClasses);
     }
@@ -117,28 +150,32 @@ public abstract class ReflectAdviceListenerAdapter implements AdviceListener {
     }
 
 
+    /**
+     * 通知点解析为Class/Method后转发给反射形式的通知方法；
+     * 子类可以覆盖以直接使用通知点，需要Class/Method时再调用父类方法
+     */
     @Override
-    final public void before(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+    public void before(
+            AdviceSite site,
             Object target, Object[] args) throws Throwable {
-        final Class<?> clazz = toClass(loader, className);
-        before(loader, clazz, toMethod(loader, clazz, methodName, methodDesc), target, args);
+        final ArthasMethod method = resolve(site);
+        before(site.getLoader(), method.getDeclaringClass(), method, target, args);
     }
 
     @Override
-    final public void afterReturning(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+    public void afterReturning(
+            AdviceSite site,
             Object target, Object[] args, Object returnObject) throws Throwable {
-        final Class<?> clazz = toClass(loader, className);
-        afterReturning(loader, clazz, toMethod(loader, clazz, methodName, methodDesc), target, args, returnObject);
+        final ArthasMethod method = resolve(site);
+        afterReturning(site.getLoader(), method.getDeclaringClass(), method, target, args, returnObject);
     }
 
     @Override
-    final public void afterThrowing(
-            ClassLoader loader, String className, String methodName, String methodDesc,
+    public void afterThrowing(
+            AdviceSite site,
             Object target, Object[] args, Throwable throwable) throws Throwable {
-        final Class<?> clazz = toClass(loader, className);
-        afterThrowing(loader, clazz, toMethod(loader, clazz, methodName, methodDesc), target, args, throwable);
+        final ArthasMethod method = resolve(site);
+        afterThrowing(site.getLoader(), method.getDeclaringClass(), method, target, args, throwable);
     }
 
 
@@ -220,14 +257,4 @@ public abstract class ReflectAdviceListenerAdapter implements AdviceListener {
         return currentTimes >= limit;
     }
 
-    /**
-     * 超过次数上限，则不再输出，命令终止
-     * @param process the process to be aborted
-     * @param limit the limit to be printed
-     */
-    protected void abortProcess(CommandProcess process, int limit) {
-        process.write("Command execution times exceed limit: " + limit + ", so command will exit. You can set it with -n option.\n");
-        process.end();
-    }
-
 }
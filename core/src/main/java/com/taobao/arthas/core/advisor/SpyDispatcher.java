@@ -0,0 +1,44 @@
+package com.taobao.arthas.core.advisor;
+
+import java.arthas.Spy;
+
+/**
+ * Spy通知派发器<br/>
+ * 被织入的方法直接调用Spy的静态入口方法，再由这里转发到AdviceWeaver，
+ * 调用链全部是普通方法调用，JIT可以内联，省去了Method.invoke的反射开销和Object[]参数装箱
+ * <p/>
+ * 由AgentBootstrap在ArthasClassLoader中实例化，并在代理启动时绑定到Spy
+ */
+public class SpyDispatcher extends Spy.Dispatcher {
+
+    @Override
+    public void onBefore(int adviceId, int siteId, Object target, Object[] args) {
+        AdviceWeaver.methodOnBegin(adviceId, siteId, target, args);
+    }
+
+    @Override
+    public void onReturn(Object returnObject) {
+        AdviceWeaver.methodOnReturnEnd(returnObject);
+    }
+
+    @Override
+    public void onThrows(Throwable throwable) {
+        AdviceWeaver.methodOnThrowingEnd(throwable);
+    }
+
+    @Override
+    public void beforeInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        AdviceWeaver.methodOnInvokeBeforeTracing(adviceId, owner, name, desc, lineNumber);
+    }
+
+    @Override
+    public void afterInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        AdviceWeaver.methodOnInvokeAfterTracing(adviceId, owner, name, desc, lineNumber);
+    }
+
+    @Override
+    public void throwInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        AdviceWeaver.methodOnInvokeThrowTracing(adviceId, owner, name, desc, lineNumber);
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.taobao.arthas.core.command.express;
+
+import ognl.MemberAccess;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Member;
+import java.util.Map;
+
+/**
+ * 允许访问所有成员(包括私有字段和方法)的{@link MemberAccess}<br/>
+ * 与{@link ognl.DefaultMemberAccess}不同，成员第一次访问时设置为可访问后不再还原:
+ * OGNL缓存了字段和方法对象并在所有线程间共享，每次访问都设置再还原，不仅多了两次访问检查，
+ * 并发执行表达式时还可能被另一个线程提前还原，导致读取时抛出IllegalAccessException。
+ * 这些对象是OGNL自己的副本，保持可访问不影响应用
+ */
+class AccessibleMemberAccess implements MemberAccess {
+
+    static final AccessibleMemberAccess INSTANCE = new AccessibleMemberAccess();
+
+    private AccessibleMemberAccess() {
+    }
+
+    @Override
+    public Object setup(Map context, Object target, Member member, String propertyName) {
+        if (member instanceof AccessibleObject) {
+            final AccessibleObject accessible = (AccessibleObject) member;
+            if (!accessible.isAccessible()) {
+                accessible.setAccessible(true);
+            }
+        }
+        // 不需要还原
+        return null;
+    }
+
+    @Override
+    public void restore(Map context, Object target, Member member, String propertyName, Object state) {
+    }
+
+    @Override
+    public boolean isAccessible(Map context, Object target, Member member, String propertyName) {
+        return true;
+    }
+
+}
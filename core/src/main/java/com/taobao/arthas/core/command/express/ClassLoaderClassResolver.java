@@ -20,6 +20,10 @@ public class ClassLoaderClassResolver implements ClassResolver {
         this.classLoader = classLoader;
     }
 
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
     @Override
     public Class<?> classForName(String className, @SuppressWarnings("rawtypes") Map context)
                     throws ClassNotFoundException {
@@ -0,0 +1,100 @@
+package com.taobao.arthas.core.command.express;
+
+import ognl.Ognl;
+import ognl.OgnlException;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 解析后的OGNL表达式树的LRU缓存<br/>
+ * 条件表达式和观察表达式在每次通知时执行，缓存后不再重复解析。
+ * 表达式树会缓存常量子树的值(如静态常量字段)，而类由类加载器解析，所以按表达式和类加载器区分;
+ * 类加载器以弱引用保存，不会阻止其被回收。
+ * 属于{@link FastPathCondition}支持的子集的表达式同时缓存编译后的条件
+ */
+class ExpressCache {
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<Key, Entry> entries;
+
+    ExpressCache(final int capacity) {
+        entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * 获取表达式树，没有缓存时解析并放入缓存
+     *
+     * @throws OgnlException 表达式语法错误
+     */
+    Entry parse(String express, ClassLoader loader) throws OgnlException {
+        final Key key = new Key(express, loader);
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (null != entry) {
+                return entry;
+            }
+        }
+        // 解析在锁外进行, 并发解析同一个表达式时以后放入的为准
+        final Object tree = Ognl.parseExpression(express);
+        final Entry entry = new Entry(tree, FastPathCondition.compile(tree));
+        synchronized (this) {
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    static class Entry {
+
+        final Object tree;
+        // 不支持快速求值时为null
+        final FastPathCondition condition;
+
+        Entry(Object tree, FastPathCondition condition) {
+            this.tree = tree;
+            this.condition = condition;
+        }
+    }
+
+    private static class Key {
+
+        private final String express;
+        private final WeakReference<ClassLoader> loaderRef;
+        private final int hash;
+
+        Key(String express, ClassLoader loader) {
+            this.express = express;
+            this.loaderRef = new WeakReference<ClassLoader>(loader);
+            this.hash = express.hashCode() * 31 + System.identityHashCode(loader);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return hash == other.hash && express.equals(other.express) && loaderRef.get() == other.loaderRef.get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+package com.taobao.arthas.core.command.express;
+
+import com.taobao.arthas.core.advisor.Advice;
+import ognl.ASTChain;
+import ognl.ASTConst;
+import ognl.ASTProperty;
+import ognl.ASTVarRef;
+import ognl.ExpressionNode;
+import ognl.Node;
+
+import java.util.Map;
+
+/**
+ * 常见条件表达式的快速求值<br/>
+ * 由解析后的OGNL表达式树编译而成，只识别以下安全的子集，直接读取{@link Advice}的字段，不经过OGNL:
+ * <pre>
+ *     #cost > 200        params[0] == 42        params.length == 2
+ *     isThrow            returnObj == null      isReturn &amp;&amp; #cost >= 10 || !isBefore
+ * </pre>
+ * 即 {@code params/returnObj/throwExp/target/isBefore/isReturn/isThrow}、{@code params[常量]}、{@code params.length}、
+ * 变量和常量之间的 ==、!=、&gt;、&gt;=、&lt;、&lt;=，以及 &amp;&amp;、||、! 组合；其他属性路径(如method.name)不支持。
+ * <p/>
+ * 求值结果与OGNL一致：遇到需要OGNL类型转换的情况(如数字和字符串比较、数组越界、NaN)时返回{@link #UNKNOWN}，
+ * 由调用方交给OGNL重新执行。快速求值没有副作用，放弃后重新执行是安全的
+ */
+abstract class FastPathCondition {
+
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+    // 无法快速求值, 需要交给OGNL
+    static final int UNKNOWN = -1;
+
+    // 无法快速求出的值
+    private static final Object UNKNOWN_VALUE = new Object();
+
+    /**
+     * 求值
+     *
+     * @param advice  通知点
+     * @param context 绑定的变量
+     * @return {@link #TRUE}、{@link #FALSE}或{@link #UNKNOWN}
+     */
+    abstract int test(Advice advice, Map context);
+
+    /**
+     * 编译表达式树
+     *
+     * @return 条件, 表达式不在支持的子集内时返回null
+     */
+    static FastPathCondition compile(Object tree) {
+        return tree instanceof Node ? condition((Node) tree) : null;
+    }
+
+    private static FastPathCondition condition(Node node) {
+        final String operator = operatorOf(node);
+        if (null == operator) {
+            // 布尔值的属性或变量, 如 isThrow
+            final Value value = value(node);
+            return null == value ? null : new BooleanCondition(value);
+        }
+        final int children = node.jjtGetNumChildren();
+        if ("&&".equals(operator) || "||".equals(operator)) {
+            final FastPathCondition[] conditions = new FastPathCondition[children];
+            for (int i = 0; i < children; i++) {
+                if (null == (conditions[i] = condition(node.jjtGetChild(i)))) {
+                    return null;
+                }
+            }
+            return new JunctionCondition("&&".equals(operator), conditions);
+        }
+        if ("!".equals(operator) && 1 == children) {
+            final FastPathCondition condition = condition(node.jjtGetChild(0));
+            return null == condition ? null : new NotCondition(condition);
+        }
+        final int comparison = comparisonOf(operator);
+        if (comparison < 0 || 2 != children) {
+            return null;
+        }
+        final Value left = value(node.jjtGetChild(0));
+        final Value right = value(node.jjtGetChild(1));
+        return null == left || null == right ? null : new CompareCondition(comparison, left, right);
+    }
+
+    private static Value value(Node node) {
+        if (node instanceof ASTConst) {
+            final Object value = ((ASTConst) node).getValue();
+            return null == value || value instanceof String || value instanceof Boolean || isSimpleNumber(value)
+                    ? new ConstValue(value) : null;
+        }
+        if (node instanceof ASTVarRef) {
+            final String name = node.toString().substring(1);
+            // #root、#this、#context等由OGNL保留
+            return "root".equals(name) || "this".equals(name) || "context".equals(name) || name.startsWith("_")
+                    ? null : new VarValue(name);
+        }
+        if (node instanceof ASTProperty) {
+            final String name = propertyName(node);
+            return null == name ? null : AdviceValue.of(name);
+        }
+        if (node instanceof ASTChain && 2 == node.jjtGetNumChildren()
+                && "params".equals(propertyName(node.jjtGetChild(0)))) {
+            final Node second = node.jjtGetChild(1);
+            if ("length".equals(propertyName(second))) {
+                return new ParamsLengthValue();
+            }
+            if (second instanceof ASTProperty && ((ASTProperty) second).isIndexedAccess()
+                    && 1 == second.jjtGetNumChildren() && second.jjtGetChild(0) instanceof ASTConst) {
+                final Object index = ((ASTConst) second.jjtGetChild(0)).getValue();
+                return index instanceof Integer ? new ParamValue((Integer) index) : null;
+            }
+        }
+        return null;
+    }
+
+    // 非下标访问的属性名
+    private static String propertyName(Node node) {
+        if (!(node instanceof ASTProperty) || ((ASTProperty) node).isIndexedAccess()
+                || 1 != node.jjtGetNumChildren() || !(node.jjtGetChild(0) instanceof ASTConst)) {
+            return null;
+        }
+        final Object name = ((ASTConst) node.jjtGetChild(0)).getValue();
+        return name instanceof String ? (String) name : null;
+    }
+
+    private static String operatorOf(Node node) {
+        return node instanceof ExpressionNode ? ((ExpressionNode) node).getExpressionOperator(0) : null;
+    }
+
+    // -- 比较运算 --
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int GT = 2;
+    private static final int GE = 3;
+    private static final int LT = 4;
+    private static final int LE = 5;
+
+    private static int comparisonOf(String operator) {
+        if ("==".equals(operator)) {
+            return EQ;
+        }
+        if ("!=".equals(operator)) {
+            return NE;
+        }
+        if (">".equals(operator)) {
+            return GT;
+        }
+        if (">=".equals(operator)) {
+            return GE;
+        }
+        if ("<".equals(operator)) {
+            return LT;
+        }
+        return "<=".equals(operator) ? LE : -1;
+    }
+
+    private static boolean isSimpleNumber(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Double
+                || value instanceof Float || value instanceof Short || value instanceof Byte;
+    }
+
+    private static boolean isFloating(Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    private static int valueOf(boolean b) {
+        return b ? TRUE : FALSE;
+    }
+
+    private abstract static class Value {
+        abstract Object get(Advice advice, Map context);
+    }
+
+    private static class ConstValue extends Value {
+
+        private final Object value;
+
+        ConstValue(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object get(Advice advice, Map context) {
+            return value;
+        }
+    }
+
+    private static class VarValue extends Value {
+
+        private final String name;
+
+        VarValue(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object get(Advice advice, Map context) {
+            return context.get(name);
+        }
+    }
+
+    private static class AdviceValue extends Value {
+
+        private static final int PARAMS = 0;
+        private static final int RETURN_OBJ = 1;
+        private static final int THROW_EXP = 2;
+        private static final int TARGET = 3;
+        private static final int IS_BEFORE = 4;
+        private static final int IS_RETURN = 5;
+        private static final int IS_THROW = 6;
+        private static final String[] NAMES = {
+                "params", "returnObj", "throwExp", "target", "isBefore", "isReturn", "isThrow"
+        };
+
+        private final int property;
+
+        private AdviceValue(int property) {
+            this.property = property;
+        }
+
+        static AdviceValue of(String name) {
+            for (int i = 0; i < NAMES.length; i++) {
+                if (NAMES[i].equals(name)) {
+                    return new AdviceValue(i);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        Object get(Advice advice, Map context) {
+            switch (property) {
+                case PARAMS:
+                    return advice.getParams();
+                case RETURN_OBJ:
+                    return advice.getReturnObj();
+                case THROW_EXP:
+                    return advice.getThrowExp();
+                case TARGET:
+                    return advice.getTarget();
+                case IS_BEFORE:
+                    return advice.isBefore();
+                case IS_RETURN:
+                    return advice.isAfterReturning();
+                default:
+                    return advice.isAfterThrowing();
+            }
+        }
+    }
+
+    private static class ParamValue extends Value {
+
+        private final int index;
+
+        ParamValue(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object get(Advice advice, Map context) {
+            final Object[] params = advice.getParams();
+            // 越界时由OGNL报告错误
+            return null == params || index < 0 || index >= params.length ? UNKNOWN_VALUE : params[index];
+        }
+    }
+
+    private static class ParamsLengthValue extends Value {
+
+        @Override
+        Object get(Advice advice, Map context) {
+            final Object[] params = advice.getParams();
+            return null == params ? UNKNOWN_VALUE : params.length;
+        }
+    }
+
+    private static class BooleanCondition extends FastPathCondition {
+
+        private final Value value;
+
+        BooleanCondition(Value value) {
+            this.value = value;
+        }
+
+        @Override
+        int test(Advice advice, Map context) {
+            final Object result = value.get(advice, context);
+            // 非布尔值的真假按OGNL的规则转换, 交给OGNL
+            return result instanceof Boolean ? valueOf((Boolean) result) : UNKNOWN;
+        }
+    }
+
+    private static class JunctionCondition extends FastPathCondition {
+
+        private final boolean isAnd;
+        private final FastPathCondition[] conditions;
+
+        JunctionCondition(boolean isAnd, FastPathCondition[] conditions) {
+            this.isAnd = isAnd;
+            this.conditions = conditions;
+        }
+
+        @Override
+        int test(Advice advice, Map context) {
+            // 与OGNL一样短路求值
+            final int stop = isAnd ? FALSE : TRUE;
+            for (FastPathCondition condition : conditions) {
+                final int result = condition.test(advice, context);
+                if (result == stop || result == UNKNOWN) {
+                    return result;
+                }
+            }
+            return isAnd ? TRUE : FALSE;
+        }
+    }
+
+    private static class NotCondition extends FastPathCondition {
+
+        private final FastPathCondition condition;
+
+        NotCondition(FastPathCondition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        int test(Advice advice, Map context) {
+            final int result = condition.test(advice, context);
+            return result == UNKNOWN ? UNKNOWN : valueOf(result == FALSE);
+        }
+    }
+
+    private static class CompareCondition extends FastPathCondition {
+
+        private final int comparison;
+        private final Value left;
+        private final Value right;
+
+        CompareCondition(int comparison, Value left, Value right) {
+            this.comparison = comparison;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int test(Advice advice, Map context) {
+            final Object a = left.get(advice, context);
+            final Object b = right.get(advice, context);
+            if (a == UNKNOWN_VALUE || b == UNKNOWN_VALUE) {
+                return UNKNOWN;
+            }
+            if (EQ == comparison || NE == comparison) {
+                final int equal = equal(a, b);
+                return equal == UNKNOWN || EQ == comparison ? equal : valueOf(equal == FALSE);
+            }
+            if (!isSimpleNumber(a) || !isSimpleNumber(b)) {
+                return UNKNOWN;
+            }
+            final int result = compare((Number) a, (Number) b);
+            if (result == UNKNOWN) {
+                return UNKNOWN;
+            }
+            switch (comparison) {
+                case GT:
+                    return valueOf(result > 0);
+                case GE:
+                    return valueOf(result >= 0);
+                case LT:
+                    return valueOf(result < 0);
+                default:
+                    return valueOf(result <= 0);
+            }
+        }
+
+        private static int equal(Object a, Object b) {
+            if (a == b) {
+                return TRUE;
+            }
+            if (null == a || null == b) {
+                return FALSE;
+            }
+            if (isSimpleNumber(a) && isSimpleNumber(b)) {
+                final int result = compare((Number) a, (Number) b);
+                return result == UNKNOWN ? UNKNOWN : valueOf(result == 0);
+            }
+            if (a instanceof String && b instanceof String || a instanceof Boolean && b instanceof Boolean) {
+                return valueOf(a.equals(b));
+            }
+            return UNKNOWN;
+        }
+
+        /**
+         * 按OGNL的规则比较数字: 有浮点数时按double比较, 否则按long比较
+         *
+         * @return 负数、0、正数, 有NaN时返回UNKNOWN
+         */
+        private static int compare(Number a, Number b) {
+            if (isFloating(a) || isFloating(b)) {
+                final double x = a.doubleValue();
+                final double y = b.doubleValue();
+                if (Double.isNaN(x) || Double.isNaN(y)) {
+                    return UNKNOWN;
+                }
+                return x == y ? 0 : x < y ? -2 : 2;
+            }
+            final long x = a.longValue();
+            final long y = b.longValue();
+            return x == y ? 0 : x < y ? -2 : 2;
+        }
+    }
+
+}
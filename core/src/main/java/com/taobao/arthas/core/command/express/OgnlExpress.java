@@ -1,30 +1,40 @@
 package com.taobao.arthas.core.command.express;
 
+import com.taobao.arthas.core.advisor.Advice;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.middleware.logger.Logger;
 
 import ognl.ClassResolver;
-import ognl.DefaultMemberAccess;
 import ognl.MemberAccess;
 import ognl.Ognl;
 import ognl.OgnlContext;
+import ognl.OgnlException;
 
 /**
  * @author ralf0131 2017-01-04 14:41.
  * @author hengyunabc 2018-10-18
  */
 public class OgnlExpress implements Express {
-    private static final MemberAccess MEMBER_ACCESS = new DefaultMemberAccess(true);
+    private static final MemberAccess MEMBER_ACCESS = AccessibleMemberAccess.INSTANCE;
+    // 所有线程共享的表达式树缓存
+    private static final ExpressCache expressCache = new ExpressCache(ExpressCache.DEFAULT_CAPACITY);
     Logger logger = LogUtil.getArthasLogger();
 
     private Object bindObject;
     private final OgnlContext context;
+    private final ClassResolver classResolver;
+
+    // 最近一次执行的表达式树, 同一线程上通常反复执行同一个表达式, 命中时不需要访问共享缓存
+    private String lastExpress;
+    private ClassLoader lastLoader;
+    private ExpressCache.Entry lastEntry;
 
     public OgnlExpress() {
         this(CustomClassResolver.customClassResolver);
     }
 
     public OgnlExpress(ClassResolver classResolver) {
+        this.classResolver = classResolver;
         context = new OgnlContext();
         context.setClassResolver(classResolver);
         // allow private field access
@@ -34,7 +44,7 @@ public class OgnlExpress implements Express {
     @Override
     public Object get(String express) throws ExpressException {
         try {
-            return Ognl.getValue(express, context, bindObject);
+            return Ognl.getValue(parse(express).tree, context, bindObject);
         } catch (Exception e) {
             logger.error(null, "Error during evaluating the expression:", e);
             throw new ExpressException(express, e);
@@ -43,10 +53,40 @@ public class OgnlExpress implements Express {
 
     @Override
     public boolean is(String express) throws ExpressException {
+        if (bindObject instanceof Advice) {
+            // 常见的简单条件直接求值, 无法快速求值时仍由OGNL执行
+            final FastPathCondition condition = parseQuietly(express);
+            final int result = null == condition ? FastPathCondition.UNKNOWN
+                    : condition.test((Advice) bindObject, context);
+            if (result != FastPathCondition.UNKNOWN) {
+                return result == FastPathCondition.TRUE;
+            }
+        }
         final Object ret = get(express);
         return null != ret && ret instanceof Boolean && (Boolean) ret;
     }
 
+    // 表达式有语法错误时返回null, 由OGNL报告错误
+    private FastPathCondition parseQuietly(String express) {
+        try {
+            return parse(express).condition;
+        } catch (OgnlException e) {
+            return null;
+        }
+    }
+
+    private ExpressCache.Entry parse(String express) throws OgnlException {
+        final ClassLoader loader = classResolver instanceof ClassLoaderClassResolver
+                ? ((ClassLoaderClassResolver) classResolver).getClassLoader()
+                : Thread.currentThread().getContextClassLoader();
+        if (loader != lastLoader || !express.equals(lastExpress)) {
+            lastEntry = expressCache.parse(express, loader);
+            lastExpress = express;
+            lastLoader = loader;
+        }
+        return lastEntry;
+    }
+
     @Override
     public Express bind(Object object) {
         this.bindObject = object;
@@ -61,10 +101,8 @@ public class OgnlExpress implements Express {
 
     @Override
     public Express reset() {
-        context.clear();
-        context.setClassResolver(CustomClassResolver.customClassResolver);
-        // allow private field access
-        context.setMemberAccess(MEMBER_ACCESS);
+        // 只清除绑定的变量(包括表达式中赋值的变量), 类解析器和成员访问策略不需要每次重新设置
+        context.getValues().clear();
         return this;
     }
 }
@@ -1,26 +1,45 @@
 package com.taobao.arthas.core.command.monitor200;
 
 import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.AdviceSite;
 import com.taobao.arthas.core.advisor.ArthasMethod;
 import com.taobao.arthas.core.advisor.ReflectAdviceListenerAdapter;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.util.LogUtil;
-import com.taobao.arthas.core.util.ThreadLocalWatch;
+
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
+ * 调用过程记录在每个线程可复用的{@link TraceRecorder}中，
+ * 只有最外层的方法结束时才解析Class/Method、判断条件，满足条件时复制记录交给后台线程绘制；
+ * 聚合模式下则合并到{@link TraceAggregator}中，由定时任务每个周期输出一次
+ * <p/>
+ * 指定--min-cost时，最外层方法结束后先直接比较耗时，低于阈值的调用只清空记录，
+ * 不解析Class/Method、不创建Advice、不执行OGNL
+ * <p/>
+ * 指定--depth时由{@link TraceDrillDown}每个周期自动增强耗时最多的被调用方法
+ *
  * @author ralf0131 2017-01-06 16:02.
  */
 public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
 
-    protected final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
     protected TraceCommand command;
     protected CommandProcess process;
+    protected final DeferredRenderer renderer;
+    // 聚合模式下的聚合树及输出定时任务,非聚合模式时为null
+    protected final TraceAggregator aggregator;
+    // 耗时阈值(纳秒),小于0时不过滤
+    private final long minCostNanos;
+    // 指定--depth时的逐层增强,未开始时为null
+    private volatile TraceDrillDown drillDown;
+    private Timer timer;
 
-    protected final ThreadLocal<TraceEntity> threadBoundEntity = new ThreadLocal<TraceEntity>() {
+    protected final ThreadLocal<TraceRecorder> threadBoundRecorder = new ThreadLocal<TraceRecorder>() {
 
         @Override
-        protected TraceEntity initialValue() {
-            return new TraceEntity();
+        protected TraceRecorder initialValue() {
+            return new TraceRecorder();
         }
     };
 
@@ -30,26 +49,98 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
     public AbstractTraceAdviceListener(TraceCommand command, CommandProcess process) {
         this.command = command;
         this.process = process;
+        this.renderer = new DeferredRenderer(process);
+        this.aggregator = command.isAggregate() ? new TraceAggregator() : null;
+        this.minCostNanos = command.getMinCost() < 0 ? -1 : (long) (command.getMinCost() * 1000000);
     }
 
     @Override
-    public void destroy() {
-        threadBoundEntity.remove();
+    public synchronized void create() {
+        if (null != aggregator && null == timer) {
+            final long period = command.getCycle() * 1000L;
+            timer = new Timer("Timer-for-arthas-trace-" + process.session().getSessionId(), true);
+            timer.scheduleAtFixedRate(new AggregateTimer(), period, period);
+        }
+    }
+
+    /**
+     * 开始逐层增强被调用方法，每个周期增强一次
+     *
+     * @param adviceId 本监听器的通知ID
+     */
+    synchronized void startDrillDown(int adviceId) {
+        drillDown = new TraceDrillDown(command, process, adviceId);
+        if (null == timer) {
+            timer = new Timer("Timer-for-arthas-trace-" + process.session().getSessionId(), true);
+        }
+        final long period = command.getCycle() * 1000L;
+        timer.scheduleAtFixedRate(new DrillDownTimer(), period, period);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        drillDown = null;
+        threadBoundRecorder.remove();
+        if (null != timer) {
+            timer.cancel();
+            timer = null;
+        }
+        if (null != aggregator) {
+            aggregator.destroy();
+        }
+    }
+
+    @Override
+    public void before(AdviceSite site, Object target, Object[] args) throws Throwable {
+        final TraceRecorder recorder = threadBoundRecorder.get();
+        final TraceDrillDown drillDown = this.drillDown;
+        if (null != drillDown && !recorder.isRecording() && !drillDown.isRoot(site.getId())) {
+            // 自动增强的方法只在被跟踪的方法内部记录
+            return;
+        }
+        recorder.beginMethod(site.getId());
+    }
+
+    @Override
+    public void afterReturning(AdviceSite site, Object target, Object[] args, Object returnObject)
+            throws Throwable {
+        final TraceRecorder recorder = threadBoundRecorder.get();
+        if (recorder.endMethod() && isCostMet(recorder)) {
+            super.afterReturning(site, target, args, returnObject);
+        }
+    }
+
+    @Override
+    public void afterThrowing(AdviceSite site, Object target, Object[] args, Throwable throwable)
+            throws Throwable {
+        final StackTraceElement[] stackTrace = throwable.getStackTrace();
+        final int lineNumber = stackTrace.length > 0 ? stackTrace[0].getLineNumber() : -1;
+        final TraceRecorder recorder = threadBoundRecorder.get();
+        if (recorder.throwMethod(throwable.getClass().getName(), lineNumber) && isCostMet(recorder)) {
+            super.afterThrowing(site, target, args, throwable);
+        }
+    }
+
+    /**
+     * 本次调用是否达到耗时阈值，未达到时直接清空记录
+     */
+    private boolean isCostMet(TraceRecorder recorder) {
+        if (recorder.getLastCostNanos() >= minCostNanos) {
+            return true;
+        }
+        recorder.reset();
+        return false;
     }
 
     @Override
     public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
             throws Throwable {
-        threadBoundEntity.get().view.begin(clazz.getName() + ":" + method.getName() + "()");
-        threadBoundEntity.get().deep++;
-        // 开始计算本次方法调用耗时
-        threadLocalWatch.start();
+        // 已在before(AdviceSite, Object, Object[])中记录
     }
 
     @Override
     public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                                Object returnObject) throws Throwable {
-        threadBoundEntity.get().view.end();
         final Advice advice = Advice.newForAfterRetuning(loader, clazz, method, target, args, returnObject);
         finishing(advice);
     }
@@ -57,8 +148,6 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
     @Override
     public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                               Throwable throwable) throws Throwable {
-        int lineNumber = throwable.getStackTrace()[0].getLineNumber();
-        threadBoundEntity.get().view.begin("throw:" + throwable.getClass().getName() + "()" + " #" + lineNumber).end().end();
         final Advice advice = Advice.newForAfterThrowing(loader, clazz, method, target, args, throwable);
         finishing(advice);
     }
@@ -68,28 +157,85 @@ public class AbstractTraceAdviceListener extends ReflectAdviceListenerAdapter {
     }
 
     private void finishing(Advice advice) {
+        final TraceRecorder recorder = threadBoundRecorder.get();
         // 本次调用的耗时
-        double cost = threadLocalWatch.costInMillis();
-        if (--threadBoundEntity.get().deep == 0) {
-            try {
-                if (isConditionMet(command.getConditionExpress(), advice, cost)) {
-                    // 满足输出条件
-                    if (isLimitExceeded(command.getNumberOfLimit(), process.times().get())) {
-                        // TODO: concurrency issue to abort process
+        double cost = recorder.getLastCostInMillis();
+        try {
+            if (isConditionMet(command.getConditionExpress(), advice, cost)) {
+                // 满足输出条件
+                if (null != aggregator) {
+                    // 聚合模式下按周期输出,次数限制由定时任务判断
+                    aggregator.add(recorder);
+                } else {
+                    final int times = process.times().incrementAndGet();
+                    if (times > command.getNumberOfLimit()) {
+                        // 已经达到执行次数上限, 正在结束命令
+                        return;
+                    }
+                    // 调用树已经完整,复制记录交给后台线程物化并绘制
+                    final TraceRecorder snapshot = recorder.copy();
+                    renderer.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            process.write(snapshot.draw() + "\n");
+                            final TraceDrillDown drillDown = AbstractTraceAdviceListener.this.drillDown;
+                            if (null != drillDown) {
+                                drillDown.collect(snapshot);
+                            }
+                        }
+                    });
+                    if (isLimitExceeded(command.getNumberOfLimit(), times)) {
+                        // 先输出已经采集的结果再结束命令
+                        renderer.flush();
                         abortProcess(process, command.getNumberOfLimit());
-                    } else {
-                        process.times().incrementAndGet();
-                        // TODO: concurrency issues for process.write
-                        process.write(threadBoundEntity.get().view.draw() + "\n");
                     }
                 }
-            } catch (Throwable e) {
-                LogUtil.getArthasLogger().warn("trace failed.", e);
-                process.write("trace failed, condition is: " + command.getConditionExpress() + ", " + e.getMessage()
-                              + ", visit " + LogUtil.LOGGER_FILE + " for more details.\n");
-                process.end();
-            } finally {
-                threadBoundEntity.remove();
+            }
+        } catch (Throwable e) {
+            LogUtil.getArthasLogger().warn("trace failed.", e);
+            process.write("trace failed, condition is: " + command.getConditionExpress() + ", " + e.getMessage()
+                          + ", visit " + LogUtil.LOGGER_FILE + " for more details.\n");
+            process.end();
+        } finally {
+            recorder.reset();
+        }
+    }
+
+    /**
+     * 聚合模式下每个周期输出一次聚合调用树
+     */
+    private class AggregateTimer extends TimerTask {
+
+        @Override
+        public void run() {
+            final TraceAggregator.Summary summary = aggregator.drain();
+            if (summary.getInvocations() == 0) {
+                return;
+            }
+            // 超过次数上限，则不再输出，命令终止
+            if (process.times().getAndIncrement() >= command.getNumberOfLimit()) {
+                this.cancel();
+                abortProcess(process, command.getNumberOfLimit());
+                return;
+            }
+            process.write(summary.draw(command.getCycle()) + "\n");
+            final TraceDrillDown drillDown = AbstractTraceAdviceListener.this.drillDown;
+            if (null != drillDown) {
+                drillDown.collect(summary);
+            }
+        }
+    }
+
+    /**
+     * 逐层增强时每个周期增强一次耗时最多的被调用方法
+     */
+    private class DrillDownTimer extends TimerTask {
+
+        @Override
+        public void run() {
+            final TraceDrillDown drillDown = AbstractTraceAdviceListener.this.drillDown;
+            if (null != drillDown && process.isRunning()) {
+                drillDown.drill();
             }
         }
     }
@@ -0,0 +1,107 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.server.ArthasBootstrap;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.middleware.logger.Logger;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 延迟渲染<br/>
+ * 监听器在业务线程上只采集原始数据(时间戳、耗时、对象引用等)并提交渲染任务，
+ * 日期格式化、ObjectView/TreeView/表格渲染及ANSI着色都在Arthas的后台线程上执行。
+ * 同一个命令的渲染任务串行执行，按提交顺序输出；待渲染的任务超过上限时丢弃并计数
+ * <p/>
+ * 渲染任务不应再读取调用现场的可变对象：渲染时对象可能已经被修改。需要展示的值在业务线程上保存为
+ * 快照、字符串或不可变的数据后再提交。执行次数的判断和结束命令也在业务线程上进行，结束前先调用{@link #flush()}
+ */
+class DeferredRenderer {
+
+    private static final Logger logger = LogUtil.getArthasLogger();
+
+    // 待渲染任务数的上限
+    private static final int MAX_PENDING_TASKS = 1024;
+
+    private final CommandProcess process;
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+    private final AtomicLong droppedTasks = new AtomicLong();
+    // 是否已经有后台线程在渲染
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainInBackground();
+        }
+    };
+
+    DeferredRenderer(CommandProcess process) {
+        this.process = process;
+    }
+
+    /**
+     * 提交渲染任务，不等待任务执行
+     *
+     * @param task 渲染并输出的任务
+     */
+    void submit(Runnable task) {
+        if (pendingTasks.incrementAndGet() > MAX_PENDING_TASKS) {
+            pendingTasks.decrementAndGet();
+            droppedTasks.incrementAndGet();
+            return;
+        }
+        pending.offer(task);
+
+        if (draining.compareAndSet(false, true)) {
+            try {
+                ArthasBootstrap.getInstance().execute(drainTask);
+            } catch (RuntimeException e) {
+                // 后台线程不可用(未初始化或已关闭)时在当前线程渲染
+                draining.set(false);
+                drain();
+            }
+        }
+    }
+
+    /**
+     * 在当前线程渲染所有待渲染的任务，后台线程正在渲染时等待其完成，用于结束命令前输出已经采集的结果
+     */
+    void flush() {
+        drain();
+    }
+
+    private void drainInBackground() {
+        do {
+            try {
+                drain();
+            } finally {
+                draining.set(false);
+            }
+            // 释放标记后又有新任务提交,且没有其它线程接手时继续渲染
+        } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private synchronized void drain() {
+        Runnable task;
+        while (null != (task = pending.poll())) {
+            pendingTasks.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.warn("render advice output failed.", t);
+                process.write("render failed, " + t.getMessage() + ", visit " + LogUtil.LOGGER_FILE
+                        + " for more details.\n");
+            }
+        }
+
+        final long dropped = droppedTasks.getAndSet(0);
+        if (dropped > 0) {
+            process.write("[arthas] " + dropped + " record(s) dropped because too many are waiting to be rendered.\n");
+        }
+    }
+
+}
@@ -5,7 +5,11 @@ import java.lang.instrument.UnmodifiableClassException;
 import java.util.Collections;
 import java.util.List;
 
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.advisor.AdviceBudget;
 import com.taobao.arthas.core.advisor.AdviceListener;
+import com.taobao.arthas.core.advisor.AdviceSampler;
+import com.taobao.arthas.core.advisor.AdviceWeaver;
 import com.taobao.arthas.core.advisor.Enhancer;
 import com.taobao.arthas.core.advisor.InvokeTraceable;
 import com.taobao.arthas.core.shell.cli.Completion;
@@ -19,6 +23,9 @@ import com.taobao.arthas.core.util.Constants;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.arthas.core.util.affect.EnhancerAffect;
 import com.taobao.arthas.core.util.matcher.Matcher;
+import com.taobao.arthas.core.util.matcher.TrueMatcher;
+import com.taobao.middleware.cli.annotations.Description;
+import com.taobao.middleware.cli.annotations.Option;
 import com.taobao.middleware.logger.Logger;
 
 /**
@@ -34,6 +41,42 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
     protected Matcher classNameMatcher;
     protected Matcher methodNameMatcher;
 
+    // 采样比例,为null时不按比例采样
+    private Double sampleRate;
+    // 采样间隔,为null时不按间隔采样
+    private Integer sampleEvery;
+
+    @Option(longName = "sample-rate")
+    @Description("Only notify a random fraction of invocations, e.g. 0.01 for 1%")
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @Option(longName = "sample-every")
+    @Description("Only notify one of every N invocations (counted per thread)")
+    public void setSampleEvery(int sampleEvery) {
+        this.sampleEvery = sampleEvery;
+    }
+
+    /**
+     * 获取通知采样器
+     *
+     * @return 通知采样器, 未开启采样时返回null
+     * @throws IllegalArgumentException 采样参数不合法
+     */
+    protected AdviceSampler getAdviceSampler() {
+        if (null != sampleRate && null != sampleEvery) {
+            throw new IllegalArgumentException("--sample-rate and --sample-every can not be used together");
+        }
+        if (null != sampleRate) {
+            return AdviceSampler.rate(sampleRate);
+        }
+        if (null != sampleEvery) {
+            return AdviceSampler.every(sampleEvery);
+        }
+        return null;
+    }
+
     /**
      * 类名匹配
      *
@@ -48,6 +91,15 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
      */
     protected abstract Matcher getMethodNameMatcher();
 
+    /**
+     * 需要跟踪的方法调用所属的类匹配，只对跟踪方法调用的监听器({@link InvokeTraceable})生效
+     *
+     * @return 类(内部名)匹配, 默认跟踪所有方法调用
+     */
+    protected Matcher<String> getInvokeTracingMatcher() {
+        return new TrueMatcher<String>();
+    }
+
     /**
      * 获取监听器
      *
@@ -55,6 +107,14 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
      */
     protected abstract AdviceListener getAdviceListener(CommandProcess process);
 
+    /**
+     * 监听器注册后回调，子类可以据此在命令执行期间继续用同一个通知ID增强其他类
+     *
+     * @param adviceId 通知ID
+     */
+    protected void onRegistered(CommandProcess process, int adviceId, AdviceListener listener) {
+    }
+
     @Override
     public void process(final CommandProcess process) {
         // ctrl-C support
@@ -105,6 +165,15 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
     }
 
     protected void enhance(CommandProcess process) {
+        final AdviceSampler sampler;
+        try {
+            sampler = getAdviceSampler();
+        } catch (IllegalArgumentException e) {
+            process.write(e.getMessage() + "\n");
+            process.end();
+            return;
+        }
+
         Session session = process.session();
         if (!session.tryLock()) {
             process.write("someone else is enhancing classes, pls. wait.\n");
@@ -119,13 +188,8 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
                 warn(process, "advice listener is null");
                 return;
             }
-            boolean skipJDKTrace = false;
-            if(listener instanceof AbstractTraceAdviceListener) {
-                skipJDKTrace = ((AbstractTraceAdviceListener) listener).getCommand().isSkipJDKTrace();
-            }
-
             EnhancerAffect effect = Enhancer.enhance(inst, lock, listener instanceof InvokeTraceable,
-                    skipJDKTrace, getClassNameMatcher(), getMethodNameMatcher());
+                    getInvokeTracingMatcher(), getClassNameMatcher(), getMethodNameMatcher());
 
             if (effect.cCnt() == 0 || effect.mCnt() == 0) {
                 // no class effected
@@ -141,14 +205,23 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
 
             // 这里做个补偿,如果在enhance期间,unLock被调用了,则补偿性放弃
             if (session.getLock() == lock) {
-                // 注册通知监听器
+                // 设置采样器及开销预算,注册通知监听器
+                AdviceWeaver.sampling(lock, sampler);
+                final double adviceBudget = GlobalOptions.adviceBudget;
+                if (adviceBudget > 0) {
+                    AdviceWeaver.budget(lock, new AdviceBudget(lock, adviceBudget, process));
+                }
                 process.register(lock, listener);
+                onRegistered(process, lock, listener);
                 if (process.isForeground()) {
                     process.echoTips(Constants.Q_OR_CTRL_C_ABORT_MSG + "\n");
                 }
             }
 
             process.write(effect + "\n");
+            if (null != sampler) {
+                process.write("Only sampled invocations will be notified, " + sampler + "\n");
+            }
         } catch (UnmodifiableClassException e) {
             logger.error(null, "error happens when enhancing class", e);
         } finally {
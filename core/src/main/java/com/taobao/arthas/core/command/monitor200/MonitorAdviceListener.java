@@ -1,21 +1,27 @@
 package com.taobao.arthas.core.command.monitor200;
 
-import com.taobao.arthas.core.advisor.ReflectAdviceListenerAdapter;
+import com.taobao.arthas.core.advisor.AdviceListenerAdapter;
+import com.taobao.arthas.core.advisor.AdviceSite;
 import com.taobao.arthas.core.shell.command.CommandProcess;
-import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.util.StringUtils;
 import com.taobao.arthas.core.util.ThreadLocalWatch;
+import com.taobao.arthas.core.util.metrics.LatencyHistogram;
+import com.taobao.arthas.core.util.metrics.StripedCounter;
 import com.taobao.text.Decoration;
+import com.taobao.text.ui.Element;
 import com.taobao.text.ui.TableElement;
 import com.taobao.text.util.RenderUtil;
 
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.taobao.arthas.core.util.ArthasCheckUtils.isEquals;
 import static com.taobao.text.ui.Element.label;
@@ -63,14 +69,33 @@ import static com.taobao.text.ui.Element.label;
  * <td>0%</td>
  * </tr>
  * </table>
+ * <p/>
+ * 每个被监控的方法(通知点)持有一组分段计数器，业务线程只做无锁累加、不分配对象，
+ * 定时任务汇总各段并清零后输出
+ * <p/>
+ * 开启-H时每个方法另外持有一个对数线性分桶的耗时直方图，每个周期额外输出p50/p90/p99/p999/max耗时
  *
  * @author beiwei30 on 28/11/2016.
  */
-class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
+class MonitorAdviceListener extends AdviceListenerAdapter {
+
+    // -- 计数器下标 --
+    private static final int TOTAL = 0;
+    private static final int SUCCESS = 1;
+    private static final int FAILED = 2;
+    private static final int COST = 3;
+    private static final int COUNTERS = 4;
+
+    // 直方图模式下输出的分位数
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_LABELS = {"p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)"};
+
     // 输出定时任务
     private Timer timer;
-    // 监控数据
-    private ConcurrentHashMap<Key, AtomicReference<Data>> monitorData = new ConcurrentHashMap<Key, AtomicReference<Data>>();
+    // 监控数据,下标为siteId
+    private volatile MonitorData[] monitorDataBySite = new MonitorData[0];
+    // 监控数据,按首次调用的顺序排列,供定时任务遍历
+    private final List<MonitorData> monitorData = new CopyOnWriteArrayList<MonitorData>();
     private final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
     private MonitorCommand command;
     private CommandProcess process;
@@ -84,8 +109,8 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
     public synchronized void create() {
         if (timer == null) {
             timer = new Timer("Timer-for-arthas-monitor-" + process.session().getSessionId(), true);
-            timer.scheduleAtFixedRate(new MonitorTimer(monitorData, process, command.getNumberOfLimit()),
-                    0, command.getCycle() * 1000);
+            timer.scheduleAtFixedRate(new MonitorTimer(monitorData, process, command.getNumberOfLimit(),
+                            command.isHistogram()), 0, command.getCycle() * 1000);
         }
     }
 
@@ -98,63 +123,73 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
     }
 
     @Override
-    public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
-            throws Throwable {
+    public void before(AdviceSite site, Object target, Object[] args) throws Throwable {
         threadLocalWatch.start();
     }
 
     @Override
-    public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
-                               Object[] args, Object returnObject) throws Throwable {
-        finishing(clazz, method, false);
+    public void afterReturning(AdviceSite site, Object target, Object[] args, Object returnObject)
+            throws Throwable {
+        finishing(site, false);
     }
 
     @Override
-    public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
-                              Object[] args, Throwable throwable) {
-        finishing(clazz, method, true);
+    public void afterThrowing(AdviceSite site, Object target, Object[] args, Throwable throwable) {
+        finishing(site, true);
     }
 
-    private void finishing(Class<?> clazz, ArthasMethod method, boolean isThrowing) {
-        double cost = threadLocalWatch.costInMillis();
-        final Key key = new Key(clazz.getName(), method.getName());
+    private void finishing(AdviceSite site, boolean isThrowing) {
+        final long cost = threadLocalWatch.cost();
+        final MonitorData data = getMonitorData(site);
+        data.counter.add(TOTAL, 1, isThrowing ? FAILED : SUCCESS, 1, COST, cost);
+        if (null != data.histogram) {
+            data.histogram.record(cost);
+        }
+    }
 
-        while (true) {
-            AtomicReference<Data> value = monitorData.get(key);
-            if (null == value) {
-                monitorData.putIfAbsent(key, new AtomicReference<Data>(new Data()));
-                continue;
+    private MonitorData getMonitorData(AdviceSite site) {
+        final int siteId = site.getId();
+        final MonitorData[] dataBySite = monitorDataBySite;
+        if (siteId < dataBySite.length) {
+            final MonitorData data = dataBySite[siteId];
+            if (null != data) {
+                return data;
             }
+        }
+        return createMonitorData(site);
+    }
 
-            while (true) {
-                Data oData = value.get();
-                Data nData = new Data();
-                nData.setCost(oData.getCost() + cost);
-                if (isThrowing) {
-                    nData.setFailed(oData.getFailed() + 1);
-                    nData.setSuccess(oData.getSuccess());
-                } else {
-                    nData.setFailed(oData.getFailed());
-                    nData.setSuccess(oData.getSuccess() + 1);
-                }
-                nData.setTotal(oData.getTotal() + 1);
-                if (value.compareAndSet(oData, nData)) {
-                    break;
-                }
-            }
-            break;
+    private synchronized MonitorData createMonitorData(AdviceSite site) {
+        final int siteId = site.getId();
+        MonitorData[] dataBySite = monitorDataBySite;
+        if (siteId < dataBySite.length && null != dataBySite[siteId]) {
+            return dataBySite[siteId];
         }
+        if (siteId >= dataBySite.length) {
+            final MonitorData[] newDataBySite = new MonitorData[Math.max(siteId + 1, AdviceSite.capacity())];
+            System.arraycopy(dataBySite, 0, newDataBySite, 0, dataBySite.length);
+            dataBySite = newDataBySite;
+        }
+        final MonitorData data = new MonitorData(
+                new Key(StringUtils.normalizeClassName(site.getClassName()), site.getMethodName()),
+                command.isHistogram() ? new LatencyHistogram() : null);
+        dataBySite[siteId] = data;
+        monitorDataBySite = dataBySite;
+        monitorData.add(data);
+        return data;
     }
 
     private class MonitorTimer extends TimerTask {
-        private Map<Key, AtomicReference<Data>> monitorData;
+        private List<MonitorData> monitorData;
         private CommandProcess process;
         private int limit;
+        private boolean isHistogram;
 
-        MonitorTimer(Map<Key, AtomicReference<Data>> monitorData, CommandProcess process, int limit) {
+        MonitorTimer(List<MonitorData> monitorData, CommandProcess process, int limit, boolean isHistogram) {
             this.monitorData = monitorData;
             this.process = process;
             this.limit = limit;
+            this.isHistogram = isHistogram;
         }
 
         @Override
@@ -169,48 +204,81 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
                 return;
             }
 
-            TableElement table = new TableElement().leftCellPadding(1).rightCellPadding(1);
-            table.row(true, label("timestamp").style(Decoration.bold.bold()),
-                    label("class").style(Decoration.bold.bold()),
-                    label("method").style(Decoration.bold.bold()),
-                    label("total").style(Decoration.bold.bold()),
-                    label("success").style(Decoration.bold.bold()),
-                    label("fail").style(Decoration.bold.bold()),
-                    label("avg-rt(ms)").style(Decoration.bold.bold()),
-                    label("fail-rate").style(Decoration.bold.bold()));
-
-            for (Map.Entry<Key, AtomicReference<Data>> entry : monitorData.entrySet()) {
-                final AtomicReference<Data> value = entry.getValue();
-
-                Data data;
-                while (true) {
-                    data = value.get();
-                    if (value.compareAndSet(data, new Data())) {
-                        break;
+            // 汇总各段计数并清零,同名的重载方法合并为一行输出
+            final Map<Key, Data> summary = new LinkedHashMap<Key, Data>();
+            for (MonitorData value : monitorData) {
+                Data data = summary.get(value.key);
+                if (null == data) {
+                    data = new Data();
+                    summary.put(value.key, data);
+                }
+                final StripedCounter counter = value.counter;
+                data.total += counter.sumThenReset(TOTAL);
+                data.success += counter.sumThenReset(SUCCESS);
+                data.failed += counter.sumThenReset(FAILED);
+                data.cost += counter.sumThenReset(COST);
+                if (null != value.histogram) {
+                    final LatencyHistogram.Snapshot snapshot = value.histogram.snapshotThenReset();
+                    if (null == data.histogram) {
+                        data.histogram = snapshot;
+                    } else {
+                        data.histogram.add(snapshot);
                     }
                 }
+            }
 
-                if (null != data) {
-
-                    final DecimalFormat df = new DecimalFormat("0.00");
-
-                    table.row(
-                            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()),
-                            entry.getKey().getClassName(),
-                            entry.getKey().getMethodName(),
-                            "" + data.getTotal(),
-                            "" + data.getSuccess(),
-                            "" + data.getFailed(),
-                            df.format(div(data.getCost(), data.getTotal())),
-                            df.format(100.0d * div(data.getFailed(), data.getTotal())) + "%"
-                    );
+            final List<String> headers = new ArrayList<String>();
+            headers.add("timestamp");
+            headers.add("class");
+            headers.add("method");
+            headers.add("total");
+            headers.add("success");
+            headers.add("fail");
+            headers.add("avg-rt(ms)");
+            headers.add("fail-rate");
+            if (isHistogram) {
+                for (String percentileLabel : PERCENTILE_LABELS) {
+                    headers.add(percentileLabel);
+                }
+                headers.add("max(ms)");
+            }
 
+            TableElement table = new TableElement().leftCellPadding(1).rightCellPadding(1);
+            final Element[] headerLabels = new Element[headers.size()];
+            for (int index = 0; index < headerLabels.length; index++) {
+                headerLabels[index] = label(headers.get(index)).style(Decoration.bold.bold());
+            }
+            table.row(true, headerLabels);
+
+            final DecimalFormat df = new DecimalFormat("0.00");
+            final String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+            for (Map.Entry<Key, Data> entry : summary.entrySet()) {
+                final Data data = entry.getValue();
+                final List<String> row = new ArrayList<String>();
+                row.add(timestamp);
+                row.add(entry.getKey().getClassName());
+                row.add(entry.getKey().getMethodName());
+                row.add("" + data.total);
+                row.add("" + data.success);
+                row.add("" + data.failed);
+                row.add(df.format(div(data.cost / 1000000.0d, data.total)));
+                row.add(df.format(100.0d * div(data.failed, data.total)) + "%");
+                if (isHistogram) {
+                    for (double percentile : PERCENTILES) {
+                        row.add(df.format(toMillis(data.histogram.getValueAtPercentile(percentile))));
+                    }
+                    row.add(df.format(toMillis(data.histogram.getMax())));
                 }
+                table.row(row.toArray(new String[row.size()]));
             }
 
             process.write(RenderUtil.render(table, process.width()) + "\n");
         }
 
+        private double toMillis(long nanos) {
+            return nanos / 1000000.0d;
+        }
+
         private double div(double a, double b) {
             if (b == 0) {
                 return 0;
@@ -220,6 +288,21 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
 
     }
 
+    /**
+     * 一个通知点的监控数据
+     */
+    private static class MonitorData {
+        private final Key key;
+        private final StripedCounter counter = new StripedCounter(COUNTERS);
+        // 未开启直方图时为null
+        private final LatencyHistogram histogram;
+
+        MonitorData(Key key, LatencyHistogram histogram) {
+            this.key = key;
+            this.histogram = histogram;
+        }
+    }
+
     /**
      * 数据监控用的Key
      *
@@ -260,46 +343,16 @@ class MonitorAdviceListener extends ReflectAdviceListenerAdapter {
     }
 
     /**
-     * 数据监控用的value
+     * 一个统计周期内汇总后的监控数据
      *
      * @author vlinux
      */
     private static class Data {
-        private int total;
-        private int success;
-        private int failed;
-        private double cost;
-
-        public int getTotal() {
-            return total;
-        }
-
-        public void setTotal(int total) {
-            this.total = total;
-        }
-
-        public int getSuccess() {
-            return success;
-        }
-
-        public void setSuccess(int success) {
-            this.success = success;
-        }
-
-        public int getFailed() {
-            return failed;
-        }
-
-        public void setFailed(int failed) {
-            this.failed = failed;
-        }
-
-        public double getCost() {
-            return cost;
-        }
-
-        public void setCost(double cost) {
-            this.cost = cost;
-        }
+        private long total;
+        private long success;
+        private long failed;
+        // 纳秒
+        private long cost;
+        private LatencyHistogram.Snapshot histogram;
     }
 }
@@ -31,6 +31,7 @@ import com.taobao.middleware.cli.annotations.Summary;
         "  monitor org.apache.commons.lang.StringUtils isBlank\n" +
         "  monitor org.apache.commons.lang.StringUtils isBlank -c 5\n" +
         "  monitor -E org\\.apache\\.commons\\.lang\\.StringUtils isBlank\n" +
+        "  monitor -H org.apache.commons.lang.StringUtils isBlank\n" +
         Constants.WIKI + Constants.WIKI_HOME + "monitor")
 public class MonitorCommand extends EnhancerCommand {
 
@@ -39,6 +40,7 @@ public class MonitorCommand extends EnhancerCommand {
     private int cycle = 60;
     private boolean isRegEx = false;
     private int numberOfLimit = 100;
+    private boolean isHistogram = false;
 
     @Argument(argName = "class-pattern", index = 0)             // 类名表达式匹配
     @Description("Path and classname of Pattern Matching")
@@ -70,6 +72,12 @@ public class MonitorCommand extends EnhancerCommand {
         this.numberOfLimit = numberOfLimit;
     }
 
+    @Option(shortName = "H", longName = "histogram", flag = true)   // 输出耗时分位数
+    @Description("Record rt into histogram, print p50/p90/p99/p999/max rt of each cycle")
+    public void setHistogram(boolean histogram) {
+        isHistogram = histogram;
+    }
+
     public String getClassPattern() {
         return classPattern;
     }
@@ -90,6 +98,10 @@ public class MonitorCommand extends EnhancerCommand {
         return numberOfLimit;
     }
 
+    public boolean isHistogram() {
+        return isHistogram;
+    }
+
     @Override
     protected Matcher getClassNameMatcher() {
         if (classNameMatcher == null) {
@@ -16,20 +16,23 @@ import com.taobao.middleware.logger.Logger;
 public class StackAdviceListener extends ReflectAdviceListenerAdapter {
     private static final Logger logger = LogUtil.getArthasLogger();
 
-    private final ThreadLocal<String> stackThreadLocal = new ThreadLocal<String>();
+    private final ThreadLocal<StackTraceElement[]> stackThreadLocal = new ThreadLocal<StackTraceElement[]>();
     private final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
     private StackCommand command;
     private CommandProcess process;
+    private final DeferredRenderer renderer;
 
     public StackAdviceListener(StackCommand command, CommandProcess process) {
         this.command = command;
         this.process = process;
+        this.renderer = new DeferredRenderer(process);
     }
 
     @Override
     public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
             throws Throwable {
-        stackThreadLocal.set(ThreadUtil.getThreadStack(Thread.currentThread()));
+        // 这里只采集堆栈,格式化交给后台线程
+        stackThreadLocal.set(ThreadUtil.captureThreadStack());
         // 开始计算本次方法调用耗时
         threadLocalWatch.start();
     }
@@ -53,10 +56,24 @@ public class StackAdviceListener extends ReflectAdviceListenerAdapter {
         try {
             double cost = threadLocalWatch.costInMillis();
             if (isConditionMet(command.getConditionExpress(), advice, cost)) {
-                // TODO: concurrency issues for process.write
-                process.write("ts=" + DateUtils.getCurrentDate() + ";" + stackThreadLocal.get() + "\n");
-                process.times().incrementAndGet();
-                if (isLimitExceeded(command.getNumberOfLimit(), process.times().get())) {
+                final int times = process.times().incrementAndGet();
+                if (times > command.getNumberOfLimit()) {
+                    // 已经达到执行次数上限, 正在结束命令
+                    return;
+                }
+                final long timestamp = System.currentTimeMillis();
+                final Thread thread = Thread.currentThread();
+                final StackTraceElement[] stack = stackThreadLocal.get();
+                renderer.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        process.write("ts=" + DateUtils.formatDate(timestamp) + ";"
+                                + ThreadUtil.getThreadStack(thread, stack) + "\n");
+                    }
+                });
+                if (isLimitExceeded(command.getNumberOfLimit(), times)) {
+                    // 先输出已经采集的结果再结束命令
+                    renderer.flush();
                     abortProcess(process, command.getNumberOfLimit());
                 }
             }
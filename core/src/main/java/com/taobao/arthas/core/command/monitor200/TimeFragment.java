@@ -1,28 +1,93 @@
 package com.taobao.arthas.core.command.monitor200;
 
 import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.ArthasMethod;
 
 import java.util.Date;
 
+import static java.lang.Integer.toHexString;
+
 /**
- * 时间碎片
+ * 时间碎片<br/>
+ * 默认保存调用现场的对象引用；快照模式下只保存类、方法等元数据，
+ * 参数、返回值及异常在记录时序列化为{@link TimeFragmentSnapshot}，存放在堆内或{@link TimeFragmentStore}的堆外缓冲区中
  */
 class TimeFragment {
 
     public TimeFragment(Advice advice, Date gmtCreate, double cost) {
+        this(advice, gmtCreate, cost, false);
+    }
+
+    private TimeFragment(Advice advice, Date gmtCreate, double cost, boolean isSnapshotOnly) {
+        this(isSnapshotOnly ? null : advice, gmtCreate, cost, advice.isAfterReturning(), advice.isAfterThrowing(),
+                advice.getLoader(), advice.getClazz(), advice.getMethod(),
+                isSnapshotOnly && null != advice.getTarget() ? advice.getTarget().hashCode() : null,
+                advice.isAfterThrowing() && null != advice.getThrowExp() ? advice.getThrowExp().getClass() : null);
+    }
+
+    private TimeFragment(Advice advice, Date gmtCreate, double cost, boolean isReturn, boolean isThrow,
+                         ClassLoader loader, Class<?> clazz, ArthasMethod method, Integer targetHashCode,
+                         Class<?> throwType) {
         this.advice = advice;
         this.gmtCreate = gmtCreate;
         this.cost = cost;
+        this.isReturn = isReturn;
+        this.isThrow = isThrow;
+        this.loader = loader;
+        this.clazz = clazz;
+        this.method = method;
+        this.targetHashCode = targetHashCode;
+        this.throwType = throwType;
+    }
+
+    /**
+     * 创建只保存快照的时间碎片，不持有调用现场的任何对象
+     */
+    static TimeFragment newForSnapshot(Advice advice, Date gmtCreate, double cost) {
+        return new TimeFragment(advice, gmtCreate, cost, true);
+    }
+
+    /**
+     * 还原只保存快照的时间碎片
+     *
+     * @param targetHashCode 调用对象的hashCode, 调用对象为null时为null
+     */
+    static TimeFragment restore(Date gmtCreate, double cost, boolean isReturn, boolean isThrow,
+                                ClassLoader loader, Class<?> clazz, ArthasMethod method, Integer targetHashCode) {
+        return new TimeFragment(null, gmtCreate, cost, isReturn, isThrow, loader, clazz, method, targetHashCode, null);
     }
 
+    // 只保存快照时为null
     private final Advice advice;
     private final Date gmtCreate;
     private final double cost;
+    private final boolean isReturn;
+    private final boolean isThrow;
+    private final ClassLoader loader;
+    private final Class<?> clazz;
+    private final ArthasMethod method;
+    // 只保存快照时在记录时计算,调用对象为null时为null; 否则在展示时计算
+    private final Integer targetHashCode;
+    // 抛出的异常类型, 用于建立异常类型索引; 从溢出区还原的记录为null
+    private final Class<?> throwType;
+
+    // 快照在堆外缓冲区中的位置,由TimeFragmentStore在锁内维护,没有堆外快照时offset为-1
+    int snapshotOffset = -1;
+    int snapshotLength;
+    // 没有堆外缓冲区时快照保存在堆内
+    byte[] heapSnapshot;
 
     public Advice getAdvice() {
         return advice;
     }
 
+    /**
+     * 是否只保存了快照，此时无法获取调用现场的对象
+     */
+    public boolean isSnapshotOnly() {
+        return null == advice;
+    }
+
     public Date getGmtCreate() {
         return gmtCreate;
     }
@@ -30,4 +95,60 @@ class TimeFragment {
     public double getCost() {
         return cost;
     }
+
+    public boolean isReturn() {
+        return isReturn;
+    }
+
+    public boolean isThrow() {
+        return isThrow;
+    }
+
+    public ClassLoader getLoader() {
+        return loader;
+    }
+
+    public Class<?> getClazz() {
+        return clazz;
+    }
+
+    public ArthasMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * 抛出的异常类型，没有抛出异常或从溢出区还原时返回null
+     */
+    public Class<?> getThrowType() {
+        return throwType;
+    }
+
+    public String getClassName() {
+        return clazz.getName();
+    }
+
+    public String getMethodName() {
+        return method.getName();
+    }
+
+    /**
+     * 调用对象是否为null, 即静态方法
+     */
+    public boolean isTargetNull() {
+        return isSnapshotOnly() ? null == targetHashCode : null == advice.getTarget();
+    }
+
+    /**
+     * 调用对象的hashCode, 调用对象为null时返回0
+     */
+    public int getTargetHashCode() {
+        if (isTargetNull()) {
+            return 0;
+        }
+        return isSnapshotOnly() ? targetHashCode : advice.getTarget().hashCode();
+    }
+
+    public String getObjectAddress() {
+        return isTargetNull() ? "NULL" : "0x" + toHexString(getTargetHashCode());
+    }
 }
@@ -0,0 +1,492 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 时间碎片的二级索引<br/>
+ * 保存记录时按类名、方法名、抛出的异常类型(含父类和接口)和耗时区间建立按编号递增的倒排表，
+ * 并以固定条数为一块记录每块的最早和最晚时间，tt -s 的常见条件可以直接求出候选编号，
+ * 不需要逐条还原调用现场执行OGNL表达式
+ * <p/>
+ * 倒排表只追加，编号以差值的变长编码保存；被删除或淘汰的编号在查询时由{@link TimeFragmentStore}过滤，
+ * 累积到一定数量后统一压缩。所有修改都在{@link TimeFragmentStore}的锁内执行，
+ * 迭代器只读取创建时已经写入的部分，可以在锁外使用
+ */
+class TimeFragmentIndex {
+
+    // 迭代结束
+    static final int NONE = Integer.MAX_VALUE;
+
+    // 第i个耗时区间为[2^(i-1), 2^i)微秒, 第0个区间为不足1微秒
+    private static final int COST_BUCKETS = 64;
+    // 每块的记录数
+    private static final int BLOCK_SIZE = 64;
+    // 失效的编号少于该值时不压缩
+    private static final int MIN_COMPACT_IDS = 4096;
+    private static final String THROWABLE = Throwable.class.getName();
+    private static final String OBJECT = Object.class.getName();
+
+    private Map<String, IdList> classNames = new HashMap<String, IdList>();
+    private Map<String, IdList> methodNames = new HashMap<String, IdList>();
+    private Map<String, IdList> throwTypes = new HashMap<String, IdList>();
+    private IdList returns = new IdList();
+    private IdList[] costBuckets = new IdList[COST_BUCKETS];
+
+    // 第i块从编号blockIds[i]开始, 时间范围为[blockMinTimes[i], blockMaxTimes[i]]
+    private int[] blockIds = new int[16];
+    private long[] blockMinTimes = new long[16];
+    private long[] blockMaxTimes = new long[16];
+    private int blocks;
+    private int blockCount;
+
+    private int lastId = -1;
+    // 上次压缩时的最小有效编号
+    private int compactedTo;
+
+    /**
+     * 索引一条记录，编号必须递增
+     */
+    void add(int id, TimeFragment tf) {
+        listOf(classNames, tf.getClassName()).add(id);
+        listOf(methodNames, tf.getMethodName()).add(id);
+        if (tf.isReturn()) {
+            returns.add(id);
+        }
+        if (tf.isThrow()) {
+            // 按异常类型的所有父类和接口建立索引, instanceof 条件可以直接命中
+            final Class<?> type = tf.getThrowType();
+            if (null == type) {
+                listOf(throwTypes, THROWABLE).add(id);
+                listOf(throwTypes, OBJECT).add(id);
+            } else {
+                for (String typeName : typeNamesOf(type)) {
+                    listOf(throwTypes, typeName).add(id);
+                }
+            }
+        }
+        final int bucket = costBucket(tf.getCost());
+        if (null == costBuckets[bucket]) {
+            costBuckets[bucket] = new IdList();
+        }
+        costBuckets[bucket].add(id);
+
+        final long time = tf.getGmtCreate().getTime();
+        if (0 == blocks || blockCount == BLOCK_SIZE) {
+            if (blocks == blockIds.length) {
+                blockIds = copyOf(blockIds, blocks * 2);
+                blockMinTimes = copyOf(blockMinTimes, blocks * 2);
+                blockMaxTimes = copyOf(blockMaxTimes, blocks * 2);
+            }
+            blockIds[blocks] = id;
+            blockMinTimes[blocks] = time;
+            blockMaxTimes[blocks] = time;
+            blocks++;
+            blockCount = 0;
+        } else {
+            blockMinTimes[blocks - 1] = Math.min(blockMinTimes[blocks - 1], time);
+            blockMaxTimes[blocks - 1] = Math.max(blockMaxTimes[blocks - 1], time);
+        }
+        blockCount++;
+        lastId = id;
+    }
+
+    /**
+     * 丢弃小于指定编号的索引，失效的编号足够多时才真正压缩
+     *
+     * @param firstId 最小的有效编号
+     */
+    void trim(int firstId) {
+        final int dead = firstId - compactedTo;
+        if (dead < MIN_COMPACT_IDS || dead < lastId - firstId) {
+            return;
+        }
+        classNames = compact(classNames, firstId);
+        methodNames = compact(methodNames, firstId);
+        throwTypes = compact(throwTypes, firstId);
+        returns = returns.compact(firstId);
+        for (int i = 0; i < COST_BUCKETS; i++) {
+            if (null != costBuckets[i]) {
+                costBuckets[i] = costBuckets[i].compact(firstId);
+            }
+        }
+        // 保留包含firstId的块
+        int from = 0;
+        while (from + 1 < blocks && blockIds[from + 1] <= firstId) {
+            from++;
+        }
+        blockIds = copyOfRange(blockIds, from, blocks);
+        blockMinTimes = copyOfRange(blockMinTimes, from, blocks);
+        blockMaxTimes = copyOfRange(blockMaxTimes, from, blocks);
+        blocks -= from;
+        compactedTo = firstId;
+    }
+
+    void clear() {
+        classNames = new HashMap<String, IdList>();
+        methodNames = new HashMap<String, IdList>();
+        throwTypes = new HashMap<String, IdList>();
+        returns = new IdList();
+        costBuckets = new IdList[COST_BUCKETS];
+        blockIds = new int[16];
+        blockMinTimes = new long[16];
+        blockMaxTimes = new long[16];
+        blocks = 0;
+        compactedTo = lastId + 1;
+    }
+
+    IdIterator className(String className) {
+        return iteratorOf(classNames.get(className));
+    }
+
+    IdIterator methodName(String methodName) {
+        return iteratorOf(methodNames.get(methodName));
+    }
+
+    /**
+     * 抛出指定类型(含子类和实现类)异常的记录
+     */
+    IdIterator throwType(String typeName) {
+        return iteratorOf(throwTypes.get(typeName));
+    }
+
+    IdIterator throwing() {
+        return throwType(THROWABLE);
+    }
+
+    IdIterator returning() {
+        return returns.iterator();
+    }
+
+    /**
+     * 耗时可能在[min, max]毫秒之间的记录，边界所在区间的记录需要再精确比较
+     */
+    IdIterator cost(double min, double max) {
+        final List<IdIterator> iterators = new ArrayList<IdIterator>();
+        for (int i = 0; i < COST_BUCKETS; i++) {
+            if (null != costBuckets[i]
+                    && bucketUpper(i) / 1000.0 >= min && bucketLower(i) / 1000.0 <= max) {
+                iterators.add(costBuckets[i].iterator());
+            }
+        }
+        return union(iterators);
+    }
+
+    /**
+     * 时间可能在[from, to]毫秒之间的记录，需要再精确比较
+     */
+    IdIterator time(long from, long to) {
+        final int[] ranges = new int[blocks * 2];
+        int count = 0;
+        for (int i = 0; i < blocks; i++) {
+            if (blockMaxTimes[i] < from || blockMinTimes[i] > to) {
+                continue;
+            }
+            final int end = i + 1 < blocks ? blockIds[i + 1] : lastId + 1;
+            if (count > 0 && ranges[count - 1] == blockIds[i]) {
+                // 与上一块相连
+                ranges[count - 1] = end;
+            } else {
+                ranges[count++] = blockIds[i];
+                ranges[count++] = end;
+            }
+        }
+        return new RangeIterator(ranges, count);
+    }
+
+    static IdIterator union(List<IdIterator> iterators) {
+        if (iterators.isEmpty()) {
+            return new RangeIterator(new int[0], 0);
+        }
+        return 1 == iterators.size() ? iterators.get(0) : new UnionIterator(iterators);
+    }
+
+    static IdIterator intersection(List<IdIterator> iterators) {
+        return 1 == iterators.size() ? iterators.get(0) : new IntersectionIterator(iterators);
+    }
+
+    static int costBucket(double cost) {
+        final long micros = (long) (cost * 1000);
+        return micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+    }
+
+    // 区间内的最小耗时(微秒)
+    private static long bucketLower(int bucket) {
+        return 0 == bucket ? 0 : 1L << (bucket - 1);
+    }
+
+    // 区间外的最小耗时(微秒)
+    private static long bucketUpper(int bucket) {
+        return 0 == bucket ? 1 : bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * 类型自身、所有父类(含Object)以及直接和间接实现的接口
+     */
+    static Set<String> typeNamesOf(Class<?> type) {
+        final Set<String> names = new LinkedHashSet<String>();
+        for (Class<?> clazz = type; null != clazz; clazz = clazz.getSuperclass()) {
+            addTypeNames(clazz, names);
+        }
+        return names;
+    }
+
+    private static void addTypeNames(Class<?> type, Set<String> names) {
+        if (!names.add(type.getName())) {
+            return;
+        }
+        for (Class<?> face : type.getInterfaces()) {
+            addTypeNames(face, names);
+        }
+    }
+
+    private static IdList listOf(Map<String, IdList> lists, String key) {
+        IdList list = lists.get(key);
+        if (null == list) {
+            list = new IdList();
+            lists.put(key, list);
+        }
+        return list;
+    }
+
+    private static IdIterator iteratorOf(IdList list) {
+        return null == list ? new RangeIterator(new int[0], 0) : list.iterator();
+    }
+
+    private static Map<String, IdList> compact(Map<String, IdList> lists, int firstId) {
+        final Map<String, IdList> result = new HashMap<String, IdList>();
+        for (Iterator<Map.Entry<String, IdList>> it = lists.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<String, IdList> entry = it.next();
+            final IdList list = entry.getValue().compact(firstId);
+            if (!list.isEmpty()) {
+                result.put(entry.getKey(), list);
+            }
+        }
+        return result;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        final int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, Math.min(array.length, length));
+        return result;
+    }
+
+    private static long[] copyOf(long[] array, int length) {
+        final long[] result = new long[length];
+        System.arraycopy(array, 0, result, 0, Math.min(array.length, length));
+        return result;
+    }
+
+    private static int[] copyOfRange(int[] array, int from, int to) {
+        final int[] result = new int[Math.max(16, to - from)];
+        System.arraycopy(array, from, result, 0, to - from);
+        return result;
+    }
+
+    private static long[] copyOfRange(long[] array, int from, int to) {
+        final long[] result = new long[Math.max(16, to - from)];
+        System.arraycopy(array, from, result, 0, to - from);
+        return result;
+    }
+
+    /**
+     * 递增编号的倒排表，保存与前一个编号的差值(变长编码)，只追加
+     */
+    static class IdList {
+
+        private byte[] data = new byte[8];
+        private int length;
+        private int last = -1;
+
+        void add(int id) {
+            int delta = last < 0 ? id : id - last;
+            if (length + 5 > data.length) {
+                final byte[] newData = new byte[data.length * 2];
+                System.arraycopy(data, 0, newData, 0, length);
+                data = newData;
+            }
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            last = id;
+        }
+
+        boolean isEmpty() {
+            return 0 == length;
+        }
+
+        /**
+         * 去掉小于指定编号的部分，返回新的倒排表，原有的迭代器不受影响
+         */
+        IdList compact(int firstId) {
+            final IdList result = new IdList();
+            final IdIterator it = iterator();
+            for (int id = it.advance(firstId); id != NONE; id = it.next()) {
+                result.add(id);
+            }
+            return result;
+        }
+
+        IdIterator iterator() {
+            return new ListIterator(data, length);
+        }
+    }
+
+    /**
+     * 按编号递增的迭代器，{@link #NONE}表示结束
+     */
+    abstract static class IdIterator {
+
+        // 当前编号, 还未开始时为-1
+        int current = -1;
+
+        /**
+         * 移动到下一个编号
+         */
+        int next() {
+            return current = fetch();
+        }
+
+        /**
+         * 移动到第一个不小于指定值的编号，当前编号已满足时不移动
+         */
+        int advance(int target) {
+            while (current < target) {
+                current = fetch();
+            }
+            return current;
+        }
+
+        // 读取下一个编号, 结束时返回NONE
+        abstract int fetch();
+    }
+
+    private static class ListIterator extends IdIterator {
+
+        private final byte[] data;
+        private final int length;
+        private int position;
+        private int last;
+
+        ListIterator(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        int fetch() {
+            if (position >= length) {
+                return NONE;
+            }
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return last += delta;
+        }
+    }
+
+    /**
+     * 若干个编号区间[ranges[2i], ranges[2i+1])
+     */
+    private static class RangeIterator extends IdIterator {
+
+        private final int[] ranges;
+        private final int count;
+        private int range;
+
+        RangeIterator(int[] ranges, int count) {
+            this.ranges = ranges;
+            this.count = count;
+        }
+
+        @Override
+        int fetch() {
+            return advance(current + 1);
+        }
+
+        @Override
+        int advance(int target) {
+            if (current >= target) {
+                return current;
+            }
+            for (; range < count; range += 2) {
+                if (target < ranges[range + 1]) {
+                    return current = Math.max(target, ranges[range]);
+                }
+            }
+            return current = NONE;
+        }
+    }
+
+    private static class UnionIterator extends IdIterator {
+
+        private final IdIterator[] iterators;
+
+        UnionIterator(List<IdIterator> iterators) {
+            this.iterators = iterators.toArray(new IdIterator[iterators.size()]);
+        }
+
+        @Override
+        int fetch() {
+            return advance(current + 1);
+        }
+
+        @Override
+        int advance(int target) {
+            if (current >= target) {
+                return current;
+            }
+            int min = NONE;
+            for (IdIterator it : iterators) {
+                min = Math.min(min, it.advance(target));
+            }
+            return current = min;
+        }
+    }
+
+    private static class IntersectionIterator extends IdIterator {
+
+        private final IdIterator[] iterators;
+
+        IntersectionIterator(List<IdIterator> iterators) {
+            this.iterators = iterators.toArray(new IdIterator[iterators.size()]);
+        }
+
+        @Override
+        int fetch() {
+            return advance(current + 1);
+        }
+
+        @Override
+        int advance(int target) {
+            if (current >= target) {
+                return current;
+            }
+            int candidate = iterators[0].advance(target);
+            for (int i = 1; i < iterators.length && candidate != NONE; ) {
+                final int id = iterators[i].advance(candidate);
+                if (id == candidate) {
+                    i++;
+                } else {
+                    // 以更大的编号重新对齐
+                    candidate = iterators[0].advance(id);
+                    i = 1;
+                }
+            }
+            return current = candidate;
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.util.Constants;
+import ognl.ASTConst;
+import ognl.ASTInstanceof;
+import ognl.ASTVarRef;
+import ognl.ExpressionNode;
+import ognl.Node;
+import ognl.Ognl;
+import ognl.OgnlException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * tt -s 检索条件的执行计划<br/>
+ * 表达式按顶层的 &amp;&amp; 拆分，以下条件由{@link TimeFragmentIndex}求出候选编号的交集:
+ * <pre>
+ *     method.name == "name"      clazz.name == "name"
+ *     isThrow    !isThrow        isReturn    !isReturn
+ *     throwExp instanceof java.lang.IllegalStateException
+ *     #cost > 200                #timestamp >= 1480000000000L  (也可以是 >=、<、<=)
+ * </pre>
+ * 其余条件仍由OGNL执行；全部条件都能由索引回答时不需要还原调用现场，也不执行OGNL
+ */
+class TimeFragmentQuery {
+
+    // 记录时间(毫秒), 与#cost一样在检索时绑定
+    static final String TIMESTAMP_VARIABLE = "timestamp";
+
+    private static final String COST = "#" + Constants.COST_VARIABLE;
+    private static final String TIMESTAMP = "#" + TIMESTAMP_VARIABLE;
+
+    private final List<Condition> conditions = new ArrayList<Condition>();
+    // 是否有索引无法回答的条件
+    private boolean hasResidual;
+
+    private TimeFragmentQuery() {
+    }
+
+    /**
+     * 解析检索表达式，表达式无法解析时全部交给OGNL执行并由OGNL报告错误
+     */
+    static TimeFragmentQuery parse(String express) {
+        final TimeFragmentQuery query = new TimeFragmentQuery();
+        final Node root;
+        try {
+            root = (Node) Ognl.parseExpression(express);
+        } catch (OgnlException e) {
+            query.hasResidual = true;
+            return query;
+        }
+        final List<Node> conjuncts = new ArrayList<Node>();
+        split(root, conjuncts);
+        for (Node node : conjuncts) {
+            final Condition condition = toCondition(node);
+            if (null == condition) {
+                query.hasResidual = true;
+            } else {
+                query.conditions.add(condition);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * 是否可以使用索引
+     */
+    boolean isIndexed() {
+        return !conditions.isEmpty();
+    }
+
+    /**
+     * 是否还需要执行OGNL表达式
+     */
+    boolean hasResidual() {
+        return hasResidual;
+    }
+
+    /**
+     * 候选记录的编号，须在{@link TimeFragmentStore}的锁内调用
+     */
+    TimeFragmentIndex.IdIterator candidates(TimeFragmentIndex index) {
+        final List<TimeFragmentIndex.IdIterator> iterators = new ArrayList<TimeFragmentIndex.IdIterator>();
+        for (Condition condition : conditions) {
+            iterators.add(condition.candidates(index));
+        }
+        return TimeFragmentIndex.intersection(iterators);
+    }
+
+    /**
+     * 精确比较索引只能粗略筛选的条件(耗时、时间)
+     */
+    boolean accept(TimeFragment tf) {
+        for (Condition condition : conditions) {
+            if (!condition.accept(tf)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void split(Node node, List<Node> conjuncts) {
+        if (node instanceof ExpressionNode && "&&".equals(((ExpressionNode) node).getExpressionOperator(0))) {
+            for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+                split(node.jjtGetChild(i), conjuncts);
+            }
+        } else {
+            conjuncts.add(node);
+        }
+    }
+
+    private static Condition toCondition(Node node) {
+        if (node instanceof ASTInstanceof) {
+            // throwExp instanceof className
+            final String text = node.toString();
+            final String prefix = "throwExp instanceof ";
+            if (text.startsWith(prefix)) {
+                final String typeName = text.substring(prefix.length()).trim();
+                // 与CustomClassResolver一致, 没有包名时按java.lang查找
+                return new ThrowCondition(typeName.indexOf('.') < 0 ? "java.lang." + typeName : typeName);
+            }
+            return null;
+        }
+        if (node instanceof ExpressionNode && 1 == node.jjtGetNumChildren()
+                && "!".equals(((ExpressionNode) node).getExpressionOperator(0))) {
+            // 记录都在方法结束后保存, 没有返回即抛出了异常
+            // OGNL的取反节点toString()时不含"!", 须在按文本匹配之前处理
+            final String operand = node.jjtGetChild(0).toString();
+            if ("isThrow".equals(operand)) {
+                return new ReturnCondition();
+            }
+            return "isReturn".equals(operand) ? new ThrowCondition(null) : null;
+        }
+        final String text = node.toString();
+        if ("isThrow".equals(text)) {
+            return new ThrowCondition(null);
+        }
+        if ("isReturn".equals(text)) {
+            return new ReturnCondition();
+        }
+        if (!(node instanceof ExpressionNode)) {
+            return null;
+        }
+        final String operator = ((ExpressionNode) node).getExpressionOperator(0);
+        if (2 != node.jjtGetNumChildren()) {
+            return null;
+        }
+        Node left = node.jjtGetChild(0);
+        Node right = node.jjtGetChild(1);
+        String op = operator;
+        if (left instanceof ASTConst) {
+            // 常量在左边时交换
+            final Node temp = left;
+            left = right;
+            right = temp;
+            op = flip(operator);
+        }
+        if (!(right instanceof ASTConst)) {
+            return null;
+        }
+        final Object value = ((ASTConst) right).getValue();
+        if ("==".equals(op) && (value instanceof String || value instanceof Character)) {
+            final String name = left.toString();
+            if ("method.name".equals(name)) {
+                return new NameCondition(false, value.toString());
+            }
+            return "clazz.name".equals(name) ? new NameCondition(true, value.toString()) : null;
+        }
+        if (left instanceof ASTVarRef && value instanceof Number && isComparison(op)) {
+            final double bound = ((Number) value).doubleValue();
+            final String name = left.toString();
+            if (COST.equals(name)) {
+                return new RangeCondition(false, op, bound);
+            }
+            return TIMESTAMP.equals(name) ? new RangeCondition(true, op, bound) : null;
+        }
+        return null;
+    }
+
+    private static boolean isComparison(String operator) {
+        return ">".equals(operator) || ">=".equals(operator) || "<".equals(operator) || "<=".equals(operator);
+    }
+
+    // 交换比较的两边, 不支持的运算符返回null
+    private static String flip(String operator) {
+        if ("==".equals(operator)) {
+            return operator;
+        }
+        if (">".equals(operator)) {
+            return "<";
+        }
+        if (">=".equals(operator)) {
+            return "<=";
+        }
+        if ("<".equals(operator)) {
+            return ">";
+        }
+        return "<=".equals(operator) ? ">=" : null;
+    }
+
+    private abstract static class Condition {
+
+        abstract TimeFragmentIndex.IdIterator candidates(TimeFragmentIndex index);
+
+        boolean accept(TimeFragment tf) {
+            return true;
+        }
+    }
+
+    private static class NameCondition extends Condition {
+
+        private final boolean isClassName;
+        private final String name;
+
+        NameCondition(boolean isClassName, String name) {
+            this.isClassName = isClassName;
+            this.name = name;
+        }
+
+        @Override
+        TimeFragmentIndex.IdIterator candidates(TimeFragmentIndex index) {
+            return isClassName ? index.className(name) : index.methodName(name);
+        }
+    }
+
+    private static class ThrowCondition extends Condition {
+
+        // 为null时匹配所有抛出异常的记录
+        private final String typeName;
+
+        ThrowCondition(String typeName) {
+            this.typeName = typeName;
+        }
+
+        @Override
+        TimeFragmentIndex.IdIterator candidates(TimeFragmentIndex index) {
+            return null == typeName ? index.throwing() : index.throwType(typeName);
+        }
+    }
+
+    private static class ReturnCondition extends Condition {
+
+        @Override
+        TimeFragmentIndex.IdIterator candidates(TimeFragmentIndex index) {
+            return index.returning();
+        }
+    }
+
+    /**
+     * #cost 或 #timestamp 与常量比较
+     */
+    private static class RangeCondition extends Condition {
+
+        private final boolean isTimestamp;
+        private final String operator;
+        private final double bound;
+
+        RangeCondition(boolean isTimestamp, String operator, double bound) {
+            this.isTimestamp = isTimestamp;
+            this.operator = operator;
+            this.bound = bound;
+        }
+
+        @Override
+        TimeFragmentIndex.IdIterator candidates(TimeFragmentIndex index) {
+            final boolean isLower = operator.startsWith(">");
+            if (isTimestamp) {
+                return isLower
+                        ? index.time((long) Math.floor(bound), Long.MAX_VALUE)
+                        : index.time(Long.MIN_VALUE, (long) Math.ceil(bound));
+            }
+            return isLower ? index.cost(bound, Double.MAX_VALUE) : index.cost(0, bound);
+        }
+
+        @Override
+        boolean accept(TimeFragment tf) {
+            final double value = isTimestamp ? tf.getGmtCreate().getTime() : tf.getCost();
+            if (">".equals(operator)) {
+                return value > bound;
+            }
+            if (">=".equals(operator)) {
+                return value >= bound;
+            }
+            if ("<".equals(operator)) {
+                return value < bound;
+            }
+            return value <= bound;
+        }
+    }
+
+}
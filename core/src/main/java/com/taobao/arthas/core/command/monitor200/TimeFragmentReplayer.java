@@ -0,0 +1,239 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.util.metrics.LatencyHistogram;
+import com.taobao.arthas.core.util.metrics.StripedCounter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并发重放时间碎片<br/>
+ * 在固定大小的线程池中按目标速率重复调用记录的方法，参数取自记录的调用现场，相当于用真实参数对单个方法做小型压测。
+ * 多条记录时轮流重放。各线程从同一个时钟领取调用的发起时刻来限速，
+ * 耗时记录在{@link LatencyHistogram}中，失败按异常类型计数
+ */
+class TimeFragmentReplayer {
+
+    // -- 计数器下标 --
+    private static final int SUCCESS = 0;
+    private static final int FAILED = 1;
+    private static final int COST = 2;
+    private static final int COUNTERS = 3;
+
+    // 等待发起时刻时每次最多睡眠的时间, 以便及时响应停止
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final List<Advice> advices;
+    private final int threads;
+    private final long total;
+    // 相邻两次调用的发起间隔, 不限速时为0
+    private final long intervalNanos;
+
+    // 已领取的调用次数
+    private final AtomicLong issued = new AtomicLong();
+    // 下一次调用的发起时刻
+    private final AtomicLong nextPermitNanos = new AtomicLong();
+    private final StripedCounter counter = new StripedCounter(COUNTERS);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    // 异常类型 -> 次数
+    private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+    private ExecutorService executor;
+    private long beginNanos;
+    private long endNanos;
+    private volatile boolean isStopped;
+
+    /**
+     * @param advices 重放的调用现场, 不能为空
+     * @param threads 线程数
+     * @param rate    每秒调用次数, 不大于0时不限速
+     * @param total   总调用次数
+     */
+    TimeFragmentReplayer(List<Advice> advices, int threads, int rate, long total) {
+        this.advices = advices;
+        this.threads = threads;
+        this.total = total;
+        this.intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+    }
+
+    void start() {
+        beginNanos = System.nanoTime();
+        nextPermitNanos.set(beginNanos);
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "as-tt-replay-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    replay();
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 等待全部调用结束
+     *
+     * @return 是否已经结束
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (executor.awaitTermination(timeout, unit)) {
+            if (0 == endNanos) {
+                endNanos = System.nanoTime();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 不再发起新的调用，正在执行的调用不会被打断
+     */
+    void stop() {
+        isStopped = true;
+        if (null != executor) {
+            executor.shutdown();
+        }
+        if (0 == endNanos) {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    long getSuccess() {
+        return counter.sum(SUCCESS);
+    }
+
+    long getFailed() {
+        return counter.sum(FAILED);
+    }
+
+    long getCompleted() {
+        return getSuccess() + getFailed();
+    }
+
+    /**
+     * 目标速率(每秒), 不限速时为0
+     */
+    double getTargetRate() {
+        return intervalNanos > 0 ? (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos : 0;
+    }
+
+    double getElapsedMillis() {
+        return ((0 == endNanos ? System.nanoTime() : endNanos) - beginNanos) / 1000000.0d;
+    }
+
+    /**
+     * 平均耗时(纳秒)
+     */
+    double getAverageNanos() {
+        final long completed = getCompleted();
+        return 0 == completed ? 0 : (double) counter.sum(COST) / completed;
+    }
+
+    /**
+     * 取出耗时直方图(纳秒)，在重放结束后调用一次
+     */
+    LatencyHistogram.Snapshot snapshotHistogram() {
+        return histogram.snapshotThenReset();
+    }
+
+    /**
+     * 失败次数，按异常类型名排序
+     */
+    Map<String, Long> getErrors() {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(errors).entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    private void replay() {
+        long n;
+        while (!isStopped && (n = issued.getAndIncrement()) < total) {
+            try {
+                if (!acquire()) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            final Advice advice = advices.get((int) (n % advices.size()));
+            final long begin = System.nanoTime();
+            try {
+                advice.getMethod().invoke(advice.getTarget(), advice.getParams());
+                final long cost = System.nanoTime() - begin;
+                counter.add(SUCCESS, 1, COST, cost);
+                histogram.record(cost);
+            } catch (Throwable t) {
+                final long cost = System.nanoTime() - begin;
+                counter.add(FAILED, 1, COST, cost);
+                histogram.record(cost);
+                countError(t instanceof InvocationTargetException && null != t.getCause() ? t.getCause() : t);
+            }
+        }
+    }
+
+    /**
+     * 领取下一次调用的发起时刻并等待到达
+     *
+     * @return 是否可以发起调用, 已停止时返回false
+     */
+    private boolean acquire() throws InterruptedException {
+        if (intervalNanos <= 0) {
+            return true;
+        }
+        final long permit = nextPermitNanos.getAndAdd(intervalNanos);
+        long wait;
+        while ((wait = permit - System.nanoTime()) > 0) {
+            if (isStopped) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(wait, MAX_SLEEP_NANOS));
+        }
+        return !isStopped;
+    }
+
+    private void countError(Throwable t) {
+        final String type = t.getClass().getName();
+        AtomicLong count = errors.get(type);
+        if (null == count) {
+            final AtomicLong newCount = new AtomicLong();
+            count = errors.putIfAbsent(type, newCount);
+            if (null == count) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+}
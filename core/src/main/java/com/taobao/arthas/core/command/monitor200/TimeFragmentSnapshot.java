@@ -0,0 +1,47 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.util.snapshot.SnapshotSerializer;
+import com.taobao.arthas.core.util.snapshot.SnapshotThrowable;
+import com.taobao.arthas.core.util.snapshot.SnapshotValue;
+
+import java.util.Arrays;
+
+/**
+ * 时间碎片的快照<br/>
+ * 记录时把参数、返回值及异常序列化为紧凑的二进制，之后的修改不会影响快照，也不会因为保存记录而持有调用现场的对象。
+ * 查看时反序列化为由快照节点组成的调用现场，可以像普通记录一样展示、执行观察和检索表达式
+ */
+class TimeFragmentSnapshot {
+
+    private TimeFragmentSnapshot() {
+    }
+
+    /**
+     * 序列化调用现场, 依次为各个参数及返回值(或异常)
+     */
+    static byte[] encode(SnapshotSerializer serializer, Advice advice) {
+        final Object[] params = null == advice.getParams() ? new Object[0] : advice.getParams();
+        final Object[] roots = Arrays.copyOf(params, params.length + 1);
+        roots[params.length] = advice.isAfterThrowing() ? advice.getThrowExp() : advice.getReturnObj();
+        return serializer.serialize(roots);
+    }
+
+    /**
+     * 反序列化调用现场, 调用的对象不会被保存, 始终为null
+     */
+    static Advice decode(TimeFragment tf, byte[] data) {
+        final Object[] roots = SnapshotSerializer.deserialize(data);
+        final Object[] params = Arrays.copyOf(roots, roots.length - 1);
+        final Object result = roots[roots.length - 1];
+        if (!tf.isThrow()) {
+            return Advice.newForAfterRetuning(tf.getLoader(), tf.getClazz(), tf.getMethod(), null, params, result);
+        }
+        // 字节数超过上限时异常可能被截断
+        final Throwable throwExp = result instanceof Throwable
+                ? (Throwable) result
+                : new SnapshotThrowable(SnapshotValue.TRUNCATED.getClassName(), String.valueOf(result));
+        return Advice.newForAfterThrowing(tf.getLoader(), tf.getClazz(), tf.getMethod(), null, params, throwExp);
+    }
+
+}
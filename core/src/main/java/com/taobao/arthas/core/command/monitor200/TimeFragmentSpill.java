@@ -0,0 +1,506 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.util.Constants;
+import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.util.matcher.Matcher;
+import com.taobao.middleware.logger.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 时间碎片的磁盘溢出区<br/>
+ * 从内存中淘汰的记录依次追加到arthas日志目录下的文件中，通过内存映射(MappedByteBuffer)读写，不占用堆内存：
+ * <ul>
+ * <li>段文件(segment-N.dat)顺序保存快照，写满后切换到新的段文件，超过磁盘上限时删除最老的段文件及其中的记录</li>
+ * <li>索引文件(index-N.idx)按记录编号保存定长的索引项：记录时间、耗时、方法编号、调用对象、快照位置等，
+ * 按编号直接定位，列表和按方法过滤只需读取索引</li>
+ * <li>方法字典保存在堆内，方法编号 -> 类、方法，数量与被记录的方法数相同</li>
+ * </ul>
+ * 记录时间按编号单调不减，可以按时间二分查找
+ * <p/>
+ * 每次attach使用单独的目录(tt-spill/PID-时间戳)，arthas关闭时随{@link TimeFragmentStore#clear()}删除；
+ * 第一次创建目录时顺便删除被强制结束的进程遗留的目录
+ * <p/>
+ * 由{@link TimeFragmentStore}在锁内调用，本身不是线程安全的
+ */
+class TimeFragmentSpill {
+
+    private static final Logger logger = LogUtil.getArthasLogger();
+
+    static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private static final int MAX_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final int MIN_SEGMENT_BYTES = 64 * 1024;
+
+    // 索引项: 记录时间(8) 耗时(8) 段号(4) 段内位置(4) 快照长度(4) 方法编号(4) 调用对象hashCode(4) 标记(4)
+    private static final int ENTRY_BYTES = 40;
+    private static final int ENTRIES_PER_INDEX_FILE = 1 << 18;
+
+    private static final int OFFSET_TIME = 0;
+    private static final int OFFSET_COST = 8;
+    private static final int OFFSET_SEGMENT = 16;
+    private static final int OFFSET_POSITION = 20;
+    private static final int OFFSET_LENGTH = 24;
+    private static final int OFFSET_METHOD = 28;
+    private static final int OFFSET_TARGET = 32;
+    private static final int OFFSET_FLAGS = 36;
+
+    // 索引项的标记, 未写入的索引项全部为0, 视为已删除
+    private static final int FLAG_LIVE = 1;
+    private static final int FLAG_RETURN = 1 << 1;
+    private static final int FLAG_THROW = 1 << 2;
+    private static final int FLAG_TARGET_NULL = 1 << 3;
+
+    private final File directory;
+    private final int segmentBytes;
+    private int maxSegments;
+
+    // 方法字典
+    private final List<ArthasMethod> methods = new ArrayList<ArthasMethod>();
+    private final List<ClassLoader> loaders = new ArrayList<ClassLoader>();
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+    private final IdentityHashMap<ArthasMethod, Integer> methodIds = new IdentityHashMap<ArthasMethod, Integer>();
+
+    // 从旧到新的段文件
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private int nextSegmentId;
+
+    // 从旧到新的索引文件, 第一个索引文件的第一项对应编号 baseIndex + droppedIndexFiles * ENTRIES_PER_INDEX_FILE
+    private final List<MappedByteBuffer> indexFiles = new ArrayList<MappedByteBuffer>();
+    private int droppedIndexFiles;
+    private int baseIndex = -1;
+
+    // [firstIndex, nextIndex)之间的编号可能在溢出区中
+    private int firstIndex;
+    private int nextIndex;
+    private int size;
+    // 随段文件删除的记录数
+    private long dropped;
+    private long lastTime;
+    // 读写文件失败后不再溢出
+    private boolean isBroken;
+
+    TimeFragmentSpill(long maxBytes) {
+        this(new File(LogUtil.LOGS_ARTHAS_DIR, "tt-spill" + File.separator
+                + Constants.PID + "-" + System.currentTimeMillis()), maxBytes);
+    }
+
+    /**
+     * @param directory 保存文件的目录, 第一次写入时创建, 清空时删除
+     */
+    TimeFragmentSpill(File directory, long maxBytes) {
+        this.directory = directory;
+        this.segmentBytes = (int) Math.max(MIN_SEGMENT_BYTES, Math.min(MAX_SEGMENT_BYTES, maxBytes / 4));
+        resize(maxBytes);
+    }
+
+    /**
+     * 调整磁盘上限，超出部分在下次切换段文件时删除
+     */
+    void resize(long maxBytes) {
+        this.maxSegments = (int) Math.max(1, maxBytes / segmentBytes);
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 追加一条记录，编号必须递增，跳过的编号视为已删除
+     *
+     * @param snapshot 快照, 没有快照或快照超过段文件大小时只保存索引
+     * @return 是否保存成功
+     */
+    boolean append(int index, TimeFragment tf, byte[] snapshot) {
+        if (isBroken) {
+            return false;
+        }
+        try {
+            if (baseIndex < 0) {
+                baseIndex = firstIndex = nextIndex = index;
+            }
+            int segmentId = -1;
+            int position = 0;
+            int length = -1;
+            if (null != snapshot && snapshot.length <= segmentBytes) {
+                final Segment segment = segmentFor(index, snapshot.length);
+                segment.buffer.position(segment.position);
+                segment.buffer.put(snapshot);
+                segmentId = segment.id;
+                position = segment.position;
+                length = snapshot.length;
+                segment.position += length;
+            }
+
+            final ByteBuffer entry = entryFor(index);
+            final int offset = entry.position();
+            lastTime = Math.max(lastTime, tf.getGmtCreate().getTime());
+            entry.putLong(offset + OFFSET_TIME, lastTime);
+            entry.putDouble(offset + OFFSET_COST, tf.getCost());
+            entry.putInt(offset + OFFSET_SEGMENT, segmentId);
+            entry.putInt(offset + OFFSET_POSITION, position);
+            entry.putInt(offset + OFFSET_LENGTH, length);
+            entry.putInt(offset + OFFSET_METHOD, methodIdOf(tf));
+            entry.putInt(offset + OFFSET_TARGET, tf.getTargetHashCode());
+            entry.putInt(offset + OFFSET_FLAGS, FLAG_LIVE
+                    | (tf.isReturn() ? FLAG_RETURN : 0)
+                    | (tf.isThrow() ? FLAG_THROW : 0)
+                    | (tf.isTargetNull() ? FLAG_TARGET_NULL : 0));
+            nextIndex = index + 1;
+            size++;
+            return true;
+        } catch (IOException e) {
+            isBroken = true;
+            logger.warn("tt spill to {} failed, stop spilling.", directory, e);
+            return false;
+        }
+    }
+
+    /**
+     * 读取记录，只还原元数据，快照通过{@link #readSnapshot(int)}读取
+     *
+     * @return 记录不存在时返回null
+     */
+    TimeFragment get(int index) {
+        if (!isLive(index)) {
+            return null;
+        }
+        final ByteBuffer entry = entryOf(index);
+        final int offset = entry.position();
+        final int methodId = entry.getInt(offset + OFFSET_METHOD);
+        final int flags = entry.getInt(offset + OFFSET_FLAGS);
+        return TimeFragment.restore(new Date(entry.getLong(offset + OFFSET_TIME)),
+                entry.getDouble(offset + OFFSET_COST),
+                (flags & FLAG_RETURN) != 0,
+                (flags & FLAG_THROW) != 0,
+                loaders.get(methodId), classes.get(methodId), methods.get(methodId),
+                (flags & FLAG_TARGET_NULL) != 0 ? null : entry.getInt(offset + OFFSET_TARGET));
+    }
+
+    /**
+     * @return 快照, 记录不存在或没有快照时返回null
+     */
+    byte[] readSnapshot(int index) {
+        if (!isLive(index)) {
+            return null;
+        }
+        final ByteBuffer entry = entryOf(index);
+        final int offset = entry.position();
+        final int length = entry.getInt(offset + OFFSET_LENGTH);
+        final Segment segment = segmentOf(entry.getInt(offset + OFFSET_SEGMENT));
+        if (length < 0 || null == segment) {
+            return null;
+        }
+        final byte[] data = new byte[length];
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(entry.getInt(offset + OFFSET_POSITION));
+        buffer.get(data);
+        return data;
+    }
+
+    boolean remove(int index) {
+        if (!isLive(index)) {
+            return false;
+        }
+        final ByteBuffer entry = entryOf(index);
+        final int offset = entry.position() + OFFSET_FLAGS;
+        entry.putInt(offset, entry.getInt(offset) & ~FLAG_LIVE);
+        size--;
+        return true;
+    }
+
+    /**
+     * 按编号顺序列出记录
+     *
+     * @param from          起始编号
+     * @param limit         最多列出的记录数
+     * @param methodMatcher 方法过滤, 由{@link #matchMethods(Matcher, Matcher)}得到, 为null时不过滤
+     * @param result        列出的记录
+     * @return 下一个要列出的编号
+     */
+    int list(int from, int limit, BitSet methodMatcher, Map<Integer, TimeFragment> result) {
+        int index = Math.max(from, firstIndex);
+        for (; index < nextIndex && result.size() < limit; index++) {
+            if (!isLive(index)) {
+                continue;
+            }
+            if (null != methodMatcher) {
+                final ByteBuffer entry = entryOf(index);
+                if (!methodMatcher.get(entry.getInt(entry.position() + OFFSET_METHOD))) {
+                    continue;
+                }
+            }
+            result.put(index, get(index));
+        }
+        return index;
+    }
+
+    /**
+     * 按类名和方法名在方法字典中查找方法
+     *
+     * @return 匹配的方法编号
+     */
+    BitSet matchMethods(Matcher<String> classNameMatcher, Matcher<String> methodNameMatcher) {
+        final BitSet matched = new BitSet(methods.size());
+        for (int methodId = 0; methodId < methods.size(); methodId++) {
+            if (classNameMatcher.matching(classes.get(methodId).getName())
+                    && methodNameMatcher.matching(methods.get(methodId).getName())) {
+                matched.set(methodId);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 清空溢出区，删除全部文件
+     *
+     * @return 清除的记录数
+     */
+    int clear() {
+        final int count = size;
+        for (Segment segment : segments) {
+            delete(segment.file);
+        }
+        for (int file = 0; file < indexFiles.size(); file++) {
+            delete(indexFile(droppedIndexFiles + file));
+        }
+        delete(directory);
+        segments.clear();
+        indexFiles.clear();
+        droppedIndexFiles = 0;
+        baseIndex = -1;
+        firstIndex = nextIndex = 0;
+        size = 0;
+        return count;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getFirstIndex() {
+        return firstIndex;
+    }
+
+    int getNextIndex() {
+        return nextIndex;
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        long used = 0;
+        for (Segment segment : segments) {
+            used += segment.position;
+        }
+        return "spilled: " + size + ", disk: " + StringUtils.humanReadableByteCount(used) + "/"
+                + StringUtils.humanReadableByteCount((long) segmentBytes * maxSegments) + " in " + directory;
+    }
+
+    private boolean isLive(int index) {
+        if (index < firstIndex || index >= nextIndex) {
+            return false;
+        }
+        final ByteBuffer entry = entryOf(index);
+        return (entry.getInt(entry.position() + OFFSET_FLAGS) & FLAG_LIVE) != 0;
+    }
+
+    private int methodIdOf(TimeFragment tf) {
+        Integer methodId = methodIds.get(tf.getMethod());
+        if (null == methodId) {
+            methodId = methods.size();
+            methods.add(tf.getMethod());
+            loaders.add(tf.getLoader());
+            classes.add(tf.getClazz());
+            methodIds.put(tf.getMethod(), methodId);
+        }
+        return methodId;
+    }
+
+    /**
+     * 定位编号对应的索引项，返回的缓冲区的position为索引项的起始位置
+     */
+    private ByteBuffer entryOf(int index) {
+        final long entry = (long) index - baseIndex;
+        final int file = (int) (entry / ENTRIES_PER_INDEX_FILE) - droppedIndexFiles;
+        final ByteBuffer buffer = indexFiles.get(file).duplicate();
+        buffer.position((int) (entry % ENTRIES_PER_INDEX_FILE) * ENTRY_BYTES);
+        return buffer;
+    }
+
+    /**
+     * 定位编号对应的索引项，索引文件不存在时创建
+     */
+    private ByteBuffer entryFor(int index) throws IOException {
+        final int file = (int) (((long) index - baseIndex) / ENTRIES_PER_INDEX_FILE);
+        while (droppedIndexFiles + indexFiles.size() <= file) {
+            indexFiles.add(map(indexFile(droppedIndexFiles + indexFiles.size()),
+                    ENTRIES_PER_INDEX_FILE * ENTRY_BYTES));
+        }
+        return entryOf(index);
+    }
+
+    /**
+     * 当前段文件放不下时切换到新的段文件，超过磁盘上限时删除最老的段文件
+     */
+    private Segment segmentFor(int index, int length) throws IOException {
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (null != segment && segmentBytes - segment.position >= length) {
+            return segment;
+        }
+        while (segments.size() >= maxSegments) {
+            dropOldestSegment(index);
+        }
+        final int id = nextSegmentId++;
+        final File file = new File(directory, "segment-" + id + ".dat");
+        segment = new Segment(id, index, file, map(file, segmentBytes));
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * 删除最老的段文件，编号在下一个段文件之前的记录全部删除
+     *
+     * @param index 正在追加的编号
+     */
+    private void dropOldestSegment(int index) {
+        final Segment oldest = segments.remove(0);
+        final int end = segments.isEmpty() ? index : segments.get(0).firstIndex;
+        for (int i = firstIndex; i < end; i++) {
+            if (isLive(i)) {
+                size--;
+                dropped++;
+            }
+        }
+        firstIndex = Math.max(firstIndex, end);
+        delete(oldest.file);
+
+        // 删除全部编号都已删除的索引文件
+        final int firstFile = (int) (((long) firstIndex - baseIndex) / ENTRIES_PER_INDEX_FILE);
+        while (droppedIndexFiles < firstFile) {
+            indexFiles.remove(0);
+            delete(indexFile(droppedIndexFiles++));
+        }
+    }
+
+    private Segment segmentOf(int segmentId) {
+        if (segmentId < 0 || segments.isEmpty()) {
+            return null;
+        }
+        final int position = segmentId - segments.get(0).id;
+        return position >= 0 && position < segments.size() ? segments.get(position) : null;
+    }
+
+    private File indexFile(int file) {
+        return new File(directory, "index-" + file + ".idx");
+    }
+
+    private MappedByteBuffer map(File file, int length) throws IOException {
+        if (!directory.isDirectory()) {
+            deleteStale(directory.getParentFile(), directory);
+            if (!directory.mkdirs()) {
+                throw new IOException("can not create directory " + directory);
+            }
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+            // 关闭文件后映射依然有效
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    // 映射在缓冲区被回收时释放, 删除文件不影响已有的映射
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("tt spill: delete {} failed.", file);
+        }
+    }
+
+    /**
+     * 删除遗留的溢出目录(PID-时间戳)：本进程之前attach留下的，以及/proc下已经不存在的进程留下的；
+     * 没有/proc时无法判断其他进程是否还在运行，只删除本进程的
+     *
+     * @param root    溢出目录的上级目录
+     * @param current 本次使用的目录, 不删除
+     * @return 删除的目录数
+     */
+    static int deleteStale(File root, File current) {
+        final File[] directories = null == root ? null : root.listFiles();
+        if (null == directories) {
+            return 0;
+        }
+        final File proc = new File("/proc");
+        int count = 0;
+        for (File stale : directories) {
+            final String name = stale.getName();
+            final int separator = name.indexOf('-');
+            if (!stale.isDirectory() || stale.equals(current) || separator <= 0
+                    || !isDigits(name, 0, separator) || !isDigits(name, separator + 1, name.length())) {
+                continue;
+            }
+            final String pid = name.substring(0, separator);
+            if (pid.equals(Constants.PID) || proc.isDirectory() && !new File(proc, pid).exists()) {
+                final File[] files = stale.listFiles();
+                if (null != files) {
+                    for (File file : files) {
+                        delete(file);
+                    }
+                }
+                delete(stale);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isDigits(String s, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 段文件
+     */
+    private static class Segment {
+        private final int id;
+        // 段文件中第一条记录的编号
+        private final int firstIndex;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int position;
+
+        Segment(int id, int firstIndex, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.firstIndex = firstIndex;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+}
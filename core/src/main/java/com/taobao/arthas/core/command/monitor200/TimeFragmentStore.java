@@ -0,0 +1,354 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.util.matcher.Matcher;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 时间碎片的有界存储<br/>
+ * 记录按编号存放在环形数组中，超过最大记录数时淘汰最老的记录。
+ * 堆外模式的快照依次写入一块环形的堆外缓冲区(direct ByteBuffer)，空间不足时同样从最老的记录开始淘汰，
+ * 直到能放下新的快照为止；没有堆外缓冲区时快照随记录保存在堆内。
+ * 开启磁盘溢出时，被淘汰的只保存快照的记录追加到{@link TimeFragmentSpill}中，编号不变，依然可以查看和检索。
+ * 保存记录时同时维护{@link TimeFragmentIndex}，供检索时求出候选编号
+ * <p/>
+ * 所有方法都在同一把锁内执行
+ */
+class TimeFragmentStore {
+
+    static final int DEFAULT_MAX_RECORDS = 1000;
+    static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    // 第一条记录的编号
+    private static final int FIRST_INDEX = 1000;
+
+    // 下标为 编号 % 长度, [oldestIndex, nextIndex)之间的编号最多占满数组, 已删除或淘汰的位置为null
+    private TimeFragment[] records = new TimeFragment[DEFAULT_MAX_RECORDS];
+    private int oldestIndex = FIRST_INDEX;
+    private int nextIndex = FIRST_INDEX;
+    private int size;
+    // 被淘汰的记录数
+    private long evicted;
+
+    // 保存快照的堆外缓冲区, 未使用堆外模式时为null
+    private ByteBuffer arena;
+    private int writePosition;
+
+    // 磁盘溢出区, 未开启时为null, 编号在[spill.getFirstIndex(), oldestIndex)之间的记录在溢出区中
+    private TimeFragmentSpill spill;
+
+    // 二级索引, 覆盖环形数组和溢出区中的记录
+    private final TimeFragmentIndex index = new TimeFragmentIndex();
+
+    /**
+     * 调整存储上限，超出上限的最老的记录被淘汰
+     *
+     * @param maxRecords 最大记录数, 不大于0时保持现有的上限
+     * @param maxBytes   堆外缓冲区大小, 不大于0时保持现有的缓冲区
+     * @param spillBytes 磁盘溢出区的大小, 不大于0时保持现有的溢出区
+     */
+    synchronized void configure(int maxRecords, int maxBytes, long spillBytes) {
+        if (spillBytes > 0) {
+            if (null == spill) {
+                spill = new TimeFragmentSpill(spillBytes);
+            } else {
+                spill.resize(spillBytes);
+            }
+        }
+        final boolean isArenaChanged = maxBytes > 0 && (null == arena || arena.capacity() != maxBytes);
+        final int length = maxRecords > 0 ? maxRecords : records.length;
+        if (length != records.length || isArenaChanged) {
+            rebuild(length, isArenaChanged ? ByteBuffer.allocateDirect(maxBytes) : arena);
+        }
+    }
+
+    /**
+     * 保存一条记录
+     *
+     * @param snapshot 快照, 没有快照时为null; 超过堆外缓冲区大小的快照不保存
+     * @return 记录编号
+     */
+    synchronized int put(TimeFragment tf, byte[] snapshot) {
+        final int id = nextIndex;
+        append(id, tf, snapshot);
+        index.add(id, tf);
+        index.trim(null != spill && spill.size() > 0 ? spill.getFirstIndex() : oldestIndex);
+        return id;
+    }
+
+    synchronized TimeFragment get(int index) {
+        if (isInRange(index)) {
+            return records[slot(index)];
+        }
+        return null != spill && index < oldestIndex ? spill.get(index) : null;
+    }
+
+    /**
+     * 读取记录的快照
+     *
+     * @return 快照, 记录不存在或没有快照时返回null
+     */
+    synchronized byte[] getSnapshot(int index) {
+        if (!isInRange(index)) {
+            return null != spill && index < oldestIndex ? spill.readSnapshot(index) : null;
+        }
+        final TimeFragment tf = records[slot(index)];
+        return null == tf ? null : readSnapshot(tf);
+    }
+
+    synchronized boolean remove(int index) {
+        if (!isInRange(index)) {
+            return null != spill && index < oldestIndex && spill.remove(index);
+        }
+        final TimeFragment tf = records[slot(index)];
+        if (null == tf) {
+            return false;
+        }
+        records[slot(index)] = null;
+        size--;
+        trimOldest();
+        return true;
+    }
+
+    /**
+     * 清空全部记录
+     *
+     * @return 清除的记录数
+     */
+    synchronized int clear() {
+        final int count = size + (null == spill ? 0 : spill.clear());
+        for (int index = oldestIndex; index < nextIndex; index++) {
+            records[slot(index)] = null;
+        }
+        oldestIndex = nextIndex;
+        size = 0;
+        writePosition = 0;
+        index.clear();
+        return count;
+    }
+
+    /**
+     * 按编号顺序分页列出记录，溢出区中的记录只读取元数据
+     *
+     * @param from              起始编号
+     * @param limit             最多列出的记录数, 列出的记录数小于该值时说明已经列出全部记录
+     * @param classNameMatcher  类名过滤, 为null时不过滤
+     * @param methodNameMatcher 方法名过滤, 类名过滤不为null时有效
+     */
+    synchronized Map<Integer, TimeFragment> list(int from, int limit,
+                                                 Matcher<String> classNameMatcher, Matcher<String> methodNameMatcher) {
+        final Map<Integer, TimeFragment> result = new LinkedHashMap<Integer, TimeFragment>();
+        if (null != spill && from < oldestIndex) {
+            spill.list(from, limit,
+                    null == classNameMatcher ? null : spill.matchMethods(classNameMatcher, methodNameMatcher), result);
+        }
+        for (int index = Math.max(from, oldestIndex); index < nextIndex && result.size() < limit; index++) {
+            final TimeFragment tf = records[slot(index)];
+            if (null != tf && (null == classNameMatcher || classNameMatcher.matching(tf.getClassName())
+                    && methodNameMatcher.matching(tf.getMethodName()))) {
+                result.put(index, tf);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 通过索引求出检索条件的候选编号，候选记录可能已经被删除或淘汰
+     *
+     * @return 候选编号, 检索条件无法使用索引时返回null
+     */
+    synchronized TimeFragmentIndex.IdIterator candidates(TimeFragmentQuery query) {
+        return query.isIndexed() ? query.candidates(index) : null;
+    }
+
+    synchronized int size() {
+        return size + (null == spill ? 0 : spill.size());
+    }
+
+    synchronized long getEvicted() {
+        return evicted + (null == spill ? 0 : spill.getDropped());
+    }
+
+    synchronized boolean isSpilled() {
+        return null != spill;
+    }
+
+    synchronized boolean isOffHeap() {
+        return null != arena;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("records: ").append(size).append("/").append(records.length)
+                .append(", evicted: ").append(evicted + (null == spill ? 0 : spill.getDropped()));
+        if (null != arena) {
+            final int tail = tailOffset();
+            final int used = tail < 0 ? 0 : (writePosition > tail ? writePosition - tail : arena.capacity() - tail + writePosition);
+            sb.append(", off-heap: ").append(StringUtils.humanReadableByteCount(used))
+                    .append("/").append(StringUtils.humanReadableByteCount(arena.capacity()));
+        }
+        if (null != spill) {
+            sb.append(", ").append(spill);
+        }
+        return sb.toString();
+    }
+
+    private int slot(int index) {
+        return index % records.length;
+    }
+
+    private boolean isInRange(int index) {
+        return index >= oldestIndex && index < nextIndex;
+    }
+
+    /**
+     * 在指定编号追加记录，编号不小于nextIndex，跳过的编号视为已删除
+     */
+    private void append(int index, TimeFragment tf, byte[] snapshot) {
+        nextIndex = index;
+        trimOldest();
+        while (nextIndex - oldestIndex >= records.length) {
+            evictOldest();
+        }
+        tf.snapshotOffset = -1;
+        tf.heapSnapshot = null;
+        if (null != snapshot) {
+            if (null == arena) {
+                tf.heapSnapshot = snapshot;
+            } else if (snapshot.length <= arena.capacity()) {
+                writeSnapshot(tf, snapshot);
+            }
+        }
+        records[slot(index)] = tf;
+        size++;
+        nextIndex = index + 1;
+    }
+
+    private void evictOldest() {
+        final int slot = slot(oldestIndex);
+        final TimeFragment tf = records[slot];
+        if (null != tf) {
+            final byte[] snapshot = readSnapshot(tf);
+            records[slot] = null;
+            size--;
+            spillOrEvict(oldestIndex, tf, snapshot);
+        }
+        oldestIndex++;
+        trimOldest();
+    }
+
+    /**
+     * 被淘汰的只保存快照的记录放入溢出区，保存调用现场对象的记录无法溢出
+     */
+    private void spillOrEvict(int index, TimeFragment tf, byte[] snapshot) {
+        if (null == spill || !tf.isSnapshotOnly() || !spill.append(index, tf, snapshot)) {
+            evicted++;
+        }
+    }
+
+    // 跳过开头已删除的位置
+    private void trimOldest() {
+        while (oldestIndex < nextIndex && null == records[slot(oldestIndex)]) {
+            oldestIndex++;
+        }
+    }
+
+    private void writeSnapshot(TimeFragment tf, byte[] snapshot) {
+        int position;
+        while ((position = allocate(snapshot.length)) < 0) {
+            evictOldest();
+        }
+        arena.position(position);
+        arena.put(snapshot);
+        writePosition = position + snapshot.length;
+        tf.snapshotOffset = position;
+        tf.snapshotLength = snapshot.length;
+    }
+
+    /**
+     * 在环形缓冲区中分配空间，已保存的快照位于[tail, writePosition)，可能绕回缓冲区开头
+     *
+     * @return 写入位置, 空间不足时返回-1
+     */
+    private int allocate(int length) {
+        final int tail = tailOffset();
+        final int capacity = arena.capacity();
+        if (tail < 0) {
+            return length <= capacity ? 0 : -1;
+        }
+        if (writePosition > tail) {
+            if (capacity - writePosition >= length) {
+                return writePosition;
+            }
+            // 绕回开头, 放弃缓冲区末尾不足的空间
+            return tail >= length ? 0 : -1;
+        }
+        return tail - writePosition >= length ? writePosition : -1;
+    }
+
+    /**
+     * 最老的快照的位置，没有快照时返回-1
+     */
+    private int tailOffset() {
+        for (int index = oldestIndex; index < nextIndex; index++) {
+            final TimeFragment tf = records[slot(index)];
+            if (null != tf && tf.snapshotOffset >= 0) {
+                return tf.snapshotOffset;
+            }
+        }
+        return -1;
+    }
+
+    private byte[] readSnapshot(TimeFragment tf) {
+        if (tf.snapshotOffset < 0) {
+            return tf.heapSnapshot;
+        }
+        final byte[] data = new byte[tf.snapshotLength];
+        arena.position(tf.snapshotOffset);
+        arena.get(data);
+        return data;
+    }
+
+    /**
+     * 按新的上限重建存储，记录保持原有编号，从旧到新重新放入
+     */
+    private void rebuild(int maxRecords, ByteBuffer newArena) {
+        final int end = nextIndex;
+        final int from = Math.max(oldestIndex, end - maxRecords);
+        final List<Integer> indexes = new ArrayList<Integer>();
+        final List<TimeFragment> fragments = new ArrayList<TimeFragment>();
+        final List<byte[]> snapshots = new ArrayList<byte[]>();
+        for (int index = oldestIndex; index < end; index++) {
+            final TimeFragment tf = records[slot(index)];
+            if (null == tf) {
+                continue;
+            }
+            if (index < from) {
+                spillOrEvict(index, tf, readSnapshot(tf));
+                continue;
+            }
+            indexes.add(index);
+            fragments.add(tf);
+            snapshots.add(readSnapshot(tf));
+        }
+
+        records = new TimeFragment[maxRecords];
+        arena = newArena;
+        writePosition = 0;
+        size = 0;
+        oldestIndex = from;
+        nextIndex = from;
+        for (int i = 0; i < indexes.size(); i++) {
+            append(indexes.get(i), fragments.get(i), snapshots.get(i));
+        }
+        nextIndex = end;
+        trimOldest();
+    }
+
+}
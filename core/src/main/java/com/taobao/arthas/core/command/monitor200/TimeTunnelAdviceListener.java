@@ -5,16 +5,17 @@ import com.taobao.arthas.core.command.express.ExpressException;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.advisor.Advice;
 import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.util.JsonSerializer;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.arthas.core.util.ThreadLocalWatch;
 import com.taobao.text.ui.TableElement;
 import com.taobao.text.util.RenderUtil;
 
-import java.util.Date;
 
 import static com.taobao.arthas.core.command.monitor200.TimeTunnelTable.createTable;
 import static com.taobao.arthas.core.command.monitor200.TimeTunnelTable.fillTableHeader;
 import static com.taobao.arthas.core.command.monitor200.TimeTunnelTable.fillTableRow;
+import static com.taobao.arthas.core.command.monitor200.TimeTunnelTable.fragmentRecord;
 
 /**
  * @author beiwei30 on 30/11/2016.
@@ -23,9 +24,12 @@ public class TimeTunnelAdviceListener extends ReflectAdviceListenerAdapter {
 
     private TimeTunnelCommand command;
     private CommandProcess process;
+    private final DeferredRenderer renderer;
+    // --ndjson时的序列化器
+    private final JsonSerializer jsonSerializer;
 
-    // 第一次启动标记
-    private volatile boolean isFirst = true;
+    // 第一次启动标记,只在渲染线程上读写
+    private boolean isFirst = true;
 
     // 方法执行时间戳
     private final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
@@ -33,6 +37,8 @@ public class TimeTunnelAdviceListener extends ReflectAdviceListenerAdapter {
     public TimeTunnelAdviceListener(TimeTunnelCommand command, CommandProcess process) {
         this.command = command;
         this.process = process;
+        this.renderer = new DeferredRenderer(process);
+        this.jsonSerializer = command.isNdjson() ? command.newJsonSerializer() : null;
     }
 
     @Override
@@ -55,7 +61,6 @@ public class TimeTunnelAdviceListener extends ReflectAdviceListenerAdapter {
 
     private void afterFinishing(Advice advice) {
         double cost = threadLocalWatch.costInMillis();
-        TimeFragment timeTunnel = new TimeFragment(advice, new Date(), cost);
 
         boolean match = false;
         try {
@@ -71,23 +76,42 @@ public class TimeTunnelAdviceListener extends ReflectAdviceListenerAdapter {
             return;
         }
 
-        int index = command.putTimeTunnel(timeTunnel);
-        TableElement table = createTable();
+        final int times = process.times().incrementAndGet();
+        if (times > command.getNumberOfLimit()) {
+            // 已经达到执行次数上限, 正在结束命令
+            return;
+        }
+        final TimeFragment timeTunnel = command.newTimeFragment(advice, cost);
+        final int index = command.putTimeTunnel(timeTunnel, advice);
 
-        if (isFirst) {
-            isFirst = false;
+        // 表格渲染交给后台线程
+        renderer.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (null != jsonSerializer) {
+                    process.write(jsonSerializer.serializeRecord(fragmentRecord(index, timeTunnel)) + "\n");
+                    return;
+                }
 
-            // 填充表格头部
-            fillTableHeader(table);
-        }
+                TableElement table = createTable();
+
+                if (isFirst) {
+                    isFirst = false;
+
+                    // 填充表格头部
+                    fillTableHeader(table);
+                }
+
+                // 填充表格内容
+                fillTableRow(table, index, timeTunnel);
 
-        // 填充表格内容
-        fillTableRow(table, index, timeTunnel);
+                process.write(RenderUtil.render(table, process.width()));
+            }
+        });
 
-        // TODO: concurrency issues for process.write
-        process.write(RenderUtil.render(table, process.width()));
-        process.times().incrementAndGet();
-        if (isLimitExceeded(command.getNumberOfLimit(), process.times().get())) {
+        if (isLimitExceeded(command.getNumberOfLimit(), times)) {
+            // 先输出已经采集的结果再结束命令
+            renderer.flush();
             abortProcess(process, command.getNumberOfLimit());
         }
     }
@@ -9,11 +9,14 @@ import com.taobao.arthas.core.command.express.ExpressFactory;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.shell.handlers.command.CommandInterruptHandler;
 import com.taobao.arthas.core.shell.handlers.shell.QExitHandler;
+import com.taobao.arthas.core.util.JsonSerializer;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.arthas.core.util.SearchUtils;
 import com.taobao.arthas.core.util.StringUtils;
 import com.taobao.arthas.core.util.affect.RowAffect;
 import com.taobao.arthas.core.util.matcher.Matcher;
+import com.taobao.arthas.core.util.matcher.TrueMatcher;
+import com.taobao.arthas.core.util.snapshot.SnapshotSerializer;
 import com.taobao.arthas.core.view.ObjectView;
 import com.taobao.middleware.cli.annotations.Description;
 import com.taobao.middleware.cli.annotations.Name;
@@ -24,9 +27,13 @@ import com.taobao.middleware.logger.Logger;
 import com.taobao.text.ui.TableElement;
 import com.taobao.text.util.RenderUtil;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.Integer.toHexString;
 import static java.lang.String.format;
@@ -106,15 +113,27 @@ import static java.lang.String.format;
         "  tt -l\n" +
         "  tt -i 1000\n" +
         "  tt -i 1000 -w params[0]\n" +
+        "  tt -i 1000 --ndjson -x 3\n" +
+        "  tt -s 'method.name==\"isEmpty\" && #cost>10'\n" +
         "  tt -i 1000 -p \n" +
         "  tt -i 1000 -p --replay-times 3 --replay-interval 3000\n" +
+        "  tt -i 1000 -p --replay-threads 8 --replay-rate 500 --replay-times 10000\n" +
+        "  tt -s 'method.name==\"isEmpty\"' -p --replay-threads 4 --replay-times 100\n" +
         "  tt --delete-all\n" +
+        "  tt -t --max-records 5000 *StringUtils isEmpty\n" +
+        "  tt -t --snapshot -x 2 *StringUtils isEmpty\n" +
+        "  tt -t --off-heap --max-bytes 67108864 *StringUtils isEmpty\n" +
+        "  tt -t --spill --max-records 10000 *StringUtils isEmpty\n" +
+        "  tt -l *StringUtils isEmpty\n" +
         Constants.WIKI + Constants.WIKI_HOME + "tt")
 public class TimeTunnelCommand extends EnhancerCommand {
-    // 时间隧道(时间碎片的集合)
-    private static final Map<Integer, TimeFragment> timeFragmentMap = new LinkedHashMap<Integer, TimeFragment>();
-    // 时间碎片序列生成器
-    private static final AtomicInteger sequence = new AtomicInteger(1000);
+    // 时间隧道(时间碎片的集合),有界,超出上限时淘汰最老的记录
+    private static final TimeFragmentStore timeFragmentStore = new TimeFragmentStore();
+    private static final int DEFAULT_SNAPSHOT_BYTES = 64 * 1024;
+    // 列出和检索记录时每次读取的记录数
+    private static final int PAGE_SIZE = 1000;
+    // 结束并发重放时等待正在执行的调用的时间
+    private static final int REPLAY_STOP_TIMEOUT_SECONDS = 5;
     // TimeTunnel the method call
     private boolean isTimeTunnel = false;
     private String classPattern;
@@ -141,6 +160,25 @@ public class TimeTunnelCommand extends EnhancerCommand {
     private int numberOfLimit = 100;
     private int replayTimes = 1;
     private long replayInterval = 1000L;
+    // 并发重放的线程数, 为0时逐次重放并输出每次的结果
+    private int replayThreads = 0;
+    // 并发重放的每秒调用次数, 不大于0时不限速
+    private int replayRate = 0;
+    // 未指定时保持时间隧道现有的记录数上限
+    private Integer maxRecords;
+    private int maxBytes = TimeFragmentStore.DEFAULT_MAX_BYTES;
+    // 记录时把调用现场序列化为快照,不持有调用现场的对象
+    private boolean isSnapshot = false;
+    private int snapshotBytes = DEFAULT_SNAPSHOT_BYTES;
+    // 快照保存在堆外缓冲区中
+    private boolean isOffHeap = false;
+    // 被淘汰的记录溢出到磁盘
+    private boolean isSpill = false;
+    private long spillBytes = TimeFragmentSpill.DEFAULT_MAX_BYTES;
+    // 结果输出为一行JSON
+    private boolean isNdjson = false;
+    // 快照模式下记录期间使用的序列化器,缓存了被记录对象的字段布局
+    private SnapshotSerializer snapshotSerializer;
     private static final Logger logger = LogUtil.getArthasLogger();
 
     @Argument(index = 0, argName = "class-pattern", required = false)
@@ -208,7 +246,9 @@ public class TimeTunnelCommand extends EnhancerCommand {
 
     @Option(shortName = "s", longName = "search-express")
     @Description("Search-expression, to search the time fragments by ognl express.\n" +
-            "The structure of 'advice' like conditional expression")
+            "The structure of 'advice' like conditional expression, #cost and #timestamp (the record time in ms) " +
+            "are also available.\nConditions joined by && such as method.name==\"xxx\", clazz.name==\"xxx\", " +
+            "isThrow, isReturn, throwExp instanceof xxx, #cost>200 and #timestamp>=xxx are answered by the index")
     public void setSearchExpress(String searchExpress) {
         this.searchExpress = searchExpress;
     }
@@ -251,6 +291,84 @@ public class TimeTunnelCommand extends EnhancerCommand {
     }
 
 
+    @Option(longName = "replay-threads")
+    @Description("Replay concurrently on a thread pool of this size at --replay-rate, and report the latency "
+            + "histogram and error counts instead of every result. --replay-times is the number of calls per "
+            + "time fragment, -s replays all the matching time fragments in turn")
+    public void setReplayThreads(int replayThreads) {
+        this.replayThreads = replayThreads;
+    }
+
+    @Option(longName = "replay-rate")
+    @Description("Target calls per second of the concurrent replay (unlimited by default)")
+    public void setReplayRate(int replayRate) {
+        this.replayRate = replayRate;
+    }
+
+    @Option(longName = "max-records")
+    @Description("The max number of time fragments kept, the oldest ones are evicted first ("
+            + TimeFragmentStore.DEFAULT_MAX_RECORDS + " initially, the current limit is kept if not specified)")
+    public void setMaxRecords(Integer maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    @Option(longName = "max-bytes")
+    @Description("Size in bytes of the off-heap buffer for --off-heap snapshots, the oldest time fragments are "
+            + "evicted first when it is full (16 * 1024 * 1024 by default)")
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Option(longName = "snapshot", flag = true)
+    @Description("Serialize params/returnObj/throwExp (expanded by -x) into compact binary snapshots when recording, "
+            + "instead of keeping references to the live objects. Such time fragments can be shown, watched and "
+            + "searched, but can not be replayed")
+    public void setSnapshot(boolean snapshot) {
+        isSnapshot = snapshot;
+    }
+
+    @Option(longName = "snapshot-bytes")
+    @Description("Upper size limit in bytes of each snapshot, the rest is truncated (64 * 1024 by default)")
+    public void setSnapshotBytes(int snapshotBytes) {
+        this.snapshotBytes = snapshotBytes;
+    }
+
+    @Option(longName = "off-heap", flag = true)
+    @Description("Store the snapshots off-heap, implies --snapshot")
+    public void setOffHeap(boolean offHeap) {
+        isOffHeap = offHeap;
+    }
+
+    @Option(longName = "spill", flag = true)
+    @Description("Spill the time fragments evicted by --max-records or --max-bytes to memory-mapped files under "
+            + "the arthas log directory instead of dropping them, implies --snapshot. Spilled time fragments keep "
+            + "their indexes and can still be listed, shown, watched and searched")
+    public void setSpill(boolean spill) {
+        isSpill = spill;
+    }
+
+    @Option(longName = "spill-bytes")
+    @Description("Disk space in bytes for --spill, the oldest spilled time fragments are deleted first when it is "
+            + "full (1024 * 1024 * 1024 by default)")
+    public void setSpillBytes(long spillBytes) {
+        this.spillBytes = spillBytes;
+    }
+
+    @Option(longName = "ndjson", flag = true)
+    @Description("Print each time fragment recorded by -t, shown by -i or watched by -w as one line of JSON, for "
+            + "consumption by other programs. Objects are serialized field by field (expanded by -x, cut at -M "
+            + "characters), getters are never called")
+    public void setNdjson(boolean ndjson) {
+        isNdjson = ndjson;
+    }
+
+    /**
+     * arthas关闭时清空时间隧道，删除磁盘溢出区的文件
+     */
+    public static void destroy() {
+        timeFragmentStore.clear();
+    }
+
     public boolean isRegEx() {
         return isRegEx;
     }
@@ -292,12 +410,23 @@ public class TimeTunnelCommand extends EnhancerCommand {
         return null != expand && expand > 0;
     }
 
+    public boolean isNdjson() {
+        return isNdjson;
+    }
+
+    /**
+     * --ndjson时的序列化器
+     */
+    JsonSerializer newJsonSerializer() {
+        return new JsonSerializer(isNeedExpand() ? expand : 0, sizeLimit);
+    }
+
     /**
      * 检查参数是否合法
      */
     private void checkArguments() {
         // 检查d/p参数是否有i参数配套
-        if ((isDelete || isPlay) && null == index) {
+        if ((isDelete || isPlay && !hasSearchExpress()) && null == index) {
             throw new IllegalArgumentException("Time fragment index is expected, please type -i to specify");
         }
 
@@ -309,6 +438,14 @@ public class TimeTunnelCommand extends EnhancerCommand {
             if (StringUtils.isEmpty(methodPattern)) {
                 throw new IllegalArgumentException("Method-pattern is expected, please type the wildcard expression to match");
             }
+            if (null != maxRecords && maxRecords <= 0 || maxBytes <= 0 || snapshotBytes <= 0 || spillBytes <= 0) {
+                throw new IllegalArgumentException(
+                        "--max-records, --max-bytes, --snapshot-bytes and --spill-bytes should be greater than 0");
+            }
+        }
+
+        if (isPlay && (replayThreads < 0 || replayTimes <= 0)) {
+            throw new IllegalArgumentException("--replay-threads should not be negative and --replay-times should be greater than 0");
         }
 
         // 一个参数都没有是不行滴
@@ -319,12 +456,32 @@ public class TimeTunnelCommand extends EnhancerCommand {
     }
 
     /*
-     * 记录时间片段
+     * 记录时间片段,快照模式下记录序列化后的快照
+     */
+    TimeFragment newTimeFragment(Advice advice, double cost) {
+        return null != snapshotSerializer
+                ? TimeFragment.newForSnapshot(advice, new Date(), cost)
+                : new TimeFragment(advice, new Date(), cost);
+    }
+
+    int putTimeTunnel(TimeFragment tt, Advice advice) {
+        final byte[] snapshot = tt.isSnapshotOnly()
+                ? TimeFragmentSnapshot.encode(snapshotSerializer, advice)
+                : null;
+        return timeFragmentStore.put(tt, snapshot);
+    }
+
+    /**
+     * 记录的调用现场，只保存快照的记录从快照中还原
+     *
+     * @return 调用现场, 快照没有保存时返回null
      */
-    int putTimeTunnel(TimeFragment tt) {
-        int indexOfSeq = sequence.getAndIncrement();
-        timeFragmentMap.put(indexOfSeq, tt);
-        return indexOfSeq;
+    private static Advice adviceOf(int index, TimeFragment tf) {
+        if (!tf.isSnapshotOnly()) {
+            return tf.getAdvice();
+        }
+        final byte[] snapshot = timeFragmentStore.getSnapshot(index);
+        return null == snapshot ? null : TimeFragmentSnapshot.decode(tf, snapshot);
     }
 
     @Override
@@ -338,9 +495,18 @@ public class TimeTunnelCommand extends EnhancerCommand {
         process.stdinHandler(new QExitHandler(process));
 
         if (isTimeTunnel) {
+            timeFragmentStore.configure(null == maxRecords ? 0 : maxRecords, isOffHeap ? maxBytes : 0, isSpill ? spillBytes : 0);
+            if (isSnapshot || isOffHeap || isSpill) {
+                snapshotSerializer = new SnapshotSerializer(isNeedExpand() ? expand : 0,
+                        isOffHeap ? Math.min(snapshotBytes, maxBytes) : snapshotBytes);
+            }
             enhance(process);
         } else if (isPlay) {
-            processPlay(process);
+            if (replayThreads > 0 || null == index) {
+                processParallelPlay(process);
+            } else {
+                processPlay(process);
+            }
         } else if (isList) {
             processList(process);
         } else if (isDeleteAll) {
@@ -383,23 +549,30 @@ public class TimeTunnelCommand extends EnhancerCommand {
     private void processShow(CommandProcess process) {
         RowAffect affect = new RowAffect();
         try {
-            TimeFragment tf = timeFragmentMap.get(index);
+            TimeFragment tf = timeFragmentStore.get(index);
             if (null == tf) {
                 process.write(format("Time fragment[%d] does not exist.", index)).write("\n");
                 return;
             }
 
-            Advice advice = tf.getAdvice();
-            String className = advice.getClazz().getName();
-            String methodName = advice.getMethod().getName();
-            String objectAddress = advice.getTarget() == null ? "NULL" : "0x" + toHexString(advice.getTarget().hashCode());
+            Advice advice = adviceOf(index, tf);
+            if (isNdjson) {
+                process.write(newJsonSerializer().serializeRecord(TimeTunnelTable.adviceRecord(index, tf, advice)))
+                        .write("\n");
+                affect.rCnt(1);
+                return;
+            }
 
             TableElement table = TimeTunnelTable.createDefaultTable();
             TimeTunnelTable.drawTimeTunnel(tf, index, table);
-            TimeTunnelTable.drawMethod(advice, className, methodName, objectAddress, table);
-            TimeTunnelTable.drawParameters(advice, table, isNeedExpand(), expand);
-            TimeTunnelTable.drawReturnObj(advice, table, isNeedExpand(), expand, sizeLimit);
-            TimeTunnelTable.drawThrowException(advice, table, isNeedExpand(), expand);
+            TimeTunnelTable.drawMethod(tf, table);
+            if (null == advice) {
+                TimeTunnelTable.drawSnapshotUnavailable(table);
+            } else {
+                TimeTunnelTable.drawParameters(advice, table, isNeedExpand(), expand);
+                TimeTunnelTable.drawReturnObj(advice, table, isNeedExpand(), expand, sizeLimit);
+                TimeTunnelTable.drawThrowException(advice, table, isNeedExpand(), expand);
+            }
 
             process.write(RenderUtil.render(table, process.width()));
             affect.rCnt(1);
@@ -413,16 +586,28 @@ public class TimeTunnelCommand extends EnhancerCommand {
     private void processWatch(CommandProcess process) {
         RowAffect affect = new RowAffect();
         try {
-            final TimeFragment tf = timeFragmentMap.get(index);
+            final TimeFragment tf = timeFragmentStore.get(index);
             if (null == tf) {
                 process.write(format("Time fragment[%d] does not exist.", index)).write("\n");
                 return;
             }
+            Advice advice = adviceOf(index, tf);
+            if (null == advice) {
+                process.write(format("Time fragment[%d] has no snapshot, it exceeds the buffer size.", index))
+                        .write("\n");
+                return;
+            }
 
-            Advice advice = tf.getAdvice();
             Object value = ExpressFactory.threadLocalExpress(advice).get(watchExpress);
-            if (isNeedExpand()) {
-                process.write(new ObjectView(value, expand, sizeLimit).draw()).write("\n");
+            if (isNdjson) {
+                final Map<String, Object> record = new LinkedHashMap<String, Object>();
+                record.put("index", index);
+                record.put("result", value);
+                process.write(newJsonSerializer().serializeRecord(record)).write("\n");
+            } else if (isNeedExpand()) {
+                // 大对象分块写出, 不在内存中拼出完整的结果
+                new ObjectView(value, expand, sizeLimit).draw(new ProcessAppendable(process));
+                process.write("\n");
             } else {
                 process.write(StringUtils.objectToString(value)).write("\n");
             }
@@ -431,6 +616,9 @@ public class TimeTunnelCommand extends EnhancerCommand {
         } catch (ExpressException e) {
             logger.warn("tt failed.", e);
             process.write(e.getMessage() + ", visit " + LogUtil.LOGGER_FILE + " for more detail\n");
+        } catch (IOException e) {
+            logger.warn("tt failed.", e);
+            process.write(e.getMessage() + ", visit " + LogUtil.LOGGER_FILE + " for more detail\n");
         } finally {
             process.write(affect.toString()).write("\n");
             process.end();
@@ -441,31 +629,65 @@ public class TimeTunnelCommand extends EnhancerCommand {
     private void processSearch(CommandProcess process) {
         RowAffect affect = new RowAffect();
         try {
-            // 匹配的时间片段
-            Map<Integer, TimeFragment> matchingTimeSegmentMap = new LinkedHashMap<Integer, TimeFragment>();
-            for (Map.Entry<Integer, TimeFragment> entry : timeFragmentMap.entrySet()) {
-                int index = entry.getKey();
-                TimeFragment tf = entry.getValue();
-                Advice advice = tf.getAdvice();
-
-                // 搜索出匹配的时间片段
-                if ((ExpressFactory.threadLocalExpress(advice)).is(searchExpress)) {
-                    matchingTimeSegmentMap.put(index, tf);
+            // 能由索引回答的条件直接求出候选记录, 其余条件才执行OGNL
+            final TimeFragmentQuery query = TimeFragmentQuery.parse(searchExpress);
+            final TimeFragmentIndex.IdIterator candidates = timeFragmentStore.candidates(query);
+            int unavailableCount = 0;
+            boolean isFirstPage = true;
+            // 分页读取记录, 溢出到磁盘的记录不会一次性读入堆内
+            for (int from = 0; process.isRunning(); ) {
+                final Map<Integer, TimeFragment> page = nextSearchPage(query, candidates, from);
+
+                // 匹配的时间片段
+                Map<Integer, TimeFragment> matchingTimeSegmentMap = new LinkedHashMap<Integer, TimeFragment>();
+                Map<Integer, Advice> matchingAdviceMap = new LinkedHashMap<Integer, Advice>();
+                for (Map.Entry<Integer, TimeFragment> entry : page.entrySet()) {
+                    int index = entry.getKey();
+                    TimeFragment tf = entry.getValue();
+                    from = index + 1;
+                    if (!query.hasResidual() && !hasWatchExpress()) {
+                        // 索引已经精确匹配, 不需要还原调用现场
+                        matchingTimeSegmentMap.put(index, tf);
+                        continue;
+                    }
+                    Advice advice = adviceOf(index, tf);
+                    if (null == advice) {
+                        // 快照没有保存的记录无法执行表达式
+                        unavailableCount++;
+                        continue;
+                    }
+
+                    // 搜索出匹配的时间片段
+                    if (isMatched(query, tf, advice)) {
+                        matchingTimeSegmentMap.put(index, tf);
+                        matchingAdviceMap.put(index, advice);
+                    }
                 }
-            }
 
-            if (hasWatchExpress()) {
-                // 执行watchExpress
-                TableElement table = TimeTunnelTable.createDefaultTable();
-                TimeTunnelTable.drawWatchTableHeader(table);
-                TimeTunnelTable.drawWatchExpress(matchingTimeSegmentMap, table, watchExpress, isNeedExpand(), expand, sizeLimit);
-                process.write(RenderUtil.render(table, process.width()));
-            } else {
-                // 单纯的列表格
-                process.write(RenderUtil.render(TimeTunnelTable.drawTimeTunnelTable(matchingTimeSegmentMap), process.width()));
+                if (isFirstPage || !matchingTimeSegmentMap.isEmpty()) {
+                    if (hasWatchExpress()) {
+                        // 执行watchExpress
+                        TableElement table = TimeTunnelTable.createDefaultTable();
+                        if (isFirstPage) {
+                            TimeTunnelTable.drawWatchTableHeader(table);
+                        }
+                        TimeTunnelTable.drawWatchExpress(matchingAdviceMap, table, watchExpress, isNeedExpand(), expand, sizeLimit);
+                        process.write(RenderUtil.render(table, process.width()));
+                    } else {
+                        // 单纯的列表格
+                        process.write(RenderUtil.render(drawTimeTunnelPage(matchingTimeSegmentMap, isFirstPage), process.width()));
+                    }
+                    isFirstPage = false;
+                }
+                affect.rCnt(matchingTimeSegmentMap.size());
+                if (page.size() < PAGE_SIZE) {
+                    break;
+                }
+            }
+            if (unavailableCount > 0) {
+                process.write(format("%d time fragment(s) without snapshots are skipped.", unavailableCount))
+                        .write("\n");
             }
-
-            affect.rCnt(matchingTimeSegmentMap.size());
         } catch (ExpressException e) {
             LogUtil.getArthasLogger().warn("tt failed.", e);
             process.write(e.getMessage() + ", visit " + LogUtil.LOGGER_FILE + " for more detail\n");
@@ -475,10 +697,56 @@ public class TimeTunnelCommand extends EnhancerCommand {
         }
     }
 
+    /**
+     * 读取下一页待检索的记录，可以使用索引时只读取通过索引和耗时、时间条件的候选记录
+     *
+     * @param candidates 索引求出的候选编号, 无法使用索引时为null
+     * @param from       无法使用索引时的起始编号
+     */
+    private static Map<Integer, TimeFragment> nextSearchPage(TimeFragmentQuery query,
+                                                             TimeFragmentIndex.IdIterator candidates, int from) {
+        if (null == candidates) {
+            return timeFragmentStore.list(from, PAGE_SIZE, null, null);
+        }
+        final Map<Integer, TimeFragment> page = new LinkedHashMap<Integer, TimeFragment>();
+        while (page.size() < PAGE_SIZE) {
+            final int index = candidates.next();
+            if (TimeFragmentIndex.NONE == index) {
+                break;
+            }
+            final TimeFragment tf = timeFragmentStore.get(index);
+            if (null != tf && query.accept(tf)) {
+                page.put(index, tf);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 候选记录是否满足检索表达式中索引无法回答的条件
+     */
+    private boolean isMatched(TimeFragmentQuery query, TimeFragment tf, Advice advice) throws ExpressException {
+        return !query.hasResidual() || ExpressFactory.threadLocalExpress(advice)
+                .bind(com.taobao.arthas.core.util.Constants.COST_VARIABLE, tf.getCost())
+                .bind(TimeFragmentQuery.TIMESTAMP_VARIABLE, tf.getGmtCreate().getTime())
+                .is(searchExpress);
+    }
+
+    private static TableElement drawTimeTunnelPage(Map<Integer, TimeFragment> page, boolean isFirstPage) {
+        TableElement table = TimeTunnelTable.createTable();
+        if (isFirstPage) {
+            TimeTunnelTable.fillTableHeader(table);
+        }
+        for (Map.Entry<Integer, TimeFragment> entry : page.entrySet()) {
+            TimeTunnelTable.fillTableRow(table, entry.getKey(), entry.getValue());
+        }
+        return table;
+    }
+
     // 删除指定记录
     private void processDelete(CommandProcess process) {
         RowAffect affect = new RowAffect();
-        if (timeFragmentMap.remove(index) != null) {
+        if (timeFragmentStore.remove(index)) {
             affect.rCnt(1);
         }
         process.write(format("Time fragment[%d] successfully deleted.", index)).write("\n");
@@ -487,9 +755,8 @@ public class TimeTunnelCommand extends EnhancerCommand {
     }
 
     private void processDeleteAll(CommandProcess process) {
-        int count = timeFragmentMap.size();
+        int count = timeFragmentStore.clear();
         RowAffect affect = new RowAffect(count);
-        timeFragmentMap.clear();
         process.write("Time fragments are cleaned.\n");
         process.write(affect.toString()).write("\n");
         process.end();
@@ -497,22 +764,54 @@ public class TimeTunnelCommand extends EnhancerCommand {
 
     private void processList(CommandProcess process) {
         RowAffect affect = new RowAffect();
-        process.write(RenderUtil.render(TimeTunnelTable.drawTimeTunnelTable(timeFragmentMap), process.width()));
-        affect.rCnt(timeFragmentMap.size());
+        // 指定了类名和方法名时只列出匹配的记录, 匹配器由SearchUtils.classNameMatcher创建, 总是匹配字符串
+        @SuppressWarnings("unchecked")
+        final Matcher<String> classNameMatcher = StringUtils.isEmpty(classPattern) ? null : getClassNameMatcher();
+        @SuppressWarnings("unchecked")
+        final Matcher<String> methodNameMatcher = StringUtils.isEmpty(methodPattern)
+                ? new TrueMatcher<String>() : getMethodNameMatcher();
+        for (int from = 0; process.isRunning(); ) {
+            final Map<Integer, TimeFragment> page = timeFragmentStore.list(from, PAGE_SIZE,
+                    classNameMatcher, methodNameMatcher);
+            if (from == 0 || !page.isEmpty()) {
+                process.write(RenderUtil.render(drawTimeTunnelPage(page, from == 0), process.width()));
+            }
+            affect.rCnt(page.size());
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+            from = lastIndexOf(page) + 1;
+        }
+        if (timeFragmentStore.getEvicted() > 0 || timeFragmentStore.isOffHeap() || timeFragmentStore.isSpilled()) {
+            process.write("Time tunnel " + timeFragmentStore + "\n");
+        }
         process.write(affect.toString()).write("\n");
         process.end();
     }
 
+    private static int lastIndexOf(Map<Integer, TimeFragment> page) {
+        int last = -1;
+        for (Integer index : page.keySet()) {
+            last = index;
+        }
+        return last;
+    }
+
     /**
      * 重放指定记录
      */
     private void processPlay(CommandProcess process) {
-        TimeFragment tf = timeFragmentMap.get(index);
+        TimeFragment tf = timeFragmentStore.get(index);
         if (null == tf) {
             process.write(format("Time fragment[%d] does not exist.", index) + "\n");
             process.end();
             return;
         }
+        if (tf.isSnapshotOnly()) {
+            process.write(format("Time fragment[%d] only has a snapshot, it can not be replayed.", index) + "\n");
+            process.end();
+            return;
+        }
         Advice advice = tf.getAdvice();
         String className = advice.getClazz().getName();
         String methodName = advice.getMethod().getName();
@@ -558,4 +857,139 @@ public class TimeTunnelCommand extends EnhancerCommand {
             process.end();
         }
     }
+
+    /**
+     * 在线程池中并发重放指定记录或检索出的记录，输出耗时分布和失败统计
+     */
+    private void processParallelPlay(CommandProcess process) {
+        final Map<Integer, Advice> advices = new LinkedHashMap<Integer, Advice>();
+        final Map<ArthasMethod, Boolean> accessibles = new HashMap<ArthasMethod, Boolean>();
+        TimeFragmentReplayer replayer = null;
+        try {
+            int snapshotOnlyCount = 0;
+            if (null != index) {
+                final TimeFragment tf = timeFragmentStore.get(index);
+                if (null == tf) {
+                    process.write(format("Time fragment[%d] does not exist.", index) + "\n");
+                    return;
+                }
+                if (tf.isSnapshotOnly()) {
+                    snapshotOnlyCount++;
+                } else {
+                    advices.put(index, tf.getAdvice());
+                }
+            } else {
+                // 只有保存了调用现场的记录才能重放
+                final TimeFragmentQuery query = TimeFragmentQuery.parse(searchExpress);
+                final TimeFragmentIndex.IdIterator candidates = timeFragmentStore.candidates(query);
+                for (int from = 0; process.isRunning(); ) {
+                    final Map<Integer, TimeFragment> page = nextSearchPage(query, candidates, from);
+                    for (Map.Entry<Integer, TimeFragment> entry : page.entrySet()) {
+                        final TimeFragment tf = entry.getValue();
+                        from = entry.getKey() + 1;
+                        if (tf.isSnapshotOnly()) {
+                            snapshotOnlyCount++;
+                        } else if (isMatched(query, tf, tf.getAdvice())) {
+                            advices.put(entry.getKey(), tf.getAdvice());
+                        }
+                    }
+                    if (page.size() < PAGE_SIZE) {
+                        break;
+                    }
+                }
+            }
+            if (snapshotOnlyCount > 0) {
+                process.write(format("%d time fragment(s) only have snapshots, they can not be replayed.",
+                        snapshotOnlyCount)).write("\n");
+            }
+            if (advices.isEmpty()) {
+                process.write("No time fragment to replay.\n");
+                return;
+            }
+
+            for (Advice advice : advices.values()) {
+                final ArthasMethod method = advice.getMethod();
+                if (!accessibles.containsKey(method)) {
+                    accessibles.put(method, method.isAccessible());
+                    method.setAccessible(true);
+                }
+            }
+            replayer = new TimeFragmentReplayer(new ArrayList<Advice>(advices.values()), Math.max(1, replayThreads),
+                    replayRate, (long) replayTimes * advices.size());
+            replayer.start();
+            while (!replayer.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (!process.isRunning()) {
+                    break;
+                }
+                process.write(format("replayed %d/%d, failed %d", replayer.getCompleted(), replayer.getTotal(),
+                        replayer.getFailed())).write("\n");
+            }
+            replayer.stop();
+
+            TableElement table = TimeTunnelTable.createDefaultTable();
+            TimeTunnelTable.drawReplayStatistics(replayer, advices.size(), table);
+            process.write(RenderUtil.render(table, process.width()))
+                    .write(format("Time fragment(s) %s replayed %d times, %d succeeded, %d failed.",
+                            advices.keySet(), replayer.getCompleted(), replayer.getSuccess(), replayer.getFailed()))
+                    .write("\n");
+        } catch (ExpressException e) {
+            logger.warn("tt failed.", e);
+            process.write(e.getMessage() + ", visit " + LogUtil.LOGGER_FILE + " for more detail\n");
+        } catch (Throwable t) {
+            logger.warn("tt replay failed.", t);
+            process.write("tt replay failed, " + t.getMessage() + ", visit " + LogUtil.LOGGER_FILE
+                    + " for more detail\n");
+        } finally {
+            boolean isTerminated = true;
+            if (null != replayer) {
+                replayer.stop();
+                try {
+                    // 正在执行的调用不会被打断, 等待它们结束后再还原方法的可访问标记
+                    isTerminated = replayer.awaitTermination(REPLAY_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    isTerminated = false;
+                }
+            }
+            if (isTerminated) {
+                for (Map.Entry<ArthasMethod, Boolean> entry : accessibles.entrySet()) {
+                    entry.getKey().setAccessible(entry.getValue());
+                }
+            } else {
+                // 还原后仍在执行的调用会因为无法访问而失败, 保持可访问
+                logger.warn("tt replay is still running after " + REPLAY_STOP_TIMEOUT_SECONDS
+                        + "s, methods are left accessible.");
+            }
+            process.end();
+        }
+    }
+
+    /**
+     * 把分块写出的内容直接写到命令的输出
+     */
+    private static class ProcessAppendable implements Appendable {
+
+        private final CommandProcess process;
+
+        ProcessAppendable(CommandProcess process) {
+            this.process = process;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            process.write(String.valueOf(csq));
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            return append(null == csq ? "null".subSequence(start, end) : csq.subSequence(start, end));
+        }
+
+        @Override
+        public Appendable append(char c) {
+            return append(String.valueOf(c));
+        }
+    }
+
 }
@@ -4,6 +4,7 @@ import com.taobao.arthas.core.advisor.Advice;
 import com.taobao.arthas.core.command.express.ExpressException;
 import com.taobao.arthas.core.command.express.ExpressFactory;
 import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.util.metrics.LatencyHistogram;
 import com.taobao.arthas.core.view.ObjectView;
 import com.taobao.text.Decoration;
 import com.taobao.text.ui.Element;
@@ -13,12 +14,13 @@ import com.taobao.text.ui.TableElement;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
+import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static com.taobao.text.ui.Element.label;
-import static java.lang.Integer.toHexString;
 
 /**
  * @author beiwei30 on 30/11/2016.
@@ -49,6 +51,10 @@ public class TimeTunnelTable {
 
     };
 
+    // 并发重放时输出的分位数
+    private static final double[] REPLAY_PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] REPLAY_PERCENTILE_TITLES = {"P50(ms)", "P90(ms)", "P99(ms)", "P999(ms)"};
+
     static TableElement createTable() {
         return new TableElement(TABLE_COL_WIDTH).leftCellPadding(1).rightCellPadding(1);
     }
@@ -79,21 +85,55 @@ public class TimeTunnelTable {
 
     // 填充表格行
     static TableElement fillTableRow(TableElement table, int index, TimeFragment tf) {
-        Advice advice = tf.getAdvice();
         return table.row(
                 "" + index,
                 new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(tf.getGmtCreate()),
                 "" + tf.getCost(),
-                "" + advice.isAfterReturning(),
-                "" + advice.isAfterThrowing(),
-                advice.getTarget() == null
-                        ? "NULL"
-                        : "0x" + toHexString(advice.getTarget().hashCode()),
-                StringUtils.substringAfterLast("." + advice.getClazz().getName(), "."),
-                advice.getMethod().getName()
+                "" + tf.isReturn(),
+                "" + tf.isThrow(),
+                tf.getObjectAddress(),
+                StringUtils.substringAfterLast("." + tf.getClassName(), "."),
+                tf.getMethodName()
         );
     }
 
+    /**
+     * --ndjson输出的记录, 与表格行的列相同
+     */
+    static Map<String, Object> fragmentRecord(int index, TimeFragment tf) {
+        final Map<String, Object> record = new LinkedHashMap<String, Object>();
+        record.put("index", index);
+        record.put("timestamp", tf.getGmtCreate().getTime());
+        record.put("cost", tf.getCost());
+        record.put("isReturn", tf.isReturn());
+        record.put("isThrow", tf.isThrow());
+        record.put("object", tf.getObjectAddress());
+        record.put("class", tf.getClassName());
+        record.put("method", tf.getMethodName());
+        return record;
+    }
+
+    /**
+     * --ndjson输出的记录详情, 包括调用现场
+     *
+     * @param advice 调用现场, 快照没有保存时为null
+     */
+    static Map<String, Object> adviceRecord(int index, TimeFragment tf, Advice advice) {
+        final Map<String, Object> record = fragmentRecord(index, tf);
+        if (null == advice) {
+            record.put("snapshot", "unavailable");
+            return record;
+        }
+        record.put("params", advice.getParams());
+        if (advice.isAfterReturning()) {
+            record.put("returnObj", advice.getReturnObj());
+        }
+        if (advice.isAfterThrowing()) {
+            record.put("throwExp", advice.getThrowExp());
+        }
+        return record;
+    }
+
     static void drawTimeTunnel(TimeFragment tf, Integer index, TableElement table) {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         table.row("INDEX", "" + index)
@@ -101,12 +141,17 @@ public class TimeTunnelTable {
                 .row("COST(ms)", "" + tf.getCost());
     }
 
-    static void drawMethod(Advice advice, String className, String methodName, String objectAddress, TableElement table) {
-        table.row("OBJECT", objectAddress)
-                .row("CLASS", className)
-                .row("METHOD", methodName)
-                .row("IS-RETURN", "" + advice.isAfterReturning())
-                .row("IS-EXCEPTION", "" + advice.isAfterThrowing());
+    static void drawMethod(TimeFragment tf, TableElement table) {
+        table.row("OBJECT", tf.getObjectAddress())
+                .row("CLASS", tf.getClassName())
+                .row("METHOD", tf.getMethodName())
+                .row("IS-RETURN", "" + tf.isReturn())
+                .row("IS-EXCEPTION", "" + tf.isThrow());
+    }
+
+    // 快照超过堆外缓冲区或溢出文件大小时没有保存
+    static void drawSnapshotUnavailable(TableElement table) {
+        table.row("SNAPSHOT", "not available, it exceeds the buffer size");
     }
 
     static void drawThrowException(Advice advice, TableElement table, boolean isNeedExpand, int expandLevel) {
@@ -158,11 +203,11 @@ public class TimeTunnelTable {
                 .style(Decoration.bold.bold()));
     }
 
-    static void drawWatchExpress(Map<Integer, TimeFragment> matchingTimeSegmentMap, TableElement table,
+    static void drawWatchExpress(Map<Integer, Advice> matchingAdviceMap, TableElement table,
                                  String watchExpress, boolean isNeedExpand, int expandLevel, int sizeLimit)
             throws ExpressException {
-        for (Map.Entry<Integer, TimeFragment> entry : matchingTimeSegmentMap.entrySet()) {
-            Object value = ExpressFactory.threadLocalExpress(entry.getValue().getAdvice()).get(watchExpress);
+        for (Map.Entry<Integer, Advice> entry : matchingAdviceMap.entrySet()) {
+            Object value = ExpressFactory.threadLocalExpress(entry.getValue()).get(watchExpress);
             table.row("" + entry.getKey(), "" +
                     (isNeedExpand ? new ObjectView(value, expandLevel, sizeLimit).draw() : StringUtils.objectToString(value)));
         }
@@ -219,4 +264,28 @@ public class TimeTunnelTable {
             }
         }
     }
+
+    static void drawReplayStatistics(TimeFragmentReplayer replayer, int fragmentCount, TableElement table) {
+        final DecimalFormat df = new DecimalFormat("0.00");
+        final LatencyHistogram.Snapshot histogram = replayer.snapshotHistogram();
+        final long completed = replayer.getCompleted();
+        final double elapsed = replayer.getElapsedMillis();
+        table.row("FRAGMENTS", "" + fragmentCount)
+                .row("THREADS", "" + replayer.getThreads())
+                .row("TARGET-RATE(/s)", replayer.getTargetRate() > 0 ? df.format(replayer.getTargetRate()) : "unlimited")
+                .row("ACTUAL-RATE(/s)", df.format(elapsed > 0 ? completed * 1000 / elapsed : 0))
+                .row("TOTAL", completed + "/" + replayer.getTotal())
+                .row("SUCCESS", "" + replayer.getSuccess())
+                .row("FAILED", "" + replayer.getFailed())
+                .row("ELAPSED(ms)", df.format(elapsed))
+                .row("AVG-RT(ms)", df.format(replayer.getAverageNanos() / 1000000.0d));
+        for (int i = 0; i < REPLAY_PERCENTILES.length; i++) {
+            table.row(REPLAY_PERCENTILE_TITLES[i],
+                    df.format(histogram.getValueAtPercentile(REPLAY_PERCENTILES[i]) / 1000000.0d));
+        }
+        table.row("MAX(ms)", df.format(histogram.getMax() / 1000000.0d));
+        for (Map.Entry<String, Long> entry : replayer.getErrors().entrySet()) {
+            table.row("ERROR", entry.getKey() + " x " + entry.getValue());
+        }
+    }
 }
@@ -2,7 +2,6 @@ package com.taobao.arthas.core.command.monitor200;
 
 import com.taobao.arthas.core.advisor.InvokeTraceable;
 import com.taobao.arthas.core.shell.command.CommandProcess;
-import com.taobao.arthas.core.util.StringUtils;
 
 /**
  * @author beiwei30 on 29/11/2016.
@@ -22,20 +21,19 @@ public class TraceAdviceListener extends AbstractTraceAdviceListener implements
     @Override
     public void invokeBeforeTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc, int tracingLineNumber)
             throws Throwable {
-        threadBoundEntity.get().view.begin(
-            StringUtils.normalizeClassName(tracingClassName) + ":" + tracingMethodName + "()" + " #" + tracingLineNumber);
+        threadBoundRecorder.get().beginInvoke(tracingClassName, tracingMethodName, tracingLineNumber);
     }
 
     @Override
     public void invokeAfterTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc, int tracingLineNumber)
             throws Throwable {
-        threadBoundEntity.get().view.end();
+        threadBoundRecorder.get().endInvoke(false);
     }
 
     @Override
     public void invokeThrowTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc, int tracingLineNumber)
             throws Throwable {
-        threadBoundEntity.get().view.end("throws Exception");
+        threadBoundRecorder.get().endInvoke(true);
     }
 
 }
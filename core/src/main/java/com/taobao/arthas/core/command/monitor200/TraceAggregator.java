@@ -0,0 +1,297 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.util.DateUtils;
+import com.taobao.arthas.core.view.TreeView;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 聚合调用树<br/>
+ * trace --aggregate 时使用：每次满足条件的调用树按调用路径合并到所属线程的局部树中，
+ * 业务线程只会与统计线程竞争自己的局部树；统计线程每个周期把各线程的局部树合并为一棵树后清空，
+ * 输出每个节点的调用次数、总/最小/最大耗时及分位数
+ * <p/>
+ * 分位数按每次调用(最外层方法)中该节点的耗时合计统计，
+ * 每个线程的每个节点每个周期最多保留{@link #MAX_SAMPLES}个样本(蓄水池采样)
+ */
+class TraceAggregator {
+
+    // 聚合树最多保存的不同节点数
+    private static final int MAX_NODES = 16 * 1024;
+    private static final int MAX_SAMPLES = 256;
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+    private static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99"};
+
+    private final List<Partial> partials = new CopyOnWriteArrayList<Partial>();
+    private final ThreadLocal<Partial> threadBoundPartial = new ThreadLocal<Partial>() {
+        @Override
+        protected Partial initialValue() {
+            final Partial partial = new Partial(Thread.currentThread());
+            partials.add(partial);
+            return partial;
+        }
+    };
+
+    /**
+     * 合并一次完整调用的调用树，由业务线程调用
+     */
+    void add(TraceRecorder recorder) {
+        final Partial partial = threadBoundPartial.get();
+        synchronized (partial) {
+            partial.add(recorder);
+        }
+    }
+
+    /**
+     * 合并各线程的局部树并清空，由统计线程调用
+     *
+     * @return 本周期的聚合结果
+     */
+    Summary drain() {
+        final Summary summary = new Summary();
+        for (Partial partial : partials) {
+            synchronized (partial) {
+                summary.add(partial);
+                partial.reset();
+            }
+            if (!partial.owner.isAlive()) {
+                partials.remove(partial);
+            }
+        }
+        return summary;
+    }
+
+    void destroy() {
+        threadBoundPartial.remove();
+        partials.clear();
+    }
+
+    /**
+     * 一个线程在一个周期内的局部聚合树
+     */
+    private static class Partial extends TraceTree {
+
+        private final Thread owner;
+        private long invocations;
+        private long truncated;
+        private int[] mapping;
+        // 每个节点的样本及经过的调用次数,在父类构造时分配
+        private long[][] samples;
+        private long[] seen;
+        // 蓄水池采样用的xorshift随机数
+        private int seed;
+
+        Partial(Thread owner) {
+            super(MAX_NODES);
+            this.owner = owner;
+            this.seed = (int) (owner.getId() * 0x9E3779B9L) | 1;
+        }
+
+        @Override
+        protected void allocated(int capacity) {
+            samples = new long[capacity][];
+            seen = new long[capacity];
+        }
+
+        @Override
+        protected void grown(int capacity) {
+            samples = Arrays.copyOf(samples, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+        }
+
+        void add(TraceRecorder recorder) {
+            invocations++;
+            truncated += recorder.truncated;
+            mapping = merge(recorder, mapping);
+        }
+
+        @Override
+        protected void merged(int node, TraceTree other, int otherNode) {
+            final long value = other.totalNanos[otherNode];
+            final long count = ++seen[node];
+            long[] values = samples[node];
+            if (count <= MAX_SAMPLES) {
+                if (null == values || values.length < count) {
+                    values = samples[node] = Arrays.copyOf(null == values ? new long[0] : values,
+                            (int) Math.min(MAX_SAMPLES, Math.max(8, count * 2)));
+                }
+                values[(int) count - 1] = value;
+            } else {
+                // 以 MAX_SAMPLES/count 的概率替换一个已有样本
+                final long index = (nextRandom() & Long.MAX_VALUE) % count;
+                if (index < MAX_SAMPLES) {
+                    values[(int) index] = value;
+                }
+            }
+        }
+
+        private long nextRandom() {
+            int x = seed;
+            x ^= x << 13;
+            x ^= x >>> 17;
+            x ^= x << 5;
+            seed = x;
+            return x & 0xFFFFFFFFL;
+        }
+
+        int sampleSize(int node) {
+            return (int) Math.min(seen[node], MAX_SAMPLES);
+        }
+
+        void reset() {
+            Arrays.fill(seen, 0, size, 0);
+            clear();
+            invocations = 0;
+            truncated = 0;
+        }
+    }
+
+    /**
+     * 一个周期的聚合结果
+     */
+    static class Summary extends TraceTree {
+
+        private final long timestamp = System.currentTimeMillis();
+        private long invocations;
+        private long truncated;
+        private int[] mapping;
+        // 每个节点的样本值及权重,在父类构造时分配
+        private long[][] values;
+        private double[][] weights;
+        private int[] sampleSizes;
+
+        Summary() {
+            super(MAX_NODES);
+        }
+
+        @Override
+        protected void allocated(int capacity) {
+            values = new long[capacity][];
+            weights = new double[capacity][];
+            sampleSizes = new int[capacity];
+        }
+
+        @Override
+        protected void grown(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+            sampleSizes = Arrays.copyOf(sampleSizes, capacity);
+        }
+
+        private void add(Partial partial) {
+            invocations += partial.invocations;
+            truncated += partial.truncated;
+            mapping = merge(partial, mapping);
+        }
+
+        @Override
+        protected void merged(int node, TraceTree other, int otherNode) {
+            final Partial partial = (Partial) other;
+            final int count = partial.sampleSize(otherNode);
+            if (count == 0) {
+                return;
+            }
+            // 每个样本代表的调用次数
+            final double weight = (double) partial.seen[otherNode] / count;
+            final int size = sampleSizes[node];
+            if (null == values[node] || values[node].length < size + count) {
+                final int capacity = Math.max(size + count, null == values[node] ? 0 : values[node].length * 2);
+                values[node] = Arrays.copyOf(null == values[node] ? new long[0] : values[node], capacity);
+                weights[node] = Arrays.copyOf(null == weights[node] ? new double[0] : weights[node], capacity);
+            }
+            System.arraycopy(partial.samples[otherNode], 0, values[node], size, count);
+            Arrays.fill(weights[node], size, size + count, weight);
+            sampleSizes[node] = size + count;
+        }
+
+        long getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * 节点的加权分位数
+         */
+        private long[] percentiles(int node) {
+            final int size = sampleSizes[node];
+            final long[] result = new long[PERCENTILES.length];
+            if (size == 0) {
+                return result;
+            }
+            final long[] nodeValues = values[node];
+            final double[] nodeWeights = weights[node];
+            final Integer[] order = new Integer[size];
+            double totalWeight = 0;
+            for (int index = 0; index < size; index++) {
+                order[index] = index;
+                totalWeight += nodeWeights[index];
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    final long va = nodeValues[a];
+                    final long vb = nodeValues[b];
+                    return va < vb ? -1 : (va == vb ? 0 : 1);
+                }
+            });
+            int current = 0;
+            double accumulated = nodeWeights[order[0]];
+            for (int index = 0; index < PERCENTILES.length; index++) {
+                final double target = totalWeight * PERCENTILES[index] / 100.0d;
+                while (accumulated < target && current < size - 1) {
+                    accumulated += nodeWeights[order[++current]];
+                }
+                result[index] = nodeValues[order[current]];
+            }
+            return result;
+        }
+
+        /**
+         * 绘制聚合调用树
+         *
+         * @param cycle 统计周期(秒)
+         */
+        String draw(int cycle) {
+            final String title = "ts=" + DateUtils.formatDate(timestamp) + ";cycle=" + cycle + "s;invocations="
+                    + invocations;
+            final TreeView view = new TreeView(true, title);
+            final DecimalFormat df = new DecimalFormat("0.000");
+            for (int root = firstRoot; root != NONE; root = nextSiblings[root]) {
+                materialize(view, root, df);
+            }
+            final String tree = view.draw();
+            return truncated > 0
+                    ? tree + "(" + truncated + " call(s) not recorded, too many distinct nodes)\n"
+                    : tree;
+        }
+
+        private void materialize(TreeView view, int node, DecimalFormat df) {
+            final StringBuilder data = new StringBuilder();
+            if (types[node] != THROW) {
+                final long[] percentiles = percentiles(node);
+                data.append("[");
+                for (int index = 0; index < percentiles.length; index++) {
+                    if (index > 0) {
+                        data.append(",");
+                    }
+                    data.append(PERCENTILE_LABELS[index]).append("=")
+                            .append(df.format(percentiles[index] / 1000000.0d)).append("ms");
+                }
+                data.append("] ");
+            }
+            data.append(label(node));
+
+            view.beginMerged(data.toString(), times[node], totalNanos[node],
+                    times[node] > 0 ? minNanos[node] : 0, times[node] > 0 ? maxNanos[node] : 0);
+            for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+                materialize(view, child, df);
+            }
+            view.endMerged(THROWS_MARK, marks[node]);
+        }
+    }
+
+}
@@ -4,8 +4,10 @@ import com.taobao.arthas.core.advisor.AdviceListener;
 import com.taobao.arthas.core.command.Constants;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.util.SearchUtils;
+import com.taobao.arthas.core.util.StringUtils;
 import com.taobao.arthas.core.util.matcher.GroupMatcher;
 import com.taobao.arthas.core.util.matcher.Matcher;
+import com.taobao.arthas.core.util.matcher.PackageMatcher;
 import com.taobao.arthas.core.util.matcher.RegexMatcher;
 import com.taobao.arthas.core.util.matcher.TrueMatcher;
 import com.taobao.arthas.core.util.matcher.WildcardMatcher;
@@ -69,6 +71,10 @@ import java.util.List;
         "  trace *StringUtils isBlank '#cost>100'\n" +
         "  trace -E org\\\\.apache\\\\.commons\\\\.lang\\\\.StringUtils isBlank\n" +
         "  trace -E com.test.ClassA|org.test.ClassB method1|method2|method3\n" +
+        "  trace --aggregate -c 10 *StringUtils isBlank\n" +
+        "  trace --min-cost 100 *StringUtils isBlank\n" +
+        "  trace --exclude-package org.slf4j,io.netty.util *StringUtils isBlank\n" +
+        "  trace --depth 3 -c 10 -n 1000 demo.MathGame run\n" +
         Constants.WIKI + Constants.WIKI_HOME + "trace")
 public class TraceCommand extends EnhancerCommand {
 
@@ -79,6 +85,16 @@ public class TraceCommand extends EnhancerCommand {
     private int numberOfLimit = 100;
     private List<String> pathPatterns;
     private boolean skipJDKTrace;
+    private boolean isAggregate = false;
+    private int cycle = 60;
+    // 耗时阈值(ms),小于0时不过滤
+    private double minCost = -1;
+    // 方法调用跟踪的包含/排除包名
+    private List<String> includePackages;
+    private List<String> excludePackages;
+    // 自动增强被调用方法的最大层数,1表示只跟踪指定方法内部的调用
+    private int depth = 1;
+    private int maxClasses = 20;
 
     @Argument(argName = "class-pattern", index = 0)             //类名表达式匹配
     @Description("Class name pattern, use either '.' or '/' as separator")
@@ -122,6 +138,53 @@ public class TraceCommand extends EnhancerCommand {
         this.skipJDKTrace = skipJDKTrace;
     }
 
+    @Option(shortName = "a", longName = "aggregate", flag = true)   // 聚合模式
+    @Description("Merge the call trees of all invocations by call path, print count/min/max/total/percentile rt "
+            + "of each node every cycle")
+    public void setAggregate(boolean aggregate) {
+        isAggregate = aggregate;
+    }
+
+    @Option(shortName = "c", longName = "cycle")                // 聚合模式的统计周期
+    @Description("The aggregate and --depth interval (in seconds), 60 seconds by default")
+    public void setCycle(int cycle) {
+        this.cycle = cycle;
+    }
+
+    @Option(longName = "min-cost")
+    @Description("Only print invocations whose cost (in ms) is at least this value, checked without OGNL before "
+            + "the condition express")
+    public void setMinCost(double minCost) {
+        this.minCost = minCost;
+    }
+
+    @Option(longName = "include-package", acceptMultipleValues = true)
+    @Description("Only trace invocations of classes under these packages (comma separated), "
+            + "the longest matching include/exclude package wins")
+    public void setIncludePackages(List<String> includePackages) {
+        this.includePackages = includePackages;
+    }
+
+    @Option(longName = "exclude-package", acceptMultipleValues = true)
+    @Description("Do not trace invocations of classes under these packages (comma separated), "
+            + "these call sites are not instrumented at all")
+    public void setExcludePackages(List<String> excludePackages) {
+        this.excludePackages = excludePackages;
+    }
+
+    @Option(shortName = "d", longName = "depth")
+    @Description("Follow the most expensive callees automatically every cycle (-c) and trace inside them too, "
+            + "up to this many levels, 1 by default")
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    @Option(longName = "max-classes")
+    @Description("The max number of classes enhanced automatically by --depth, 20 by default")
+    public void setMaxClasses(int maxClasses) {
+        this.maxClasses = maxClasses;
+    }
+
     public String getClassPattern() {
         return classPattern;
     }
@@ -146,10 +209,70 @@ public class TraceCommand extends EnhancerCommand {
         return numberOfLimit;
     }
 
+    public boolean isAggregate() {
+        return isAggregate;
+    }
+
+    public int getCycle() {
+        return cycle;
+    }
+
+    public double getMinCost() {
+        return minCost;
+    }
+
     public List<String> getPathPatterns() {
         return pathPatterns;
     }
 
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getMaxClasses() {
+        return maxClasses;
+    }
+
+    public List<String> getIncludePackages() {
+        return includePackages;
+    }
+
+    public List<String> getExcludePackages() {
+        return excludePackages;
+    }
+
+    /**
+     * 由-j及包含/排除包名构造方法调用跟踪的包名前缀树，织入时据此决定是否跟踪方法调用
+     */
+    @Override
+    protected Matcher<String> getInvokeTracingMatcher() {
+        final PackageMatcher matcher = new PackageMatcher();
+        if (skipJDKTrace) {
+            matcher.exclude("java");
+        }
+        for (String packageName : splitPackages(includePackages)) {
+            matcher.include(packageName);
+        }
+        for (String packageName : splitPackages(excludePackages)) {
+            matcher.exclude(packageName);
+        }
+        return matcher.isEmpty() ? new TrueMatcher<String>() : matcher;
+    }
+
+    private static List<String> splitPackages(List<String> values) {
+        final List<String> packages = new ArrayList<String>();
+        if (null != values) {
+            for (String value : values) {
+                for (String packageName : value.split(",")) {
+                    if (!StringUtils.isBlank(packageName)) {
+                        packages.add(packageName.trim());
+                    }
+                }
+            }
+        }
+        return packages;
+    }
+
     @Override
     protected Matcher getClassNameMatcher() {
         if (classNameMatcher == null) {
@@ -183,6 +306,18 @@ public class TraceCommand extends EnhancerCommand {
         }
     }
 
+    /**
+     * 指定--depth时开始逐层增强被调用方法，路径跟踪(-p)不跟踪方法调用，不支持
+     */
+    @Override
+    protected void onRegistered(CommandProcess process, int adviceId, AdviceListener listener) {
+        if (depth > 1 && listener instanceof TraceAdviceListener) {
+            ((TraceAdviceListener) listener).startDrillDown(adviceId);
+            process.write("The most expensive callees will be enhanced every " + cycle + " second(s), up to depth "
+                    + depth + " and " + maxClasses + " class(es).\n");
+        }
+    }
+
     /**
      * 构造追踪路径匹配
      */
@@ -0,0 +1,252 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.advisor.AdviceSite;
+import com.taobao.arthas.core.advisor.Enhancer;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.SearchUtils;
+import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.util.affect.EnhancerAffect;
+import com.taobao.arthas.core.util.matcher.EqualsMatcher;
+import com.taobao.arthas.core.util.matcher.Matcher;
+import com.taobao.middleware.logger.Logger;
+
+import java.lang.instrument.Instrumentation;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * trace --depth 的逐层增强<br/>
+ * 收集输出的调用树中各方法内部调用的耗时，每个周期选出耗时最多的几个被调用方法，
+ * 用同一个通知ID增强它们，下一个周期的调用树中就会展开这些方法内部的调用，沿着热点路径逐层深入。
+ * 被调用方法所在的层数不超过指定深度，自动增强的类总数不超过上限
+ * <p/>
+ * 自动增强的方法只在被跟踪的方法内部记录，在其他地方被调用时忽略
+ */
+class TraceDrillDown {
+
+    private static final Logger logger = LogUtil.getArthasLogger();
+
+    // 每个周期最多增强的方法数
+    private static final int MAX_METHODS_PER_CYCLE = 3;
+
+    // 通知点的角色
+    private static final byte UNKNOWN = 0;
+    private static final byte ROOT = 1;
+    private static final byte DRILLED = 2;
+
+    private final CommandProcess process;
+    private final Instrumentation inst;
+    private final int adviceId;
+    private final int maxDepth;
+    private final int maxClasses;
+    private final Matcher<String> classNameMatcher;
+    private final Matcher<String> methodNameMatcher;
+    private final Matcher<String> invokeTracingMatcher;
+
+    // 本周期收集的被调用方法, 类名.方法名 -> 候选
+    private final Map<String, Candidate> candidates = new HashMap<String, Candidate>();
+    // 已经尝试增强过的被调用方法
+    private final Set<String> attempted = new HashSet<String>();
+    private int enhancedClasses;
+    private boolean isLimitReported;
+
+    // siteId -> 通知点角色, 只在通知时惰性计算, 并发写入时可能重复计算, 结果不变
+    private volatile byte[] roles = new byte[0];
+
+    @SuppressWarnings("unchecked")
+    TraceDrillDown(TraceCommand command, CommandProcess process, int adviceId) {
+        this.process = process;
+        this.inst = process.session().getInstrumentation();
+        this.adviceId = adviceId;
+        this.maxDepth = command.getDepth();
+        this.maxClasses = command.getMaxClasses();
+        this.classNameMatcher = command.getClassNameMatcher();
+        this.methodNameMatcher = command.getMethodNameMatcher();
+        this.invokeTracingMatcher = command.getInvokeTracingMatcher();
+    }
+
+    /**
+     * 通知点是否是命令指定的方法，而不是自动增强的方法
+     */
+    boolean isRoot(int siteId) {
+        byte[] table = roles;
+        if (siteId < table.length && table[siteId] != UNKNOWN) {
+            return table[siteId] == ROOT;
+        }
+        final AdviceSite site = AdviceSite.get(siteId);
+        final boolean isRoot = null == site || isRoot(site);
+        if (siteId >= table.length) {
+            table = Arrays.copyOf(table, Math.max(siteId + 1, AdviceSite.capacity()));
+            roles = table;
+        }
+        table[siteId] = isRoot ? ROOT : DRILLED;
+        return isRoot;
+    }
+
+    private boolean isRoot(AdviceSite site) {
+        if (!methodNameMatcher.matching(site.getMethodName())) {
+            return false;
+        }
+        final Class<?> clazz = site.getClazz();
+        if (null == clazz) {
+            return classNameMatcher.matching(StringUtils.normalizeClassName(site.getClassName()));
+        }
+        // 默认会同时增强匹配类的子类
+        for (Class<?> type = clazz; null != type; type = type.getSuperclass()) {
+            if (classNameMatcher.matching(type.getName()) || isInterfaceMatched(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isInterfaceMatched(Class<?> type) {
+        for (Class<?> itf : type.getInterfaces()) {
+            if (classNameMatcher.matching(itf.getName()) || isInterfaceMatched(itf)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 收集调用树中尚未增强的被调用方法的耗时
+     */
+    synchronized void collect(TraceTree tree) {
+        if (enhancedClasses >= maxClasses) {
+            return;
+        }
+        // 每个节点所在的层数, 即路径上被增强方法的个数
+        final int[] levels = new int[tree.size];
+        for (int node = 0; node < tree.size; node++) {
+            final int parent = tree.parents[node];
+            levels[node] = (parent == TraceTree.NONE ? 0 : levels[parent])
+                    + (tree.types[node] == TraceTree.METHOD ? 1 : 0);
+            if (tree.types[node] != TraceTree.INVOKE || levels[node] >= maxDepth
+                    || isEnhanced(tree, node)) {
+                continue;
+            }
+            final String className = StringUtils.normalizeClassName(tree.owners[node]);
+            final String methodName = tree.names[node];
+            final String key = className + "." + methodName;
+            if (attempted.contains(key)) {
+                continue;
+            }
+            Candidate candidate = candidates.get(key);
+            if (null == candidate) {
+                candidate = new Candidate(className, methodName, levels[node] + 1);
+                candidates.put(key, candidate);
+            }
+            candidate.totalNanos += tree.totalNanos[node];
+        }
+    }
+
+    /**
+     * 被调用方法已经被增强时, 调用节点下会有方法节点
+     */
+    private static boolean isEnhanced(TraceTree tree, int node) {
+        for (int child = tree.firstChildren[node]; child != TraceTree.NONE; child = tree.nextSiblings[child]) {
+            if (tree.types[child] == TraceTree.METHOD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 增强本周期耗时最多的被调用方法，由定时任务调用
+     */
+    synchronized void drill() {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        final List<Candidate> sorted = new ArrayList<Candidate>(candidates.values());
+        candidates.clear();
+        Collections.sort(sorted, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                return a.totalNanos > b.totalNanos ? -1 : (a.totalNanos == b.totalNanos ? 0 : 1);
+            }
+        });
+
+        int drilled = 0;
+        for (Candidate candidate : sorted) {
+            if (drilled >= MAX_METHODS_PER_CYCLE) {
+                break;
+            }
+            if (enhancedClasses >= maxClasses) {
+                break;
+            }
+            if (enhance(candidate)) {
+                drilled++;
+            }
+        }
+        if (enhancedClasses >= maxClasses && !isLimitReported) {
+            isLimitReported = true;
+            process.write("[arthas] " + enhancedClasses + " class(es) enhanced by --depth, reached the limit "
+                    + maxClasses + ", stop enhancing callees.\n");
+        }
+    }
+
+    private boolean enhance(Candidate candidate) {
+        attempted.add(candidate.getKey());
+        // 命令指定的方法已经增强过, 不能重复增强
+        if (classNameMatcher.matching(candidate.className) && methodNameMatcher.matching(candidate.methodName)) {
+            return false;
+        }
+        try {
+            final Matcher<String> candidateClassMatcher = new EqualsMatcher<String>(candidate.className);
+            final Set<Class<?>> classes = GlobalOptions.isDisableSubClass
+                    ? SearchUtils.searchClass(inst, candidateClassMatcher)
+                    : SearchUtils.searchSubClass(inst, SearchUtils.searchClass(inst, candidateClassMatcher));
+            if (classes.isEmpty() || enhancedClasses + classes.size() > maxClasses) {
+                return false;
+            }
+            final EnhancerAffect affect = Enhancer.enhance(inst, adviceId, true, invokeTracingMatcher,
+                    candidateClassMatcher, new EqualsMatcher<String>(candidate.methodName));
+            enhancedClasses += affect.cCnt();
+            if (affect.mCnt() == 0) {
+                return false;
+            }
+            process.write("[arthas] depth " + candidate.level + ": enhanced " + candidate.className + ":"
+                    + candidate.methodName + "(), cost " + new DecimalFormat("0.000").format(candidate.totalNanos / 1000000.0d)
+                    + "ms in last cycle, " + affect + "\n");
+            return true;
+        } catch (Throwable t) {
+            logger.warn("trace depth: enhance {} failed.", candidate.getKey(), t);
+            return false;
+        }
+    }
+
+    /**
+     * 候选的被调用方法
+     */
+    private static class Candidate {
+        private final String className;
+        private final String methodName;
+        // 被调用方法所在的层数
+        private final int level;
+        private long totalNanos;
+
+        Candidate(String className, String methodName, int level) {
+            this.className = className;
+            this.methodName = methodName;
+            this.level = level;
+        }
+
+        String getKey() {
+            return className + "." + methodName;
+        }
+    }
+
+}
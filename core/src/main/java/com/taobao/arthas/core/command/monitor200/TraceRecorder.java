@@ -0,0 +1,208 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.util.DateUtils;
+import com.taobao.arthas.core.util.ThreadUtil;
+import com.taobao.arthas.core.view.TreeView;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑的调用树记录器<br/>
+ * 每个线程一个，跟踪过程中只在可复用的基本类型数组中记录节点(通知点ID、行号、父子关系、调用次数及耗时)，
+ * 不拼接字符串、不创建树节点对象；同一父节点下相同的调用合并统计，循环调用不会让记录无限增长。
+ * 只有满足条件需要输出时才复制记录，再在渲染线程上物化为{@link TreeView}
+ * <p/>
+ * 非线程安全，只能由所属线程写入
+ */
+class TraceRecorder extends TraceTree {
+
+    // 一次调用最多记录的不同节点数
+    private static final int MAX_NODES = 64 * 1024;
+    private static final int INITIAL_DEPTH = 64;
+    private static final int RETAINED_DEPTH = 4096;
+
+    // 当前调用中各未结束节点的下标及开始时间,未记录的节点下标为NONE
+    private int[] stack;
+    private long[] beginNanos;
+    private int depth;
+    // 未结束的被增强方法数
+    private int methodDepth;
+    // 最近一次结束的节点的耗时
+    private long lastCostNanos;
+    // 因超出上限没有记录的调用次数
+    long truncated;
+
+    // 根节点开始时的时间戳及线程,用于生成标题
+    long timestamp;
+    Thread thread;
+
+    TraceRecorder() {
+        super(MAX_NODES);
+        stack = new int[INITIAL_DEPTH];
+        beginNanos = new long[INITIAL_DEPTH];
+    }
+
+    // 只用于复制,不需要跟踪栈
+    private TraceRecorder(int capacity) {
+        super(capacity, MAX_NODES);
+    }
+
+    /**
+     * 被增强的方法开始
+     */
+    void beginMethod(int siteId) {
+        if (depth == 0) {
+            timestamp = System.currentTimeMillis();
+            thread = Thread.currentThread();
+        }
+        methodDepth++;
+        begin(METHOD, siteId, null, null, 0);
+    }
+
+    /**
+     * 被增强的方法结束
+     *
+     * @return 最外层的被增强方法是否已经结束, 即本次调用树是否完整
+     */
+    boolean endMethod() {
+        if (methodDepth == 0) {
+            // 开始通知之前就已经在执行的方法,忽略
+            return false;
+        }
+        end(false);
+        return --methodDepth == 0;
+    }
+
+    /**
+     * 被增强的方法抛出异常，记录异常节点后结束方法
+     *
+     * @return 最外层的被增强方法是否已经结束
+     */
+    boolean throwMethod(String exceptionClassName, int lineNumber) {
+        if (methodDepth == 0) {
+            return false;
+        }
+        begin(THROW, 0, exceptionClassName, null, lineNumber);
+        end(false);
+        return endMethod();
+    }
+
+    /**
+     * 是否正在记录, 即是否在被跟踪的方法内部
+     */
+    boolean isRecording() {
+        return methodDepth > 0;
+    }
+
+    /**
+     * 最近一次结束的方法或调用的耗时，{@link #endMethod()}返回true后即为本次调用的总耗时
+     */
+    double getLastCostInMillis() {
+        return lastCostNanos / 1000000.0d;
+    }
+
+    long getLastCostNanos() {
+        return lastCostNanos;
+    }
+
+    /**
+     * 方法内部调用开始
+     */
+    void beginInvoke(String owner, String name, int lineNumber) {
+        if (methodDepth == 0) {
+            // 不在被跟踪的方法内部,如被自动增强的方法在其他地方调用
+            return;
+        }
+        begin(INVOKE, 0, owner, name, lineNumber);
+    }
+
+    /**
+     * 方法内部调用结束
+     *
+     * @param isThrow 调用是否抛出了异常
+     */
+    void endInvoke(boolean isThrow) {
+        end(isThrow);
+    }
+
+    private void begin(int type, int id, String owner, String name, int line) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+            beginNanos = Arrays.copyOf(beginNanos, depth * 2);
+        }
+        final int parent = depth == 0 ? NONE : stack[depth - 1];
+        final int node = depth == 0 || parent != NONE ? findOrAdd(parent, type, id, owner, name, line) : NONE;
+        if (node == NONE) {
+            truncated++;
+        }
+        stack[depth] = node;
+        beginNanos[depth] = System.nanoTime();
+        depth++;
+    }
+
+    private void end(boolean isThrow) {
+        if (depth == 0) {
+            // 开始通知之前就已经在执行的调用,忽略
+            return;
+        }
+        depth--;
+        final long cost = System.nanoTime() - beginNanos[depth];
+        lastCostNanos = cost;
+        final int node = stack[depth];
+        if (node != NONE) {
+            record(node, 1, cost, cost, cost, isThrow ? 1 : 0);
+        }
+    }
+
+    /**
+     * 清空记录以便复用
+     */
+    void reset() {
+        clear();
+        if (stack.length > RETAINED_DEPTH) {
+            stack = new int[INITIAL_DEPTH];
+            beginNanos = new long[INITIAL_DEPTH];
+        }
+        depth = 0;
+        methodDepth = 0;
+        truncated = 0;
+        thread = null;
+    }
+
+    /**
+     * 复制已完成的调用树，供渲染线程使用
+     */
+    TraceRecorder copy() {
+        final TraceRecorder copy = new TraceRecorder(size);
+        copy.copyFrom(this);
+        copy.truncated = truncated;
+        copy.timestamp = timestamp;
+        copy.thread = thread;
+        return copy;
+    }
+
+    /**
+     * 物化为树形控件并绘制
+     */
+    String draw() {
+        final String threadTitle = "ts=" + DateUtils.formatDate(timestamp) + ";" + ThreadUtil.getThreadTitle(thread);
+        final TreeView view = new TreeView(true, threadTitle);
+        for (int root = firstRoot; root != NONE; root = nextSiblings[root]) {
+            materialize(view, root);
+        }
+        final String tree = view.draw();
+        return truncated > 0
+                ? tree + "(" + truncated + " call(s) not recorded, too many distinct nodes)\n"
+                : tree;
+    }
+
+    private void materialize(TreeView view, int node) {
+        view.beginMerged(label(node), times[node], totalNanos[node],
+                times[node] > 0 ? minNanos[node] : 0, times[node] > 0 ? maxNanos[node] : 0);
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            materialize(view, child);
+        }
+        view.endMerged(THROWS_MARK, marks[node]);
+    }
+
+}
@@ -0,0 +1,285 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.AdviceSite;
+import com.taobao.arthas.core.util.StringUtils;
+
+import java.util.Arrays;
+
+/**
+ * 用基本类型数组保存的调用树<br/>
+ * 每个节点记录类型、通知点ID、行号、父子关系、调用次数及总/最小/最大耗时，
+ * 同一父节点下相同的调用合并为一个节点。节点下标按添加顺序分配，父节点的下标总是小于子节点
+ * <p/>
+ * 非线程安全
+ */
+class TraceTree {
+
+    // -- 节点类型 --
+    // 被增强的方法,id为siteId
+    static final int METHOD = 0;
+    // 方法内部的调用,owner/name为被调用方法的类名(内部名)/方法名
+    static final int INVOKE = 1;
+    // 方法抛出的异常,owner为异常类名
+    static final int THROW = 2;
+
+    static final int NONE = -1;
+
+    static final String THROWS_MARK = "throws Exception";
+
+    // 清空时超过该容量则释放数组,避免偶发的大调用树长期占用内存
+    private static final int RETAINED_CAPACITY = 4096;
+    private static final int INITIAL_CAPACITY = 64;
+
+    // 最多保存的节点数,超出的节点不再记录
+    private final int maxNodes;
+
+    // 节点数
+    int size;
+    int[] types;
+    int[] ids;
+    int[] lines;
+    // 节点引用的字符串,都是字节码中的常量或Class缓存的类名,不额外分配
+    String[] owners;
+    String[] names;
+    int[] parents;
+    int[] firstChildren;
+    int[] lastChildren;
+    int[] nextSiblings;
+    long[] times;
+    long[] totalNanos;
+    long[] minNanos;
+    long[] maxNanos;
+    long[] marks;
+    // 根节点链表
+    int firstRoot = NONE;
+    int lastRoot = NONE;
+
+    TraceTree(int maxNodes) {
+        this(INITIAL_CAPACITY, maxNodes);
+    }
+
+    TraceTree(int capacity, int maxNodes) {
+        this.maxNodes = maxNodes;
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        types = new int[capacity];
+        ids = new int[capacity];
+        lines = new int[capacity];
+        owners = new String[capacity];
+        names = new String[capacity];
+        parents = new int[capacity];
+        firstChildren = new int[capacity];
+        lastChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        times = new long[capacity];
+        totalNanos = new long[capacity];
+        minNanos = new long[capacity];
+        maxNanos = new long[capacity];
+        marks = new long[capacity];
+        allocated(capacity);
+    }
+
+    private void grow() {
+        final int capacity = Math.min(types.length * 2, maxNodes);
+        types = Arrays.copyOf(types, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        owners = Arrays.copyOf(owners, capacity);
+        names = Arrays.copyOf(names, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        times = Arrays.copyOf(times, capacity);
+        totalNanos = Arrays.copyOf(totalNanos, capacity);
+        minNanos = Arrays.copyOf(minNanos, capacity);
+        maxNanos = Arrays.copyOf(maxNanos, capacity);
+        marks = Arrays.copyOf(marks, capacity);
+        grown(capacity);
+    }
+
+    /**
+     * 节点数组重新分配后回调，子类可以据此分配自己的节点数组
+     */
+    protected void allocated(int capacity) {
+    }
+
+    /**
+     * 节点数组扩容后回调
+     */
+    protected void grown(int capacity) {
+    }
+
+    /**
+     * 查找父节点下相同的调用，不存在时添加
+     *
+     * @param parent 父节点, 根节点为{@link #NONE}
+     * @return 节点下标, 超出节点数上限时返回{@link #NONE}
+     */
+    int findOrAdd(int parent, int type, int id, String owner, String name, int line) {
+        int node = parent == NONE ? firstRoot : firstChildren[parent];
+        for (; node != NONE; node = nextSiblings[node]) {
+            if (types[node] == type && ids[node] == id && lines[node] == line
+                    && equals(owners[node], owner) && equals(names[node], name)) {
+                return node;
+            }
+        }
+        return add(parent, type, id, owner, name, line);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == b || (null != a && a.equals(b));
+    }
+
+    private int add(int parent, int type, int id, String owner, String name, int line) {
+        if (size == types.length) {
+            if (size >= maxNodes) {
+                return NONE;
+            }
+            grow();
+        }
+        final int node = size++;
+        types[node] = type;
+        ids[node] = id;
+        lines[node] = line;
+        owners[node] = owner;
+        names[node] = name;
+        parents[node] = parent;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        times[node] = 0;
+        totalNanos[node] = 0;
+        minNanos[node] = Long.MAX_VALUE;
+        maxNanos[node] = Long.MIN_VALUE;
+        marks[node] = 0;
+        if (parent == NONE) {
+            if (firstRoot == NONE) {
+                firstRoot = node;
+            } else {
+                nextSiblings[lastRoot] = node;
+            }
+            lastRoot = node;
+        } else {
+            if (firstChildren[parent] == NONE) {
+                firstChildren[parent] = node;
+            } else {
+                nextSiblings[lastChildren[parent]] = node;
+            }
+            lastChildren[parent] = node;
+        }
+        return node;
+    }
+
+    /**
+     * 累加节点的一次或多次调用
+     */
+    void record(int node, long count, long total, long min, long max, long markCount) {
+        times[node] += count;
+        totalNanos[node] += total;
+        if (min < minNanos[node]) {
+            minNanos[node] = min;
+        }
+        if (max > maxNanos[node]) {
+            maxNanos[node] = max;
+        }
+        marks[node] += markCount;
+    }
+
+    /**
+     * 把另一棵树按调用路径合并进来
+     *
+     * @param other   被合并的树
+     * @param mapping 可复用的下标映射数组, 长度不足时重新分配
+     * @return 下标映射数组, mapping[other中的节点] = 本树中的节点
+     */
+    int[] merge(TraceTree other, int[] mapping) {
+        if (null == mapping || mapping.length < other.size) {
+            mapping = new int[other.types.length];
+        }
+        for (int index = 0; index < other.size; index++) {
+            final int otherParent = other.parents[index];
+            final int parent = otherParent == NONE ? NONE : mapping[otherParent];
+            final int node = otherParent != NONE && parent == NONE
+                    ? NONE
+                    : findOrAdd(parent, other.types[index], other.ids[index], other.owners[index],
+                    other.names[index], other.lines[index]);
+            mapping[index] = node;
+            if (node != NONE && other.times[index] > 0) {
+                record(node, other.times[index], other.totalNanos[index], other.minNanos[index],
+                        other.maxNanos[index], other.marks[index]);
+                merged(node, other, index);
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * 节点合并后回调，子类可以据此合并自己的节点数据
+     */
+    protected void merged(int node, TraceTree other, int otherNode) {
+    }
+
+    /**
+     * 复制另一棵树的全部节点
+     */
+    void copyFrom(TraceTree other) {
+        if (types.length < other.size) {
+            allocate(other.size);
+        }
+        size = other.size;
+        System.arraycopy(other.types, 0, types, 0, size);
+        System.arraycopy(other.ids, 0, ids, 0, size);
+        System.arraycopy(other.lines, 0, lines, 0, size);
+        System.arraycopy(other.owners, 0, owners, 0, size);
+        System.arraycopy(other.names, 0, names, 0, size);
+        System.arraycopy(other.parents, 0, parents, 0, size);
+        System.arraycopy(other.firstChildren, 0, firstChildren, 0, size);
+        System.arraycopy(other.lastChildren, 0, lastChildren, 0, size);
+        System.arraycopy(other.nextSiblings, 0, nextSiblings, 0, size);
+        System.arraycopy(other.times, 0, times, 0, size);
+        System.arraycopy(other.totalNanos, 0, totalNanos, 0, size);
+        System.arraycopy(other.minNanos, 0, minNanos, 0, size);
+        System.arraycopy(other.maxNanos, 0, maxNanos, 0, size);
+        System.arraycopy(other.marks, 0, marks, 0, size);
+        firstRoot = other.firstRoot;
+        lastRoot = other.lastRoot;
+    }
+
+    /**
+     * 清空全部节点以便复用
+     */
+    void clear() {
+        if (types.length > RETAINED_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        } else {
+            // 释放字符串引用
+            Arrays.fill(owners, 0, size, null);
+            Arrays.fill(names, 0, size, null);
+        }
+        size = 0;
+        firstRoot = NONE;
+        lastRoot = NONE;
+    }
+
+    /**
+     * 节点的展示文本
+     */
+    String label(int node) {
+        switch (types[node]) {
+            case METHOD: {
+                final AdviceSite site = AdviceSite.get(ids[node]);
+                return null == site
+                        ? "unknown:unknown()"
+                        : StringUtils.normalizeClassName(site.getClassName()) + ":" + site.getMethodName() + "()";
+            }
+            case INVOKE:
+                return StringUtils.normalizeClassName(owners[node]) + ":" + names[node] + "()" + " #" + lines[node];
+            default:
+                return "throw:" + owners[node] + "()" + " #" + lines[node];
+        }
+    }
+
+}
@@ -5,12 +5,17 @@ import com.taobao.arthas.core.advisor.ArthasMethod;
 import com.taobao.arthas.core.advisor.ReflectAdviceListenerAdapter;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.util.DateUtils;
+import com.taobao.arthas.core.util.JsonSerializer;
 import com.taobao.arthas.core.util.LogUtil;
 import com.taobao.arthas.core.util.StringUtils;
 import com.taobao.arthas.core.util.ThreadLocalWatch;
+import com.taobao.arthas.core.util.snapshot.SnapshotSerializer;
 import com.taobao.arthas.core.view.ObjectView;
 import com.taobao.middleware.logger.Logger;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * @author beiwei30 on 29/11/2016.
  */
@@ -20,10 +25,20 @@ class WatchAdviceListener extends ReflectAdviceListenerAdapter {
     private final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
     private WatchCommand command;
     private CommandProcess process;
+    private final DeferredRenderer renderer;
+    // --ndjson时的序列化器
+    private final JsonSerializer jsonSerializer;
+    // 展开对象时在调用现场保存快照, 渲染时不受之后的修改影响
+    private final SnapshotSerializer snapshotSerializer;
 
     public WatchAdviceListener(WatchCommand command, CommandProcess process) {
         this.command = command;
         this.process = process;
+        this.renderer = new DeferredRenderer(process);
+        this.jsonSerializer = command.isNdjson() ? new JsonSerializer(isNeedExpand() ? command.getExpand() : 0,
+                command.getSizeLimit()) : null;
+        this.snapshotSerializer = !command.isNdjson() && isNeedExpand()
+                ? new SnapshotSerializer(command.getExpand(), command.getSizeLimit()) : null;
     }
 
     private boolean isFinish() {
@@ -73,19 +88,60 @@ class WatchAdviceListener extends ReflectAdviceListenerAdapter {
         return null != expand && expand >= 0;
     }
 
-    private void watching(Advice advice) {
+    private void watching(final Advice advice) {
         try {
+            // 已经达到执行次数上限, 正在结束命令时不再采集
+            if (isLimitExceeded(command.getNumberOfLimit(), process.times().get())) {
+                return;
+            }
             // 本次调用的耗时，判断是否满足ognl表达式，如果满足，向客户端打印信息，这里仅仅是用methodBegin做分析，如果是methodExit
             // 即方法结束，也会进行后置通知，执行WatchAdviceListener.afterReturning方法
-            double cost = threadLocalWatch.costInMillis();
+            final double cost = threadLocalWatch.costInMillis();
             if (isConditionMet(command.getConditionExpress(), advice, cost)) {
-                // TODO: concurrency issues for process.write
-                Object value = getExpressionResult(command.getExpress(), advice, cost);
-                String result = StringUtils.objectToString(
-                        isNeedExpand() ? new ObjectView(value, command.getExpand(), command.getSizeLimit()).draw() : value);
-                process.write("ts=" + DateUtils.getCurrentDate() + "; [cost=" + cost + "ms] result=" + result + "\n");
-                process.times().incrementAndGet();
-                if (isLimitExceeded(command.getNumberOfLimit(), process.times().get())) {
+                // 表达式在业务线程上求值并保存当时的值(快照或字符串), 后台线程只负责格式化和输出
+                final long timestamp = System.currentTimeMillis();
+                final Object value = getExpressionResult(command.getExpress(), advice, cost);
+                final int times = process.times().incrementAndGet();
+                if (times > command.getNumberOfLimit()) {
+                    // 并发的调用超过了次数上限
+                    return;
+                }
+                if (null != jsonSerializer) {
+                    final Map<String, Object> record = new LinkedHashMap<String, Object>();
+                    record.put("ts", timestamp);
+                    record.put("cost", cost);
+                    record.put("class", advice.getClazz().getName());
+                    record.put("method", advice.getMethod().getName());
+                    record.put("result", value);
+                    final String line = jsonSerializer.serializeRecord(record) + "\n";
+                    renderer.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            process.write(line);
+                        }
+                    });
+                } else if (null != snapshotSerializer) {
+                    final byte[] snapshot = snapshotSerializer.serialize(new Object[]{value});
+                    renderer.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            final Object result = SnapshotSerializer.deserialize(snapshot)[0];
+                            write(timestamp, cost,
+                                    new ObjectView(result, command.getExpand(), command.getSizeLimit()).draw());
+                        }
+                    });
+                } else {
+                    final String result = StringUtils.objectToString(value);
+                    renderer.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            write(timestamp, cost, result);
+                        }
+                    });
+                }
+                if (isLimitExceeded(command.getNumberOfLimit(), times)) {
+                    // 先输出已经采集的结果再结束命令
+                    renderer.flush();
                     abortProcess(process, command.getNumberOfLimit());
                 }
             }
@@ -97,4 +153,8 @@ class WatchAdviceListener extends ReflectAdviceListenerAdapter {
             process.end();
         }
     }
+
+    private void write(long timestamp, double cost, String result) {
+        process.write("ts=" + DateUtils.formatDate(timestamp) + "; [cost=" + cost + "ms] result=" + result + "\n");
+    }
 }
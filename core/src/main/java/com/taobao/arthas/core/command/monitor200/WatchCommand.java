@@ -111,6 +111,7 @@ import com.taobao.middleware.cli.annotations.Summary;
         "  watch *StringUtils isBlank params[0] params[0].length==1\n" +
         "  watch *StringUtils isBlank params '#cost>100'\n" +
         "  watch -E -b org\\.apache\\.commons\\.lang\\.StringUtils isBlank params[0]\n" +
+        "  watch --ndjson -x 3 *StringUtils isBlank '{params, returnObj}'\n" +
         Constants.WIKI + Constants.WIKI_HOME + "watch")
 public class WatchCommand extends EnhancerCommand {
     
@@ -126,6 +127,8 @@ public class WatchCommand extends EnhancerCommand {
     private Integer sizeLimit = 10 * 1024 * 1024;
     private boolean isRegEx = false;
     private int numberOfLimit = 100;
+    // 每个结果输出为一行JSON
+    private boolean isNdjson = false;
 
     @Argument(index = 0, argName = "class-pattern")                   //类名表达式匹配
     @Description("The full qualified class name you want to watch")
@@ -199,6 +202,14 @@ public class WatchCommand extends EnhancerCommand {
         this.numberOfLimit = numberOfLimit;
     }
 
+    @Option(longName = "ndjson", flag = true)
+    @Description("Print each result as one line of JSON with ts, cost, class, method and result, for consumption "
+            + "by other programs. Objects are serialized field by field (expanded by -x, cut at -M characters), "
+            + "getters are never called")
+    public void setNdjson(boolean ndjson) {
+        isNdjson = ndjson;
+    }
+
     public String getClassPattern() {
         return classPattern;
     }
@@ -243,6 +254,10 @@ public class WatchCommand extends EnhancerCommand {
         return isRegEx;
     }
 
+    public boolean isNdjson() {
+        return isNdjson;
+    }
+
     public int getNumberOfLimit() {
         return numberOfLimit;
     }
@@ -2,6 +2,7 @@ package com.taobao.arthas.core.server;
 
 import com.taobao.arthas.core.config.Configure;
 import com.taobao.arthas.core.command.BuiltinCommandPack;
+import com.taobao.arthas.core.command.monitor200.TimeTunnelCommand;
 import com.taobao.arthas.core.shell.ShellServer;
 import com.taobao.arthas.core.shell.ShellServerOptions;
 import com.taobao.arthas.core.shell.command.CommandResolver;
@@ -143,6 +144,7 @@ public class ArthasBootstrap {
     public void destroy() {
         executorService.shutdownNow();
         UserStatUtil.destroy();
+        TimeTunnelCommand.destroy();
         // clear the reference in Spy class.
         cleanUpSpyReference();
         try {
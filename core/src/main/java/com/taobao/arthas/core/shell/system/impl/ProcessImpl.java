@@ -26,7 +26,10 @@ import io.termd.core.function.Function;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author beiwei30 on 10/11/2016.
@@ -570,14 +573,40 @@ public class ProcessImpl implements Process {
         }
     }
 
+    /**
+     * 命令输出<br/>
+     * 调用write的线程(通常是被增强的业务线程)只把数据块放入有界的待输出队列，不等待终端/网络；
+     * 由Arthas的后台线程串行地取出数据块，合并成较大的块后再经过处理链(管道/重定向/终端)输出。
+     * 队列满时丢弃新的数据块并计数，下次输出时提示丢弃的块数
+     */
     static class ProcessOutput {
 
+        // 待输出数据的字符数上限
+        private static final int MAX_PENDING_CHARS = 8 * 1024 * 1024;
+        // 合并后单次输出的字符数上限
+        private static final int MAX_FRAME_CHARS = 64 * 1024;
+
         private List<Function<String, String>> stdoutHandlerChain;
         private StatisticsFunction statisticsHandler = null;
         private List<Function<String, String>> flushHandlerChain = null;
         private String cacheLocation;
         private Tty term;
 
+        private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>();
+        private final AtomicInteger pendingChars = new AtomicInteger();
+        private final AtomicLong droppedChunks = new AtomicLong();
+        // 是否已经有后台线程在输出
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        // 保证处理链同一时刻只被一个线程调用
+        private final Object outputLock = new Object();
+        private volatile boolean closed = false;
+        private final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drainInBackground();
+            }
+        };
+
         public ProcessOutput(List<Function<String, String>> stdoutHandlerChain, String cacheLocation, Tty term) {
             // this.stdoutHandlerChain = stdoutHandlerChain;
 
@@ -602,6 +631,79 @@ public class ProcessImpl implements Process {
         }
 
         private void write(String data) {
+            if (closed || null == data || data.isEmpty()) {
+                return;
+            }
+
+            // 超过上限时丢弃,但队列为空时即使是超大的数据块也接受
+            final int length = data.length();
+            final int total = pendingChars.addAndGet(length);
+            if (total > MAX_PENDING_CHARS && total != length) {
+                pendingChars.addAndGet(-length);
+                droppedChunks.incrementAndGet();
+                return;
+            }
+            pending.offer(data);
+
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    ArthasBootstrap.getInstance().execute(drainTask);
+                } catch (RuntimeException e) {
+                    // 后台线程不可用(未初始化或已关闭)时在当前线程输出
+                    draining.set(false);
+                    drain();
+                }
+            }
+        }
+
+        private void drainInBackground() {
+            do {
+                try {
+                    drain();
+                } catch (Throwable t) {
+                    logger.warn("write process output failed.", t);
+                } finally {
+                    draining.set(false);
+                }
+                // 释放标记后又有新数据入队,且没有其它线程接手时继续输出
+            } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+        }
+
+        /**
+         * 取出所有待输出的数据块，合并后经过处理链输出
+         */
+        private void drain() {
+            synchronized (outputLock) {
+                String chunk;
+                if (closed) {
+                    // 在关闭前通过检查、关闭后才入队的数据直接丢弃, 处理链已经关闭
+                    while (null != (chunk = pending.poll())) {
+                        pendingChars.addAndGet(-chunk.length());
+                    }
+                    droppedChunks.set(0);
+                    return;
+                }
+                final StringBuilder frame = new StringBuilder();
+                while (null != (chunk = pending.poll())) {
+                    pendingChars.addAndGet(-chunk.length());
+                    frame.append(chunk);
+                    if (frame.length() >= MAX_FRAME_CHARS) {
+                        output(frame.toString());
+                        frame.setLength(0);
+                    }
+                }
+                if (frame.length() > 0) {
+                    output(frame.toString());
+                }
+
+                final long dropped = droppedChunks.getAndSet(0);
+                if (dropped > 0) {
+                    output("[arthas] " + dropped + " output chunk(s) dropped because the output queue is full.\n");
+                }
+            }
+        }
+
+        private void output(String data) {
             if (stdoutHandlerChain != null) {
                 for (Function<String, String> function : stdoutHandlerChain) {
                     data = function.apply(data);
@@ -610,6 +712,12 @@ public class ProcessImpl implements Process {
         }
 
         private void close() {
+            // 先输出队列中剩余的数据,之后的写入直接丢弃
+            synchronized (outputLock) {
+                drain();
+                closed = true;
+            }
+
             if (statisticsHandler != null && flushHandlerChain != null) {
                 String data = statisticsHandler.result();
 
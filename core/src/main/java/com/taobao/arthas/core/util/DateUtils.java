@@ -19,4 +19,13 @@ public class DateUtils {
     public static String getCurrentDate() {
         return dataFormat.get().format(new Date());
     }
+
+    /**
+     * 格式化时间戳，供延迟渲染时使用
+     *
+     * @param timestamp 毫秒时间戳
+     */
+    public static String formatDate(long timestamp) {
+        return dataFormat.get().format(new Date(timestamp));
+    }
 }
@@ -0,0 +1,432 @@
+package com.taobao.arthas.core.util;
+
+import com.taobao.arthas.core.util.reflect.FieldAccessor;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按字段遍历对象图的JSON序列化器<br/>
+ * 用于输出给程序消费的结构化结果(NDJSON，每行一条记录)。与fastjson不同，只读取字段、不调用getter，
+ * 不会触发延迟加载等副作用:
+ * <ul>
+ * <li>普通对象输出为 {"@class":类名, 字段名:值...}，包括父类的字段，不包括静态字段</li>
+ * <li>集合、数组输出为数组，Map输出为对象(键取toString)；枚举、Class、字符等输出为字符串，Date输出为毫秒数</li>
+ * <li>异常输出类名、message、调用栈和cause</li>
+ * <li>深度达到上限的集合/Map/数组只输出 {"@class":类名,"size":大小}，其他对象输出toString()</li>
+ * <li>当前路径上已经出现过的对象(循环引用)输出为 {"@cycle":类名}</li>
+ * <li>结果达到长度上限时不再遍历，之后的值输出为"..."，并补全括号，结果总是合法的JSON</li>
+ * </ul>
+ * 序列化器是线程安全的
+ */
+public class JsonSerializer {
+
+    private static final String ELLIPSIS = "...";
+    // 遍历结束
+    private static final Object END = new Object();
+
+    private final int maxDepth;
+    private final int maxLength;
+
+    /**
+     * @param maxDepth  展开的深度, 深度不小于该值的对象不再展开, 根对象的深度为0
+     * @param maxLength 结果的字符数上限(近似值, 补全括号的部分不计入)
+     */
+    public JsonSerializer(int maxDepth, int maxLength) {
+        this.maxDepth = maxDepth;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 序列化一个值
+     */
+    public String serialize(Object value) {
+        final Encoder encoder = new Encoder();
+        try {
+            encoder.writeValue(value, 0);
+        } catch (LimitExceededException e) {
+            encoder.truncate();
+        }
+        return encoder.buf.toString();
+    }
+
+    /**
+     * 序列化一条记录，记录的每个值都作为根对象(深度为0)展开，结果不含换行符
+     */
+    public String serializeRecord(Map<String, ?> record) {
+        final Encoder encoder = new Encoder();
+        try {
+            encoder.beginObject();
+            for (Map.Entry<String, ?> entry : record.entrySet()) {
+                encoder.writeName(entry.getKey());
+                encoder.writeValue(entry.getValue(), 0);
+            }
+            encoder.endObject();
+        } catch (LimitExceededException e) {
+            encoder.truncate();
+        }
+        return encoder.buf.toString();
+    }
+
+    private static String safeToString(Object object) {
+        try {
+            return String.valueOf(object);
+        } catch (Throwable t) {
+            return object.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(object));
+        }
+    }
+
+    private static Iterator<?> iteratorOf(Collection<?> collection) {
+        try {
+            return collection.iterator();
+        } catch (RuntimeException e) {
+            return Collections.emptyList().iterator();
+        }
+    }
+
+    /**
+     * 下一个元素, 遍历结束或遍历时被并发修改时返回{@link #END}, 已经写入的元素保留,
+     * 只在取元素时捕获异常, 不会在写了一半的值之后结束容器
+     */
+    private static Object next(Iterator<?> it) {
+        try {
+            return it.hasNext() ? it.next() : END;
+        } catch (RuntimeException e) {
+            return END;
+        }
+    }
+
+    private static String classNameOf(Class<?> clazz) {
+        if (!clazz.isArray()) {
+            return clazz.getName();
+        }
+        return classNameOf(clazz.getComponentType()) + "[]";
+    }
+
+    /**
+     * 超过长度上限, 终止序列化
+     */
+    private static class LimitExceededException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * 一次序列化的状态
+     */
+    private class Encoder {
+
+        private final StringBuilder buf = new StringBuilder();
+        // 尚未结束的对象和数组的结束符, 截断时依次补全
+        private final StringBuilder closers = new StringBuilder();
+        // 当前对象/数组是否还没有写入成员
+        private boolean isFirst = true;
+        // 已写入名称, 等待写入值
+        private boolean isPendingValue;
+        // 当前路径上的对象, 用于发现循环引用
+        private final IdentityHashMap<Object, Boolean> path = new IdentityHashMap<Object, Boolean>();
+
+        void writeValue(Object value, int depth) throws LimitExceededException {
+            if (buf.length() >= maxLength) {
+                throw new LimitExceededException();
+            }
+            beforeValue();
+
+            if (null == value) {
+                buf.append("null");
+            } else if (value instanceof Boolean) {
+                buf.append(value);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte || value instanceof BigInteger || value instanceof BigDecimal) {
+                buf.append(value);
+            } else if (value instanceof Double || value instanceof Float) {
+                final double d = ((Number) value).doubleValue();
+                // NaN和无穷大不是合法的JSON数字
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    writeString(value.toString());
+                } else {
+                    buf.append(value);
+                }
+            } else if (value instanceof String || value instanceof Character) {
+                writeString(value.toString());
+            } else if (value instanceof Date) {
+                buf.append(((Date) value).getTime());
+            } else if (value instanceof Enum<?>) {
+                writeString(((Enum<?>) value).name());
+            } else if (value instanceof Class<?>) {
+                writeString(classNameOf((Class<?>) value));
+            } else if (path.containsKey(value)) {
+                beginObject();
+                writeName("@cycle");
+                writeValue(classNameOf(value.getClass()), depth + 1);
+                endObject();
+            } else if (value instanceof Throwable) {
+                // 异常总是输出完整的调用栈
+                path.put(value, Boolean.TRUE);
+                writeThrowable((Throwable) value, depth);
+                path.remove(value);
+            } else if (depth >= maxDepth) {
+                writeSummary(value);
+            } else {
+                path.put(value, Boolean.TRUE);
+                if (value.getClass().isArray()) {
+                    writeArray(value, depth);
+                } else if (value instanceof Collection<?>) {
+                    writeCollection((Collection<?>) value, depth);
+                } else if (value instanceof Map<?, ?>) {
+                    writeMap((Map<?, ?>) value, depth);
+                } else {
+                    writeObject(value, depth);
+                }
+                path.remove(value);
+            }
+        }
+
+        private void writeSummary(Object value) throws LimitExceededException {
+            final boolean isCollection = value instanceof Collection<?>;
+            if (!value.getClass().isArray() && !isCollection && !(value instanceof Map<?, ?>)) {
+                writeString(safeToString(value));
+                return;
+            }
+            int size;
+            try {
+                size = value.getClass().isArray() ? Array.getLength(value)
+                        : isCollection ? ((Collection<?>) value).size() : ((Map<?, ?>) value).size();
+            } catch (Throwable t) {
+                size = -1;
+            }
+            beginObject();
+            writeName("@class");
+            writeValue(classNameOf(value.getClass()), Integer.MAX_VALUE);
+            writeName("size");
+            writeValue(size, Integer.MAX_VALUE);
+            endObject();
+        }
+
+        private void writeArray(Object array, int depth) throws LimitExceededException {
+            final int length = Array.getLength(array);
+            beginArray();
+            for (int index = 0; index < length; index++) {
+                writeValue(Array.get(array, index), depth + 1);
+            }
+            endArray();
+        }
+
+        private void writeCollection(Collection<?> collection, int depth) throws LimitExceededException {
+            beginArray();
+            final Iterator<?> it = iteratorOf(collection);
+            for (Object element = next(it); END != element; element = next(it)) {
+                writeValue(element, depth + 1);
+            }
+            endArray();
+        }
+
+        private void writeMap(Map<?, ?> map, int depth) throws LimitExceededException {
+            beginObject();
+            final Iterator<?> it = iteratorOf(map.entrySet());
+            for (Object element = next(it); END != element; element = next(it)) {
+                final String name;
+                final Object value;
+                try {
+                    final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+                    name = safeToString(entry.getKey());
+                    value = entry.getValue();
+                } catch (RuntimeException e) {
+                    // 映射已被删除等, 跳过该成员
+                    continue;
+                }
+                writeName(name);
+                writeValue(value, depth + 1);
+            }
+            endObject();
+        }
+
+        private void writeObject(Object object, int depth) throws LimitExceededException {
+            beginObject();
+            writeName("@class");
+            writeValue(classNameOf(object.getClass()), depth + 1);
+            // 子类的字段在前, 父类中与子类重名的字段被忽略
+            final Set<String> names = new HashSet<String>();
+            for (Class<?> type = object.getClass(); null != type && Object.class != type; type = type.getSuperclass()) {
+                final FieldAccessor fields = FieldAccessor.of(type);
+                for (int index = 0; index < fields.size(); index++) {
+                    if (Modifier.isStatic(fields.getField(index).getModifiers()) || !names.add(fields.getName(index))) {
+                        continue;
+                    }
+                    Object value;
+                    try {
+                        value = fields.get(object, index);
+                    } catch (Throwable t) {
+                        // 无法访问的字段不输出
+                        continue;
+                    }
+                    writeName(fields.getName(index));
+                    writeValue(value, depth + 1);
+                }
+            }
+            endObject();
+        }
+
+        private void writeThrowable(Throwable throwable, int depth) throws LimitExceededException {
+            beginObject();
+            writeName("@class");
+            writeValue(classNameOf(throwable.getClass()), depth + 1);
+            String message;
+            try {
+                message = throwable.getMessage();
+            } catch (Throwable t) {
+                message = null;
+            }
+            writeName("message");
+            writeValue(message, depth + 1);
+            StackTraceElement[] frames;
+            try {
+                frames = throwable.getStackTrace();
+            } catch (Throwable t) {
+                frames = new StackTraceElement[0];
+            }
+            writeName("stackTrace");
+            beginArray();
+            for (StackTraceElement frame : frames) {
+                writeValue(String.valueOf(frame), depth + 1);
+            }
+            endArray();
+            Throwable cause;
+            try {
+                cause = throwable.getCause();
+            } catch (Throwable t) {
+                cause = null;
+            }
+            if (null != cause && cause != throwable) {
+                writeName("cause");
+                writeValue(cause, depth + 1);
+            }
+            endObject();
+        }
+
+        // 对象和数组的开始, 之前的逗号由writeValue写入
+        void beginObject() {
+            buf.append('{');
+            closers.append('}');
+            isFirst = true;
+        }
+
+        void endObject() {
+            close();
+        }
+
+        private void beginArray() {
+            buf.append('[');
+            closers.append(']');
+            isFirst = true;
+        }
+
+        private void endArray() {
+            close();
+        }
+
+        private void close() {
+            buf.append(closers.charAt(closers.length() - 1));
+            closers.setLength(closers.length() - 1);
+            isFirst = false;
+            isPendingValue = false;
+        }
+
+        void writeName(String name) {
+            if (!isFirst) {
+                buf.append(',');
+            }
+            isFirst = false;
+            appendQuoted(name);
+            buf.append(':');
+            isPendingValue = true;
+        }
+
+        /**
+         * 数组元素之间的逗号; 对象成员的逗号由名称写入
+         */
+        private void beforeValue() {
+            if (isPendingValue) {
+                isPendingValue = false;
+                return;
+            }
+            if (closers.length() > 0 && ']' == closers.charAt(closers.length() - 1)) {
+                if (!isFirst) {
+                    buf.append(',');
+                }
+                isFirst = false;
+            }
+        }
+
+        /**
+         * 写入字符串, 超过剩余长度时截断并以...结尾
+         */
+        private void writeString(String value) {
+            final int remaining = Math.max(maxLength - buf.length(), 0);
+            appendQuoted(value.length() > remaining ? value.substring(0, remaining) + ELLIPSIS : value);
+        }
+
+        /**
+         * 截断: 补全正在等待的值, 以"..."标记省略的内容, 再依次补全括号
+         */
+        void truncate() {
+            if (isPendingValue) {
+                isPendingValue = false;
+                appendQuoted(ELLIPSIS);
+            } else if (closers.length() > 0 && ']' == closers.charAt(closers.length() - 1)) {
+                beforeValue();
+                appendQuoted(ELLIPSIS);
+            }
+            while (closers.length() > 0) {
+                close();
+            }
+        }
+
+        private void appendQuoted(String value) {
+            buf.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        buf.append("\\\"");
+                        break;
+                    case '\\':
+                        buf.append("\\\\");
+                        break;
+                    case '\n':
+                        buf.append("\\n");
+                        break;
+                    case '\r':
+                        buf.append("\\r");
+                        break;
+                    case '\t':
+                        buf.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                            buf.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            buf.append(c);
+                        }
+                }
+            }
+            buf.append('"');
+        }
+    }
+
+}
@@ -7,25 +7,26 @@ package com.taobao.arthas.core.util;
  */
 public class ThreadLocalWatch {
 
-    private final ThreadLocal<Long> timestampRef = new ThreadLocal<Long>() {
+    // 用long[1]保存时间戳，每次start只改写数组元素，避免Long装箱产生新对象
+    private final ThreadLocal<long[]> timestampRef = new ThreadLocal<long[]>() {
         @Override
-        protected Long initialValue() {
-            return System.nanoTime();
+        protected long[] initialValue() {
+            return new long[]{System.nanoTime()};
         }
     };
 
     public long start() {
         final long timestamp = System.nanoTime();
-        timestampRef.set(timestamp);
+        timestampRef.get()[0] = timestamp;
         return timestamp;
     }
 
     public long cost() {
-        return (System.nanoTime() - timestampRef.get());
+        return (System.nanoTime() - timestampRef.get()[0]);
     }
 
     public double costInMillis() {
-        return (System.nanoTime() - timestampRef.get()) / 1000000.0;
+        return (System.nanoTime() - timestampRef.get()[0]) / 1000000.0;
     }
 
     public void clear() {
@@ -346,16 +346,35 @@ abstract public class ThreadUtil {
      * @return 方法堆栈信息
      */
     public static String getThreadStack(Thread currentThread) {
-        StackTraceElement[] stackTraceElementArray = currentThread.getStackTrace();
+        return getThreadStack(currentThread, currentThread.getStackTrace());
+    }
+
+    /**
+     * 采集当前线程的方法执行堆栈，需要与{@link #getThreadStack(Thread)}在相同的调用深度调用
+     *
+     * @return 未格式化的方法堆栈
+     */
+    public static StackTraceElement[] captureThreadStack() {
+        return Thread.currentThread().getStackTrace();
+    }
 
-        StackTraceElement locationStackTraceElement = stackTraceElementArray[10];
+    /**
+     * 格式化已采集的方法执行堆栈
+     *
+     * @param currentThread          采集堆栈的线程
+     * @param stackTraceElementArray {@link #captureThreadStack()}采集的堆栈
+     * @return 方法堆栈信息
+     */
+    public static String getThreadStack(Thread currentThread, StackTraceElement[] stackTraceElementArray) {
+        int location = findAdviceLocation(stackTraceElementArray);
+        StackTraceElement locationStackTraceElement = stackTraceElementArray[location];
         String locationString = String.format("    @%s.%s()", locationStackTraceElement.getClassName(),
                 locationStackTraceElement.getMethodName());
 
         StringBuilder builder = new StringBuilder();
         builder.append(getThreadTitle(currentThread)).append("\n").append(locationString).append("\n");
 
-        int skip = 11;
+        int skip = location + 1;
         for (int index = skip; index < stackTraceElementArray.length; index++) {
             StackTraceElement ste = stackTraceElementArray[index];
             builder.append("        at ")
@@ -372,6 +391,21 @@ abstract public class ThreadUtil {
         return builder.toString();
     }
 
+    /**
+     * 被增强的方法在堆栈中的下标<br/>
+     * 默认织入的代码直接调用java.arthas.Spy的静态入口，被增强的方法即最靠近栈顶的Spy调用的下一帧；
+     * 开启{@link com.taobao.arthas.core.GlobalOptions#isReflectSpy}时织入的代码通过Method.invoke调用通知，
+     * 堆栈中没有Spy帧，退回到原先固定的下标10，依赖于通知到采集堆栈之间的调用深度
+     */
+    private static int findAdviceLocation(StackTraceElement[] stackTraceElementArray) {
+        for (int index = 0; index < stackTraceElementArray.length - 1; index++) {
+            if (Constants.SPY_CLASSNAME.equals(stackTraceElementArray[index].getClassName())) {
+                return index + 1;
+            }
+        }
+        return Math.min(10, stackTraceElementArray.length - 1);
+    }
+
     public static String getThreadTitle(Thread currentThread) {
         StringBuilder sb = new StringBuilder("thread_name=");
         sb.append(currentThread.getName())
@@ -0,0 +1,132 @@
+package com.taobao.arthas.core.util.matcher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 包名前缀匹配<br/>
+ * 包含/排除规则按包名逐段保存在前缀树中，匹配时取最长的匹配规则：
+ * <pre>
+ * include("com.foo")
+ * exclude("com.foo.util")
+ *
+ * com.foo.Bar        -> true
+ * com.foo.util.Strs  -> false
+ * org.bar.Baz        -> false (有包含规则时，未命中任何规则的类不匹配)
+ * </pre>
+ * 只按完整的段匹配，"io.netty"不匹配"io.nettyx.Foo"。类名可以使用'.'或'/'分隔
+ */
+public class PackageMatcher implements Matcher<String> {
+
+    private final Node root = new Node();
+    private boolean hasInclude = false;
+
+    /**
+     * 增加包含规则
+     *
+     * @param packageName 包名或类名前缀, 如 com.foo
+     * @return this
+     */
+    public PackageMatcher include(String packageName) {
+        node(packageName).isInclude = Boolean.TRUE;
+        hasInclude = true;
+        return this;
+    }
+
+    /**
+     * 增加排除规则
+     *
+     * @param packageName 包名或类名前缀, 如 io.netty
+     * @return this
+     */
+    public PackageMatcher exclude(String packageName) {
+        node(packageName).isInclude = Boolean.FALSE;
+        return this;
+    }
+
+    /**
+     * 是否没有任何规则, 此时匹配所有类
+     */
+    public boolean isEmpty() {
+        return !hasInclude && root.children.isEmpty() && null == root.isInclude;
+    }
+
+    private Node node(String packageName) {
+        Node node = root;
+        int begin = 0;
+        final int length = packageName.length();
+        while (begin < length) {
+            int end = nextSeparator(packageName, begin);
+            if (end > begin) {
+                final String segment = packageName.substring(begin, end);
+                Node child = node.children.get(segment);
+                if (null == child) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+            begin = end + 1;
+        }
+        return node;
+    }
+
+    private static int nextSeparator(String name, int from) {
+        final int length = name.length();
+        for (int index = from; index < length; index++) {
+            final char c = name.charAt(index);
+            if (c == '.' || c == '/') {
+                return index;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public boolean matching(String className) {
+        Boolean result = root.isInclude;
+        if (null != className) {
+            Node node = root;
+            int begin = 0;
+            final int length = className.length();
+            while (begin < length && !node.children.isEmpty()) {
+                final int end = nextSeparator(className, begin);
+                node = node.children.get(className.substring(begin, end));
+                if (null == node) {
+                    break;
+                }
+                if (null != node.isInclude) {
+                    result = node.isInclude;
+                }
+                begin = end + 1;
+            }
+        }
+        return null != result ? result : !hasInclude;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        toString(root, "", sb);
+        return sb.toString();
+    }
+
+    private void toString(Node node, String prefix, StringBuilder sb) {
+        if (null != node.isInclude) {
+            sb.append(sb.length() == 0 ? "" : ",").append(node.isInclude ? "+" : "-").append(prefix);
+        }
+        for (Map.Entry<String, Node> entry : node.children.entrySet()) {
+            toString(entry.getValue(), prefix.length() == 0 ? entry.getKey() : prefix + "." + entry.getKey(), sb);
+        }
+    }
+
+    /**
+     * 前缀树节点
+     */
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        // 在此结束的规则,null表示没有规则
+        private Boolean isInclude;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.taobao.arthas.core.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * 对数线性分桶的耗时直方图，思路同HdrHistogram。
+ * 小于32的值每个值一个桶；更大的值按最高位所在的2的幂分段，每段再线性等分为32个桶，
+ * 相对误差不超过1/32(约3%)。整个long范围只需要固定的1888个桶(约15KB)。
+ *
+ * 记录只做一次数组元素的原子累加，不加锁、不分配对象；
+ * 统计线程通过{@link #snapshotThenReset()}取出一个周期内的数据后计算分位数。
+ * </pre>
+ */
+public class LatencyHistogram {
+
+    // 每个2的幂区间线性等分的桶数 = 2^SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    // 最高位为62(Long.MAX_VALUE)时的最后一个桶 + 1
+    static final int BUCKET_COUNT = (62 - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 值对应的桶下标
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * 桶内的最大值，分位数以桶的上界报告，偏保守
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lower = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * 记录一个值，负数按0记录
+     *
+     * @param value 值(如耗时纳秒数)
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.getAndIncrement(bucketIndex(value));
+
+        long currentMax = max.get();
+        while (value > currentMax) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * 取出当前数据并清零<br/>
+     * 与并发的记录同时进行时，正在记录的值要么计入本次结果，要么留到下一次，不会丢失
+     *
+     * @return 快照
+     */
+    public Snapshot snapshotThenReset() {
+        final Snapshot snapshot = new Snapshot();
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            final long count = buckets.get(index);
+            if (count != 0) {
+                snapshot.counts[index] = buckets.getAndAdd(index, -count);
+                snapshot.count += snapshot.counts[index];
+            }
+        }
+        snapshot.max = max.getAndSet(0);
+        return snapshot;
+    }
+
+    /**
+     * 直方图快照
+     */
+    public static class Snapshot {
+
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long count;
+        private long max;
+
+        /**
+         * 合并另一个快照
+         */
+        public void add(Snapshot other) {
+            for (int index = 0; index < BUCKET_COUNT; index++) {
+                counts[index] += other.counts[index];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * 分位数
+         *
+         * @param percentile 百分位, 如 99.9
+         * @return 不小于该比例的记录值所在桶的上界, 不超过最大值; 没有记录时返回0
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final double ratio = Math.min(Math.max(percentile, 0d), 100d) / 100d;
+            final long target = Math.max(1L, (long) Math.ceil(ratio * count));
+            long accumulated = 0;
+            for (int index = 0; index < BUCKET_COUNT; index++) {
+                accumulated += counts[index];
+                if (accumulated >= target) {
+                    return Math.min(bucketUpperBound(index), max);
+                }
+            }
+            return max;
+        }
+    }
+
+}
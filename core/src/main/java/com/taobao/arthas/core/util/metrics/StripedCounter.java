@@ -0,0 +1,126 @@
+package com.taobao.arthas.core.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * 分段计数器，一组long计数器按线程分散到多个段(stripe)上累加，思路同JDK8的LongAdder。
+ * 每个段的计数器按缓存行(64字节)对齐，不同线程累加时不会在同一个CAS上竞争，也不会伪共享；
+ * 读取时把所有段加起来。累加过程不分配任何对象。
+ *
+ * 例如 counters=4 时，每个段占一行(8个long)，只用前4个：
+ * | pad | c0 c1 c2 c3 - - - - | c0 c1 c2 c3 - - - - | ... | pad |
+ * </pre>
+ */
+public class StripedCounter {
+
+    // 一个缓存行能放下的long个数
+    private static final int LONGS_PER_CACHE_LINE = 8;
+    private static final int MAX_STRIPES = 64;
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final int counters;
+    private final int rowLength;
+    private final AtomicLongArray cells;
+
+    /**
+     * @param counters 计数器个数
+     */
+    public StripedCounter(int counters) {
+        if (counters <= 0) {
+            throw new IllegalArgumentException("counters must be positive: " + counters);
+        }
+        this.counters = counters;
+        this.rowLength = (counters + LONGS_PER_CACHE_LINE - 1) / LONGS_PER_CACHE_LINE * LONGS_PER_CACHE_LINE;
+        // 首尾各多留一行，避免和数组头及相邻对象共享缓存行
+        this.cells = new AtomicLongArray((STRIPES + 2) * rowLength);
+    }
+
+    /**
+     * 不小于CPU个数的2的幂，最多MAX_STRIPES个段
+     */
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * 当前线程对应的段的起始下标，同一个线程总是落在同一个段上
+     */
+    private int base() {
+        long id = Thread.currentThread().getId();
+        // 打散连续的线程ID
+        id *= 0x9E3779B97F4A7C15L;
+        final int stripe = (int) (id >>> 32) & (STRIPES - 1);
+        return (stripe + 1) * rowLength;
+    }
+
+    /**
+     * 累加
+     *
+     * @param counter 计数器下标
+     * @param delta   增量
+     */
+    public void add(int counter, long delta) {
+        cells.getAndAdd(base() + counter, delta);
+    }
+
+    /**
+     * 同时累加两个计数器，只计算一次段下标
+     */
+    public void add(int counter1, long delta1, int counter2, long delta2) {
+        final int base = base();
+        cells.getAndAdd(base + counter1, delta1);
+        cells.getAndAdd(base + counter2, delta2);
+    }
+
+    /**
+     * 累加三个计数器，只计算一次段下标
+     */
+    public void add(int counter1, long delta1, int counter2, long delta2, int counter3, long delta3) {
+        final int base = base();
+        cells.getAndAdd(base + counter1, delta1);
+        cells.getAndAdd(base + counter2, delta2);
+        cells.getAndAdd(base + counter3, delta3);
+    }
+
+    /**
+     * 汇总
+     *
+     * @param counter 计数器下标
+     * @return 所有段之和
+     */
+    public long sum(int counter) {
+        long sum = 0;
+        for (int stripe = 1; stripe <= STRIPES; stripe++) {
+            sum += cells.get(stripe * rowLength + counter);
+        }
+        return sum;
+    }
+
+    /**
+     * 汇总并清零<br/>
+     * 与并发的累加同时进行时，正在累加的增量要么计入本次结果，要么留到下一次，不会丢失
+     *
+     * @param counter 计数器下标
+     * @return 所有段之和
+     */
+    public long sumThenReset(int counter) {
+        long sum = 0;
+        for (int stripe = 1; stripe <= STRIPES; stripe++) {
+            sum += cells.getAndSet(stripe * rowLength + counter, 0);
+        }
+        return sum;
+    }
+
+    /**
+     * 计数器个数
+     */
+    public int counters() {
+        return counters;
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.taobao.arthas.core.util.reflect;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 类的字段访问器<br/>
+ * 按类缓存{@link Class#getDeclaredFields()}的结果，字段只在第一次访问时设置一次可访问，
+ * 之后读取字段不再复制字段数组、不再做访问检查。渲染大量同类对象(如集合中的DTO)时，这部分开销占了大头。
+ * <p/>
+ * 字段的可访问标记设置后不再还原：缓存的{@link Field}是副本，不会影响应用自己的反射调用；
+ * 多个线程同时读取时也不会出现一个线程还原了另一个线程刚设置的标记的情况。
+ * <p/>
+ * 缓存持有类的引用，类的数量超过{@link #MAX_CACHED_CLASSES}时整体清空，以免长期阻止类卸载
+ */
+public class FieldAccessor {
+
+    static final int MAX_CACHED_CLASSES = 4096;
+
+    private static final ConcurrentHashMap<Class<?>, FieldAccessor> accessors
+            = new ConcurrentHashMap<Class<?>, FieldAccessor>();
+
+    private static final FieldAccessor EMPTY = new FieldAccessor(new Field[0]);
+
+    private final Field[] fields;
+
+    private FieldAccessor(Field[] fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * 获取类的字段访问器，字段顺序与{@link Class#getDeclaredFields()}一致，包括静态字段，不包括父类的字段
+     *
+     * @param clazz 类
+     * @return 字段访问器
+     */
+    public static FieldAccessor of(Class<?> clazz) {
+        FieldAccessor accessor = accessors.get(clazz);
+        if (null == accessor) {
+            accessor = resolve(clazz);
+            if (accessors.size() >= MAX_CACHED_CLASSES) {
+                accessors.clear();
+            }
+            accessors.putIfAbsent(clazz, accessor);
+        }
+        return accessor;
+    }
+
+    private static FieldAccessor resolve(Class<?> clazz) {
+        final Field[] fields;
+        try {
+            fields = clazz.getDeclaredFields();
+        } catch (Throwable t) {
+            // 字段类型无法加载等
+            return EMPTY;
+        }
+        for (Field field : fields) {
+            try {
+                field.setAccessible(true);
+            } catch (RuntimeException e) {
+                // 无法访问的字段(如高版本JDK未开放的模块)在读取时抛出IllegalAccessException
+            }
+        }
+        return fields.length == 0 ? EMPTY : new FieldAccessor(fields);
+    }
+
+    /**
+     * 字段数量
+     */
+    public int size() {
+        return fields.length;
+    }
+
+    /**
+     * 字段
+     *
+     * @param index 字段下标
+     */
+    public Field getField(int index) {
+        return fields[index];
+    }
+
+    /**
+     * 字段名
+     *
+     * @param index 字段下标
+     */
+    public String getName(int index) {
+        return fields[index].getName();
+    }
+
+    /**
+     * 读取字段的值
+     *
+     * @param target 对象, 静态字段时忽略
+     * @param index  字段下标
+     * @return 字段的值, 基本类型会被装箱
+     * @throws IllegalAccessException 字段无法访问
+     */
+    public Object get(Object target, int index) throws IllegalAccessException {
+        return fields[index].get(target);
+    }
+
+    static int cachedClasses() {
+        return accessors.size();
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.taobao.arthas.core.util.snapshot;
+
+/**
+ * 对象快照<br/>
+ * 由{@link SnapshotSerializer}反序列化得到的节点，保留原对象的类名，
+ * 不持有也不依赖原对象的类，可以在原对象被修改或回收之后展示及执行表达式
+ */
+public interface Snapshot {
+
+    /**
+     * 原对象的类名, 数组为 元素类名[]
+     */
+    String getClassName();
+
+    /**
+     * 原对象的简单类名, 不包含包名及外部类名
+     */
+    String getSimpleClassName();
+
+}
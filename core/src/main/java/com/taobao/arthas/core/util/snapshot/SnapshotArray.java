@@ -0,0 +1,66 @@
+package com.taobao.arthas.core.util.snapshot;
+
+import java.util.ArrayList;
+
+/**
+ * 数组或集合的快照，按原有顺序保存元素的快照
+ */
+public class SnapshotArray extends ArrayList<Object> implements Snapshot {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+    // 超过元素个数上限而没有保存的元素个数
+    private int omitted;
+
+    public SnapshotArray(String className) {
+        this.className = className;
+    }
+
+    @Override
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String getSimpleClassName() {
+        return SnapshotSerializer.simpleClassName(className);
+    }
+
+    /**
+     * 超过元素个数上限而没有保存的元素个数, 原对象的大小为 size() + getOmitted()
+     */
+    public int getOmitted() {
+        return omitted;
+    }
+
+    void setOmitted(int omitted) {
+        this.omitted = omitted;
+    }
+
+    /**
+     * 是否是数组的快照
+     */
+    public boolean isArray() {
+        return className.endsWith("[]");
+    }
+
+    /**
+     * 快照可能包含循环引用, 按引用比较, 避免递归计算
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return "isEmpty=" + isEmpty() + ";size=" + (size() + omitted);
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.taobao.arthas.core.util.snapshot;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Map的快照，按原有的遍历顺序保存键值的快照
+ */
+public class SnapshotMap extends LinkedHashMap<Object, Object> implements Snapshot {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+    // 超过元素个数上限而没有保存的元素个数
+    private int omitted;
+
+    public SnapshotMap(String className) {
+        this.className = className;
+    }
+
+    @Override
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String getSimpleClassName() {
+        return SnapshotSerializer.simpleClassName(className);
+    }
+
+    /**
+     * 超过元素个数上限而没有保存的元素个数, 原对象的大小为 size() + getOmitted()
+     */
+    public int getOmitted() {
+        return omitted;
+    }
+
+    void setOmitted(int omitted) {
+        this.omitted = omitted;
+    }
+
+    /**
+     * 快照可能包含循环引用, 按引用比较, 避免递归计算
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return "isEmpty=" + isEmpty() + ";size=" + (size() + omitted);
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.taobao.arthas.core.util.snapshot;
+
+import java.util.LinkedHashMap;
+
+/**
+ * 普通对象的快照<br/>
+ * 字段名 -> 字段值的快照，按字段声明顺序保存，子类的字段在前。
+ * 表达式可以像访问原对象一样用字段名访问字段值, 如 params[0].name
+ */
+public class SnapshotObject extends LinkedHashMap<String, Object> implements Snapshot {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+
+    public SnapshotObject(String className) {
+        this.className = className;
+    }
+
+    @Override
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String getSimpleClassName() {
+        return SnapshotSerializer.simpleClassName(className);
+    }
+
+    /**
+     * 快照可能包含循环引用, 按引用比较, 避免递归计算
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return className;
+    }
+
+}
@@ -0,0 +1,774 @@
+package com.taobao.arthas.core.util.snapshot;
+
+import com.taobao.arthas.core.GlobalOptions;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对象快照的序列化器<br/>
+ * 在调用现场把对象图遍历一遍，编码为紧凑的二进制，之后原对象的修改不会影响快照，也不需要持有原对象。
+ * 反序列化得到的是{@link Snapshot}节点组成的对象图，可以用ObjectView展示，也可以执行表达式
+ * <p/>
+ * 编码规则：
+ * <ul>
+ * <li>整数使用变长编码(有符号数先做zigzag), 类名和字段名只在第一次出现时写入, 之后写入编号</li>
+ * <li>普通对象按字段逐个写入, 每个类的字段列表只反射一次, 缓存在序列化器中</li>
+ * <li>深度达到上限的集合/Map/数组只保存大小, 其他对象只保存toString(); 异常总是保存完整的调用栈</li>
+ * <li>集合/Map/数组最多写入元素个数上限个元素, 其余的只写入省略的个数, 与ObjectView的展示一致</li>
+ * <li>同一个对象再次出现时只写入引用, 循环引用不会导致死循环</li>
+ * <li>编码结果达到字节数上限时写入截断标记并停止, 解码时截断之后的部分为{@link SnapshotValue#TRUNCATED}</li>
+ * </ul>
+ * 序列化器是线程安全的
+ */
+public class SnapshotSerializer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte CHAR = 5;
+    private static final byte INT = 6;
+    private static final byte LONG = 7;
+    private static final byte FLOAT = 8;
+    private static final byte DOUBLE = 9;
+    private static final byte STRING = 10;
+    private static final byte DATE = 11;
+    // 类名 + 文本, 枚举/Class及超过深度的对象
+    private static final byte TEXT = 12;
+    private static final byte ARRAY = 13;
+    private static final byte COLLECTION = 14;
+    private static final byte MAP = 15;
+    private static final byte OBJECT = 16;
+    private static final byte THROWABLE = 17;
+    private static final byte REF = 18;
+    // 集合/Map的结束标记
+    private static final byte END = 19;
+    // 超过字节数上限的截断标记
+    private static final byte LIMIT = 20;
+    // 超过元素个数上限的省略标记, 其后是省略的个数
+    private static final byte OMITTED = 21;
+
+    // 遍历结束
+    private static final Object NO_MORE = new Object();
+
+    // 名称表编码: 0为null, 1为新名称, 其后是名称内容; 否则为 已有名称的编号 + 2
+    private static final int NAME_NULL = 0;
+    private static final int NAME_NEW = 1;
+
+    private static final Field[] NO_FIELDS = new Field[0];
+
+    private final int maxDepth;
+    private final int maxBytes;
+    private final int maxElements;
+
+    // 类 -> 需要写入的字段, 每个类只反射一次
+    private final ConcurrentHashMap<Class<?>, Field[]> layouts = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    /**
+     * @param maxDepth 展开的深度, 深度不小于该值的对象不再展开, 根对象的深度为0
+     * @param maxBytes 编码结果的字节数上限
+     */
+    public SnapshotSerializer(int maxDepth, int maxBytes) {
+        this(maxDepth, maxBytes, GlobalOptions.maxElements);
+    }
+
+    /**
+     * @param maxDepth    展开的深度, 深度不小于该值的对象不再展开, 根对象的深度为0
+     * @param maxBytes    编码结果的字节数上限
+     * @param maxElements 每个集合/Map/数组最多写入的元素个数, 不大于0时不限制
+     */
+    public SnapshotSerializer(int maxDepth, int maxBytes, int maxElements) {
+        this.maxDepth = maxDepth;
+        this.maxBytes = maxBytes;
+        this.maxElements = maxElements > 0 ? maxElements : Integer.MAX_VALUE;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 序列化一组根对象
+     */
+    public byte[] serialize(Object[] roots) {
+        final Encoder encoder = new Encoder();
+        encoder.writeVarInt(roots.length);
+        try {
+            for (Object root : roots) {
+                encoder.writeValue(root, 0);
+            }
+        } catch (LimitExceededException e) {
+            // 截断标记已经写入
+        }
+        return Arrays.copyOf(encoder.buf, encoder.size);
+    }
+
+    /**
+     * 反序列化一组根对象
+     *
+     * @throws IllegalArgumentException 数据损坏
+     */
+    public static Object[] deserialize(byte[] data) {
+        final Decoder decoder = new Decoder(data);
+        try {
+            final Object[] roots = new Object[decoder.readVarInt()];
+            for (int index = 0; index < roots.length; index++) {
+                roots[index] = decoder.exhausted ? SnapshotValue.TRUNCATED : decoder.readValue();
+            }
+            return roots;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("corrupted snapshot", e);
+        }
+    }
+
+    /**
+     * 去掉包名及外部类名的简单类名
+     */
+    static String simpleClassName(String className) {
+        final String name = className.substring(className.lastIndexOf('.') + 1);
+        return name.substring(name.lastIndexOf('$') + 1);
+    }
+
+    /**
+     * 类名, 数组为 元素类名[]
+     */
+    private static String classNameOf(Class<?> clazz) {
+        if (!clazz.isArray()) {
+            return clazz.getName();
+        }
+        return classNameOf(clazz.getComponentType()) + "[]";
+    }
+
+    /**
+     * 对象的字段列表, 包括父类的字段, 不包括静态字段; 父类中与子类重名的字段被忽略
+     */
+    private Field[] layoutOf(Class<?> clazz) {
+        Field[] fields = layouts.get(clazz);
+        if (null == fields) {
+            fields = resolveLayout(clazz);
+            layouts.putIfAbsent(clazz, fields);
+        }
+        return fields;
+    }
+
+    private static Field[] resolveLayout(Class<?> clazz) {
+        final List<Field> fields = new ArrayList<Field>();
+        final Map<String, Boolean> names = new HashMap<String, Boolean>();
+        for (Class<?> type = clazz; null != type && Object.class != type; type = type.getSuperclass()) {
+            final Field[] declaredFields;
+            try {
+                declaredFields = type.getDeclaredFields();
+            } catch (Throwable t) {
+                continue;
+            }
+            for (Field field : declaredFields) {
+                if (Modifier.isStatic(field.getModifiers()) || names.containsKey(field.getName())) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                } catch (RuntimeException e) {
+                    // 无法访问的字段(如高版本JDK未开放的模块)不写入
+                    continue;
+                }
+                names.put(field.getName(), Boolean.TRUE);
+                fields.add(field);
+            }
+        }
+        return fields.isEmpty() ? NO_FIELDS : fields.toArray(new Field[fields.size()]);
+    }
+
+    private static String safeToString(Object object) {
+        try {
+            return String.valueOf(object);
+        } catch (Throwable t) {
+            return object.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(object));
+        }
+    }
+
+    /**
+     * 超过字节数上限, 终止编码
+     */
+    private static class LimitExceededException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * 一次序列化的状态
+     */
+    private class Encoder {
+
+        private byte[] buf = new byte[256];
+        private int size;
+
+        // 已写入的名称 -> 编号
+        private final Map<String, Integer> names = new HashMap<String, Integer>();
+        // 已写入的容器/对象 -> 编号
+        private final IdentityHashMap<Object, Integer> refs = new IdentityHashMap<Object, Integer>();
+
+        void writeValue(Object value, int depth) throws LimitExceededException {
+            if (size >= maxBytes) {
+                writeByte(LIMIT);
+                throw new LimitExceededException();
+            }
+
+            if (null == value) {
+                writeByte(NULL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Byte) {
+                writeByte(BYTE);
+                writeByte((Byte) value);
+            } else if (value instanceof Short) {
+                writeByte(SHORT);
+                writeVarInt(zigzag((Short) value));
+            } else if (value instanceof Character) {
+                writeByte(CHAR);
+                writeVarInt((Character) value);
+            } else if (value instanceof Integer) {
+                writeByte(INT);
+                writeVarInt(zigzag((Integer) value));
+            } else if (value instanceof Long) {
+                writeByte(LONG);
+                writeVarLong(zigzag((Long) value));
+            } else if (value instanceof Float) {
+                writeByte(FLOAT);
+                writeFixedInt(Float.floatToRawIntBits((Float) value));
+            } else if (value instanceof Double) {
+                writeByte(DOUBLE);
+                writeFixedLong(Double.doubleToRawLongBits((Double) value));
+            } else if (value instanceof String) {
+                writeByte(STRING);
+                writeString((String) value, true);
+            } else if (value instanceof Date) {
+                writeByte(DATE);
+                writeVarLong(zigzag(((Date) value).getTime()));
+            } else if (value instanceof Enum<?>) {
+                writeText(((Enum<?>) value).getDeclaringClass(), ((Enum<?>) value).name());
+            } else if (value instanceof Class<?>) {
+                writeText(Class.class, classNameOf((Class<?>) value));
+            } else if (value instanceof Throwable) {
+                // 异常总是保存完整的调用栈, 展示时由ObjectView决定是否展开
+                if (!writeRef(value)) {
+                    writeThrowable((Throwable) value, depth);
+                }
+            } else if (depth >= maxDepth) {
+                writeSummary(value);
+            } else if (!writeRef(value)) {
+                if (value.getClass().isArray()) {
+                    writeArray(value, depth);
+                } else if (value instanceof Collection<?>) {
+                    writeCollection((Collection<?>) value, depth);
+                } else if (value instanceof Map<?, ?>) {
+                    writeMap((Map<?, ?>) value, depth);
+                } else {
+                    writeObject(value, depth);
+                }
+            }
+        }
+
+        /**
+         * 已经写入过的对象只写入引用, 否则分配编号
+         *
+         * @return 是否写入了引用
+         */
+        private boolean writeRef(Object value) {
+            final Integer id = refs.get(value);
+            if (null != id) {
+                writeByte(REF);
+                writeVarInt(id);
+                return true;
+            }
+            refs.put(value, refs.size());
+            return false;
+        }
+
+        private void writeSummary(Object value) {
+            final String text;
+            if (value.getClass().isArray() || value instanceof Collection<?> || value instanceof Map<?, ?>) {
+                final int length = sizeOf(value);
+                text = "isEmpty=" + (length == 0) + ";size=" + length;
+            } else {
+                text = safeToString(value);
+            }
+            writeText(value.getClass(), text);
+        }
+
+        private void writeText(Class<?> clazz, String text) {
+            writeByte(TEXT);
+            writeName(classNameOf(clazz));
+            writeString(text, true);
+        }
+
+        private void writeArray(Object array, int depth) throws LimitExceededException {
+            final int length = Array.getLength(array);
+            final int count = Math.min(length, maxElements);
+            writeByte(ARRAY);
+            writeName(classNameOf(array.getClass()));
+            writeVarInt(count);
+            for (int index = 0; index < count; index++) {
+                writeValue(Array.get(array, index), depth + 1);
+            }
+            if (count < length) {
+                writeOmitted(length - count);
+            }
+        }
+
+        private void writeCollection(Collection<?> collection, int depth) throws LimitExceededException {
+            writeByte(COLLECTION);
+            writeName(classNameOf(collection.getClass()));
+            final Iterator<?> it = iteratorOf(collection);
+            int count = 0;
+            for (Object element = next(it); NO_MORE != element; element = next(it)) {
+                if (count++ == maxElements) {
+                    writeOmitted(sizeOf(collection) - maxElements);
+                    break;
+                }
+                writeValue(element, depth + 1);
+            }
+            writeByte(END);
+        }
+
+        private void writeMap(Map<?, ?> map, int depth) throws LimitExceededException {
+            writeByte(MAP);
+            writeName(classNameOf(map.getClass()));
+            final Iterator<?> it = iteratorOf(map.entrySet());
+            int count = 0;
+            for (Object element = next(it); NO_MORE != element; element = next(it)) {
+                if (count++ == maxElements) {
+                    writeOmitted(sizeOf(map) - maxElements);
+                    break;
+                }
+                final Object key;
+                final Object value;
+                try {
+                    final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+                    key = entry.getKey();
+                    value = entry.getValue();
+                } catch (RuntimeException e) {
+                    // 映射已被删除等, 跳过该成员
+                    continue;
+                }
+                writeValue(key, depth + 1);
+                writeValue(value, depth + 1);
+            }
+            writeByte(END);
+        }
+
+        /**
+         * 写入省略的元素个数, 并发修改的集合的大小可能已经变化, 至少为1
+         */
+        private void writeOmitted(int omitted) {
+            writeByte(OMITTED);
+            writeVarInt(Math.max(omitted, 1));
+        }
+
+        private void writeObject(Object object, int depth) throws LimitExceededException {
+            final Field[] fields = layoutOf(object.getClass());
+            writeByte(OBJECT);
+            writeName(classNameOf(object.getClass()));
+            writeVarInt(fields.length);
+            for (Field field : fields) {
+                Object value;
+                try {
+                    value = field.get(object);
+                } catch (Throwable t) {
+                    value = null;
+                }
+                writeName(field.getName());
+                writeValue(value, depth + 1);
+            }
+        }
+
+        private void writeThrowable(Throwable throwable, int depth) throws LimitExceededException {
+            writeByte(THROWABLE);
+            writeName(classNameOf(throwable.getClass()));
+            String message;
+            try {
+                message = throwable.getMessage();
+            } catch (Throwable t) {
+                message = null;
+            }
+            writeValue(message, depth + 1);
+            StackTraceElement[] frames;
+            try {
+                frames = throwable.getStackTrace();
+            } catch (Throwable t) {
+                frames = new StackTraceElement[0];
+            }
+            writeVarInt(frames.length);
+            for (StackTraceElement frame : frames) {
+                writeName(frame.getClassName());
+                writeName(frame.getMethodName());
+                writeName(frame.getFileName());
+                writeVarInt(zigzag(frame.getLineNumber()));
+            }
+            Throwable cause;
+            try {
+                cause = throwable.getCause();
+            } catch (Throwable t) {
+                cause = null;
+            }
+            writeValue(cause, depth + 1);
+        }
+
+        /**
+         * 写入字符串
+         *
+         * @param isCut 超过剩余字节数时是否截断并以...结尾, 名称不截断
+         */
+        private void writeString(String value, boolean isCut) {
+            final int remaining = Math.max(maxBytes - size, 0);
+            final String text = isCut && value.length() > remaining ? value.substring(0, remaining) + "..." : value;
+            final byte[] data = text.getBytes(UTF_8);
+            writeVarInt(data.length);
+            ensureCapacity(data.length);
+            System.arraycopy(data, 0, buf, size, data.length);
+            size += data.length;
+        }
+
+        private void writeName(String name) {
+            if (null == name) {
+                writeVarInt(NAME_NULL);
+                return;
+            }
+            final Integer id = names.get(name);
+            if (null != id) {
+                writeVarInt(id + 2);
+                return;
+            }
+            names.put(name, names.size());
+            writeVarInt(NAME_NEW);
+            writeString(name, false);
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buf[size++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private void writeFixedInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte(value >>> shift);
+            }
+        }
+
+        private void writeFixedLong(long value) {
+            writeFixedInt((int) (value >>> 32));
+            writeFixedInt((int) value);
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, size + length));
+            }
+        }
+    }
+
+    /**
+     * 集合/Map/数组的大小, 获取失败时为-1
+     */
+    private static int sizeOf(Object value) {
+        try {
+            if (value.getClass().isArray()) {
+                return Array.getLength(value);
+            }
+            return value instanceof Collection<?> ? ((Collection<?>) value).size() : ((Map<?, ?>) value).size();
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    private static Iterator<?> iteratorOf(Collection<?> collection) {
+        try {
+            return collection.iterator();
+        } catch (RuntimeException e) {
+            return Collections.emptyList().iterator();
+        }
+    }
+
+    /**
+     * 下一个元素, 遍历结束或遍历时被并发修改时返回{@link #NO_MORE}, 已经写入的元素保留,
+     * 只在取元素时捕获异常, 不会在写了一半的值之后写入结束标记
+     */
+    private static Object next(Iterator<?> it) {
+        try {
+            return it.hasNext() ? it.next() : NO_MORE;
+        } catch (RuntimeException e) {
+            return NO_MORE;
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * 一次反序列化的状态
+     */
+    private static class Decoder {
+
+        private final byte[] data;
+        private int position;
+
+        // 编号 -> 名称
+        private final List<String> names = new ArrayList<String>();
+        // 编号 -> 容器/对象, 与编码时的顺序一致
+        private final List<Object> refs = new ArrayList<Object>();
+        // 是否已经读到截断标记
+        private boolean exhausted;
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        Object readValue() {
+            final byte tag = data[position++];
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case BYTE:
+                    return data[position++];
+                case SHORT:
+                    return (short) unzigzag(readVarInt());
+                case CHAR:
+                    return (char) readVarInt();
+                case INT:
+                    return unzigzag(readVarInt());
+                case LONG:
+                    return unzigzag(readVarLong());
+                case FLOAT:
+                    return Float.intBitsToFloat(readFixedInt());
+                case DOUBLE:
+                    return Double.longBitsToDouble(readFixedLong());
+                case STRING:
+                    return readString();
+                case DATE:
+                    return new Date(unzigzag(readVarLong()));
+                case TEXT:
+                    return new SnapshotValue(readName(), readString());
+                case ARRAY:
+                    return readArray();
+                case COLLECTION:
+                    return readCollection();
+                case MAP:
+                    return readMap();
+                case OBJECT:
+                    return readObject();
+                case THROWABLE:
+                    return readThrowable();
+                case REF:
+                    return refs.get(readVarInt());
+                case LIMIT:
+                    exhausted = true;
+                    return SnapshotValue.TRUNCATED;
+                default:
+                    throw new IllegalStateException("unknown tag " + tag + " at " + (position - 1));
+            }
+        }
+
+        private Object readArray() {
+            final SnapshotArray array = new SnapshotArray(readName());
+            refs.add(array);
+            final int length = readVarInt();
+            for (int index = 0; index < length && !exhausted; index++) {
+                array.add(readValue());
+            }
+            if (!exhausted && position < data.length && data[position] == OMITTED) {
+                position++;
+                array.setOmitted(readVarInt());
+            }
+            return array;
+        }
+
+        private Object readCollection() {
+            final SnapshotArray collection = new SnapshotArray(readName());
+            refs.add(collection);
+            while (!exhausted) {
+                if (data[position] == END) {
+                    position++;
+                    break;
+                }
+                if (data[position] == OMITTED) {
+                    position++;
+                    collection.setOmitted(readVarInt());
+                    continue;
+                }
+                collection.add(readValue());
+            }
+            return collection;
+        }
+
+        private Object readMap() {
+            final SnapshotMap map = new SnapshotMap(readName());
+            refs.add(map);
+            while (!exhausted) {
+                if (data[position] == END) {
+                    position++;
+                    break;
+                }
+                if (data[position] == OMITTED) {
+                    position++;
+                    map.setOmitted(readVarInt());
+                    continue;
+                }
+                final Object key = readValue();
+                map.put(key, exhausted ? SnapshotValue.TRUNCATED : readValue());
+            }
+            return map;
+        }
+
+        private Object readObject() {
+            final SnapshotObject object = new SnapshotObject(readName());
+            refs.add(object);
+            final int count = readVarInt();
+            for (int index = 0; index < count && !exhausted; index++) {
+                final String name = readName();
+                object.put(name, readValue());
+            }
+            return object;
+        }
+
+        private Object readThrowable() {
+            final String className = readName();
+            // 先占位, 消息读出后再替换为异常快照
+            final int id = refs.size();
+            refs.add(null);
+            final Object message = readValue();
+            final SnapshotThrowable throwable = new SnapshotThrowable(className,
+                    null == message ? null : message.toString());
+            refs.set(id, throwable);
+            if (exhausted) {
+                throwable.setStackTrace(new StackTraceElement[0]);
+                return throwable;
+            }
+            final StackTraceElement[] frames = new StackTraceElement[readVarInt()];
+            for (int index = 0; index < frames.length; index++) {
+                final String declaringClass = readName();
+                final String methodName = readName();
+                final String fileName = readName();
+                frames[index] = new StackTraceElement(declaringClass, methodName, fileName, unzigzag(readVarInt()));
+            }
+            throwable.setStackTrace(frames);
+            final Object cause = readValue();
+            if (cause instanceof Throwable && cause != throwable) {
+                throwable.initCause((Throwable) cause);
+            }
+            return throwable;
+        }
+
+        private String readName() {
+            final int id = readVarInt();
+            if (id == NAME_NULL) {
+                return null;
+            }
+            if (id == NAME_NEW) {
+                final String name = readString();
+                names.add(name);
+                return name;
+            }
+            return names.get(id - 2);
+        }
+
+        private String readString() {
+            final int length = readVarInt();
+            final String value = new String(data, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private int readFixedInt() {
+            int value = 0;
+            for (int index = 0; index < 4; index++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        private long readFixedLong() {
+            return ((long) readFixedInt() << 32) | (readFixedInt() & 0xFFFFFFFFL);
+        }
+
+        private static int unzigzag(int value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private static long unzigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.taobao.arthas.core.util.snapshot;
+
+/**
+ * 异常的快照<br/>
+ * 保存原异常的类名、消息、调用栈及cause，可以像原异常一样打印调用栈
+ */
+public class SnapshotThrowable extends Throwable implements Snapshot {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+
+    public SnapshotThrowable(String className, String message) {
+        super(message);
+        this.className = className;
+    }
+
+    @Override
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String getSimpleClassName() {
+        return SnapshotSerializer.simpleClassName(className);
+    }
+
+    /**
+     * 快照不需要当前的调用栈
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        final String message = getLocalizedMessage();
+        return null == message ? className : className + ": " + message;
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.taobao.arthas.core.util.snapshot;
+
+/**
+ * 只保存了文本的快照<br/>
+ * 用于枚举、Class等，以及超过深度限制不再展开的对象(保存其toString()或集合大小)
+ * 和超过字节数限制被截断的部分
+ */
+public class SnapshotValue implements Snapshot {
+
+    /**
+     * 超过字节数限制被截断的部分
+     */
+    public static final SnapshotValue TRUNCATED = new SnapshotValue("snapshot", "exceeds the byte limit");
+
+    private final String className;
+    private final String text;
+
+    public SnapshotValue(String className, String text) {
+        this.className = className;
+        this.text = text;
+    }
+
+    @Override
+    public String getClassName() {
+        return className;
+    }
+
+    @Override
+    public String getSimpleClassName() {
+        return SnapshotSerializer.simpleClassName(className);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+}
@@ -3,10 +3,16 @@ package com.taobao.arthas.core.view;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.serializer.SerializerFeature;
 import com.taobao.arthas.core.GlobalOptions;
-
+import com.taobao.arthas.core.util.reflect.FieldAccessor;
+import com.taobao.arthas.core.util.snapshot.Snapshot;
+import com.taobao.arthas.core.util.snapshot.SnapshotArray;
+import com.taobao.arthas.core.util.snapshot.SnapshotMap;
+import com.taobao.arthas.core.util.snapshot.SnapshotObject;
+import com.taobao.arthas.core.util.snapshot.SnapshotValue;
+
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -20,10 +26,14 @@ import static java.lang.String.format;
 public class ObjectView implements View {
 
     private final static int MAX_OBJECT_LENGTH = 10 * 1024 * 1024; // 10M
+    // 分块写出时每块的大小
+    private final static int CHUNK_SIZE = 8 * 1024;
 
     private final Object object;
     private final int deep;
     private final int maxObjectLength;
+    // 集合、Map、数组最多展开的元素个数
+    private final int maxElements;
 
     public ObjectView(Object object, int deep) {
         this(object, deep, MAX_OBJECT_LENGTH);
@@ -33,27 +43,52 @@ public class ObjectView implements View {
         this.object = object;
         this.deep = deep > 4 ? 4 : deep;
         this.maxObjectLength = maxObjectLength;
+        this.maxElements = GlobalOptions.maxElements > 0 ? GlobalOptions.maxElements : Integer.MAX_VALUE;
     }
 
     @Override
     public String draw() {
-        StringBuilder buf = new StringBuilder();
+        final Output buf = new Output(maxObjectLength, null);
         try {
-            if (GlobalOptions.isUsingJson) {
-                return JSON.toJSONString(object, SerializerFeature.IgnoreErrorGetter);
-            }
-            renderObject(object, 0, deep, buf);
-            return buf.toString();
-        } catch (ObjectTooLargeException e) {
-            buf.append(" Object size exceeds size limit: ")
-                    .append(maxObjectLength)
-                    .append(", try to specify -M size_limit in your command, check the help command for more.");
+            render(buf);
             return buf.toString();
         } catch (Throwable t) {
             return "ERROR DATA!!!";
         }
     }
 
+    /**
+     * 渲染并分块写出，内存中不保留完整的结果，适合直接输出到终端的大对象<br/>
+     * 超出大小限制时已经写出的部分保留，随后输出提示
+     *
+     * @param out 输出目标
+     * @throws IOException 写出失败
+     */
+    public void draw(Appendable out) throws IOException {
+        final Output buf = new Output(maxObjectLength, out);
+        try {
+            render(buf);
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable t) {
+            buf.write("ERROR DATA!!!");
+        }
+        buf.flush();
+    }
+
+    private void render(Output buf) throws IOException {
+        if (GlobalOptions.isUsingJson) {
+            buf.write(JSON.toJSONString(object, SerializerFeature.IgnoreErrorGetter));
+            return;
+        }
+        try {
+            renderObject(object, 0, deep, buf);
+        } catch (ObjectTooLargeException e) {
+            buf.write(" Object size exceeds size limit: " + maxObjectLength
+                    + ", try to specify -M size_limit in your command, check the help command for more.");
+        }
+    }
+
     private final static String TAB = "    ";
 
     private final static Map<Byte, String> ASCII_MAP = new HashMap<Byte, String>();
@@ -94,14 +129,17 @@ public class ObjectView implements View {
         ASCII_MAP.put((byte) 127, "DEL");
     }
 
-    private void renderObject(Object obj, int deep, int expand, final StringBuilder buf) throws ObjectTooLargeException {
+    private void renderObject(Object obj, int deep, int expand, final Output buf) throws ObjectTooLargeException, IOException {
 
         if (null == obj) {
-            appendStringBuilder(buf,"null");
+            buf.append("null");
         } else {
 
             final Class<?> clazz = obj.getClass();
-            final String className = clazz.getSimpleName();
+            // 对象快照展示原对象的类名
+            final String className = obj instanceof Snapshot
+                    ? ((Snapshot) obj).getSimpleClassName()
+                    : clazz.getSimpleName();
 
             // 7种基础类型,直接输出@类型[值]
             if (Integer.class.isInstance(obj)
@@ -112,7 +150,7 @@ public class ObjectView implements View {
                 || Short.class.isInstance(obj)
                 || Byte.class.isInstance(obj)
                 || Boolean.class.isInstance(obj)) {
-                appendStringBuilder(buf, format("@%s[%s]", className, obj));
+                buf.append(format("@%s[%s]", className, obj));
             }
 
             // Char要特殊处理,因为有不可见字符的因素
@@ -123,72 +161,102 @@ public class ObjectView implements View {
                 // ASCII的可见字符
                 if (c >= 32
                     && c <= 126) {
-                    appendStringBuilder(buf, format("@%s[%s]", className, c));
+                    buf.append(format("@%s[%s]", className, c));
                 }
 
                 // ASCII的控制字符
                 else if (ASCII_MAP.containsKey((byte) c.charValue())) {
-                    appendStringBuilder(buf, format("@%s[%s]", className, ASCII_MAP.get((byte) c.charValue())));
+                    buf.append(format("@%s[%s]", className, ASCII_MAP.get((byte) c.charValue())));
                 }
 
                 // 超过ASCII的编码范围
                 else {
-                    appendStringBuilder(buf, format("@%s[%s]", className, c));
+                    buf.append(format("@%s[%s]", className, c));
                 }
 
             }
 
             // 字符串类型单独处理
             else if (String.class.isInstance(obj)) {
-                appendStringBuilder(buf, "@");
-                appendStringBuilder(buf, className);
-                appendStringBuilder(buf, "[");
-                for (Character c : ((String) obj).toCharArray()) {
-                    switch (c) {
-                        case '\n':
-                            appendStringBuilder(buf, "\\n");
-                            break;
-                        case '\r':
-                            appendStringBuilder(buf, "\\r");
-                            break;
-                        default:
-                            appendStringBuilder(buf, c.toString());
-                    }//switch
-                }//for
-                appendStringBuilder(buf, "]");
+                buf.append("@");
+                buf.append(className);
+                buf.append("[");
+                appendEscaped(buf, (String) obj);
+                buf.append("]");
+            }
+
+            // 只保存了文本的快照
+            else if (obj instanceof SnapshotValue) {
+                buf.append(format("@%s[%s]", className, obj));
+            }
+
+            // 普通对象的快照, 与普通Object一样按字段输出
+            else if (obj instanceof SnapshotObject) {
+
+                if (!isExpand(deep, expand)) {
+                    buf.append(format("@%s[%s]", className, obj));
+                } else {
+                    buf.append(format("@%s[", className));
+                    for (Map.Entry<String, Object> entry : ((SnapshotObject) obj).entrySet()) {
+                        buf.append("\n");
+                        for (int i = 0; i < deep+1; i++) {
+                            buf.append(TAB);
+                        }
+                        buf.append(entry.getKey());
+                        buf.append("=");
+                        renderObject(entry.getValue(), deep + 1, expand, buf);
+                        buf.append(",");
+                    }
+                    buf.append("\n");
+                    for (int i = 0; i < deep; i++) {
+                        buf.append(TAB);
+                    }
+                    buf.append("]");
+                }
+
             }
 
             // 集合类输出
             else if (Collection.class.isInstance(obj)) {
 
                 @SuppressWarnings("unchecked") final Collection<Object> collection = (Collection<Object>) obj;
+                // 快照中超过元素个数上限没有保存的元素
+                final int omitted = obj instanceof SnapshotArray ? ((SnapshotArray) obj).getOmitted() : 0;
 
                 // 非根节点或空集合只展示摘要信息
                 if (!isExpand(deep, expand)
                     || collection.isEmpty()) {
 
-                    appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                    buf.append(format("@%s[isEmpty=%s;size=%d]",
                                       className,
                                       collection.isEmpty(),
-                                      collection.size()));
+                                      collection.size() + omitted));
                 }
 
                 // 展开展示
                 else {
-                    appendStringBuilder(buf, format("@%s[", className));
+                    buf.append(format("@%s[", className));
+                    int count = 0;
                     for (Object e : collection) {
-                        appendStringBuilder(buf, "\n");
+                        if (count++ == maxElements) {
+                            appendOmitted(buf, deep, collection.size() + omitted - maxElements);
+                            break;
+                        }
+                        buf.append("\n");
                         for (int i = 0; i < deep+1; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
                         renderObject(e, deep + 1, expand, buf);
-                        appendStringBuilder(buf, ",");
+                        buf.append(",");
+                    }
+                    if (omitted > 0 && count <= maxElements) {
+                        appendOmitted(buf, deep, omitted);
                     }
-                    appendStringBuilder(buf, "\n");
+                    buf.append("\n");
                     for (int i = 0; i < deep; i++) {
-                        appendStringBuilder(buf, TAB);
+                        buf.append(TAB);
                     }
-                    appendStringBuilder(buf, "]");
+                    buf.append("]");
                 }
 
             }
@@ -197,33 +265,43 @@ public class ObjectView implements View {
             // Map类输出
             else if (Map.class.isInstance(obj)) {
                 @SuppressWarnings("unchecked") final Map<Object, Object> map = (Map<Object, Object>) obj;
+                // 快照中超过元素个数上限没有保存的元素
+                final int omitted = obj instanceof SnapshotMap ? ((SnapshotMap) obj).getOmitted() : 0;
 
                 // 非根节点或空集合只展示摘要信息
                 if (!isExpand(deep, expand)
                     || map.isEmpty()) {
 
-                    appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                    buf.append(format("@%s[isEmpty=%s;size=%d]",
                                       className,
                                       map.isEmpty(),
-                                      map.size()));
+                                      map.size() + omitted));
 
                 } else {
-                    appendStringBuilder(buf, format("@%s[", className));
+                    buf.append(format("@%s[", className));
+                    int count = 0;
                     for (Map.Entry<Object, Object> entry : map.entrySet()) {
-                        appendStringBuilder(buf, "\n");
+                        if (count++ == maxElements) {
+                            appendOmitted(buf, deep, map.size() + omitted - maxElements);
+                            break;
+                        }
+                        buf.append("\n");
                         for (int i = 0; i < deep+1; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
                         renderObject(entry.getKey(), deep + 1, expand, buf);
-                        appendStringBuilder(buf, ":");
+                        buf.append(":");
                         renderObject(entry.getValue(), deep + 1, expand, buf);
-                        appendStringBuilder(buf, ",");
+                        buf.append(",");
+                    }
+                    if (omitted > 0 && count <= maxElements) {
+                        appendOmitted(buf, deep, omitted);
                     }
-                    appendStringBuilder(buf, "\n");
+                    buf.append("\n");
                     for (int i = 0; i < deep; i++) {
-                        appendStringBuilder(buf, TAB);
+                        buf.append(TAB);
                     }
-                    appendStringBuilder(buf, "]");
+                    buf.append("]");
                 }
             }
 
@@ -242,7 +320,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -251,20 +329,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (int e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
 
                 }
@@ -277,7 +360,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -286,20 +369,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (long e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
 
                 }
@@ -312,7 +400,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -321,20 +409,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (short e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
 
                 }
@@ -347,7 +440,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -356,20 +449,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (float e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
 
                 }
@@ -382,7 +480,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -391,20 +489,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (double e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
 
                 }
@@ -417,7 +520,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -426,20 +529,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (boolean e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
 
                 }
@@ -452,7 +560,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -461,20 +569,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (char e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
 
                 }
@@ -487,7 +600,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -496,20 +609,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (byte e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
 
                 }
@@ -521,7 +639,7 @@ public class ObjectView implements View {
                     if (!isExpand(deep, expand)
                         || arrays.length == 0) {
 
-                        appendStringBuilder(buf, format("@%s[isEmpty=%s;size=%d]",
+                        buf.append(format("@%s[isEmpty=%s;size=%d]",
                                           typeName,
                                           arrays.length == 0,
                                           arrays.length));
@@ -530,20 +648,25 @@ public class ObjectView implements View {
 
                     // 展开展示
                     else {
-                        appendStringBuilder(buf, format("@%s[", className));
+                        buf.append(format("@%s[", className));
+                        int count = 0;
                         for (Object e : arrays) {
-                            appendStringBuilder(buf, "\n");
+                            if (count++ == maxElements) {
+                                appendOmitted(buf, deep, arrays.length - maxElements);
+                                break;
+                            }
+                            buf.append("\n");
                             for (int i = 0; i < deep+1; i++) {
-                                appendStringBuilder(buf, TAB);
+                                buf.append(TAB);
                             }
                             renderObject(e, deep + 1, expand, buf);
-                            appendStringBuilder(buf, ",");
+                            buf.append(",");
                         }
-                        appendStringBuilder(buf, "\n");
+                        buf.append("\n");
                         for (int i = 0; i < deep; i++) {
-                            appendStringBuilder(buf, TAB);
+                            buf.append(TAB);
                         }
-                        appendStringBuilder(buf, "]");
+                        buf.append("]");
                     }
                 }
 
@@ -554,66 +677,58 @@ public class ObjectView implements View {
             else if (Throwable.class.isInstance(obj)) {
 
                 if (!isExpand(deep, expand)) {
-                    appendStringBuilder(buf, format("@%s[%s]", className, obj));
+                    buf.append(format("@%s[%s]", className, obj));
                 } else {
 
                     final Throwable throwable = (Throwable) obj;
                     final StringWriter sw = new StringWriter();
                     final PrintWriter pw = new PrintWriter(sw);
                     throwable.printStackTrace(pw);
-                    appendStringBuilder(buf, sw.toString());
+                    buf.append(sw.toString());
                 }
 
             }
 
             // Date输出
             else if (Date.class.isInstance(obj)) {
-                appendStringBuilder(buf, format("@%s[%s]", className, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS").format(obj)));
+                buf.append(format("@%s[%s]", className, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS").format(obj)));
             }
 
             else if (object instanceof Enum<?>) {
-                appendStringBuilder(buf, format("@%s[%s]", className, obj));
+                buf.append(format("@%s[%s]", className, obj));
             }
 
             // 普通Object输出
             else {
 
                 if (!isExpand(deep, expand)) {
-                    appendStringBuilder(buf, format("@%s[%s]", className, obj));
+                    buf.append(format("@%s[%s]", className, obj));
                 } else {
-                    appendStringBuilder(buf, format("@%s[", className));
-                    final Field[] fields = obj.getClass().getDeclaredFields();
-                    if (null != fields) {
-                        for (Field field : fields) {
-
-                            field.setAccessible(true);
-
-                            try {
-
-                                final Object value = field.get(obj);
-
-                                appendStringBuilder(buf, "\n");
-                                for (int i = 0; i < deep+1; i++) {
-                                    appendStringBuilder(buf, TAB);
-                                }
-                                appendStringBuilder(buf, field.getName());
-                                appendStringBuilder(buf, "=");
-                                renderObject(value, deep + 1, expand, buf);
-                                appendStringBuilder(buf, ",");
-
-                            } catch (ObjectTooLargeException t) {
-                                buf.append("...");
-                                break;
-                            } catch (Throwable t) {
-                                // ignore
+                    buf.append(format("@%s[", className));
+                    final FieldAccessor fields = FieldAccessor.of(obj.getClass());
+                    for (int index = 0; index < fields.size(); index++) {
+                        try {
+                            final Object value = fields.get(obj, index);
+                            buf.append("\n");
+                            for (int i = 0; i < deep+1; i++) {
+                                buf.append(TAB);
                             }
-                        }//for
-                        appendStringBuilder(buf, "\n");
-                    }//if
+                            buf.append(fields.getName(index));
+                            buf.append("=");
+                            renderObject(value, deep + 1, expand, buf);
+                            buf.append(",");
+                        } catch (ObjectTooLargeException t) {
+                            buf.write("...");
+                            break;
+                        } catch (Throwable t) {
+                            // ignore
+                        }
+                    }//for
+                    buf.append("\n");
                     for (int i = 0; i < deep; i++) {
-                        appendStringBuilder(buf, TAB);
+                        buf.append(TAB);
                     }
-                    appendStringBuilder(buf, "]");
+                    buf.append("]");
                 }
 
             }
@@ -643,16 +758,102 @@ public class ObjectView implements View {
     }
 
     /**
-     * append string to a string builder, with upper limit check
-     * @param buf the StringBuilder buffer
-     * @param data the data to be appended
-     * @throws ObjectTooLargeException if the size has exceeded the upper limit
+     * 输出字符串的内容，转义换行符；超出大小限制时保留能放下的部分
      */
-    private void appendStringBuilder(StringBuilder buf, String data) throws ObjectTooLargeException {
-        if (buf.length() + data.length() > maxObjectLength) {
-            throw new ObjectTooLargeException("Object size exceeds size limit: " + maxObjectLength);
+    private static void appendEscaped(Output buf, String str) throws ObjectTooLargeException, IOException {
+        int start = 0;
+        for (int i = 0; i < str.length(); i++) {
+            final char c = str.charAt(i);
+            if (c == '\n' || c == '\r') {
+                buf.appendPrefix(str.substring(start, i));
+                buf.append(c == '\n' ? "\\n" : "\\r");
+                start = i + 1;
+            }
+        }
+        buf.appendPrefix(str.substring(start));
+    }
+
+    /**
+     * 元素个数超出限制时输出省略的个数
+     */
+    private static void appendOmitted(Output buf, int deep, int omitted) throws ObjectTooLargeException, IOException {
+        buf.append("\n");
+        for (int i = 0; i < deep + 1; i++) {
+            buf.append(TAB);
+        }
+        // 并发修改的集合的大小可能已经变化
+        buf.append(format("...(%d more)", Math.max(omitted, 1)));
+    }
+
+    /**
+     * 渲染结果<br/>
+     * 累计长度超出限制时抛出{@link ObjectTooLargeException}，不再继续遍历对象图；
+     * 有输出目标时每攒够{@link #CHUNK_SIZE}就按整行写出一次
+     */
+    private static class Output {
+
+        private final StringBuilder buf = new StringBuilder();
+        private final int maxLength;
+        // 为null时在内存中保留完整的结果
+        private final Appendable out;
+        private long length;
+
+        Output(int maxLength, Appendable out) {
+            this.maxLength = maxLength;
+            this.out = out;
+        }
+
+        /**
+         * append string with upper limit check
+         *
+         * @param data the data to be appended
+         * @throws ObjectTooLargeException if the size has exceeded the upper limit
+         */
+        void append(String data) throws ObjectTooLargeException, IOException {
+            if (length + data.length() > maxLength) {
+                throw new ObjectTooLargeException("Object size exceeds size limit: " + maxLength);
+            }
+            write(data);
+        }
+
+        /**
+         * 与{@link #append(String)}相同，但超出限制时先写入能放下的部分
+         */
+        void appendPrefix(String data) throws ObjectTooLargeException, IOException {
+            if (length + data.length() > maxLength) {
+                write(data.substring(0, (int) Math.max(maxLength - length, 0)));
+            }
+            append(data);
+        }
+
+        /**
+         * 不检查大小限制
+         */
+        void write(String data) throws IOException {
+            buf.append(data);
+            length += data.length();
+            if (null != out && buf.length() >= CHUNK_SIZE) {
+                // 按整行写出, 以便管道命令(如grep)逐行处理; 没有换行的超长内容直接写出
+                final int end = buf.lastIndexOf("\n") + 1;
+                if (end > 0 || buf.length() >= CHUNK_SIZE * 4) {
+                    final int size = end > 0 ? end : buf.length();
+                    out.append(buf, 0, size);
+                    buf.delete(0, size);
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            if (null != out && buf.length() > 0) {
+                out.append(buf);
+                buf.setLength(0);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return buf.toString();
         }
-        buf.append(data);
     }
 
     private static class ObjectTooLargeException extends Exception {
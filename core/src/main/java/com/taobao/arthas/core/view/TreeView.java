@@ -113,6 +113,17 @@ public class TreeView implements View {
     }
 
 
+    /**
+     * 设置根节点的标题，标题可以在绘制前再生成
+     *
+     * @param title 标题
+     * @return this
+     */
+    public TreeView title(String title) {
+        root.data = title;
+        return this;
+    }
+
     /**
      * 创建一个分支节点
      *
@@ -159,6 +170,43 @@ public class TreeView implements View {
     }
 
 
+    /**
+     * 创建一个已经统计好耗时的分支节点，用于从其它形式的记录物化调用树<br/>
+     * 与同名的兄弟节点合并统计，需要与{@link #endMerged(String, long)}配对使用
+     *
+     * @param data      节点数据
+     * @param times     调用次数
+     * @param totalCost 总耗时(纳秒)
+     * @param minCost   最小耗时(纳秒)
+     * @param maxCost   最大耗时(纳秒)
+     * @return this
+     */
+    public TreeView beginMerged(String data, long times, long totalCost, long minCost, long maxCost) {
+        Node n = current.find(data);
+        current = n != null ? n : new Node(current, data);
+        current.merge(times, totalCost, minCost, maxCost);
+        return this;
+    }
+
+    /**
+     * 结束一个由{@link #beginMerged(String, long, long, long, long)}创建的分支节点
+     *
+     * @param mark  备注, 没有备注时为null
+     * @param marks 备注次数
+     * @return this
+     */
+    public TreeView endMerged(String mark, long marks) {
+        if (current.isRoot()) {
+            throw new IllegalStateException("current node is root.");
+        }
+        if (marks > 0) {
+            current.mark = mark;
+            current.marks += marks;
+        }
+        current = current.parent;
+        return this;
+    }
+
     /**
      * 树节点
      */
@@ -172,7 +220,7 @@ public class TreeView implements View {
         /**
          * 节点数据
          */
-        final String data;
+        String data;
 
         /**
          * 子节点
@@ -263,6 +311,17 @@ public class TreeView implements View {
             return this;
         }
 
+        Node merge(long times, long totalCost, long minCost, long maxCost) {
+            // 只有一次调用时按开始/结束时间戳输出耗时
+            beginTimestamp = 0;
+            endTimestamp = totalCost;
+            this.minCost = Math.min(this.minCost, minCost);
+            this.maxCost = Math.max(this.maxCost, maxCost);
+            this.times += times;
+            this.totalCost += totalCost;
+            return this;
+        }
+
         Node mark(String mark) {
             this.mark = mark;
             marks++;
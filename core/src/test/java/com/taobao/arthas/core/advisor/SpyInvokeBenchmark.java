@@ -0,0 +1,100 @@
+package com.taobao.arthas.core.advisor;
+
+import java.arthas.Spy;
+import java.lang.reflect.Method;
+
+/**
+ * 对比织入代码两种调用通知方式的单次开销:
+ * <pre>
+ * 1. reflect: Spy.ON_BEFORE_METHOD.invoke(null, new Object[]{...})
+ * 2. direct : Spy.onBefore(...)
+ * </pre>
+ * 通知本身为空实现，测出来的就是桥接本身的开销。Spy必须由bootstrap classloader加载，运行方式:
+ * <pre>
+ * java -Xbootclasspath/a:spy/target/classes -cp core/target/classes:core/target/test-classes \
+ *      com.taobao.arthas.core.advisor.SpyInvokeBenchmark
+ * </pre>
+ */
+public class SpyInvokeBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 10 * 1000 * 1000;
+
+    private static volatile long sink;
+
+    public static void onBefore(int adviceId, int siteId, Object target, Object[] args) {
+        sink += adviceId;
+    }
+
+    private static class CountingDispatcher extends Spy.Dispatcher {
+
+        @Override
+        public void onBefore(int adviceId, int siteId, Object target, Object[] args) {
+            sink += adviceId;
+        }
+
+        @Override
+        public void onReturn(Object returnObject) {
+        }
+
+        @Override
+        public void onThrows(Throwable throwable) {
+        }
+
+        @Override
+        public void beforeInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        }
+
+        @Override
+        public void afterInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        }
+
+        @Override
+        public void throwInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        }
+    }
+
+    private static long reflect(Method method, Object target, Object[] args) throws Exception {
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            method.invoke(null, new Object[]{i, 0, target, args});
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long direct(Object target, Object[] args) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Spy.onBefore(i, 0, target, args);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Method method = SpyInvokeBenchmark.class.getMethod("onBefore", int.class, int.class,
+                Object.class, Object[].class);
+        Spy.DISPATCHER = new CountingDispatcher();
+
+        final Object target = new Object();
+        final Object[] params = new Object[]{1};
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            reflect(method, target, params);
+            direct(target, params);
+        }
+
+        long reflectCost = 0;
+        long directCost = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            reflectCost += reflect(method, target, params);
+            directCost += direct(target, params);
+        }
+
+        final double total = (double) ROUNDS * ITERATIONS;
+        System.out.println(String.format("reflect: %.2f ns/op", reflectCost / total));
+        System.out.println(String.format("direct : %.2f ns/op", directCost / total));
+        System.out.println("sink=" + sink);
+    }
+
+}
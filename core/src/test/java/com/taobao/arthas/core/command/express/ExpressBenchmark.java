@@ -0,0 +1,79 @@
+package com.taobao.arthas.core.command.express;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.util.Constants;
+
+/**
+ * 对比条件表达式两种求值方式的单次开销:
+ * <pre>
+ * 1. ognl: 解析后的表达式树由OGNL解释执行
+ * 2. fast: {@link FastPathCondition}直接读取Advice的字段
+ * </pre>
+ * 两者都经过{@link ExpressFactory#threadLocalExpress(Object)}，包含重置和绑定变量的开销。运行方式:
+ * <pre>
+ * java -cp core/target/classes:core/target/test-classes:... \
+ *      com.taobao.arthas.core.command.express.ExpressBenchmark
+ * </pre>
+ */
+public class ExpressBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 1000 * 1000;
+
+    private static final String[] EXPRESSES = {
+            "#cost > 200", "params[0] == 42", "params.length == 2", "isThrow", "returnObj == null"
+    };
+
+    private static volatile long sink;
+
+    private static long ognl(Express express, Advice advice, String condition) throws ExpressException {
+        // 与快速求值的表达式在OGNL中等价, 但不在快速求值支持的子集内
+        final String ognlCondition = "(" + condition + ") ? true : false";
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (express.reset().bind(advice).bind(Constants.COST_VARIABLE, (double) i).is(ognlCondition)) {
+                sink++;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long fast(Express express, Advice advice, String condition) throws ExpressException {
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (express.reset().bind(advice).bind(Constants.COST_VARIABLE, (double) i).is(condition)) {
+                sink++;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final ArthasMethod method = ArthasMethod.newMethod(String.class.getMethod("length"));
+        final Advice advice = Advice.newForAfterRetuning(ExpressBenchmark.class.getClassLoader(), String.class,
+                method, "abc", new Object[]{42, "foo"}, null);
+        final Express express = ExpressFactory.threadLocalExpress(advice);
+
+        for (String condition : EXPRESSES) {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                ognl(express, advice, condition);
+                fast(express, advice, condition);
+            }
+
+            long ognlCost = 0;
+            long fastCost = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                ognlCost += ognl(express, advice, condition);
+                fastCost += fast(express, advice, condition);
+            }
+
+            final double total = (double) ROUNDS * ITERATIONS;
+            System.out.println(String.format("%-20s ognl: %.2f ns/op, fast: %.2f ns/op",
+                    condition, ognlCost / total, fastCost / total));
+        }
+        System.out.println("sink=" + sink);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.taobao.arthas.core.command.express;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import ognl.DefaultMemberAccess;
+import ognl.Ognl;
+import ognl.OgnlContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FastPathConditionTest {
+
+    private static final String[] SUPPORTED = {
+            "#cost > 200", "#cost <= 200.5", "params[0] == 42", "params[1] == \"foo\"", "params.length == 2",
+            "isThrow", "!isReturn", "returnObj == null", "returnObj != null && #cost >= 1 || isBefore",
+            "params[0] > 1L and params[0] < 100", "target == null", "throwExp == null", "params[3] == 1",
+            "params[0] == 42.0", "#cost > 1 && params[1] == 7"
+    };
+
+    private static final String[] UNSUPPORTED = {
+            "method.name == \"length\"", "params[0] + 1 > 2", "returnObj.length() > 1", "params[0] == 'c'",
+            "#this != null", "params[0] in {1, 2}"
+    };
+
+    @Test
+    public void testCompile() throws Exception {
+        for (String express : SUPPORTED) {
+            Assert.assertNotNull(express, FastPathCondition.compile(Ognl.parseExpression(express)));
+        }
+        for (String express : UNSUPPORTED) {
+            Assert.assertNull(express, FastPathCondition.compile(Ognl.parseExpression(express)));
+        }
+    }
+
+    @Test
+    public void testSameAsOgnl() throws Exception {
+        final ArthasMethod method = ArthasMethod.newMethod(String.class.getMethod("length"));
+        final ClassLoader loader = getClass().getClassLoader();
+        final Advice[] advices = {
+                Advice.newForBefore(loader, String.class, method, "abc", new Object[]{42, "foo"}),
+                Advice.newForAfterRetuning(loader, String.class, method, null, new Object[]{42L, 7}, null),
+                Advice.newForAfterRetuning(loader, String.class, method, "abc", new Object[]{"42", 7.0d}, 3),
+                Advice.newForAfterThrowing(loader, String.class, method, "abc", new Object[]{Double.NaN},
+                        new IllegalStateException()),
+                Advice.newForBefore(loader, String.class, method, "abc", new Object[0])
+        };
+        final Object[] costs = {0.5d, 200.0d, 200.5d, 1000L, null};
+
+        for (String express : SUPPORTED) {
+            final FastPathCondition condition = FastPathCondition.compile(Ognl.parseExpression(express));
+            for (Advice advice : advices) {
+                for (Object cost : costs) {
+                    final OgnlContext context = new OgnlContext();
+                    context.setMemberAccess(new DefaultMemberAccess(true));
+                    context.put("cost", cost);
+                    final int result = condition.test(advice, context);
+                    if (result == FastPathCondition.UNKNOWN) {
+                        continue;
+                    }
+                    final Object expected = Ognl.getValue(Ognl.parseExpression(express), context, advice);
+                    Assert.assertEquals(express + " cost=" + cost, Boolean.TRUE.equals(expected),
+                            result == FastPathCondition.TRUE);
+                }
+            }
+        }
+    }
+
+}
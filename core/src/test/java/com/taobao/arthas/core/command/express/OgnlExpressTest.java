@@ -0,0 +1,29 @@
+package com.taobao.arthas.core.command.express;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OgnlExpressTest {
+
+    @Test
+    public void testReset() throws Exception {
+        final Express express = new OgnlExpress().bind(new Pojo()).bind("cost", 1.5);
+        Assert.assertEquals(1.5, express.get("#cost"));
+        Assert.assertEquals(3, express.get("#x = 3, #x"));
+
+        // 绑定的变量和表达式中赋值的变量被清除
+        express.reset().bind(new Pojo());
+        Assert.assertTrue(express.is("#cost == null"));
+        Assert.assertTrue(express.is("#x == null"));
+
+        // 依然可以访问私有字段
+        Assert.assertEquals("secret", express.get("name"));
+        express.bind("cost", 2.0);
+        Assert.assertTrue(express.is("#cost > 1.5"));
+    }
+
+    private static class Pojo {
+        private String name = "secret";
+    }
+
+}
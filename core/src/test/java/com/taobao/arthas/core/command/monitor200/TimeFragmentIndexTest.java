@@ -0,0 +1,227 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class TimeFragmentIndexTest {
+
+    @Test
+    public void testIdListRoundTrip() {
+        // 差值覆盖1~5个字节的变长编码
+        final int[] ids = {0, 1, 127, 128, 255, 16383, 16384, 1 << 21, (1 << 28) + 1, Integer.MAX_VALUE - 1};
+        final TimeFragmentIndex.IdList list = new TimeFragmentIndex.IdList();
+        Assert.assertTrue(list.isEmpty());
+        for (int id : ids) {
+            list.add(id);
+        }
+        Assert.assertFalse(list.isEmpty());
+        Assert.assertArrayEquals(ids, toArray(list.iterator()));
+
+        final TimeFragmentIndex.IdIterator it = list.iterator();
+        Assert.assertEquals(128, it.advance(128));
+        // 当前编号已满足时不移动
+        Assert.assertEquals(128, it.advance(2));
+        Assert.assertEquals(255, it.advance(129));
+        Assert.assertEquals(TimeFragmentIndex.NONE, it.advance(Integer.MAX_VALUE));
+
+        Assert.assertArrayEquals(new int[]{16384, 1 << 21, (1 << 28) + 1, Integer.MAX_VALUE - 1},
+                toArray(list.compact(16384).iterator()));
+    }
+
+    @Test
+    public void testUnionAndIntersection() {
+        final TimeFragmentIndex.IdList a = listOf(1, 3, 5, 7, 9, 200);
+        final TimeFragmentIndex.IdList b = listOf(2, 3, 4, 9, 10, 200);
+        final TimeFragmentIndex.IdList c = listOf(3, 9, 11);
+
+        Assert.assertArrayEquals(new int[]{1, 2, 3, 4, 5, 7, 9, 10, 11, 200},
+                toArray(TimeFragmentIndex.union(iterators(a, b, c))));
+        Assert.assertArrayEquals(new int[]{3, 9, 200},
+                toArray(TimeFragmentIndex.intersection(iterators(a, b))));
+        Assert.assertArrayEquals(new int[]{3, 9},
+                toArray(TimeFragmentIndex.intersection(iterators(a, b, c))));
+        Assert.assertArrayEquals(new int[0],
+                toArray(TimeFragmentIndex.intersection(iterators(listOf(1, 2), listOf(3, 4)))));
+        Assert.assertArrayEquals(new int[0],
+                toArray(TimeFragmentIndex.union(new ArrayList<TimeFragmentIndex.IdIterator>())));
+
+        final TimeFragmentIndex.IdIterator union = TimeFragmentIndex.union(iterators(a, b));
+        Assert.assertEquals(9, union.advance(8));
+        Assert.assertEquals(10, union.next());
+    }
+
+    @Test
+    public void testNames() throws Exception {
+        final TimeFragmentIndex index = new TimeFragmentIndex();
+        index.add(0, returning(String.class, "length", 1, 0));
+        index.add(1, returning(Integer.class, "hashCode", 1, 0));
+        index.add(2, returning(String.class, "hashCode", 1, 0));
+
+        Assert.assertArrayEquals(new int[]{0, 2}, toArray(index.className("java.lang.String")));
+        Assert.assertArrayEquals(new int[]{1, 2}, toArray(index.methodName("hashCode")));
+        Assert.assertArrayEquals(new int[0], toArray(index.className("java.lang.Long")));
+        Assert.assertArrayEquals(new int[]{0, 1, 2}, toArray(index.returning()));
+        Assert.assertArrayEquals(new int[0], toArray(index.throwing()));
+    }
+
+    @Test
+    public void testThrowTypes() throws Exception {
+        final TimeFragmentIndex index = new TimeFragmentIndex();
+        index.add(0, throwing(new IllegalStateException()));
+        index.add(1, returning(String.class, "length", 1, 0));
+        index.add(2, throwing(new MarkedException()));
+        index.add(3, throwing(new IllegalArgumentException()));
+
+        Assert.assertArrayEquals(new int[]{0, 2, 3}, toArray(index.throwing()));
+        Assert.assertArrayEquals(new int[]{0, 2, 3}, toArray(index.throwType("java.lang.RuntimeException")));
+        Assert.assertArrayEquals(new int[]{0, 2}, toArray(index.throwType("java.lang.IllegalStateException")));
+        // 接口(含父接口)和Object也能命中
+        Assert.assertArrayEquals(new int[]{2}, toArray(index.throwType(Marker.class.getName())));
+        Assert.assertArrayEquals(new int[]{2}, toArray(index.throwType(Comparable.class.getName())));
+        Assert.assertArrayEquals(new int[]{0, 2, 3}, toArray(index.throwType("java.io.Serializable")));
+        Assert.assertArrayEquals(new int[]{0, 2, 3}, toArray(index.throwType("java.lang.Object")));
+
+        Assert.assertEquals(Arrays.asList(MarkedException.class.getName(), Marker.class.getName(),
+                Comparable.class.getName(), IllegalStateException.class.getName(), RuntimeException.class.getName(),
+                Exception.class.getName(), Throwable.class.getName(), "java.io.Serializable", "java.lang.Object"),
+                new ArrayList<String>(TimeFragmentIndex.typeNamesOf(MarkedException.class)));
+    }
+
+    @Test
+    public void testCost() throws Exception {
+        Assert.assertEquals(0, TimeFragmentIndex.costBucket(0));
+        Assert.assertEquals(0, TimeFragmentIndex.costBucket(0.0009));
+        Assert.assertEquals(1, TimeFragmentIndex.costBucket(0.001));
+        Assert.assertEquals(2, TimeFragmentIndex.costBucket(0.002));
+        Assert.assertEquals(10, TimeFragmentIndex.costBucket(1));
+        Assert.assertEquals(63, TimeFragmentIndex.costBucket(Double.MAX_VALUE));
+
+        final TimeFragmentIndex index = new TimeFragmentIndex();
+        final double[] costs = {0, 0.5, 1, 5, 50, 1e12};
+        for (int id = 0; id < costs.length; id++) {
+            index.add(id, returning(String.class, "length", costs[id], 0));
+        }
+        // 边界所在区间的记录也是候选
+        Assert.assertArrayEquals(new int[]{2, 3}, toArray(index.cost(1, 10)));
+        Assert.assertArrayEquals(new int[]{1, 2, 3}, toArray(index.cost(0.5, 5)));
+        Assert.assertArrayEquals(new int[]{0}, toArray(index.cost(0, 0)));
+        Assert.assertArrayEquals(new int[]{4, 5}, toArray(index.cost(40, Double.MAX_VALUE)));
+        Assert.assertArrayEquals(new int[0], toArray(index.cost(100, 1000)));
+    }
+
+    @Test
+    public void testTime() throws Exception {
+        final TimeFragmentIndex index = new TimeFragmentIndex();
+        for (int id = 0; id < 200; id++) {
+            index.add(id, returning(String.class, "length", 1, 1000 + id));
+        }
+        // 按块(64条)粗略筛选
+        Assert.assertArrayEquals(range(64, 128), toArray(index.time(1100, 1120)));
+        Assert.assertArrayEquals(range(0, 128), toArray(index.time(1050, 1100)));
+        Assert.assertArrayEquals(range(128, 200), toArray(index.time(1190, Long.MAX_VALUE)));
+        Assert.assertArrayEquals(range(0, 200), toArray(index.time(Long.MIN_VALUE, Long.MAX_VALUE)));
+        Assert.assertArrayEquals(new int[0], toArray(index.time(0, 999)));
+        Assert.assertArrayEquals(new int[0], toArray(index.time(1200, 2000)));
+
+        final TimeFragmentIndex.IdIterator it = index.time(1050, 1100);
+        Assert.assertEquals(100, it.advance(100));
+        Assert.assertEquals(101, it.next());
+        Assert.assertEquals(TimeFragmentIndex.NONE, it.advance(128));
+    }
+
+    @Test
+    public void testTrim() throws Exception {
+        final TimeFragmentIndex index = new TimeFragmentIndex();
+        for (int id = 0; id < 10000; id++) {
+            index.add(id, returning(String.class, "length", 1, id));
+        }
+        final TimeFragmentIndex.IdIterator before = index.className("java.lang.String");
+
+        // 失效的编号太少, 不压缩
+        index.trim(100);
+        Assert.assertEquals(0, index.className("java.lang.String").next());
+
+        index.trim(8010);
+        Assert.assertArrayEquals(range(8010, 10000), toArray(index.className("java.lang.String")));
+        Assert.assertArrayEquals(range(8010, 10000), toArray(index.returning()));
+        Assert.assertArrayEquals(range(8010, 10000), toArray(index.cost(0, Double.MAX_VALUE)));
+        // 保留包含firstId的块
+        Assert.assertEquals(8000, index.time(Long.MIN_VALUE, Long.MAX_VALUE).next());
+        // 原有的迭代器不受影响
+        Assert.assertEquals(0, before.next());
+
+        index.add(10000, returning(String.class, "length", 1, 10000));
+        Assert.assertEquals(10000, index.className("java.lang.String").advance(10000));
+
+        index.clear();
+        Assert.assertEquals(TimeFragmentIndex.NONE, index.className("java.lang.String").next());
+        Assert.assertEquals(TimeFragmentIndex.NONE, index.time(Long.MIN_VALUE, Long.MAX_VALUE).next());
+    }
+
+    static TimeFragment returning(Class<?> clazz, String methodName, double cost, long time) throws Exception {
+        final ArthasMethod method = ArthasMethod.newMethod(clazz.getMethod(methodName));
+        return new TimeFragment(Advice.newForAfterRetuning(TimeFragmentIndexTest.class.getClassLoader(), clazz,
+                method, null, new Object[0], null), new Date(time), cost);
+    }
+
+    static TimeFragment throwing(Throwable throwable) throws Exception {
+        final ArthasMethod method = ArthasMethod.newMethod(String.class.getMethod("length"));
+        return new TimeFragment(Advice.newForAfterThrowing(TimeFragmentIndexTest.class.getClassLoader(),
+                String.class, method, null, new Object[0], throwable), new Date(0), 1);
+    }
+
+    static int[] toArray(TimeFragmentIndex.IdIterator it) {
+        final List<Integer> ids = new ArrayList<Integer>();
+        for (int id = it.next(); id != TimeFragmentIndex.NONE; id = it.next()) {
+            ids.add(id);
+        }
+        final int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    private static int[] range(int from, int to) {
+        final int[] result = new int[to - from];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = from + i;
+        }
+        return result;
+    }
+
+    private static TimeFragmentIndex.IdList listOf(int... ids) {
+        final TimeFragmentIndex.IdList list = new TimeFragmentIndex.IdList();
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<TimeFragmentIndex.IdIterator> iterators(TimeFragmentIndex.IdList... lists) {
+        final List<TimeFragmentIndex.IdIterator> iterators = new ArrayList<TimeFragmentIndex.IdIterator>();
+        for (TimeFragmentIndex.IdList list : lists) {
+            iterators.add(list.iterator());
+        }
+        return iterators;
+    }
+
+    interface Marker extends Comparable<Object> {
+    }
+
+    static class MarkedException extends IllegalStateException implements Marker {
+
+        @Override
+        public int compareTo(Object o) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimeFragmentQueryTest {
+
+    @Test
+    public void testParse() {
+        final String[] indexed = {
+                "method.name == \"length\"", "clazz.name == 'java.lang.String'", "isThrow", "!isThrow",
+                "isReturn", "!isReturn", "throwExp instanceof IllegalStateException", "#cost > 200",
+                "200 <= #cost", "#timestamp >= 1480000000000L", "isThrow && #cost < 1.5 and method.name == \"x\""
+        };
+        for (String express : indexed) {
+            final TimeFragmentQuery query = TimeFragmentQuery.parse(express);
+            Assert.assertTrue(express, query.isIndexed());
+            Assert.assertFalse(express, query.hasResidual());
+        }
+
+        final String[] residual = {
+                "params[0] == 1", "#cost == 200", "method.name != \"length\"", "isThrow || isReturn",
+                "target.name == \"x\"", "returnObj instanceof String", "(("
+        };
+        for (String express : residual) {
+            final TimeFragmentQuery query = TimeFragmentQuery.parse(express);
+            Assert.assertFalse(express, query.isIndexed());
+            Assert.assertTrue(express, query.hasResidual());
+        }
+
+        final TimeFragmentQuery mixed = TimeFragmentQuery.parse("#cost > 10 && params[0] == 1");
+        Assert.assertTrue(mixed.isIndexed());
+        Assert.assertTrue(mixed.hasResidual());
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        final List<TimeFragment> fragments = new ArrayList<TimeFragment>();
+        fragments.add(TimeFragmentIndexTest.returning(String.class, "length", 0.5, 1000));
+        fragments.add(TimeFragmentIndexTest.returning(String.class, "hashCode", 20, 2000));
+        fragments.add(TimeFragmentIndexTest.throwing(new IllegalStateException()));
+        fragments.add(TimeFragmentIndexTest.throwing(new UnsupportedOperationException()));
+        fragments.add(TimeFragmentIndexTest.returning(Integer.class, "hashCode", 300, 3000));
+        final TimeFragmentIndex index = new TimeFragmentIndex();
+        for (int id = 0; id < fragments.size(); id++) {
+            index.add(id, fragments.get(id));
+        }
+
+        Assert.assertArrayEquals(new int[]{1, 4}, select(index, fragments, "method.name == \"hashCode\""));
+        Assert.assertArrayEquals(new int[]{0, 1, 2, 3}, select(index, fragments, "clazz.name == \"java.lang.String\""));
+        Assert.assertArrayEquals(new int[]{2, 3}, select(index, fragments, "isThrow"));
+        Assert.assertArrayEquals(new int[]{0, 1, 4}, select(index, fragments, "!isThrow"));
+        Assert.assertArrayEquals(new int[]{2, 3}, select(index, fragments, "!isReturn"));
+        Assert.assertArrayEquals(new int[]{2}, select(index, fragments, "throwExp instanceof IllegalStateException"));
+        Assert.assertArrayEquals(new int[]{2, 3},
+                select(index, fragments, "throwExp instanceof java.lang.RuntimeException"));
+        Assert.assertArrayEquals(new int[]{2, 3}, select(index, fragments, "throwExp instanceof java.io.Serializable"));
+        Assert.assertArrayEquals(new int[]{2, 3}, select(index, fragments, "throwExp instanceof Object"));
+        // 耗时和时间在候选之外还需要精确比较
+        Assert.assertArrayEquals(new int[]{1, 4}, select(index, fragments, "#cost > 10"));
+        Assert.assertArrayEquals(new int[]{1}, select(index, fragments, "20 >= #cost && method.name == \"hashCode\""));
+        Assert.assertArrayEquals(new int[]{1, 4}, select(index, fragments, "#timestamp >= 1500"));
+        Assert.assertArrayEquals(new int[]{0, 2, 3}, select(index, fragments, "#timestamp < 1500L"));
+        Assert.assertArrayEquals(new int[0], select(index, fragments, "isThrow && isReturn"));
+    }
+
+    // 索引求出候选后再精确比较
+    private static int[] select(TimeFragmentIndex index, List<TimeFragment> fragments, String express) {
+        final TimeFragmentQuery query = TimeFragmentQuery.parse(express);
+        Assert.assertTrue(express, query.isIndexed());
+        final List<Integer> ids = new ArrayList<Integer>();
+        final TimeFragmentIndex.IdIterator it = query.candidates(index);
+        for (int id = it.next(); id != TimeFragmentIndex.NONE; id = it.next()) {
+            if (query.accept(fragments.get(id))) {
+                ids.add(id);
+            }
+        }
+        final int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.util.Constants;
+import com.taobao.arthas.core.util.matcher.EqualsMatcher;
+import com.taobao.arthas.core.util.matcher.TrueMatcher;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TimeFragmentSpillTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(temporaryFolder.getRoot(), "spill");
+    }
+
+    @Test
+    public void testAppendAndGet() throws Exception {
+        final TimeFragmentSpill spill = new TimeFragmentSpill(directory, 4 * SEGMENT_BYTES);
+        Assert.assertFalse(directory.exists());
+
+        final ArthasMethod length = ArthasMethod.newMethod(String.class.getMethod("length"));
+        final ArthasMethod hashCode = ArthasMethod.newMethod(String.class.getMethod("hashCode"));
+        Assert.assertTrue(spill.append(1000, returning(length, "abc", 1.5, 100), new byte[]{1, 2, 3}));
+        Assert.assertTrue(spill.append(1001, throwing(hashCode, 200), null));
+        // 跳过的编号视为已删除
+        Assert.assertTrue(spill.append(1003, returning(length, null, 3, 300), new byte[0]));
+        Assert.assertTrue(directory.isDirectory());
+        Assert.assertEquals(3, spill.size());
+        Assert.assertEquals(1000, spill.getFirstIndex());
+        Assert.assertEquals(1004, spill.getNextIndex());
+
+        final TimeFragment first = spill.get(1000);
+        Assert.assertEquals(100, first.getGmtCreate().getTime());
+        Assert.assertEquals(1.5, first.getCost(), 0);
+        Assert.assertTrue(first.isReturn());
+        Assert.assertFalse(first.isThrow());
+        Assert.assertSame(String.class, first.getClazz());
+        Assert.assertSame(length, first.getMethod());
+        Assert.assertFalse(first.isTargetNull());
+        Assert.assertEquals("abc".hashCode(), first.getTargetHashCode());
+        Assert.assertTrue(first.isSnapshotOnly());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, spill.readSnapshot(1000));
+
+        final TimeFragment second = spill.get(1001);
+        Assert.assertTrue(second.isThrow());
+        Assert.assertSame(hashCode, second.getMethod());
+        Assert.assertNull(spill.readSnapshot(1001));
+
+        Assert.assertNull(spill.get(1002));
+        Assert.assertNull(spill.get(999));
+        Assert.assertNull(spill.get(1004));
+        Assert.assertTrue(spill.get(1003).isTargetNull());
+        Assert.assertArrayEquals(new byte[0], spill.readSnapshot(1003));
+
+        Assert.assertTrue(spill.remove(1001));
+        Assert.assertFalse(spill.remove(1001));
+        Assert.assertNull(spill.get(1001));
+        Assert.assertEquals(2, spill.size());
+
+        Assert.assertEquals(2, spill.clear());
+        Assert.assertFalse(directory.exists());
+        Assert.assertEquals(0, spill.size());
+        Assert.assertNull(spill.get(1000));
+    }
+
+    @Test
+    public void testList() throws Exception {
+        final TimeFragmentSpill spill = new TimeFragmentSpill(directory, 4 * SEGMENT_BYTES);
+        final ArthasMethod length = ArthasMethod.newMethod(String.class.getMethod("length"));
+        final ArthasMethod hashCode = ArthasMethod.newMethod(String.class.getMethod("hashCode"));
+        for (int index = 0; index < 10; index++) {
+            spill.append(index, returning(index % 2 == 0 ? length : hashCode, "abc", 1, index), null);
+        }
+        spill.remove(4);
+
+        final Map<Integer, TimeFragment> result = new LinkedHashMap<Integer, TimeFragment>();
+        Assert.assertEquals(3, spill.list(0, 3, null, result));
+        Assert.assertEquals(Arrays.asList(0, 1, 2), Arrays.asList(result.keySet().toArray()));
+
+        result.clear();
+        Assert.assertEquals(10, spill.list(0, 100,
+                spill.matchMethods(new TrueMatcher<String>(), new EqualsMatcher<String>("length")), result));
+        Assert.assertEquals(Arrays.asList(0, 2, 6, 8), Arrays.asList(result.keySet().toArray()));
+
+        result.clear();
+        spill.list(0, 100, spill.matchMethods(new EqualsMatcher<String>("java.lang.Integer"),
+                new TrueMatcher<String>()), result);
+        Assert.assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        // 4个段文件, 每个段文件保存3个快照
+        final TimeFragmentSpill spill = new TimeFragmentSpill(directory, 4 * SEGMENT_BYTES);
+        final ArthasMethod length = ArthasMethod.newMethod(String.class.getMethod("length"));
+        for (int index = 0; index < 12; index++) {
+            Assert.assertTrue(spill.append(index, returning(length, "abc", 1, index), snapshot(index)));
+        }
+        Assert.assertEquals(12, spill.size());
+        Assert.assertEquals(0, spill.getDropped());
+        Assert.assertTrue(new File(directory, "segment-0.dat").exists());
+
+        // 第5个段文件替换最老的段文件, 其中的记录一起删除
+        spill.append(12, returning(length, "abc", 1, 12), snapshot(12));
+        Assert.assertFalse(new File(directory, "segment-0.dat").exists());
+        Assert.assertTrue(new File(directory, "segment-4.dat").exists());
+        Assert.assertEquals(3, spill.getFirstIndex());
+        Assert.assertEquals(10, spill.size());
+        Assert.assertEquals(3, spill.getDropped());
+        Assert.assertNull(spill.get(2));
+        Assert.assertNull(spill.readSnapshot(2));
+        for (int index = 3; index <= 12; index++) {
+            Assert.assertArrayEquals(snapshot(index), spill.readSnapshot(index));
+        }
+
+        // 超过段文件大小的快照只保存索引
+        spill.append(13, returning(length, "abc", 1, 13), new byte[SEGMENT_BYTES + 1]);
+        Assert.assertNotNull(spill.get(13));
+        Assert.assertNull(spill.readSnapshot(13));
+
+        // 缩小磁盘上限后, 下次切换段文件时删除多出的段文件
+        spill.resize(2 * SEGMENT_BYTES);
+        for (int index = 14; index <= 16; index++) {
+            spill.append(index, returning(length, "abc", 1, index), snapshot(index));
+        }
+        Assert.assertEquals(12, spill.getFirstIndex());
+        Assert.assertNull(spill.get(11));
+        Assert.assertArrayEquals(snapshot(12), spill.readSnapshot(12));
+        Assert.assertArrayEquals(snapshot(16), spill.readSnapshot(16));
+        Assert.assertEquals(5, spill.size());
+        Assert.assertEquals(12, spill.getDropped());
+    }
+
+    @Test
+    public void testDeleteStale() throws Exception {
+        final File root = temporaryFolder.getRoot();
+        final File current = new File(root, Constants.PID + "-2");
+        final File previous = new File(root, Constants.PID + "-1");
+        final File other = new File(root, "1-1");
+        final File unknown = new File(root, "spill-1");
+        for (File dir : new File[]{current, previous, other, unknown}) {
+            Assert.assertTrue(dir.mkdir());
+        }
+        Assert.assertTrue(new File(previous, "segment-0.dat").createNewFile());
+
+        // 本进程之前留下的目录被删除, 本次使用的目录、仍在运行的进程和不认识的目录保留
+        Assert.assertEquals(1, TimeFragmentSpill.deleteStale(root, current));
+        Assert.assertFalse(previous.exists());
+        Assert.assertTrue(current.exists());
+        Assert.assertTrue(other.exists());
+        Assert.assertTrue(unknown.exists());
+
+        // 第一次写入时清理
+        final File spillRoot = new File(root, "tt-spill");
+        final File stale = new File(spillRoot, Constants.PID + "-0");
+        Assert.assertTrue(stale.mkdirs());
+        final TimeFragmentSpill spill =
+                new TimeFragmentSpill(new File(spillRoot, Constants.PID + "-1"), 4 * SEGMENT_BYTES);
+        Assert.assertTrue(stale.exists());
+        spill.append(0, returning(ArthasMethod.newMethod(String.class.getMethod("length")), "abc", 1, 0), snapshot(0));
+        Assert.assertFalse(stale.exists());
+        Assert.assertTrue(spill.getDirectory().isDirectory());
+        spill.clear();
+        Assert.assertFalse(spill.getDirectory().exists());
+    }
+
+    // 每个段文件恰好能保存3个
+    private static byte[] snapshot(int index) {
+        final byte[] data = new byte[SEGMENT_BYTES / 3];
+        Arrays.fill(data, (byte) index);
+        return data;
+    }
+
+    private static TimeFragment returning(ArthasMethod method, Object target, double cost, long time) {
+        return new TimeFragment(Advice.newForAfterRetuning(TimeFragmentSpillTest.class.getClassLoader(),
+                String.class, method, target, new Object[0], null), new Date(time), cost);
+    }
+
+    private static TimeFragment throwing(ArthasMethod method, long time) {
+        return new TimeFragment(Advice.newForAfterThrowing(TimeFragmentSpillTest.class.getClassLoader(),
+                String.class, method, "abc", new Object[0], new IllegalStateException()), new Date(time), 2);
+    }
+
+}
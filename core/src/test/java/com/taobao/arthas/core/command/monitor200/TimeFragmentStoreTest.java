@@ -0,0 +1,29 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimeFragmentStoreTest {
+
+    @Test
+    public void testConfigureKeepsLimit() throws Exception {
+        final TimeFragmentStore store = new TimeFragmentStore();
+        store.configure(5000, 0, 0);
+        final int first = store.put(TimeFragmentIndexTest.returning(String.class, "length", 1, 0), null);
+        for (int time = 1; time < 3000; time++) {
+            store.put(TimeFragmentIndexTest.returning(String.class, "length", 1, time), null);
+        }
+        Assert.assertEquals(3000, store.size());
+
+        // 未指定上限时不淘汰已有的记录
+        store.configure(0, 0, 0);
+        Assert.assertEquals(3000, store.size());
+        Assert.assertEquals(0, store.getEvicted());
+
+        store.configure(1000, 0, 0);
+        Assert.assertEquals(1000, store.size());
+        Assert.assertNull(store.get(first + 1999));
+        Assert.assertNotNull(store.get(first + 2000));
+    }
+
+}
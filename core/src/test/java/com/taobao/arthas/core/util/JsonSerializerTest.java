@@ -0,0 +1,215 @@
+package com.taobao.arthas.core.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class JsonSerializerTest {
+
+    @Test
+    public void testScalars() {
+        JsonSerializer serializer = new JsonSerializer(1, 1024);
+        Assert.assertEquals("null", serializer.serialize(null));
+        Assert.assertEquals("-42", serializer.serialize(-42));
+        Assert.assertEquals("1.5", serializer.serialize(1.5d));
+        Assert.assertEquals("\"NaN\"", serializer.serialize(Double.NaN));
+        Assert.assertEquals("\"a\\\"b\\\\c\\n\\u0001\"", serializer.serialize("a\"b\\c\n\u0001"));
+        Assert.assertEquals("\"SECONDS\"", serializer.serialize(TimeUnit.SECONDS));
+        Assert.assertEquals("\"java.lang.String\"", serializer.serialize(String.class));
+        Assert.assertEquals("123", serializer.serialize(new Date(123)));
+        Assert.assertEquals("[1,2,3]", serializer.serialize(new int[]{1, 2, 3}));
+    }
+
+    @Test
+    public void testObject() {
+        Child child = new Child();
+        child.values.add("a");
+        child.values.add(null);
+        JSONObject json = JSON.parseObject(new JsonSerializer(2, 1024).serialize(child));
+
+        Assert.assertEquals(Child.class.getName(), json.getString("@class"));
+        Assert.assertEquals("foo", json.getString("name"));
+        Assert.assertEquals(7, json.getIntValue("id"));
+        Assert.assertEquals(2, json.getJSONArray("values").size());
+        // getter不会被调用, 静态字段不输出
+        Assert.assertFalse(json.containsKey("computed"));
+        Assert.assertFalse(json.containsKey("COUNT"));
+        Assert.assertEquals(0, Child.getterCalls);
+    }
+
+    @Test
+    public void testDepthAndCycle() {
+        Node root = new Node();
+        root.next = root;
+        root.children.add(new Node());
+        JSONObject json = JSON.parseObject(new JsonSerializer(1, 1024).serialize(root));
+
+        Assert.assertEquals(Node.class.getName(), json.getJSONObject("next").getString("@cycle"));
+        JSONObject children = json.getJSONObject("children");
+        Assert.assertEquals(ArrayList.class.getName(), children.getString("@class"));
+        Assert.assertEquals(1, children.getIntValue("size"));
+    }
+
+    @Test
+    public void testThrowable() {
+        Exception e = new IllegalStateException("boom", new RuntimeException("cause"));
+        JSONObject json = JSON.parseObject(new JsonSerializer(1, 64 * 1024).serialize(e));
+
+        Assert.assertEquals("java.lang.IllegalStateException", json.getString("@class"));
+        Assert.assertEquals("boom", json.getString("message"));
+        Assert.assertTrue(json.getJSONArray("stackTrace").size() > 0);
+        Assert.assertEquals("cause", json.getJSONObject("cause").getString("message"));
+    }
+
+    @Test
+    public void testLimit() {
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            values.add("value-" + i);
+        }
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        record.put("ts", 1L);
+        record.put("result", values);
+        String line = new JsonSerializer(1, 100).serializeRecord(record);
+
+        // 截断后仍是合法的JSON, 以...结尾
+        JSONArray result = JSON.parseObject(line).getJSONArray("result");
+        Assert.assertTrue(result.size() < values.size());
+        Assert.assertEquals("...", result.get(result.size() - 1));
+        Assert.assertEquals(-1, line.indexOf('\n'));
+    }
+
+    @Test
+    public void testBrokenIteration() {
+        Map<String, Object> map = new BrokenMap();
+        List<Object> values = new ArrayList<Object>();
+        values.add(1);
+        values.add(map);
+        values.add(new BrokenException());
+        values.add(2);
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        record.put("result", new BrokenCollection(values, 3));
+        record.put("next", "ok");
+
+        // 遍历时抛出异常后容器正常结束, 结果仍是合法的JSON
+        JSONObject json = JSON.parseObject(new JsonSerializer(3, 64 * 1024).serializeRecord(record));
+        JSONArray result = json.getJSONArray("result");
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals(1, result.get(0));
+        Assert.assertEquals(1, result.getJSONObject(1).size());
+        Assert.assertEquals("bar", result.getJSONObject(1).get("foo"));
+        Assert.assertEquals(BrokenException.class.getName(), result.getJSONObject(2).get("@class"));
+        Assert.assertTrue(result.getJSONObject(2).containsKey("message"));
+        Assert.assertNull(result.getJSONObject(2).get("message"));
+        Assert.assertEquals("ok", json.get("next"));
+    }
+
+    /**
+     * 取出指定个数的元素后抛出ConcurrentModificationException
+     */
+    static class BrokenCollection extends AbstractCollection<Object> {
+        private final List<?> values;
+        private final int limit;
+
+        BrokenCollection(List<?> values, int limit) {
+            this.values = values;
+            this.limit = limit;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    return index < values.size();
+                }
+
+                @Override
+                public Object next() {
+                    if (index >= limit) {
+                        throw new ConcurrentModificationException();
+                    }
+                    return values.get(index++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+    }
+
+    static class BrokenMap extends AbstractMap<String, Object> {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<Entry<String, Object>> entrySet() {
+            final List<Object> entries = new ArrayList<Object>();
+            entries.add(new SimpleEntry<String, Object>("foo", "bar"));
+            entries.add(new SimpleEntry<String, Object>("baz", "qux"));
+            final BrokenCollection collection = new BrokenCollection(entries, 1);
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return (Iterator) collection.iterator();
+                }
+
+                @Override
+                public int size() {
+                    return collection.size();
+                }
+            };
+        }
+    }
+
+    static class BrokenException extends RuntimeException {
+        @Override
+        public String getMessage() {
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    static class Parent {
+        private int id = 7;
+    }
+
+    static class Child extends Parent {
+        private static int COUNT = 1;
+        static int getterCalls = 0;
+        private String name = "foo";
+        private List<String> values = new ArrayList<String>();
+
+        public String getComputed() {
+            getterCalls++;
+            return "computed";
+        }
+    }
+
+    static class Node {
+        private Node next;
+        private List<Node> children = new ArrayList<Node>();
+    }
+
+}
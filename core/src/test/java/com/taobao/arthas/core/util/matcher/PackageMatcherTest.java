@@ -0,0 +1,40 @@
+package com.taobao.arthas.core.util.matcher;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackageMatcherTest {
+
+    @Test
+    public void testEmpty() {
+        PackageMatcher matcher = new PackageMatcher();
+        Assert.assertTrue(matcher.isEmpty());
+        Assert.assertTrue(matcher.matching("java/lang/String"));
+        Assert.assertTrue(matcher.matching("Foo"));
+    }
+
+    @Test
+    public void testExclude() {
+        PackageMatcher matcher = new PackageMatcher().exclude("java").exclude("io.netty");
+        Assert.assertFalse(matcher.isEmpty());
+        Assert.assertFalse(matcher.matching("java/lang/String"));
+        Assert.assertFalse(matcher.matching("io/netty/util/Recycler"));
+        Assert.assertFalse(matcher.matching("io.netty.util.Recycler"));
+        Assert.assertTrue(matcher.matching("javax/servlet/Filter"));
+        Assert.assertTrue(matcher.matching("io/nettyx/Foo"));
+        Assert.assertTrue(matcher.matching("com/foo/Bar"));
+    }
+
+    @Test
+    public void testLongestRuleWins() {
+        PackageMatcher matcher = new PackageMatcher().include("com.foo").exclude("com.foo.util")
+                .include("com.foo.util.Important");
+        Assert.assertTrue(matcher.matching("com/foo/Bar"));
+        Assert.assertFalse(matcher.matching("com/foo/util/Strings"));
+        Assert.assertTrue(matcher.matching("com/foo/util/Important"));
+        // 有包含规则时,未命中任何规则的类不匹配
+        Assert.assertFalse(matcher.matching("org/bar/Baz"));
+        Assert.assertFalse(matcher.matching("com/Foo"));
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.taobao.arthas.core.util.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketIndex() {
+        Assert.assertEquals(0, LatencyHistogram.bucketIndex(0));
+        Assert.assertEquals(31, LatencyHistogram.bucketIndex(31));
+        Assert.assertEquals(32, LatencyHistogram.bucketIndex(32));
+        Assert.assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testBucketUpperBound() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 123456789L, Long.MAX_VALUE}) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            final long upper = LatencyHistogram.bucketUpperBound(index);
+            Assert.assertTrue(upper >= value);
+            // 相对误差不超过1/32
+            Assert.assertTrue(upper - value <= value / 32);
+            if (index + 1 < LatencyHistogram.BUCKET_COUNT) {
+                Assert.assertEquals(index + 1, LatencyHistogram.bucketIndex(upper + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshotThenReset();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000000L, snapshot.getMax());
+        assertNear(500000L, snapshot.getValueAtPercentile(50));
+        assertNear(990000L, snapshot.getValueAtPercentile(99));
+        Assert.assertEquals(1000000L, snapshot.getValueAtPercentile(100));
+
+        Assert.assertEquals(0, histogram.snapshotThenReset().getCount());
+    }
+
+    @Test
+    public void testMerge() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(20);
+        b.record(-1);
+        LatencyHistogram.Snapshot snapshot = a.snapshotThenReset();
+        snapshot.add(b.snapshotThenReset());
+        Assert.assertEquals(3, snapshot.getCount());
+        Assert.assertEquals(20, snapshot.getMax());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(0));
+    }
+
+    private static void assertNear(long expect, long actual) {
+        Assert.assertTrue("expect " + expect + " but " + actual, Math.abs(expect - actual) <= expect / 32);
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.taobao.arthas.core.util.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class StripedCounterTest {
+
+    @Test
+    public void testAddAndSum() {
+        StripedCounter counter = new StripedCounter(3);
+        counter.add(0, 1);
+        counter.add(1, 2, 2, 3);
+        counter.add(0, 1, 1, 1, 2, 1);
+        Assert.assertEquals(2, counter.sum(0));
+        Assert.assertEquals(3, counter.sum(1));
+        Assert.assertEquals(4, counter.sum(2));
+    }
+
+    @Test
+    public void testSumThenReset() {
+        StripedCounter counter = new StripedCounter(2);
+        counter.add(0, 5);
+        counter.add(1, 7);
+        Assert.assertEquals(5, counter.sumThenReset(0));
+        Assert.assertEquals(0, counter.sum(0));
+        Assert.assertEquals(7, counter.sum(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalCounters() {
+        new StripedCounter(0);
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter(2);
+        final int threads = 8;
+        final int loops = 100000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < loops; j++) {
+                        counter.add(0, 1, 1, 2);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        Assert.assertEquals((long) threads * loops, counter.sum(0));
+        Assert.assertEquals(2L * threads * loops, counter.sum(1));
+    }
+
+}
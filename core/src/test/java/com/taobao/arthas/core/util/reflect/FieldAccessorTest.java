@@ -0,0 +1,52 @@
+package com.taobao.arthas.core.util.reflect;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FieldAccessorTest {
+
+    @Test
+    public void testDeclaredFields() throws Exception {
+        FieldAccessor accessor = FieldAccessor.of(Child.class);
+        List<String> names = new ArrayList<String>();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < accessor.size(); i++) {
+            names.add(accessor.getName(i));
+        }
+        for (Field field : Child.class.getDeclaredFields()) {
+            expected.add(field.getName());
+        }
+        // 与getDeclaredFields顺序一致, 包括静态字段, 不包括父类的字段
+        Assert.assertEquals(expected, names);
+        Assert.assertTrue(names.containsAll(Arrays.asList("name", "count", "COUNTER")));
+        Assert.assertFalse(names.contains("id"));
+
+        Child child = new Child();
+        Assert.assertEquals("foo", accessor.get(child, names.indexOf("name")));
+        Assert.assertEquals(3, accessor.get(child, names.indexOf("count")));
+        Assert.assertEquals(42L, accessor.get(null, names.indexOf("COUNTER")));
+    }
+
+    @Test
+    public void testCached() {
+        Assert.assertSame(FieldAccessor.of(Child.class), FieldAccessor.of(Child.class));
+        Assert.assertEquals(0, FieldAccessor.of(Object.class).size());
+        Assert.assertTrue(FieldAccessor.cachedClasses() <= FieldAccessor.MAX_CACHED_CLASSES);
+    }
+
+    static class Parent {
+        private int id = 1;
+    }
+
+    static class Child extends Parent {
+        private static final long COUNTER = 42L;
+        private String name = "foo";
+        private int count = 3;
+    }
+
+}
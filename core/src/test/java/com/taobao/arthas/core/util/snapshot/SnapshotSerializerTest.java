@@ -0,0 +1,273 @@
+package com.taobao.arthas.core.util.snapshot;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class SnapshotSerializerTest {
+
+    @Test
+    public void testScalars() {
+        Date date = new Date();
+        Object[] roots = new Object[]{null, true, (byte) -1, (short) -300, 'c', -42, Long.MIN_VALUE, 1.5f,
+                Double.NaN, "hello 世界", date, TimeUnit.SECONDS, String.class};
+        Object[] result = roundTrip(new SnapshotSerializer(1, 1024), roots);
+
+        Assert.assertEquals(Arrays.asList(roots).subList(0, 11), Arrays.asList(result).subList(0, 11));
+        Assert.assertEquals("java.util.concurrent.TimeUnit", ((SnapshotValue) result[11]).getClassName());
+        Assert.assertEquals("SECONDS", result[11].toString());
+        Assert.assertEquals("java.lang.String", result[12].toString());
+    }
+
+    @Test
+    public void testObject() {
+        Child child = new Child();
+        child.name = "foo";
+        child.values = new int[]{1, 2};
+        Object[] result = roundTrip(new SnapshotSerializer(2, 1024), new Object[]{child});
+
+        SnapshotObject object = (SnapshotObject) result[0];
+        Assert.assertEquals(Child.class.getName(), object.getClassName());
+        Assert.assertEquals("Child", object.getSimpleClassName());
+        // 子类的字段在前, 不包括静态字段
+        Assert.assertEquals(Arrays.asList("name", "values", "id"), new ArrayList<String>(object.keySet()));
+        Assert.assertEquals("foo", object.get("name"));
+        Assert.assertEquals(7, object.get("id"));
+        SnapshotArray values = (SnapshotArray) object.get("values");
+        Assert.assertTrue(values.isArray());
+        Assert.assertEquals("int[]", values.getSimpleClassName());
+        Assert.assertEquals(Arrays.<Object>asList(1, 2), values);
+    }
+
+    @Test
+    public void testDepth() {
+        List<Object> list = new ArrayList<Object>();
+        list.add(Arrays.asList("a", "b"));
+        list.add(new Child());
+        Object[] result = roundTrip(new SnapshotSerializer(1, 1024), new Object[]{list, new Child()});
+
+        SnapshotArray array = (SnapshotArray) result[0];
+        Assert.assertEquals("isEmpty=false;size=2", array.get(0).toString());
+        Assert.assertEquals("child", array.get(1).toString());
+        Assert.assertTrue(result[1] instanceof SnapshotObject);
+
+        result = roundTrip(new SnapshotSerializer(0, 1024), new Object[]{new Child()});
+        Assert.assertEquals("child", result[0].toString());
+    }
+
+    @Test
+    public void testCycle() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("self", map);
+        List<Object> list = new ArrayList<Object>();
+        list.add(map);
+        list.add(map);
+        Object[] result = roundTrip(new SnapshotSerializer(8, 1024), new Object[]{list});
+
+        SnapshotArray array = (SnapshotArray) result[0];
+        SnapshotMap first = (SnapshotMap) array.get(0);
+        Assert.assertSame(first, array.get(1));
+        Assert.assertSame(first, first.get("self"));
+    }
+
+    @Test
+    public void testThrowable() {
+        Exception exception = new IllegalStateException("outer", new RuntimeException("inner"));
+        Object[] result = roundTrip(new SnapshotSerializer(0, 64 * 1024), new Object[]{exception});
+
+        SnapshotThrowable throwable = (SnapshotThrowable) result[0];
+        Assert.assertEquals("java.lang.IllegalStateException: outer", throwable.toString());
+        // 只保存类名、方法名、文件名和行号, JDK9以上的模块和类加载器信息不比较
+        StackTraceElement[] expected = exception.getStackTrace();
+        StackTraceElement[] actual = throwable.getStackTrace();
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i].getClassName(), actual[i].getClassName());
+            Assert.assertEquals(expected[i].getMethodName(), actual[i].getMethodName());
+            Assert.assertEquals(expected[i].getFileName(), actual[i].getFileName());
+            Assert.assertEquals(expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+        Assert.assertEquals("java.lang.RuntimeException: inner", throwable.getCause().toString());
+    }
+
+    @Test
+    public void testLimit() {
+        List<Object> list = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(i);
+        }
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        SnapshotSerializer serializer = new SnapshotSerializer(1, 100);
+
+        byte[] data = serializer.serialize(new Object[]{new String(chars), list, "next"});
+        Assert.assertTrue(data.length < 200);
+        Object[] result = SnapshotSerializer.deserialize(data);
+        Assert.assertTrue(result[0].toString().endsWith("..."));
+        Assert.assertSame(SnapshotValue.TRUNCATED, result[1]);
+        Assert.assertSame(SnapshotValue.TRUNCATED, result[2]);
+
+        data = serializer.serialize(new Object[]{list, "next"});
+        result = SnapshotSerializer.deserialize(data);
+        SnapshotArray array = (SnapshotArray) result[0];
+        Assert.assertTrue(array.size() < 1000);
+        Assert.assertSame(SnapshotValue.TRUNCATED, array.get(array.size() - 1));
+        Assert.assertSame(SnapshotValue.TRUNCATED, result[1]);
+    }
+
+    @Test
+    public void testMaxElements() {
+        List<Object> list = new ArrayList<Object>();
+        Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(i);
+            map.put(i, "v" + i);
+        }
+        SnapshotSerializer serializer = new SnapshotSerializer(2, 64 * 1024, 3);
+        byte[] data = serializer.serialize(new Object[]{list, map, new long[1000], Arrays.asList(1, 2, 3), "next"});
+        Assert.assertTrue(data.length < 200);
+        Object[] result = SnapshotSerializer.deserialize(data);
+
+        // 只保存前几个元素和省略的个数
+        SnapshotArray array = (SnapshotArray) result[0];
+        Assert.assertEquals(Arrays.<Object>asList(0, 1, 2), array);
+        Assert.assertEquals(997, array.getOmitted());
+        Assert.assertEquals("isEmpty=false;size=1000", array.toString());
+        SnapshotMap snapshotMap = (SnapshotMap) result[1];
+        Assert.assertEquals(Arrays.<Object>asList(0, 1, 2), new ArrayList<Object>(snapshotMap.keySet()));
+        Assert.assertEquals("v2", snapshotMap.get(2));
+        Assert.assertEquals(997, snapshotMap.getOmitted());
+        SnapshotArray longs = (SnapshotArray) result[2];
+        Assert.assertEquals(3, longs.size());
+        Assert.assertEquals(997, longs.getOmitted());
+        // 恰好达到上限时不省略
+        Assert.assertEquals(0, ((SnapshotArray) result[3]).getOmitted());
+        Assert.assertEquals("next", result[4]);
+
+        // 不大于0时不限制
+        array = (SnapshotArray) roundTrip(new SnapshotSerializer(1, 64 * 1024, 0), new Object[]{list})[0];
+        Assert.assertEquals(1000, array.size());
+        Assert.assertEquals(0, array.getOmitted());
+    }
+
+    @Test
+    public void testBrokenIteration() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>() {
+            @Override
+            public Set<Map.Entry<String, Object>> entrySet() {
+                final Set<Map.Entry<String, Object>> entries = super.entrySet();
+                return new AbstractSet<Map.Entry<String, Object>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, Object>> iterator() {
+                        return brokenIterator(entries.iterator(), 1);
+                    }
+
+                    @Override
+                    public int size() {
+                        return entries.size();
+                    }
+                };
+            }
+        };
+        map.put("foo", "bar");
+        map.put("baz", "qux");
+        final List<Object> values = new ArrayList<Object>(Arrays.asList(1, map, new BrokenException(), 2));
+        List<Object> list = new AbstractList<Object>() {
+            @Override
+            public Object get(int index) {
+                return values.get(index);
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+
+            @Override
+            public Iterator<Object> iterator() {
+                return brokenIterator(values.iterator(), 3);
+            }
+        };
+
+        // 遍历时抛出异常后容器正常结束, 之后的值不受影响
+        Object[] result = roundTrip(new SnapshotSerializer(3, 64 * 1024), new Object[]{list, "next"});
+        SnapshotArray array = (SnapshotArray) result[0];
+        Assert.assertEquals(3, array.size());
+        Assert.assertEquals(1, array.get(0));
+        Assert.assertEquals(1, ((SnapshotMap) array.get(1)).size());
+        Assert.assertEquals("bar", ((SnapshotMap) array.get(1)).get("foo"));
+        Assert.assertNull(((SnapshotThrowable) array.get(2)).getMessage());
+        Assert.assertEquals("next", result[1]);
+    }
+
+    /**
+     * 取出指定个数的元素后抛出ConcurrentModificationException
+     */
+    private static <T> Iterator<T> brokenIterator(final Iterator<T> iterator, final int limit) {
+        return new Iterator<T>() {
+            private int count;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (count++ >= limit) {
+                    throw new ConcurrentModificationException();
+                }
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static class BrokenException extends RuntimeException {
+        @Override
+        public String getMessage() {
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    private static Object[] roundTrip(SnapshotSerializer serializer, Object[] roots) {
+        return SnapshotSerializer.deserialize(serializer.serialize(roots));
+    }
+
+    private static class Parent {
+        private static int counter = 0;
+        int id = 7;
+
+        @Override
+        public String toString() {
+            return "parent";
+        }
+    }
+
+    private static class Child extends Parent {
+        String name;
+        int[] values;
+
+        @Override
+        public String toString() {
+            return "child";
+        }
+    }
+
+}
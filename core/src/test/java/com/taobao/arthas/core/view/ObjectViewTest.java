@@ -1,8 +1,11 @@
 package com.taobao.arthas.core.view;
 
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.util.snapshot.SnapshotSerializer;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
@@ -246,6 +249,95 @@ public class ObjectViewTest {
         Assert.assertEquals(expected, objectView.draw());
     }
 
+    @Test
+    public void testSnapshot() {
+        Pojo pojo = new Pojo();
+        pojo.names.add("aaa");
+        pojo.tags.put("key", new int[]{1});
+        Object snapshot = SnapshotSerializer.deserialize(
+                new SnapshotSerializer(2, 1024).serialize(new Object[]{pojo}))[0];
+        // 快照与原对象的展示结果一致
+        Assert.assertEquals(new ObjectView(pojo, 2).draw(), new ObjectView(snapshot, 2).draw());
+        Assert.assertEquals(new ObjectView(pojo, 1).draw(), new ObjectView(snapshot, 1).draw());
+    }
+
+    @Test
+    public void testStringTooLarge() {
+        ObjectView objectView = new ObjectView("abc\ndefghijklmn", 3, 16);
+        // 字符串保留能放下的部分
+        Assert.assertEquals("@String[abc\\ndef Object size exceeds size limit: 16, try to specify -M size_limit in your command, check the help command for more.",
+                objectView.draw());
+    }
+
+    @Test
+    public void testMaxElements() {
+        int maxElements = GlobalOptions.maxElements;
+        GlobalOptions.maxElements = 2;
+        try {
+            List<String> data = new ArrayList<String>();
+            data.add("aaa");
+            data.add("bbb");
+            data.add("ccc");
+            data.add("ddd");
+            String expected = "@ArrayList[\n" +
+                    "    @String[aaa],\n" +
+                    "    @String[bbb],\n" +
+                    "    ...(2 more)\n" +
+                    "]";
+            Assert.assertEquals(expected, new ObjectView(data, 3).draw());
+            Assert.assertEquals("@int[][\n" +
+                    "    @Integer[1],\n" +
+                    "    @Integer[2],\n" +
+                    "    ...(1 more)\n" +
+                    "]", new ObjectView(new int[]{1, 2, 3}, 3).draw());
+
+            // 快照只保存了前两个元素, 展示结果与原对象一致
+            Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+            map.put("a", 1);
+            map.put("b", 2);
+            map.put("c", 3);
+            Object[] roots = new Object[]{data, new int[]{1, 2, 3}, map};
+            Object[] snapshots = SnapshotSerializer.deserialize(new SnapshotSerializer(2, 1024).serialize(roots));
+            for (int i = 0; i < roots.length; i++) {
+                Assert.assertEquals(new ObjectView(roots[i], 3).draw(), new ObjectView(snapshots[i], 3).draw());
+                Assert.assertEquals(new ObjectView(roots[i], 0).draw(), new ObjectView(snapshots[i], 0).draw());
+            }
+        } finally {
+            GlobalOptions.maxElements = maxElements;
+        }
+    }
+
+    @Test
+    public void testDrawInChunks() throws Exception {
+        List<String> data = new ArrayList<String>();
+        for (int i = 0; i < 900; i++) {
+            data.add("value-" + i);
+        }
+        final List<String> chunks = new ArrayList<String>();
+        new ObjectView(data, 3).draw(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                chunks.add(new String(cbuf, off, len));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        Assert.assertTrue(chunks.size() > 1);
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < chunks.size(); i++) {
+            // 除最后一块外都按整行写出
+            Assert.assertTrue(i == chunks.size() - 1 || chunks.get(i).endsWith("\n"));
+            joined.append(chunks.get(i));
+        }
+        Assert.assertEquals(new ObjectView(data, 3).draw(), joined.toString());
+    }
+
     private String replaceHashCode(String input) {
         return input.replaceAll("@[0-9a-f]+", "@ffffffff");
     }
@@ -266,4 +358,12 @@ public class ObjectViewTest {
             return new NestedClass(code);
         }
     }
+
+    private static class Pojo {
+
+        private int code = 1;
+        private String name = "pojo";
+        private List<String> names = new ArrayList<String>();
+        private Map<String, int[]> tags = new LinkedHashMap<String, int[]>();
+    }
 }
@@ -28,6 +28,12 @@ public class Spy {
      */
     public static volatile Method AGENT_RESET_METHOD;
 
+    /**
+     * 通知派发器<br/>
+     * 织入代码直接调用Spy的静态入口方法，由派发器转发到AdviceWeaver，避免了Method.invoke的反射及参数装箱开销
+     */
+    public static volatile Dispatcher DISPATCHER;
+
     /**
      * 用于普通的间谍初始化
      */
@@ -59,7 +65,8 @@ public class Spy {
             Method beforeInvokingMethod,
             Method afterInvokingMethod,
             Method throwInvokingMethod,
-            Method agentResetMethod) {
+            Method agentResetMethod,
+            Dispatcher dispatcher) {
         CLASSLOADER = classLoader;
         ON_BEFORE_METHOD = onBeforeMethod;
         ON_RETURN_METHOD = onReturnMethod;
@@ -68,6 +75,68 @@ public class Spy {
         AFTER_INVOKING_METHOD = afterInvokingMethod;
         THROW_INVOKING_METHOD = throwInvokingMethod;
         AGENT_RESET_METHOD = agentResetMethod;
+        DISPATCHER = dispatcher;
+    }
+
+    /**
+     * 方法开始，由织入代码直接调用<br/>
+     * 类加载器/类名/方法名/方法描述在增强时登记到通知点表，这里只传递通知点编号siteId
+     */
+    public static void onBefore(int adviceId, int siteId, Object target, Object[] args) {
+        final Dispatcher dispatcher = DISPATCHER;
+        if (null != dispatcher) {
+            dispatcher.onBefore(adviceId, siteId, target, args);
+        }
+    }
+
+    /**
+     * 方法以返回结束，由织入代码直接调用
+     */
+    public static void onReturn(Object returnObject) {
+        final Dispatcher dispatcher = DISPATCHER;
+        if (null != dispatcher) {
+            dispatcher.onReturn(returnObject);
+        }
+    }
+
+    /**
+     * 方法以抛异常结束，由织入代码直接调用
+     */
+    public static void onThrows(Throwable throwable) {
+        final Dispatcher dispatcher = DISPATCHER;
+        if (null != dispatcher) {
+            dispatcher.onThrows(throwable);
+        }
+    }
+
+    /**
+     * 方法内部调用开始，由织入代码直接调用
+     */
+    public static void beforeInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        final Dispatcher dispatcher = DISPATCHER;
+        if (null != dispatcher) {
+            dispatcher.beforeInvoking(adviceId, owner, name, desc, lineNumber);
+        }
+    }
+
+    /**
+     * 方法内部调用结束(正常返回)，由织入代码直接调用
+     */
+    public static void afterInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        final Dispatcher dispatcher = DISPATCHER;
+        if (null != dispatcher) {
+            dispatcher.afterInvoking(adviceId, owner, name, desc, lineNumber);
+        }
+    }
+
+    /**
+     * 方法内部调用结束(异常返回)，由织入代码直接调用
+     */
+    public static void throwInvoking(int adviceId, String owner, String name, String desc, int lineNumber) {
+        final Dispatcher dispatcher = DISPATCHER;
+        if (null != dispatcher) {
+            dispatcher.throwInvoking(adviceId, owner, name, desc, lineNumber);
+        }
     }
 
     /**
@@ -82,6 +151,7 @@ public class Spy {
         BEFORE_INVOKING_METHOD = null;
         AFTER_INVOKING_METHOD = null;
         THROW_INVOKING_METHOD = null;
+        DISPATCHER = null;
         // clear the reference to ArthasClassLoader in AgentLauncher
         if (AGENT_RESET_METHOD != null) {
             try {
@@ -93,4 +163,24 @@ public class Spy {
         AGENT_RESET_METHOD = null;
     }
 
+    /**
+     * 通知派发器<br/>
+     * 由ArthasClassLoader中的实现类继承，在代理启动时绑定一次
+     */
+    public static abstract class Dispatcher {
+
+        public abstract void onBefore(int adviceId, int siteId, Object target, Object[] args);
+
+        public abstract void onReturn(Object returnObject);
+
+        public abstract void onThrows(Throwable throwable);
+
+        public abstract void beforeInvoking(int adviceId, String owner, String name, String desc, int lineNumber);
+
+        public abstract void afterInvoking(int adviceId, String owner, String name, String desc, int lineNumber);
+
+        public abstract void throwInvoking(int adviceId, String owner, String name, String desc, int lineNumber);
+
+    }
+
 }